@@ -3,34 +3,80 @@ package com.fansz.apns;
 import com.fansz.apns.connection.ApnsConnection;
 import com.fansz.apns.connection.FeedbackServiceConnection;
 import com.fansz.apns.listener.ApnsConnectionListener;
+import com.fansz.apns.listener.ConnectionDrainingListener;
 import com.fansz.apns.listener.FeedbackServiceListener;
 import com.fansz.apns.support.ApnsPushNotification;
-import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.Promise;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fansz.apns.config.AdaptiveConnectionPoolConfiguration;
 import com.fansz.apns.config.ApnsEnvironment;
 import com.fansz.apns.config.PushManagerConfiguration;
+import com.fansz.apns.config.RetryConfiguration;
+import com.fansz.apns.listener.DeadLetterListener;
 import com.fansz.apns.listener.ExpiredTokenListener;
 import com.fansz.apns.listener.FailedConnectionListener;
+import com.fansz.apns.listener.RejectedNotificationBatchListener;
 import com.fansz.apns.listener.RejectedNotificationListener;
+import com.fansz.apns.util.SSLContextUtil;
+import com.fansz.apns.util.TransportUtil;
+import com.fansz.apns.model.ApnsPayload;
 import com.fansz.apns.model.ExpiredToken;
+import com.fansz.apns.model.Rejection;
+import com.fansz.apns.support.ApnsPushNotificationFactory;
+import com.fansz.apns.support.BatchingDispatcher;
+import com.fansz.apns.support.BroadcastAbortedException;
+import com.fansz.apns.support.CircuitBreaker;
+import com.fansz.apns.support.CoalescingNotificationQueue;
+import com.fansz.apns.support.DeliveryOutcome;
+import com.fansz.apns.support.DeliveryPriority;
+import com.fansz.apns.support.DeliveryReceipt;
+import com.fansz.apns.support.DeliveryTracker;
+import com.fansz.apns.support.DeviceToken;
+import com.fansz.apns.support.DeviceTokenPushNotification;
+import com.fansz.apns.support.DispatchMode;
+import com.fansz.apns.support.Histogram;
+import com.fansz.apns.support.InvalidTokenRegistry;
 import com.fansz.apns.support.RejectedNotificationReason;
+import com.fansz.apns.support.RetryScheduler;
+import com.fansz.apns.support.SpillingNotificationQueue;
+import com.fansz.apns.support.TokenBucket;
+import com.fansz.apns.support.TrafficClassQueue;
 
 /**
  * <p>
@@ -42,6 +88,21 @@ import com.fansz.apns.support.RejectedNotificationReason;
  * 在准备就绪之后，PushManager 将从队列获取要推送的消息, 无论发送成功失败，消息都将从发送队列中删除. 如果消息发送失败，将会被加入内部的重试队列；在处 理发送队列中的新消息之前
  * ，PushManager总会试发送重试队列中的消息;
  * </p>
+ * <p>
+ * 发送队列默认为先进先出的队列，需要区分消息的轻重缓急时，可以在构造时传入{@link TrafficClassQueue}，按照{@link DeliveryPriority}或者自定义的流量类别
+ * 进行严格优先级或加权调度，并限制每个类别的排队长度;
+ * 需要在突发流量下保护堆内存，或者在重启之后继续发送未完成的消息时，可以传入{@link SpillingNotificationQueue}；
+ * 同一设备在短时间内会收到多条同类通知时，可以传入{@link CoalescingNotificationQueue}在发送之前合并排队中的消息，被合并消息的投递凭证由队列转移或结束
+ * </p>
+ * <h2>分发</h2>
+ * <p>
+ * 默认由一个分发线程将消息轮流写入各个连接；当配置为{@link DispatchMode#PER_CONNECTION}时，每个连接在自身的事件循环中各自从队列中获取消息，不需要额外的线程，
+ * 此时增加连接数可以近似线性地提高发送速率 (see {@link PushManagerConfiguration#setDispatchMode(DispatchMode)}).
+ * </p>
+ * <p>
+ * 连接默认使用传统的二进制协议；将{@link com.fansz.apns.config.ApnsConnectionConfiguration#setProtocol(com.fansz.apns.support.ApnsProtocol)}
+ * 设置为HTTP/2之后，每个连接可以同时发送多条消息，被拒绝和需要重发的消息仍然通过相同的listener报告
+ * </p>
  * <h2>关闭</h2>
  * <p>
  * PushManager支持带timeout和无timeout的关闭方式，一旦进入关闭状态，PushManager将不会接受新的消息，PushManager通过要求所有连接都发送格式错误的消息给APNS，从而实现
@@ -56,19 +117,26 @@ import com.fansz.apns.support.RejectedNotificationReason;
  * </p>
  * <p>
  * 当推送的消息被APNS拒绝时，通常是因为消息格式存在问题，因此不建议在Listener中重复发送消息.
+ * 配置了{@link PushManagerConfiguration#setInvalidTokenRetentionMillis(Long)}时，Feedback Service返回的失效token和被APNS以
+ * {@link RejectedNotificationReason#INVALID_TOKEN}拒绝的token会登记在{@link #getInvalidTokenRegistry()}中，保留期内发往这些token的消息在分发时直接跳过；
  * 当连接到APNS服务失败时，系统会尝试重新连接；但在某些特殊情况下，比如SSL握手失败，此时不建议重新连接，因为通常这种场景是因为证书存在问题；
  * </p>
  *
  * @see PushManager#getQueue()
  */
-public class PushManager<T extends ApnsPushNotification> implements ApnsConnectionListener<T>, FeedbackServiceListener {
+public class PushManager<T extends ApnsPushNotification> implements ApnsConnectionListener<T>,
+        ConnectionDrainingListener<T>, FeedbackServiceListener, DeliveryTracker<T> {
     private final BlockingQueue<T> queue;
 
     private final LinkedBlockingQueue<T> retryQueue = new LinkedBlockingQueue<T>();
 
+    private final ConcurrentLinkedQueue<Broadcast> broadcasts = new ConcurrentLinkedQueue<Broadcast>();
+
+    private final ApnsPushNotificationFactory<T> pushNotificationFactory;
+
     private final ApnsEnvironment environment;
 
-    private final SSLContext sslContext;
+    private final SslContext sslContext;
 
     private final PushManagerConfiguration configuration;
 
@@ -88,19 +156,90 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
     private FeedbackServiceConnection feedbackConnection;
 
+    /** 当前查询中尚未交给listener的失效token，只在Feedback连接的事件循环中访问 */
     private List<ExpiredToken> expiredTokens;
 
-    private final List<RejectedNotificationListener<? super T>> rejectedNotificationListeners = new ArrayList<RejectedNotificationListener<? super T>>();
+    // Listeners are registered rarely and iterated for every event, so copy-on-write lists let events be dispatched
+    // without locking
+    private final List<RejectedNotificationListener<? super T>> rejectedNotificationListeners = new CopyOnWriteArrayList<RejectedNotificationListener<? super T>>();
 
-    private final List<FailedConnectionListener<? super T>> failedConnectionListeners = new ArrayList<FailedConnectionListener<? super T>>();
+    private final List<RejectedNotificationBatchListener<? super T>> rejectedNotificationBatchListeners = new CopyOnWriteArrayList<RejectedNotificationBatchListener<? super T>>();
 
-    private final List<ExpiredTokenListener<? super T>> expiredTokenListeners = new ArrayList<ExpiredTokenListener<? super T>>();
+    private final List<FailedConnectionListener<? super T>> failedConnectionListeners = new CopyOnWriteArrayList<FailedConnectionListener<? super T>>();
+
+    private final List<ExpiredTokenListener<? super T>> expiredTokenListeners = new CopyOnWriteArrayList<ExpiredTokenListener<? super T>>();
+
+    private final List<DeadLetterListener<? super T>> deadLetterListeners = new CopyOnWriteArrayList<DeadLetterListener<? super T>>();
+
+    /** 被拒绝的消息累积成批之后才交给listener线程 */
+    private final BatchingDispatcher<Rejection<T>> rejectionDispatcher;
+
+    /** {@link DispatchMode#SHARED}模式下唤醒{@link PushManagerRegistry}的分发线程，其他模式为null */
+    private final Runnable dispatchSignal;
+
+    /** 失败的消息经过退避延迟之后才回到{@link #retryQueue} */
+    private final RetryScheduler<T> retryScheduler;
+
+    /**
+     * 连续建立连接失败时暂停建立替换连接。所有连接共享一个熔断器：连接都指向同一个网关，失败通常同时发生；而且失败的连接不会重连，而是被新的连接对象替换，
+     * 保存在连接上的状态在每次替换时都会丢失
+     */
+    private final CircuitBreaker connectionCircuitBreaker;
 
     private Thread dispatchThread;
 
-    private boolean dispatchThreadShouldContinue = true;
+    private final Map<ApnsConnection<T>, ConnectionDispatcher> connectionDispatchers = new ConcurrentHashMap<ApnsConnection<T>, ConnectionDispatcher>();
+
+    private final TokenBucket admissionRateLimiter;
+
+    private final InvalidTokenRegistry invalidTokenRegistry;
+
+    private final AtomicLong skippedInvalidTokenCount = new AtomicLong(0);
+
+    private final Map<T, DeliveryReceipt> deliveryReceipts = Collections
+            .synchronizedMap(new IdentityHashMap<T, DeliveryReceipt>());
+
+    private final Histogram writeLatencyHistogram = new Histogram();
+
+    private final Histogram retryCountHistogram = new Histogram();
+
+    private final Histogram handshakeLatencyHistogram = new Histogram();
+
+    private final AtomicLong resumedHandshakeCount = new AtomicLong(0);
+
+    private final AtomicLong fullHandshakeCount = new AtomicLong(0);
+
+    private final ConcurrentLinkedQueue<PendingAdmission<T>> pendingAdmissions = new ConcurrentLinkedQueue<PendingAdmission<T>>();
+
+    private final AtomicBoolean admissionDrainScheduled = new AtomicBoolean(false);
+
+    private final AtomicInteger targetConnectionCount;
+
+    private final Set<ApnsConnection<T>> retiringConnections = Collections
+            .newSetFromMap(new ConcurrentHashMap<ApnsConnection<T>, Boolean>());
+
+    private final AtomicInteger writabilityLossCount = new AtomicInteger(0);
+
+    /** 所有备用连接，包括正在握手的连接；同时作为{@link #readyStandbyConnections}的锁 */
+    private final Set<ApnsConnection<T>> standbyConnections = new HashSet<ApnsConnection<T>>();
+
+    /** 已经完成握手、可以立即接替活动连接的备用连接 */
+    private final ArrayDeque<ApnsConnection<T>> readyStandbyConnections = new ArrayDeque<ApnsConnection<T>>();
 
-    private final NioEventLoopGroup eventLoopGroup;
+    private final AtomicLong promotedStandbyConnectionCount = new AtomicLong(0);
+
+    private ScheduledFuture<?> connectionPoolSizingFuture;
+
+    private ScheduledFuture<?> feedbackPollingFuture;
+
+    /** 连续没有积压的采样次数，只在连接数调整任务中访问 */
+    private int idleSampleCount = 0;
+
+    private volatile boolean started = false;
+
+    private volatile boolean dispatchThreadShouldContinue = true;
+
+    private final EventLoopGroup eventLoopGroup;
 
     private final boolean shouldShutDownEventLoopGroup;
 
@@ -108,10 +247,21 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
     private final boolean shouldShutDownListenerExecutorService;
 
-    private boolean shutDownStarted = false;
+    private volatile boolean shutDownStarted = false;
 
     private boolean shutDownFinished = false;
 
+    private static final long DISPATCH_POLL_TIMEOUT_MILLIS = 100;
+
+    /** 备用连接建立失败之后，重新建立之前等待的时间 */
+    private static final long STANDBY_RECONNECT_DELAY_MILLIS = 1000;
+
+    /** 熔断器试探期间，其他等待中的替换连接再次检查熔断器的间隔 */
+    private static final long CIRCUIT_BREAKER_RECHECK_MILLIS = 100;
+
+    /** 发送队列已满时，等待入队的消息重试的间隔 */
+    private static final long ADMISSION_RETRY_MILLIS = 10;
+
     private static final Logger log = LoggerFactory.getLogger(PushManager.class);
 
     private static class DispatchThreadExceptionHandler<T extends ApnsPushNotification> implements
@@ -136,18 +286,217 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
     }
 
     /**
-     * 构造器提供了NioEventLoopGroup参数，一旦调用者传入了该参数，则调用者需要维护NioEventLoopGroup的生命周期，也就是当所有PushManager被关闭之后，
-     * 需要将NioEventLoopGroup关闭； 另外构造器提供了{@link ExecutorService}
-     * 参数，Eeecutor主要是将消息转发到注册的listenr上，如果传入的参数非空，需要采取与NioEventLoopGroup相同的处理；
+     * 通过{@link PushManager#submit(ApnsPushNotification)}提交、因为速度上限或发送队列已满而等待进入发送队列的消息
+     */
+    private static class PendingAdmission<T> {
+
+        private final T notification;
+
+        private final Promise<Void> admissionPromise;
+
+        public PendingAdmission(final T notification, final Promise<Void> admissionPromise) {
+            this.notification = notification;
+            this.admissionPromise = admissionPromise;
+        }
+    }
+
+    /**
+     * 一次群发任务，device token在发送时才被逐个读取；迭代器只在持有该对象的锁时访问
+     */
+    private static class Broadcast {
+
+        private final ApnsPayload payload;
+
+        private final Iterator<byte[]> tokens;
+
+        private final DeliveryPriority priority;
+
+        private final Date deliveryInvalidationTime;
+
+        private final Promise<Void> completionPromise;
+
+        private long sentCount = 0;
+
+        public Broadcast(final ApnsPayload payload, final Iterator<byte[]> tokens, final DeliveryPriority priority,
+                final Date deliveryInvalidationTime, final Promise<Void> completionPromise) {
+            this.payload = payload;
+            this.tokens = tokens;
+            this.priority = priority;
+            this.deliveryInvalidationTime = deliveryInvalidationTime;
+            this.completionPromise = completionPromise;
+        }
+    }
+
+    /**
+     * {@link DispatchMode#PER_CONNECTION}模式下与单个连接绑定的分发任务，在连接自身的事件循环中运行，不占用额外的线程：连接可写时从共享队列
+     * 取出一批消息发送，然后重新提交自身，让事件循环在两批之间处理连接的读写；达到发送速度上限时推迟到令牌补充之后，连接不可写时等待
+     * {@link PushManager#handleConnectionWritabilityChange(ApnsConnection, boolean)}重新提交。没有消息时每隔
+     * {@link PushManager#DISPATCH_POLL_TIMEOUT_MILLIS}毫秒检查一次队列
+     */
+    private class ConnectionDispatcher implements Runnable {
+
+        private final ApnsConnection<T> connection;
+
+        private final EventLoop eventLoop;
+
+        /** 是否已经提交了尚未开始执行的分发任务，用于合并重复的唤醒 */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        /** 只在事件循环中访问 */
+        private ScheduledFuture<?> idleCheckFuture;
+
+        private volatile boolean writable = true;
+
+        private volatile boolean shouldContinue = true;
+
+        public ConnectionDispatcher(final ApnsConnection<T> connection) {
+            this.connection = connection;
+            this.eventLoop = connection.getEventLoop();
+        }
+
+        public void setWritable(final boolean writable) {
+            this.writable = writable;
+
+            if (writable) {
+                this.wake();
+            }
+        }
+
+        /**
+         * 有新的消息、重试或者开始关闭时调用，尚未提交分发任务时立即提交
+         */
+        public void wake() {
+            this.schedule(0);
+        }
+
+        public void shutdown() {
+            this.shouldContinue = false;
+        }
+
+        private void schedule(final long delayNanos) {
+            if (this.shouldContinue && this.scheduled.compareAndSet(false, true)) {
+                if (delayNanos > 0) {
+                    this.eventLoop.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+                } else {
+                    this.eventLoop.execute(this);
+                }
+            }
+        }
+
+        private void scheduleIdleCheck() {
+            // Notifications put straight into the queue don't wake anybody, so an idle connection looks again now and
+            // then; a single pending check is enough no matter how often the queue turns up empty
+            if (this.idleCheckFuture == null || this.idleCheckFuture.isDone()) {
+                this.idleCheckFuture = this.eventLoop.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        ConnectionDispatcher.this.wake();
+                    }
+                }, DISPATCH_POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void run() {
+            // Cleared before looking at the queues, so work that turns up from here on schedules another run
+            this.scheduled.set(false);
+
+            if (!this.shouldContinue || !dispatchThreadShouldContinue || !this.writable) {
+                return;
+            }
+
+            final long nanosUntilSendPermitted = this.connection.getNanosUntilSendPermitted();
+
+            if (nanosUntilSendPermitted > 0) {
+                this.schedule(nanosUntilSendPermitted);
+                return;
+            }
+
+            int sentCount = 0;
+
+            try {
+                sentCount = sendNextNotifications(this.connection, Integer.MAX_VALUE, 0);
+            } catch (InterruptedException e) {
+                // A zero timeout never waits, so there's nothing to be interrupted
+            } catch (RuntimeException e) {
+                log.error("Dispatch for {} failed unexpectedly. Please file a bug with the exception details.",
+                        this.connection, e);
+            }
+
+            if (sentCount > 0) {
+                this.wake();
+            } else if (shutDownStarted) {
+                this.shouldContinue = false;
+                this.connection.disconnectGracefully();
+            } else {
+                this.scheduleIdleCheck();
+            }
+        }
+    }
+
+    /**
+     * 构造器提供了EventLoopGroup参数，一旦调用者传入了该参数，则调用者需要维护EventLoopGroup的生命周期，也就是当所有PushManager被关闭之后，
+     * 需要将EventLoopGroup关闭；传入的可以是EventLoopGroup或EpollEventLoopGroup，连接使用与之匹配的传输；为null时按照
+     * {@link PushManagerConfiguration#getTransportType()}自行创建。 另外构造器提供了{@link ExecutorService}
+     * 参数，Eeecutor主要是将消息转发到注册的listenr上，如果传入的参数非空，需要采取与EventLoopGroup相同的处理；
      *
      * @seeAlso http://developer.apple.com/library/mac/documentation/NetworkingInternet/Conceptual/RemoteNotificationsPG/Chapters
      * /CommunicatingWIthAPS.html#//apple_ref/doc/uid/TP40008194-CH101-SW6
      */
     public PushManager(final ApnsEnvironment environment, final SSLContext sslContext,
-                       final NioEventLoopGroup eventLoopGroup, final ExecutorService listenerExecutorService,
+                       final EventLoopGroup eventLoopGroup, final ExecutorService listenerExecutorService,
                        final BlockingQueue<T> queue, final PushManagerConfiguration configuration, final String name) {
+        this(environment, sslContext, eventLoopGroup, listenerExecutorService, queue, configuration, name, null);
+    }
+
+    /**
+     * 与{@link #PushManager(ApnsEnvironment, SSLContext, EventLoopGroup, ExecutorService, BlockingQueue, PushManagerConfiguration, String)}
+     * 相同，另外提供了群发以及从直接内存还原已发送消息时用于创建消息的工厂，可以为null，此时不能调用
+     * {@link #broadcast(ApnsPayload, Iterable, DeliveryPriority, Date)}，也不能启用
+     * {@link com.fansz.apns.config.ApnsConnectionConfiguration#setStoreSentNotificationsOffHeap(boolean)}
+     */
+    public PushManager(final ApnsEnvironment environment, final SSLContext sslContext,
+                       final EventLoopGroup eventLoopGroup, final ExecutorService listenerExecutorService,
+                       final BlockingQueue<T> queue, final PushManagerConfiguration configuration, final String name,
+                       final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        this(environment, wrapSslContext(sslContext, configuration), eventLoopGroup, listenerExecutorService, queue,
+                configuration, name, pushNotificationFactory);
+    }
+
+    /**
+     * 与{@link #PushManager(ApnsEnvironment, SSLContext, EventLoopGroup, ExecutorService, BlockingQueue, PushManagerConfiguration, String, ApnsPushNotificationFactory)}
+     * 相同，但使用Netty的{@link SslContext}。所有连接（包括反馈服务连接）共享同一个上下文，断线重连时可以复用缓存的TLS会话，省去完整握手；
+     * 通过{@link SSLContextUtil#createSslContext(java.security.KeyStore, char[], com.fansz.apns.support.ApnsProtocol, io.netty.handler.ssl.SslProvider, long, long)}
+     * 创建的上下文还可以使用OpenSSL实现
+     */
+    public PushManager(final ApnsEnvironment environment, final SslContext sslContext,
+                       final EventLoopGroup eventLoopGroup, final ExecutorService listenerExecutorService,
+                       final BlockingQueue<T> queue, final PushManagerConfiguration configuration, final String name,
+                       final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        this(environment, sslContext, eventLoopGroup, listenerExecutorService, queue, configuration, name,
+                pushNotificationFactory, null, null);
+    }
+
+    /**
+     * 供{@link PushManagerRegistry}使用，{@code retryTimer}不为null时失败消息的退避使用该共享时间轮，否则自行创建
+     *
+     * @param dispatchSignal 有新的工作（消息、重试、可写连接或者关闭）时调用，用于唤醒共享分发线程；可以为null
+     */
+    PushManager(final ApnsEnvironment environment, final SslContext sslContext, final EventLoopGroup eventLoopGroup,
+                final ExecutorService listenerExecutorService, final BlockingQueue<T> queue,
+                final PushManagerConfiguration configuration, final String name,
+                final ApnsPushNotificationFactory<T> pushNotificationFactory, final Timer retryTimer,
+                final Runnable dispatchSignal) {
 
         this.queue = queue != null ? queue : new LinkedBlockingQueue<T>();
+        this.pushNotificationFactory = pushNotificationFactory;
+        this.dispatchSignal = dispatchSignal;
+
+        if (this.queue instanceof CoalescingNotificationQueue) {
+            // Receipts of merged notifications must follow the notification that replaces them in the queue
+            ((CoalescingNotificationQueue<T>)this.queue).setDeliveryTracker(this);
+        }
 
         if (environment == null) {
             throw new NullPointerException("Environment must not be null.");
@@ -166,19 +515,57 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
         }
 
         this.configuration = new PushManagerConfiguration(configuration);
+
+        this.admissionRateLimiter = this.configuration.getAdmissionRateLimit() != null ? new TokenBucket(
+                this.configuration.getAdmissionRateLimit()) : null;
+
+        this.invalidTokenRegistry = this.configuration.getInvalidTokenRetentionMillis() != null ? new InvalidTokenRegistry(
+                this.configuration.getInvalidTokenRetentionMillis()) : null;
+
+        final AdaptiveConnectionPoolConfiguration poolConfiguration = this.configuration
+                .getAdaptiveConnectionPoolConfiguration();
+
+        this.targetConnectionCount = new AtomicInteger(poolConfiguration != null ? Math.max(
+                poolConfiguration.getMinimumConnectionCount(),
+                Math.min(this.configuration.getConcurrentConnectionCount(),
+                        poolConfiguration.getMaximumConnectionCount())) : this.configuration
+                .getConcurrentConnectionCount());
         this.name = name == null ? String.format("PushManager-%d", PushManager.pushManagerCounter.getAndIncrement())
                 : name;
 
+        final RetryConfiguration retryConfiguration = this.configuration.getRetryConfiguration();
+
+        final RetryScheduler.RetryHandler<T> retryHandler = new RetryScheduler.RetryHandler<T>() {
+
+            @Override
+            public void handleRetry(final T notification) {
+                retryQueue.add(notification);
+                interruptDispatchThreads();
+            }
+
+            @Override
+            public void handleDeadLetter(final T notification, final int attempts) {
+                PushManager.this.handleDeadLetter(notification, attempts);
+            }
+        };
+
+        this.retryScheduler = retryTimer != null ? new RetryScheduler<T>(retryConfiguration, retryHandler, retryTimer)
+                : new RetryScheduler<T>(retryConfiguration, retryHandler, String.format("%s-retry", this.name));
+
+        this.connectionCircuitBreaker = new CircuitBreaker(retryConfiguration.getCircuitBreakerFailureThreshold(),
+                retryConfiguration.getCircuitBreakerOpenMillis());
+
         if (eventLoopGroup != null) {
             this.eventLoopGroup = eventLoopGroup;
             this.shouldShutDownEventLoopGroup = false;
         } else {
             // Never use more threads than concurrent connections (Netty binds a channel to a single thread, so the
             // excess threads would always go unused)
-            final int threadCount = Math.min(this.configuration.getConcurrentConnectionCount(), Runtime.getRuntime()
-                    .availableProcessors() * 2);
+            final int threadCount = Math.min(this.getMaximumConnectionCount()
+                    + this.configuration.getStandbyConnectionCount(), Runtime.getRuntime().availableProcessors() * 2);
 
-            this.eventLoopGroup = new NioEventLoopGroup(threadCount);
+            this.eventLoopGroup = TransportUtil.createEventLoopGroup(this.configuration.getTransportType(),
+                    threadCount);
             this.shouldShutDownEventLoopGroup = true;
         }
 
@@ -189,6 +576,17 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
             this.listenerExecutorService = Executors.newSingleThreadExecutor();
             this.shouldShutDownListenerExecutorService = true;
         }
+
+        this.rejectionDispatcher = new BatchingDispatcher<Rejection<T>>(this.eventLoopGroup,
+                this.configuration.getRejectedNotificationBatchSize(),
+                this.configuration.getRejectedNotificationBatchDelayMillis(),
+                new BatchingDispatcher.BatchHandler<Rejection<T>>() {
+
+                    @Override
+                    public void handleBatch(final List<Rejection<T>> rejections) {
+                        dispatchRejections(rejections);
+                    }
+                });
     }
 
     /**
@@ -207,11 +605,165 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.info("{} starting.", this.name);
 
-        for (int i = 0; i < this.configuration.getConcurrentConnectionCount(); i++) {
+        this.started = true;
+
+        for (int i = 0; i < this.targetConnectionCount.get(); i++) {
             this.startNewConnection();
         }
 
-        this.createAndStartDispatchThread();
+        for (int i = 0; i < this.configuration.getStandbyConnectionCount(); i++) {
+            this.startStandbyConnection();
+        }
+
+        if (this.configuration.getDispatchMode() == DispatchMode.SINGLE_THREAD) {
+            this.createAndStartDispatchThread();
+        }
+
+        final AdaptiveConnectionPoolConfiguration poolConfiguration = this.configuration
+                .getAdaptiveConnectionPoolConfiguration();
+
+        if (poolConfiguration != null) {
+            this.connectionPoolSizingFuture = this.eventLoopGroup.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    adjustConnectionPoolSize(poolConfiguration);
+                }
+            }, poolConfiguration.getSampleIntervalMillis(), poolConfiguration.getSampleIntervalMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        final long pollingIntervalMillis = this.configuration.getFeedbackConnectionConfiguration()
+                .getPollingIntervalMillis();
+
+        if (pollingIntervalMillis > 0) {
+            this.feedbackPollingFuture = this.eventLoopGroup.scheduleAtFixedRate(new Runnable() {
+
+                @Override
+                public void run() {
+                    startFeedbackConnection();
+                }
+            }, 0, pollingIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private int getMaximumConnectionCount() {
+        final AdaptiveConnectionPoolConfiguration poolConfiguration = this.configuration
+                .getAdaptiveConnectionPoolConfiguration();
+
+        return poolConfiguration != null ? Math.max(poolConfiguration.getMaximumConnectionCount(),
+                this.configuration.getConcurrentConnectionCount()) : this.configuration.getConcurrentConnectionCount();
+    }
+
+    /**
+     * 返回当前的目标连接数；未启用自动调整时始终等于{@link PushManagerConfiguration#getConcurrentConnectionCount()}
+     */
+    public int getConnectionCount() {
+        return this.targetConnectionCount.get();
+    }
+
+    /**
+     * 返回已经完成握手、等待接替活动连接的备用连接数
+     */
+    public int getStandbyConnectionCount() {
+        synchronized (this.standbyConnections) {
+            return this.readyStandbyConnections.size();
+        }
+    }
+
+    /**
+     * 返回备用连接接替开始关闭的活动连接的次数
+     */
+    public long getPromotedStandbyConnectionCount() {
+        return this.promotedStandbyConnectionCount.get();
+    }
+
+    /**
+     * 根据排队消息数、连接不可写的次数和写入延迟增加或减少一个连接
+     */
+    private void adjustConnectionPoolSize(final AdaptiveConnectionPoolConfiguration poolConfiguration) {
+        if (this.shutDownStarted) {
+            return;
+        }
+
+        final int connectionCount = this.targetConnectionCount.get();
+        final int queueDepth = this.queue.size() + this.retryQueue.size();
+        final int writabilityLosses = this.writabilityLossCount.getAndSet(0);
+
+        long totalWriteLatencyNanos = 0;
+        int sampledConnections = 0;
+
+        synchronized (this.activeConnections) {
+            for (final ApnsConnection<T> connection : this.activeConnections) {
+                totalWriteLatencyNanos += connection.getWriteLatencyNanos();
+                sampledConnections += 1;
+            }
+        }
+
+        final long averageWriteLatencyMillis = sampledConnections > 0 ? TimeUnit.NANOSECONDS
+                .toMillis(totalWriteLatencyNanos / sampledConnections) : 0;
+
+        // A running broadcast has an unknown (and usually large) backlog of its own
+        final boolean backlogged = queueDepth > 0 || !this.broadcasts.isEmpty();
+
+        final boolean overloaded = queueDepth > (long)connectionCount * poolConfiguration.getQueueDepthPerConnection()
+                || !this.broadcasts.isEmpty()
+                || (backlogged && (writabilityLosses > 0 || averageWriteLatencyMillis > poolConfiguration
+                        .getMaximumWriteLatencyMillis()));
+
+        if (overloaded) {
+            this.idleSampleCount = 0;
+
+            if (connectionCount < poolConfiguration.getMaximumConnectionCount()) {
+                log.debug("{} growing to {} connections (queue depth {}, {} writability losses, {} ms write latency).",
+                        new Object[]{this.name, connectionCount + 1, queueDepth, writabilityLosses,
+                                averageWriteLatencyMillis});
+
+                this.targetConnectionCount.incrementAndGet();
+                this.startNewConnection();
+            }
+        } else if (!backlogged && writabilityLosses == 0) {
+            if (++this.idleSampleCount >= poolConfiguration.getIdleSamplesBeforeShrinking()) {
+                this.idleSampleCount = 0;
+
+                if (connectionCount > poolConfiguration.getMinimumConnectionCount()) {
+                    this.retireConnection();
+                }
+            }
+        } else {
+            this.idleSampleCount = 0;
+        }
+    }
+
+    /**
+     * 选择一个连接优雅关闭并且不再替换，使连接数减少一个
+     */
+    private void retireConnection() {
+        ApnsConnection<T> connectionToRetire = null;
+
+        synchronized (this.activeConnections) {
+            for (final ApnsConnection<T> connection : this.activeConnections) {
+                if (!this.retiringConnections.contains(connection)) {
+                    connectionToRetire = connection;
+                    break;
+                }
+            }
+        }
+
+        if (connectionToRetire == null) {
+            return;
+        }
+
+        log.debug("{} shrinking to {} connections by retiring {}.", new Object[]{this.name,
+                this.targetConnectionCount.get() - 1, connectionToRetire});
+
+        this.targetConnectionCount.decrementAndGet();
+        this.retiringConnections.add(connectionToRetire);
+
+        this.writableConnections.remove(connectionToRetire);
+        this.stopConnectionDispatcher(connectionToRetire);
+
+        connectionToRetire.disconnectGracefully();
     }
 
     private void createAndStartDispatchThread() {
@@ -231,17 +783,17 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
                         writableConnections.add(connection);
 
-                        final T notificationToRetry = retryQueue.poll();
-
-                        if (notificationToRetry != null) {
-                            connection.sendNotification(notificationToRetry);
-                        } else {
-                            if (shutDownStarted) {
-                                connection.disconnectGracefully();
-                                writableConnections.remove(connection);
-                            } else {
-                                connection.sendNotification(queue.take());
-                            }
+                        final long nanosUntilSendPermitted = connection.getNanosUntilSendPermitted();
+
+                        if (nanosUntilSendPermitted > 0) {
+                            pauseRateLimitedConnection(connection, nanosUntilSendPermitted);
+                            continue;
+                        }
+
+                        if (sendNextNotifications(connection, Integer.MAX_VALUE, DISPATCH_POLL_TIMEOUT_MILLIS) == 0
+                                && shutDownStarted) {
+                            connection.disconnectGracefully();
+                            writableConnections.remove(connection);
                         }
                     } catch (InterruptedException e) {
                         continue;
@@ -252,33 +804,446 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
         });
     }
 
-    public boolean isStarted() {
-        if (this.isShutDown()) {
-            return false;
-        } else {
-            return this.dispatchThread != null;
+    /**
+     * {@link DispatchMode#SHARED}模式下由{@link PushManagerRegistry}的分发线程调用，不阻塞地向可写连接发送最多{@code maxNotifications}
+     * 条消息，重试队列中的消息优先；关闭过程中重试队列为空时优雅关闭连接
+     *
+     * @return 实际发送的消息数，没有可写连接或者没有消息时返回0
+     */
+    int dispatch(final int maxNotifications) throws InterruptedException {
+        int dispatchedCount = 0;
+
+        while (dispatchedCount < maxNotifications && this.dispatchThreadShouldContinue) {
+            final ApnsConnection<T> connection = this.writableConnections.poll();
+
+            if (connection == null) {
+                break;
+            }
+
+            this.writableConnections.add(connection);
+
+            final long nanosUntilSendPermitted = connection.getNanosUntilSendPermitted();
+
+            if (nanosUntilSendPermitted > 0) {
+                this.pauseRateLimitedConnection(connection, nanosUntilSendPermitted);
+                continue;
+            }
+
+            final int sentCount = this.sendNextNotifications(connection, maxNotifications - dispatchedCount, 0);
+
+            if (sentCount == 0) {
+                if (this.shutDownStarted) {
+                    connection.disconnectGracefully();
+                    this.writableConnections.remove(connection);
+                    continue;
+                }
+
+                break;
+            }
+
+            dispatchedCount += sentCount;
         }
-    }
 
-    public boolean isShutDown() {
-        return this.shutDownStarted;
+        return dispatchedCount;
     }
 
-    public synchronized void shutdown() throws InterruptedException {
-        this.shutdown(0);
-    }
+    /**
+     * 从重试队列和发送队列中取出最多{@code maxNotifications}条、不超过{@link PushManagerConfiguration#getDispatchBatchSize()}条消息写入连接，
+     * 重试队列中的消息优先。第一条消息最多等待{@code timeoutMillis}毫秒，之后只取已经到达的消息；取出多条消息时通过
+     * {@link ApnsConnection#sendNotifications(Collection)}全部写入之后只flush一次。开始关闭之后只发送重试队列中的消息
+     *
+     * @return 发送的消息数，没有消息时返回0
+     */
+    private int sendNextNotifications(final ApnsConnection<T> connection, final int maxNotifications,
+            final long timeoutMillis) throws InterruptedException {
+        final T firstNotification = this.pollNextNotification(timeoutMillis);
 
-    public synchronized List<T> shutdown(long timeout) throws InterruptedException {
-        if (this.isShutDown()) {
-            log.warn("{} has already been shut down; shutting down multiple times is harmless, but may "
-                    + "indicate a problem elsewhere.", this.name);
-        } else {
-            log.info("{} shutting down.", this.name);
+        if (firstNotification == null) {
+            return 0;
         }
 
-        if (this.shutDownFinished) {
-            // We COULD throw an IllegalStateException here, but it seems unnecessary when we could just silently return
-            // the same result without harm.
+        final int batchSize = Math.min(maxNotifications, this.configuration.getDispatchBatchSize());
+
+        T notification = batchSize > 1 ? this.pollNextNotification(0) : null;
+
+        if (notification == null) {
+            connection.sendNotification(firstNotification);
+            return 1;
+        }
+
+        final List<T> batch = new ArrayList<T>(batchSize);
+        batch.add(firstNotification);
+
+        do {
+            batch.add(notification);
+        } while (batch.size() < batchSize && (notification = this.pollNextNotification(0)) != null);
+
+        connection.sendNotifications(batch);
+
+        return batch.size();
+    }
+
+    private T pollNextNotification(final long timeoutMillis) throws InterruptedException {
+        final T notificationToRetry = this.retryQueue.poll();
+
+        if (notificationToRetry != null || this.shutDownStarted) {
+            return notificationToRetry;
+        }
+
+        return this.pollNewNotification(timeoutMillis);
+    }
+
+    /**
+     * 将达到发送速度上限的连接暂时移出可写连接队列，等令牌补充之后再放回，分发线程在此期间使用其他连接
+     */
+    private void pauseRateLimitedConnection(final ApnsConnection<T> connection, final long nanosUntilSendPermitted) {
+        this.writableConnections.remove(connection);
+
+        this.eventLoopGroup.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                final boolean stillActive;
+
+                synchronized (activeConnections) {
+                    stillActive = activeConnections.contains(connection);
+                }
+
+                if (stillActive && !retiringConnections.contains(connection)) {
+                    writableConnections.add(connection);
+                }
+            }
+        }, nanosUntilSendPermitted, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 获取下一条新消息，跳过发往已登记失效token的消息；没有消息时最多等待timeoutMillis毫秒
+     */
+    private T pollNewNotification(final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (true) {
+            final T notification = this.pollQueuedOrBroadcastNotification(Math.max(0,
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+
+            if (notification == null || !this.isInvalidToken(notification)) {
+                return notification;
+            }
+
+            this.skipInvalidTokenNotification(notification);
+        }
+    }
+
+    /**
+     * 获取下一条新消息：优先从发送队列获取，发送队列为空时从正在进行的群发任务中生成，都没有时最多等待timeoutMillis毫秒
+     */
+    private T pollQueuedOrBroadcastNotification(final long timeoutMillis) throws InterruptedException {
+        if (!this.broadcasts.isEmpty()) {
+            final T notification = this.queue.poll();
+
+            if (notification != null) {
+                return notification;
+            }
+
+            final T broadcastNotification = this.nextBroadcastNotification();
+
+            if (broadcastNotification != null) {
+                return broadcastNotification;
+            }
+        }
+
+        // The dispatch threads are interrupted whenever there's something new for them to look at. A zero timeout
+        // must not throw InterruptedException, or notifications already taken for a batch would be lost.
+        return timeoutMillis > 0 ? this.queue.poll(timeoutMillis, TimeUnit.MILLISECONDS) : this.queue.poll();
+    }
+
+    private T nextBroadcastNotification() {
+        Broadcast broadcast;
+
+        while ((broadcast = this.broadcasts.peek()) != null) {
+            final byte[] token = this.nextBroadcastToken(broadcast);
+
+            if (token != null) {
+                return this.pushNotificationFactory.createPushNotification(token, broadcast.payload,
+                        broadcast.deliveryInvalidationTime, broadcast.priority);
+            }
+
+            // Finished, failed or cancelled; another dispatch thread may have removed it already
+            this.broadcasts.remove(broadcast);
+        }
+
+        return null;
+    }
+
+    /**
+     * 读取群发任务的下一个有效token；任务已经结束时返回null。迭代器抛出异常时群发以该异常失败，不会再被访问
+     */
+    private byte[] nextBroadcastToken(final Broadcast broadcast) {
+        synchronized (broadcast) {
+            if (broadcast.completionPromise.isDone()) {
+                return null;
+            }
+
+            try {
+                while (broadcast.tokens.hasNext()) {
+                    final byte[] token = broadcast.tokens.next();
+
+                    // Skip dead tokens before we go to the trouble of building a notification for them
+                    if (this.isInvalidToken(token)) {
+                        this.skippedInvalidTokenCount.incrementAndGet();
+                        continue;
+                    }
+
+                    broadcast.sentCount += 1;
+                    return token;
+                }
+            } catch (RuntimeException e) {
+                log.warn("{} abandoned broadcast of {} after {} notifications because its tokens could not be read.",
+                        this.name, broadcast.payload, broadcast.sentCount, e);
+
+                broadcast.completionPromise.tryFailure(e);
+                return null;
+            }
+
+            log.debug("{} finished streaming broadcast of {} to {} devices.", this.name, broadcast.payload,
+                    broadcast.sentCount);
+
+            broadcast.completionPromise.trySuccess(null);
+            return null;
+        }
+    }
+
+    /**
+     * 让尚未完成的群发任务以{@link BroadcastAbortedException}失败，调用时分发线程已经不再读取群发任务
+     */
+    private void abortBroadcasts() {
+        Broadcast broadcast;
+
+        while ((broadcast = this.broadcasts.poll()) != null) {
+            synchronized (broadcast) {
+                if (!broadcast.completionPromise.isDone()) {
+                    log.warn("{} was shut down after sending {} notifications of a broadcast of {}; the remaining "
+                            + "devices have not been sent anything.", this.name, broadcast.sentCount,
+                            broadcast.payload);
+
+                    broadcast.completionPromise.tryFailure(new BroadcastAbortedException(
+                            "Push manager was shut down before the broadcast finished.", broadcast.tokens,
+                            broadcast.sentCount));
+                }
+            }
+        }
+    }
+
+    private boolean isInvalidToken(final byte[] token) {
+        return this.invalidTokenRegistry != null && this.invalidTokenRegistry.contains(token);
+    }
+
+    private boolean isInvalidToken(final T notification) {
+        if (this.invalidTokenRegistry == null) {
+            return false;
+        }
+
+        return notification instanceof DeviceTokenPushNotification ? this.invalidTokenRegistry
+                .contains(((DeviceTokenPushNotification)notification).getDeviceToken()) : this.invalidTokenRegistry
+                .contains(notification.getToken());
+    }
+
+    private void skipInvalidTokenNotification(final T notification) {
+        log.debug("{} skipped {} because its token is registered as invalid.", this.name, notification);
+
+        this.skippedInvalidTokenCount.incrementAndGet();
+
+        final DeliveryReceipt deliveryReceipt = this.deliveryReceipts.remove(notification);
+
+        if (deliveryReceipt != null) {
+            deliveryReceipt.handleRejection(RejectedNotificationReason.INVALID_TOKEN);
+        }
+    }
+
+    private void registerInvalidToken(final byte[] token) {
+        if (this.invalidTokenRegistry != null && token != null
+                && token.length == InvalidTokenRegistry.TOKEN_LENGTH && !this.invalidTokenRegistry.add(token)) {
+            this.handleInvalidTokenRegistryFull();
+        }
+    }
+
+    private void registerInvalidToken(final DeviceToken token) {
+        if (this.invalidTokenRegistry != null && token.getLength() == InvalidTokenRegistry.TOKEN_LENGTH
+                && !this.invalidTokenRegistry.add(token)) {
+            this.handleInvalidTokenRegistryFull();
+        }
+    }
+
+    private void handleInvalidTokenRegistryFull() {
+        log.warn("{} could not register an invalid token because the registry already holds {} tokens; consider a "
+                + "shorter retention time.", this.name, InvalidTokenRegistry.MAXIMUM_CAPACITY);
+    }
+
+    /**
+     * 返回失效token登记表，没有配置{@link PushManagerConfiguration#setInvalidTokenRetentionMillis(Long)}时返回{@code null}。
+     * 调用者可以在启动时把数据库中已知的失效token登记进去，或者在设备重新注册时将token移除
+     */
+    public InvalidTokenRegistry getInvalidTokenRegistry() {
+        return this.invalidTokenRegistry;
+    }
+
+    static SslContext wrapSslContext(final SSLContext sslContext, final PushManagerConfiguration configuration) {
+        if (configuration == null) {
+            throw new NullPointerException("Configuration object must not be null.");
+        }
+
+        return SSLContextUtil.createSslContext(sslContext, configuration.getConnectionConfiguration().getProtocol());
+    }
+
+    /**
+     * 返回因为token已登记失效而没有发送的消息数量，包括群发中跳过的token
+     */
+    public long getSkippedInvalidTokenCount() {
+        return this.skippedInvalidTokenCount.get();
+    }
+
+    /**
+     * 返回连接TLS握手耗费的时间分布，单位为微秒
+     */
+    public Histogram getHandshakeLatencyHistogram() {
+        return this.handshakeLatencyHistogram;
+    }
+
+    /**
+     * 返回复用了缓存会话的TLS握手次数；是否复用由{@link ApnsConnection#isSessionResumed()}根据会话创建时间推断，只是近似值
+     */
+    public long getResumedHandshakeCount() {
+        return this.resumedHandshakeCount.get();
+    }
+
+    /**
+     * 返回完整的TLS握手次数，与{@link #getResumedHandshakeCount()}一样是推断得到的近似值
+     */
+    public long getFullHandshakeCount() {
+        return this.fullHandshakeCount.get();
+    }
+
+    /**
+     * <p>
+     * 将同一个Payload群发给多个设备。device token在发送时才从{@code tokens}中逐个读取，并由构造时传入的{@link ApnsPushNotificationFactory}
+     * 生成引用共享Payload的消息，因此只有已发送、等待APNS确认的消息才会占用内存，群发的规模不受内存限制
+     * </p>
+     * <p>
+     * 群发任务按提交顺序依次执行，并且只在发送队列为空时才会发送，因此不会延迟通过{@link #getQueue()}提交的消息；被拒绝或需要重发的群发消息与普通消息一样
+     * 通知listener或进入重试队列
+     * </p>
+     * <p>
+     * 每个token仍然对应一条消息对象：listener、重试队列和已发送消息缓冲区都以消息为单位工作，需要它来报告被拒绝的token和重发。
+     * 消息本身只持有token和共享Payload的引用，编码器直接由token和共享的Payload缓冲区生成帧，不会为每个设备重新编码Payload
+     * </p>
+     * <p>
+     * 返回的Future在所有token都交给连接之后完成。迭代器抛出异常时群发被放弃，Future以该异常失败；PushManager关闭时尚未完成的群发以
+     * {@link BroadcastAbortedException}失败，可以从中取得剩余的token；取消Future会停止读取剩余的token
+     * </p>
+     *
+     * @param payload 所有设备共享的Payload
+     * @param tokens 接收消息的device token，迭代器在分发线程中被访问
+     * @param priority 消息优先级
+     * @param deliveryInvalidationTime 消息失效时间，可以为null
+     * @return 群发任务结束时完成的Future
+     * @throws IllegalStateException 如果PushManager已经关闭或者没有提供消息工厂
+     */
+    public Future<Void> broadcast(final ApnsPayload payload, final Iterable<byte[]> tokens, final DeliveryPriority priority,
+            final Date deliveryInvalidationTime) {
+        if (payload == null) {
+            throw new NullPointerException("Payload must not be null.");
+        }
+
+        if (tokens == null) {
+            throw new NullPointerException("Tokens must not be null.");
+        }
+
+        if (this.pushNotificationFactory == null) {
+            throw new IllegalStateException("Broadcasts require a push notification factory.");
+        }
+
+        if (this.isShutDown()) {
+            throw new IllegalStateException("Push manager has already been shut down.");
+        }
+
+        final Promise<Void> completionPromise = this.eventLoopGroup.next().newPromise();
+
+        this.broadcasts.add(new Broadcast(payload, tokens.iterator(), priority, deliveryInvalidationTime,
+                completionPromise));
+        this.interruptDispatchThreads();
+
+        return completionPromise;
+    }
+
+    private void startConnectionDispatcher(final ApnsConnection<T> connection) {
+        final ConnectionDispatcher connectionDispatcher = new ConnectionDispatcher(connection);
+        this.connectionDispatchers.put(connection, connectionDispatcher);
+        connectionDispatcher.wake();
+    }
+
+    private void stopConnectionDispatcher(final ApnsConnection<T> connection) {
+        final ConnectionDispatcher connectionDispatcher = this.connectionDispatchers.remove(connection);
+
+        if (connectionDispatcher != null) {
+            connectionDispatcher.shutdown();
+        }
+    }
+
+    private void wakeConnectionDispatchers() {
+        for (final ConnectionDispatcher connectionDispatcher : this.connectionDispatchers.values()) {
+            connectionDispatcher.wake();
+        }
+    }
+
+    /**
+     * 唤醒所有等待中的分发线程和连接分发任务，使其尽快处理重试队列或者关闭状态
+     */
+    private void interruptDispatchThreads() {
+        if (this.dispatchThread != null) {
+            this.dispatchThread.interrupt();
+        }
+
+        // The shared dispatch thread belongs to the registry and is woken without an interrupt
+        if (this.dispatchSignal != null) {
+            this.dispatchSignal.run();
+        }
+
+        this.wakeConnectionDispatchers();
+    }
+
+    public boolean isStarted() {
+        if (this.isShutDown()) {
+            return false;
+        } else {
+            return this.started;
+        }
+    }
+
+    public boolean isShutDown() {
+        return this.shutDownStarted;
+    }
+
+    public synchronized void shutdown() throws InterruptedException {
+        this.shutdown(0);
+    }
+
+    /**
+     * 关闭推送管理器，最多等待{@code timeout}毫秒让已连接的连接发送完重试队列中的消息
+     *
+     * @return 尚未发送的消息；如果发送队列是{@link SpillingNotificationQueue}，这些消息会被写入磁盘，返回空列表。尚未完成的群发不在其中，
+     *         对应的Future以{@link BroadcastAbortedException}失败
+     */
+    public synchronized List<T> shutdown(long timeout) throws InterruptedException {
+        if (this.isShutDown()) {
+            log.warn("{} has already been shut down; shutting down multiple times is harmless, but may "
+                    + "indicate a problem elsewhere.", this.name);
+        } else {
+            log.info("{} shutting down.", this.name);
+        }
+
+        if (this.shutDownFinished) {
+            // We COULD throw an IllegalStateException here, but it seems unnecessary when we could just silently return
+            // the same result without harm.
             return new ArrayList<T>(this.retryQueue);
         }
 
@@ -286,124 +1251,499 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
             throw new IllegalStateException("Push manager has not yet been started and cannot be shut down.");
         }
 
-        this.shutDownStarted = true;
+        this.shutDownStarted = true;
+
+        if (this.connectionPoolSizingFuture != null) {
+            this.connectionPoolSizingFuture.cancel(false);
+        }
+
+        if (this.feedbackPollingFuture != null) {
+            this.feedbackPollingFuture.cancel(false);
+        }
+
+        this.failPendingAdmissions();
+
+        // Retries still waiting out their back-off go out right away, and later failures are retried immediately
+        this.retryQueue.addAll(this.retryScheduler.stop());
+
+        final List<ApnsConnection<T>> standbyConnectionsToClose;
+
+        synchronized (this.standbyConnections) {
+            standbyConnectionsToClose = new ArrayList<ApnsConnection<T>>(this.standbyConnections);
+        }
+
+        // Standby connections have never been written to, so there's nothing to wait for
+        for (final ApnsConnection<T> standbyConnection : standbyConnectionsToClose) {
+            standbyConnection.disconnectImmediately();
+        }
+
+        synchronized (this.feedbackConnectionMonitor) {
+            if (this.feedbackConnection != null) {
+                this.feedbackConnection.shutdownImmediately();
+            }
+        }
+
+        this.interruptDispatchThreads();
+
+        final Date deadline = timeout > 0 ? new Date(System.currentTimeMillis() + timeout) : null;
+
+        // The dispatch thread will close connections when the retry queue is empty
+        this.waitForAllConnectionsToFinish(deadline);
+
+        this.dispatchThreadShouldContinue = false;
+
+        if (this.dispatchThread != null) {
+            this.dispatchThread.interrupt();
+            this.dispatchThread.join();
+        }
+
+        // A connection dispatcher that is already running finishes its batch on the event loop; anything it sends to a
+        // connection that is closed below comes back through the usual write failure handling
+        for (final ConnectionDispatcher connectionDispatcher : this.connectionDispatchers.values()) {
+            connectionDispatcher.shutdown();
+        }
+
+        this.connectionDispatchers.clear();
+
+        // Dispatch threads stop reading broadcasts as soon as shutdown starts
+        this.abortBroadcasts();
+
+        if (deadline == null) {
+            assert this.retryQueue.isEmpty();
+            assert this.activeConnections.isEmpty();
+        }
+
+        synchronized (this.activeConnections) {
+            for (final ApnsConnection<T> connection : this.activeConnections) {
+                connection.disconnectImmediately();
+            }
+        }
+
+        this.resolveUnsentDeliveries();
+
+        // Hand over rejections still waiting for their batch to fill up before the listeners go away
+        this.rejectionDispatcher.flush();
+
+        this.rejectedNotificationListeners.clear();
+        this.rejectedNotificationBatchListeners.clear();
+
+        this.failedConnectionListeners.clear();
+
+        this.expiredTokenListeners.clear();
+
+        this.deadLetterListeners.clear();
+
+        if (this.shouldShutDownListenerExecutorService) {
+            this.listenerExecutorService.shutdown();
+        }
+
+        if (this.shouldShutDownEventLoopGroup) {
+            this.eventLoopGroup.shutdownGracefully().await();
+        }
+
+        if (this.queue instanceof SpillingNotificationQueue && !this.retryQueue.isEmpty()) {
+            final SpillingNotificationQueue<T> spillingQueue = (SpillingNotificationQueue<T>)this.queue;
+            int spilledCount = 0;
+
+            try {
+                // Spill one at a time so a failure part of the way through only returns what isn't on disk yet;
+                // returning the rest as well would send it twice after a restart
+                T notification;
+
+                while ((notification = this.retryQueue.peek()) != null) {
+                    spillingQueue.spill(Collections.singletonList(notification));
+                    this.retryQueue.poll();
+
+                    spilledCount += 1;
+                }
+
+                log.info("{} spilled {} unsent notifications to disk.", this.name, spilledCount);
+            } catch (Exception e) {
+                log.error("{} failed to spill unsent notifications to disk after spilling {}; returning the other {}.",
+                        this.name, spilledCount, this.retryQueue.size(), e);
+            }
+        }
+
+        this.shutDownFinished = true;
+
+        return new ArrayList<T>(this.retryQueue);
+    }
+
+    public void registerRejectedNotificationListener(final RejectedNotificationListener<? super T> listener) {
+        if (this.isShutDown()) {
+            throw new IllegalStateException(
+                    "Rejected notification listeners may not be registered after a push manager has been shut down.");
+        }
+
+        this.rejectedNotificationListeners.add(listener);
+    }
+
+    public boolean unregisterRejectedNotificationListener(final RejectedNotificationListener<? super T> listener) {
+        return this.rejectedNotificationListeners.remove(listener);
+    }
+
+    public void registerRejectedNotificationBatchListener(final RejectedNotificationBatchListener<? super T> listener) {
+        if (this.isShutDown()) {
+            throw new IllegalStateException(
+                    "Rejected notification listeners may not be registered after a push manager has been shut down.");
+        }
+
+        this.rejectedNotificationBatchListeners.add(listener);
+    }
+
+    public boolean unregisterRejectedNotificationBatchListener(
+            final RejectedNotificationBatchListener<? super T> listener) {
+        return this.rejectedNotificationBatchListeners.remove(listener);
+    }
+
+    public void registerFailedConnectionListener(final FailedConnectionListener<? super T> listener) {
+        if (this.isShutDown()) {
+            throw new IllegalStateException(
+                    "Failed connection listeners may not be registered after a push manager has been shut down.");
+        }
+
+        this.failedConnectionListeners.add(listener);
+    }
+
+    public boolean unregisterFailedConnectionListener(final FailedConnectionListener<? super T> listener) {
+        return this.failedConnectionListeners.remove(listener);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public BlockingQueue<T> getQueue() {
+        return this.queue;
+    }
+
+    /**
+     * <p>
+     * 尝试将消息加入发送队列，不会阻塞。配置了{@link PushManagerConfiguration#getAdmissionRateLimit()}时，超过速度上限的消息不会被加入队列；
+     * 有消息正在通过{@link #submit(ApnsPushNotification)}等待入队时，为了保持顺序也不会加入队列
+     * </p>
+     *
+     * @return 消息是否已经加入发送队列；返回{@code false}时调用方应当稍后重试或者改用{@link #submit(ApnsPushNotification)}
+     */
+    public boolean offer(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        if (this.isShutDown() || !this.pendingAdmissions.isEmpty()) {
+            return false;
+        }
+
+        return this.tryAdmit(notification);
+    }
+
+    /**
+     * <p>
+     * 将消息加入发送队列，不会阻塞。超过速度上限或者发送队列已满时，消息按提交顺序等待，返回的Future在消息真正进入发送队列时完成，
+     * 生产者可以在Future完成之后再提交下一批消息，从而按照PushManager的处理能力平滑地调整生产速度
+     * </p>
+     * <p>
+     * PushManager关闭时仍在等待的消息不会被发送，对应的Future以{@link IllegalStateException}失败；取消Future可以放弃尚未入队的消息
+     * </p>
+     *
+     * @return 消息进入发送队列时完成的Future
+     */
+    public Future<Void> submit(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        if (this.isShutDown()) {
+            return this.eventLoopGroup.next().newFailedFuture(
+                    new IllegalStateException("Push manager has already been shut down."));
+        }
+
+        if (this.pendingAdmissions.isEmpty() && this.tryAdmit(notification)) {
+            return this.eventLoopGroup.next().newSucceededFuture(null);
+        }
+
+        final Promise<Void> admissionPromise = this.eventLoopGroup.next().newPromise();
+
+        this.pendingAdmissions.add(new PendingAdmission<T>(notification, admissionPromise));
+        this.scheduleAdmissionDrain(0);
+
+        return admissionPromise;
+    }
+
+    /**
+     * 返回通过{@link #submit(ApnsPushNotification)}提交、尚未进入发送队列的消息数量
+     */
+    public int getPendingAdmissionCount() {
+        return this.pendingAdmissions.size();
+    }
+
+    private boolean tryAdmit(final T notification) {
+        if (this.admissionRateLimiter != null && !this.admissionRateLimiter.tryAcquire()) {
+            return false;
+        }
+
+        if (!this.queue.offer(notification)) {
+            if (this.admissionRateLimiter != null) {
+                this.admissionRateLimiter.release();
+            }
+
+            return false;
+        }
+
+        // The dedicated dispatch thread blocks on the queue itself, but the shared one and the connection dispatchers have
+        // to be told
+        if (this.dispatchSignal != null) {
+            this.dispatchSignal.run();
+        }
+
+        this.wakeConnectionDispatchers();
+
+        return true;
+    }
+
+    private void scheduleAdmissionDrain(final long delayNanos) {
+        if (this.admissionDrainScheduled.compareAndSet(false, true)) {
+            this.eventLoopGroup.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    drainPendingAdmissions();
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 按提交顺序将等待中的消息加入发送队列，直到达到速度上限或者队列已满，然后安排下一次尝试
+     */
+    private void drainPendingAdmissions() {
+        PendingAdmission<T> pendingAdmission;
+        long retryDelayNanos = -1;
+
+        while ((pendingAdmission = this.pendingAdmissions.peek()) != null) {
+            if (this.shutDownStarted) {
+                this.failPendingAdmissions();
+                break;
+            }
+
+            if (pendingAdmission.admissionPromise.isCancelled()) {
+                this.pendingAdmissions.poll();
+                continue;
+            }
+
+            if (!this.tryAdmit(pendingAdmission.notification)) {
+                final long nanosUntilPermitted = this.admissionRateLimiter != null ? this.admissionRateLimiter
+                        .getNanosUntilAvailable() : 0;
+
+                // If we're not rate limited, the queue must be full
+                retryDelayNanos = nanosUntilPermitted > 0 ? nanosUntilPermitted : TimeUnit.MILLISECONDS
+                        .toNanos(ADMISSION_RETRY_MILLIS);
+
+                break;
+            }
+
+            this.pendingAdmissions.poll();
+
+            if (!pendingAdmission.admissionPromise.trySuccess(null)) {
+                // Cancelled after it was admitted; it's too late to take it back out of the queue
+                log.debug("{} admitted {} after its admission was cancelled.", this.name,
+                        pendingAdmission.notification);
+            }
+        }
+
+        this.admissionDrainScheduled.set(false);
+
+        if (retryDelayNanos > 0) {
+            this.scheduleAdmissionDrain(retryDelayNanos);
+        } else if (!this.pendingAdmissions.isEmpty()) {
+            // Something was submitted while we were finishing up
+            this.scheduleAdmissionDrain(0);
+        }
+    }
+
+    private void failPendingAdmissions() {
+        PendingAdmission<T> pendingAdmission;
+
+        while ((pendingAdmission = this.pendingAdmissions.poll()) != null) {
+            pendingAdmission.admissionPromise.tryFailure(new IllegalStateException(
+                    "Push manager was shut down before the notification could be admitted."));
+        }
+    }
+
+    /**
+     * <p>
+     * 与{@link #submit(ApnsPushNotification)}相同，并返回跟踪该消息的{@link DeliveryReceipt}，可以从中得知消息何时被写入、最终结果以及重试次数。
+     * 消息对象按引用跟踪，同一个对象在结果确定之前不能重复提交
+     * </p>
+     * <p>
+     * 被跟踪消息从提交到第一次写入的延迟和结果确定时的重试次数分别记录在{@link #getWriteLatencyHistogram()}和
+     * {@link #getRetryCountHistogram()}中
+     * </p>
+     */
+    public DeliveryReceipt sendWithReceipt(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        final DeliveryReceipt deliveryReceipt = new DeliveryReceipt(this.eventLoopGroup.next(),
+                this.writeLatencyHistogram, this.retryCountHistogram);
+
+        this.deliveryReceipts.put(notification, deliveryReceipt);
+
+        this.submit(notification).addListener(new GenericFutureListener<Future<Void>>() {
+
+            @Override
+            public void operationComplete(final Future<Void> admissionFuture) {
+                if (!admissionFuture.isSuccess()) {
+                    releaseDeliveryReceipt(notification);
+                    deliveryReceipt.handleOutcome(DeliveryOutcome.NOT_SENT);
+                }
+            }
+        });
+
+        return deliveryReceipt;
+    }
+
+    /**
+     * 返回被跟踪消息从提交到第一次写入socket的延迟分布，单位为微秒
+     */
+    public Histogram getWriteLatencyHistogram() {
+        return this.writeLatencyHistogram;
+    }
+
+    /**
+     * 返回被跟踪消息在结果确定时的重试次数分布
+     */
+    public Histogram getRetryCountHistogram() {
+        return this.retryCountHistogram;
+    }
+
+    @Override
+    public DeliveryReceipt getDeliveryReceipt(final T notification) {
+        return this.deliveryReceipts.get(notification);
+    }
+
+    @Override
+    public boolean hasDeliveryState(final T notification) {
+        return this.deliveryReceipts.containsKey(notification) || this.retryScheduler.hasAttemptCount(notification);
+    }
 
-        synchronized (this.feedbackConnectionMonitor) {
-            if (this.feedbackConnection != null) {
-                this.feedbackConnection.shutdownImmediately();
+    @Override
+    public void transferDeliveryReceipt(final T previousNotification, final T notification) {
+        if (previousNotification != notification) {
+            synchronized (this.deliveryReceipts) {
+                final DeliveryReceipt deliveryReceipt = this.deliveryReceipts.remove(previousNotification);
+
+                if (deliveryReceipt != null) {
+                    this.deliveryReceipts.put(notification, deliveryReceipt);
+                }
             }
+
+            this.retryScheduler.transferAttemptCount(previousNotification, notification);
         }
+    }
 
-        this.dispatchThread.interrupt();
+    @Override
+    public void releaseDeliveryReceipt(final T notification) {
+        this.deliveryReceipts.remove(notification);
+        this.retryScheduler.releaseAttemptCount(notification);
+    }
 
-        final Date deadline = timeout > 0 ? new Date(System.currentTimeMillis() + timeout) : null;
+    private void countRetry(final T notification) {
+        final DeliveryReceipt deliveryReceipt = this.deliveryReceipts.get(notification);
 
-        // The dispatch thread will close connections when the retry queue is empty
-        this.waitForAllConnectionsToFinish(deadline);
+        if (deliveryReceipt != null) {
+            deliveryReceipt.handleRetry();
+        }
+    }
 
-        this.dispatchThreadShouldContinue = false;
-        this.dispatchThread.interrupt();
-        this.dispatchThread.join();
+    /**
+     * 关闭时仍在重试队列中或者从未被写入的被跟踪消息不会再被发送；已写入的消息由连接在断开时确定结果
+     */
+    private void resolveUnsentDeliveries() {
+        final List<DeliveryReceipt> unsentDeliveries = new ArrayList<DeliveryReceipt>();
 
-        if (deadline == null) {
-            assert this.retryQueue.isEmpty();
-            assert this.activeConnections.isEmpty();
-        }
+        synchronized (this.deliveryReceipts) {
+            for (final T notification : this.retryQueue) {
+                final DeliveryReceipt deliveryReceipt = this.deliveryReceipts.remove(notification);
 
-        synchronized (this.activeConnections) {
-            for (final ApnsConnection<T> connection : this.activeConnections) {
-                connection.disconnectImmediately();
+                if (deliveryReceipt != null) {
+                    unsentDeliveries.add(deliveryReceipt);
+                }
             }
-        }
-
-        synchronized (this.rejectedNotificationListeners) {
-            this.rejectedNotificationListeners.clear();
-        }
 
-        synchronized (this.failedConnectionListeners) {
-            this.failedConnectionListeners.clear();
-        }
+            final Iterator<DeliveryReceipt> iterator = this.deliveryReceipts.values().iterator();
 
-        synchronized (this.expiredTokenListeners) {
-            this.expiredTokenListeners.clear();
-        }
+            while (iterator.hasNext()) {
+                final DeliveryReceipt deliveryReceipt = iterator.next();
 
-        if (this.shouldShutDownListenerExecutorService) {
-            this.listenerExecutorService.shutdown();
+                if (!deliveryReceipt.getWriteFuture().isDone()) {
+                    unsentDeliveries.add(deliveryReceipt);
+                    iterator.remove();
+                }
+            }
         }
 
-        if (this.shouldShutDownEventLoopGroup) {
-            this.eventLoopGroup.shutdownGracefully().await();
+        for (final DeliveryReceipt deliveryReceipt : unsentDeliveries) {
+            deliveryReceipt.handleOutcome(DeliveryOutcome.NOT_SENT);
         }
+    }
 
-        this.shutDownFinished = true;
-
-        return new ArrayList<T>(this.retryQueue);
+    public BlockingQueue<T> getRetryQueue() {
+        return this.retryQueue;
     }
 
-    public void registerRejectedNotificationListener(final RejectedNotificationListener<? super T> listener) {
+    public void registerExpiredTokenListener(final ExpiredTokenListener<? super T> listener) {
         if (this.isShutDown()) {
             throw new IllegalStateException(
-                    "Rejected notification listeners may not be registered after a push manager has been shut down.");
+                    "Expired token listeners may not be registered after a push manager has been shut down.");
         }
 
-        synchronized (this.rejectedNotificationListeners) {
-            this.rejectedNotificationListeners.add(listener);
-        }
+        this.expiredTokenListeners.add(listener);
     }
 
-    public boolean unregisterRejectedNotificationListener(final RejectedNotificationListener<? super T> listener) {
-        synchronized (this.rejectedNotificationListeners) {
-            return this.rejectedNotificationListeners.remove(listener);
-        }
+    public boolean unregisterExpiredTokenListener(final ExpiredTokenListener<? super T> listener) {
+        return this.expiredTokenListeners.remove(listener);
     }
 
-    public void registerFailedConnectionListener(final FailedConnectionListener<? super T> listener) {
+    public void registerDeadLetterListener(final DeadLetterListener<? super T> listener) {
         if (this.isShutDown()) {
             throw new IllegalStateException(
-                    "Failed connection listeners may not be registered after a push manager has been shut down.");
+                    "Dead letter listeners may not be registered after a push manager has been shut down.");
         }
 
-        synchronized (this.failedConnectionListeners) {
-            this.failedConnectionListeners.add(listener);
-        }
-    }
-
-    public boolean unregisterFailedConnectionListener(final FailedConnectionListener<? super T> listener) {
-        synchronized (this.failedConnectionListeners) {
-            return this.failedConnectionListeners.remove(listener);
-        }
-    }
-
-    public String getName() {
-        return this.name;
+        this.deadLetterListeners.add(listener);
     }
 
-    public BlockingQueue<T> getQueue() {
-        return this.queue;
+    public boolean unregisterDeadLetterListener(final DeadLetterListener<? super T> listener) {
+        return this.deadLetterListeners.remove(listener);
     }
 
-    public BlockingQueue<T> getRetryQueue() {
-        return this.retryQueue;
+    /**
+     * 返回正在等待退避延迟、尚未回到重试队列的消息数
+     */
+    public int getPendingRetryCount() {
+        return this.retryScheduler.getPendingRetryCount();
     }
 
-    public void registerExpiredTokenListener(final ExpiredTokenListener<? super T> listener) {
-        if (this.isShutDown()) {
-            throw new IllegalStateException(
-                    "Expired token listeners may not be registered after a push manager has been shut down.");
-        }
-
-        synchronized (this.expiredTokenListeners) {
-            this.expiredTokenListeners.add(listener);
-        }
+    /**
+     * 返回因为失败次数达到{@link RetryConfiguration#getMaximumDeliveryAttempts()}而被放弃的消息数
+     */
+    public long getDeadLetterCount() {
+        return this.retryScheduler.getDeadLetterCount();
     }
 
-    public boolean unregisterExpiredTokenListener(final ExpiredTokenListener<? super T> listener) {
-        synchronized (this.expiredTokenListeners) {
-            return this.expiredTokenListeners.remove(listener);
-        }
+    /**
+     * 返回建立连接的熔断器的当前状态
+     */
+    public CircuitBreaker.State getConnectionCircuitBreakerState() {
+        return this.connectionCircuitBreaker.getState();
     }
 
+    /**
+     * 查询Feedback Service，结果分批交给已注册的{@link ExpiredTokenListener}；需要定期查询时可以配置
+     * {@link com.fansz.apns.config.FeedbackConnectionConfiguration#setPollingIntervalMillis(long)}
+     */
     public synchronized void requestExpiredTokens() {
         if (!this.isStarted()) {
             throw new IllegalStateException("Push manager has not been started yet.");
@@ -413,9 +1753,17 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
             throw new IllegalStateException("Push manager has already been shut down.");
         }
 
+        this.startFeedbackConnection();
+    }
+
+    /**
+     * 没有正在进行的查询时建立Feedback连接。定期查询的任务在事件循环中调用该方法，因此不能持有PushManager本身的锁，否则会与
+     * {@link #shutdown(long)}互相等待
+     */
+    private void startFeedbackConnection() {
         synchronized (this.feedbackConnectionMonitor) {
             // If we already have a feedback connection in play, let it finish
-            if (this.feedbackConnection == null) {
+            if (this.feedbackConnection == null && !this.shutDownStarted) {
                 this.expiredTokens = new ArrayList<ExpiredToken>();
 
                 this.feedbackConnection = new FeedbackServiceConnection(this.environment, this.sslContext,
@@ -440,46 +1788,60 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
             this.feedbackConnection = null;
         }
 
-        synchronized (this.failedConnectionListeners) {
-            final PushManager<T> pushManager = this;
+        final PushManager<T> pushManager = this;
 
-            for (final FailedConnectionListener<? super T> listener : this.failedConnectionListeners) {
+        for (final FailedConnectionListener<? super T> listener : this.failedConnectionListeners) {
 
-                // Handle connection failures in a separate thread in case a handler takes a long time to run
-                this.listenerExecutorService.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.handleFailedConnection(pushManager, cause);
-                    }
-                });
-            }
+            // Handle connection failures in a separate thread in case a handler takes a long time to run
+            this.listenerExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    listener.handleFailedConnection(pushManager, cause);
+                }
+            });
         }
     }
 
     @Override
     public void handleExpiredToken(final FeedbackServiceConnection connection, final ExpiredToken token) {
         log.debug("Received expired token {} from feedback connection {}.", token, connection);
+        this.registerInvalidToken(token.getDeviceToken());
         this.expiredTokens.add(token);
+
+        if (this.expiredTokens.size() >= this.configuration.getFeedbackConnectionConfiguration()
+                .getExpiredTokenBatchSize()) {
+            this.dispatchExpiredTokens(this.expiredTokens);
+            this.expiredTokens = new ArrayList<ExpiredToken>();
+        }
     }
 
-    @Override
-    public void handleConnectionClosure(final FeedbackServiceConnection connection) {
-        log.debug("Feedback connection closed: {}", connection);
+    private void dispatchExpiredTokens(final List<ExpiredToken> expiredTokens) {
+        if (this.expiredTokenListeners.isEmpty()) {
+            return;
+        }
 
         final PushManager<T> pushManager = this;
-        final List<ExpiredToken> expiredTokens = new ArrayList<ExpiredToken>(this.expiredTokens);
 
-        synchronized (this.expiredTokenListeners) {
-            for (final ExpiredTokenListener<? super T> listener : this.expiredTokenListeners) {
-                this.listenerExecutorService.submit(new Runnable() {
+        // One task per batch no matter how many listeners there are; iterating a copy-on-write list works on a snapshot,
+        // so listeners registered later don't see this batch
+        final Iterator<ExpiredTokenListener<? super T>> listeners = this.expiredTokenListeners.iterator();
 
-                    @Override
-                    public void run() {
-                        listener.handleExpiredTokens(pushManager, expiredTokens);
-                    }
-                });
+        this.listenerExecutorService.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                while (listeners.hasNext()) {
+                    listeners.next().handleExpiredTokens(pushManager, expiredTokens);
+                }
             }
-        }
+        });
+    }
+
+    @Override
+    public void handleConnectionClosure(final FeedbackServiceConnection connection) {
+        log.debug("Feedback connection closed: {}", connection);
+
+        this.dispatchExpiredTokens(this.expiredTokens);
 
         synchronized (this.feedbackConnectionMonitor) {
             this.feedbackConnection = null;
@@ -491,8 +1853,47 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
     public void handleConnectionSuccess(final ApnsConnection<T> connection) {
         log.debug("Connection succeeded: {}", connection);
 
+        this.connectionCircuitBreaker.recordSuccess();
+
+        this.handshakeLatencyHistogram.record(TimeUnit.NANOSECONDS.toMicros(connection.getHandshakeDurationNanos()));
+
+        if (connection.isSessionResumed()) {
+            this.resumedHandshakeCount.incrementAndGet();
+        } else {
+            this.fullHandshakeCount.incrementAndGet();
+        }
+
+        final boolean standby;
+
+        synchronized (this.standbyConnections) {
+            standby = this.standbyConnections.contains(connection);
+
+            if (standby && !this.shutDownStarted) {
+                this.readyStandbyConnections.add(connection);
+            }
+        }
+
+        if (standby) {
+            if (this.shutDownStarted) {
+                connection.disconnectImmediately();
+            } else {
+                log.debug("{} is ready to take over from a draining connection.", connection);
+            }
+        } else {
+            this.activateConnection(connection);
+        }
+    }
+
+    /**
+     * 让连接开始参与消息分发
+     */
+    private void activateConnection(final ApnsConnection<T> connection) {
         if (this.dispatchThreadShouldContinue) {
-            this.writableConnections.add(connection);
+            if (this.configuration.getDispatchMode() == DispatchMode.PER_CONNECTION) {
+                this.startConnectionDispatcher(connection);
+            } else {
+                this.writableConnections.add(connection);
+            }
         } else {
             // There's no dispatch thread to use this connection, so shut it down immediately
             connection.disconnectImmediately();
@@ -504,27 +1905,101 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.debug("Connection failed: {}", connection, cause);
 
-        this.removeActiveConnection(connection);
+        final boolean standby = this.removeStandbyConnection(connection);
 
-        synchronized (this.failedConnectionListeners) {
-            final PushManager<T> pushManager = this;
+        if (standby && this.shutDownStarted) {
+            // We closed it ourselves
+            return;
+        }
 
-            for (final FailedConnectionListener<? super T> listener : this.failedConnectionListeners) {
+        this.connectionCircuitBreaker.recordFailure();
 
-                // Handle connection failures in a separate thread in case a handler takes a long time to run
-                this.listenerExecutorService.submit(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.handleFailedConnection(pushManager, cause);
+        if (!standby) {
+            this.stopConnectionDispatcher(connection);
+            this.removeActiveConnection(connection);
+        }
+
+        final PushManager<T> pushManager = this;
+
+        for (final FailedConnectionListener<? super T> listener : this.failedConnectionListeners) {
+
+            // Handle connection failures in a separate thread in case a handler takes a long time to run
+            this.listenerExecutorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    listener.handleFailedConnection(pushManager, cause);
+                }
+            });
+        }
+
+        if (standby) {
+            // Don't hammer the gateway with standby connections that nobody is waiting for
+            this.eventLoopGroup.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (!shutDownStarted) {
+                        startStandbyConnection();
                     }
-                });
+                }
+            }, STANDBY_RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (this.shouldReplaceClosedConnection(connection)) {
+            // As long as we're not shut down, try to open a replacement connection.
+            this.startReplacementConnection();
+        }
+    }
+
+    /**
+     * 活动连接开始优雅关闭时，如果有已经完成握手的备用连接，立即由其接替，然后补充一个新的备用连接；关闭中的连接不再替换。
+     * 缩减连接数和关闭推送管理器引起的关闭不会触发接替
+     */
+    @Override
+    public void handleConnectionDraining(final ApnsConnection<T> connection) {
+
+        log.debug("Connection draining: {}", connection);
+
+        this.writableConnections.remove(connection);
+        this.stopConnectionDispatcher(connection);
+
+        final boolean active;
+
+        synchronized (this.activeConnections) {
+            active = this.activeConnections.contains(connection);
+        }
+
+        if (!active || this.shutDownStarted || this.retiringConnections.contains(connection)) {
+            return;
+        }
+
+        final ApnsConnection<T> standbyConnection;
+
+        synchronized (this.standbyConnections) {
+            standbyConnection = this.readyStandbyConnections.poll();
+
+            if (standbyConnection != null) {
+                this.standbyConnections.remove(standbyConnection);
             }
         }
 
-        // As long as we're not shut down, try to open a replacement connection.
-        if (this.shouldReplaceClosedConnection()) {
-            this.startNewConnection();
+        if (standbyConnection == null) {
+            // The draining connection will be replaced when it closes, just like before
+            return;
+        }
+
+        log.debug("{} taking over from draining connection {}.", standbyConnection, connection);
+
+        // The standby connection takes the draining connection's place, so the draining connection must not be
+        // replaced again when it closes
+        this.retiringConnections.add(connection);
+
+        synchronized (this.activeConnections) {
+            this.activeConnections.add(standbyConnection);
         }
+
+        this.promotedStandbyConnectionCount.incrementAndGet();
+        this.activateConnection(standbyConnection);
+
+        this.startStandbyConnection();
     }
 
     @Override
@@ -532,11 +2007,19 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.debug("Writability for {} changed to {}", connection, writable);
 
-        if (writable) {
+        final ConnectionDispatcher connectionDispatcher = this.connectionDispatchers.get(connection);
+
+        if (connectionDispatcher != null) {
+            connectionDispatcher.setWritable(writable);
+        } else if (writable) {
             this.writableConnections.add(connection);
         } else {
             this.writableConnections.remove(connection);
-            this.dispatchThread.interrupt();
+            this.interruptDispatchThreads();
+        }
+
+        if (!writable) {
+            this.writabilityLossCount.incrementAndGet();
         }
     }
 
@@ -545,11 +2028,21 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.debug("Connection closed: {}", connection);
 
+        if (this.removeStandbyConnection(connection)) {
+            // An idle standby connection was closed by the gateway or by its own idle timeout
+            if (!this.shutDownStarted) {
+                this.startStandbyConnection();
+            }
+
+            return;
+        }
+
         this.writableConnections.remove(connection);
-        this.dispatchThread.interrupt();
+        this.stopConnectionDispatcher(connection);
+        this.interruptDispatchThreads();
 
-        if (this.shouldReplaceClosedConnection()) {
-            this.startNewConnection();
+        if (this.shouldReplaceClosedConnection(connection)) {
+            this.startReplacementConnection();
         }
 
         removeActiveConnection(connection);
@@ -557,8 +2050,8 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
     @Override
     public void handleWriteFailure(ApnsConnection<T> connection, T notification, Throwable cause) {
-        this.retryQueue.add(notification);
-        this.dispatchThread.interrupt();
+        this.countRetry(notification);
+        this.retryScheduler.scheduleRetry(notification);
     }
 
     @Override
@@ -567,20 +2060,56 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.debug("{} rejected {}: {}", new Object[]{connection, rejectedNotification, reason});
 
-        final PushManager<T> pushManager = this;
+        if (reason == RejectedNotificationReason.INVALID_TOKEN) {
+            if (rejectedNotification instanceof DeviceTokenPushNotification) {
+                this.registerInvalidToken(((DeviceTokenPushNotification)rejectedNotification).getDeviceToken());
+            } else {
+                this.registerInvalidToken(rejectedNotification.getToken());
+            }
+        }
 
-        synchronized (this.rejectedNotificationListeners) {
-            for (final RejectedNotificationListener<? super T> listener : this.rejectedNotificationListeners) {
+        if (!this.rejectedNotificationListeners.isEmpty() || !this.rejectedNotificationBatchListeners.isEmpty()) {
+            this.rejectionDispatcher.add(new Rejection<T>(rejectedNotification, reason));
+        }
+    }
 
-                // Handle the notifications in a separate thread in case a listener takes a long time to run
-                this.listenerExecutorService.execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        listener.handleRejectedNotification(pushManager, rejectedNotification, reason);
+    /**
+     * 在listener线程中用一个任务把一批被拒绝的消息交给所有listener：批量listener每批调用一次，逐条listener按顺序逐条调用
+     */
+    private void dispatchRejections(final List<Rejection<T>> rejections) {
+        final Iterator<RejectedNotificationListener<? super T>> listeners = this.rejectedNotificationListeners
+                .iterator();
+        final Iterator<RejectedNotificationBatchListener<? super T>> batchListeners = this.rejectedNotificationBatchListeners
+                .iterator();
+
+        // Handle the notifications in a separate thread in case a listener takes a long time to run
+        this.listenerExecutorService.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (batchListeners.hasNext()) {
+                    deliverRejections(batchListeners.next(), PushManager.this, rejections);
+                }
+
+                while (listeners.hasNext()) {
+                    final RejectedNotificationListener<? super T> listener = listeners.next();
+
+                    for (final Rejection<T> rejection : rejections) {
+                        listener.handleRejectedNotification(PushManager.this, rejection.getNotification(),
+                                rejection.getReason());
                     }
-                });
+                }
             }
-        }
+        });
+    }
+
+    /**
+     * {@link Rejection}只能读取，所以把{@code Rejection<T>}的列表当作{@code Rejection<S>}的列表交给{@code S}的listener是安全的
+     */
+    @SuppressWarnings("unchecked")
+    private static <S extends ApnsPushNotification> void deliverRejections(
+            final RejectedNotificationBatchListener<S> listener, final PushManager<? extends S> pushManager,
+            final List<? extends Rejection<? extends S>> rejections) {
+        listener.handleRejectedNotifications(pushManager, (List<Rejection<S>>)rejections);
     }
 
     @Override
@@ -588,15 +2117,71 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
 
         log.debug("{} returned {} unprocessed notifications", connection, unprocessedNotifications.size());
 
+        // These notifications didn't fail; the gateway never looked at them because of another notification's
+        // rejection, so they go straight back without counting an attempt or waiting out a back-off
         this.retryQueue.addAll(unprocessedNotifications);
 
-        this.dispatchThread.interrupt();
+        this.interruptDispatchThreads();
+    }
+
+    /**
+     * 放弃失败次数达到上限的消息：确定被跟踪消息的结果，然后通知{@link DeadLetterListener}
+     */
+    private void handleDeadLetter(final T notification, final int attempts) {
+        log.debug("{} giving up on {} after {} failed attempts.", new Object[]{this.name, notification, attempts});
+
+        final DeliveryReceipt deliveryReceipt = this.deliveryReceipts.remove(notification);
+
+        if (deliveryReceipt != null) {
+            deliveryReceipt.handleOutcome(DeliveryOutcome.DEAD_LETTERED);
+        }
+
+        for (final DeadLetterListener<? super T> listener : this.deadLetterListeners) {
+
+            // Handle the notifications in a separate thread in case a listener takes a long time to run
+            this.listenerExecutorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.handleDeadLetter(PushManager.this, notification, attempts);
+                }
+            });
+        }
+    }
+
+    private ApnsConnection<T> createConnection() {
+        return new ApnsConnection<T>(this.environment, this.sslContext, this.eventLoopGroup,
+                this.configuration.getConnectionConfiguration(), this, String.format("%s-connection-%d", this.name,
+                        this.connectionCounter.getAndIncrement()), this.pushNotificationFactory, this);
+    }
+
+    /**
+     * 替换关闭或者失败的连接；熔断时推迟到熔断结束之后再检查
+     */
+    private void startReplacementConnection() {
+        if (this.connectionCircuitBreaker.allowRequest()) {
+            this.startNewConnection();
+            return;
+        }
+
+        final long delayMillis = Math.max(this.connectionCircuitBreaker.getMillisUntilHalfOpen(),
+                CIRCUIT_BREAKER_RECHECK_MILLIS);
+
+        log.debug("{} postponing a replacement connection for {} ms while the circuit breaker is open.", this.name,
+                delayMillis);
+
+        this.eventLoopGroup.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!shutDownStarted || (dispatchThreadShouldContinue && !retryQueue.isEmpty())) {
+                    startReplacementConnection();
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
     }
 
     private void startNewConnection() {
-        final ApnsConnection<T> connection = new ApnsConnection<T>(this.environment, this.sslContext,
-                this.eventLoopGroup, this.configuration.getConnectionConfiguration(), this, String.format(
-                "%s-connection-%d", this.name, this.connectionCounter.getAndIncrement()));
+        final ApnsConnection<T> connection = this.createConnection();
 
         connection.connect();
 
@@ -605,6 +2190,29 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
         }
     }
 
+    /**
+     * 建立一个备用连接，握手完成之后进入{@link #readyStandbyConnections}等待接替活动连接
+     */
+    private void startStandbyConnection() {
+        final ApnsConnection<T> connection = this.createConnection();
+
+        synchronized (this.standbyConnections) {
+            this.standbyConnections.add(connection);
+        }
+
+        connection.connect();
+    }
+
+    /**
+     * @return 连接是否是备用连接
+     */
+    private boolean removeStandbyConnection(final ApnsConnection<T> connection) {
+        synchronized (this.standbyConnections) {
+            this.readyStandbyConnections.remove(connection);
+            return this.standbyConnections.remove(connection);
+        }
+    }
+
     private void removeActiveConnection(final ApnsConnection<T> connection) {
         synchronized (this.activeConnections) {
             final boolean removedConnection = this.activeConnections.remove(connection);
@@ -640,7 +2248,12 @@ public class PushManager<T extends ApnsPushNotification> implements ApnsConnecti
         }
     }
 
-    private boolean shouldReplaceClosedConnection() {
+    private boolean shouldReplaceClosedConnection(final ApnsConnection<T> connection) {
+        if (this.retiringConnections.remove(connection)) {
+            // The connection was closed on purpose to shrink the pool, or a standby connection took its place
+            return false;
+        }
+
         if (this.shutDownStarted) {
             if (this.dispatchThreadShouldContinue) {
                 return !this.retryQueue.isEmpty();
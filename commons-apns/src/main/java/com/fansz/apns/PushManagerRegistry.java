@@ -0,0 +1,379 @@
+package com.fansz.apns;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fansz.apns.config.ApnsEnvironment;
+import com.fansz.apns.config.PushManagerConfiguration;
+import com.fansz.apns.config.PushManagerRegistryConfiguration;
+import com.fansz.apns.support.ApnsPushNotification;
+import com.fansz.apns.support.ApnsPushNotificationFactory;
+import com.fansz.apns.support.DispatchMode;
+import com.fansz.apns.support.RetryScheduler;
+import com.fansz.apns.support.TokenBucket;
+import com.fansz.apns.util.TransportUtil;
+
+/**
+ * <p>
+ * 在一组共享资源上托管多个应用（证书）的PushManager：所有应用共用一个事件循环组、一个listener线程池、一个重试时间轮和一个分发线程，线程数不随
+ * 应用数量增长。
+ * </p>
+ * <p>
+ * 注册的PushManager使用{@link DispatchMode#SHARED}，分发线程按{@link PushManagerConfiguration#getDispatchQuantum()}在有消息的应用之间加权轮转，
+ * 积压严重的应用不会占满分发线程；配置了{@link PushManagerConfiguration#getDispatchRateLimit()}的应用超出上限时被跳过，直到令牌补充
+ * </p>
+ * <p>
+ * 没有消息时分发线程休眠，通过{@link PushManager#submit(ApnsPushNotification)}提交的消息、重试和恢复可写的连接会立即唤醒它；直接放入
+ * {@link PushManager#getQueue()}的消息在长时间空闲之后最多等待50毫秒才被发送
+ * </p>
+ */
+public class PushManagerRegistry<T extends ApnsPushNotification> {
+
+    private final PushManagerRegistryConfiguration configuration;
+
+    private final String name;
+
+    private static final AtomicInteger registryCounter = new AtomicInteger(0);
+
+    private final EventLoopGroup eventLoopGroup;
+
+    private final ExecutorService listenerExecutorService;
+
+    private final HashedWheelTimer retryTimer;
+
+    private final Map<String, RegisteredApp<T>> apps = new LinkedHashMap<String, RegisteredApp<T>>();
+
+    /** 分发线程轮转的顺序，注册和注销时整体替换，分发线程遍历时不需要加锁 */
+    private final List<RegisteredApp<T>> dispatchOrder = new CopyOnWriteArrayList<RegisteredApp<T>>();
+
+    private volatile Thread dispatchThread;
+
+    /** 注册的PushManager有新的工作时唤醒分发线程 */
+    private final Runnable dispatchSignal = new Runnable() {
+
+        @Override
+        public void run() {
+            LockSupport.unpark(dispatchThread);
+        }
+    };
+
+    private volatile boolean dispatchThreadShouldContinue = true;
+
+    private boolean started = false;
+
+    private boolean shutDown = false;
+
+    /**
+     * 所有应用都没有可发送的消息时，分发线程等待PushManager唤醒的最短时间；连续空闲时每次加倍，直到{@link #MAXIMUM_IDLE_PARK_NANOS}
+     */
+    private static final long MINIMUM_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * 空闲时最长的等待时间。调用者直接放入{@link PushManager#getQueue()}的消息不会唤醒分发线程，最晚在这段时间之后被发现
+     */
+    private static final long MAXIMUM_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final Logger log = LoggerFactory.getLogger(PushManagerRegistry.class);
+
+    private static class RegisteredApp<T extends ApnsPushNotification> {
+
+        private final String appName;
+
+        private final PushManager<T> pushManager;
+
+        private final int dispatchQuantum;
+
+        private final TokenBucket dispatchRateLimiter;
+
+        private final AtomicLong dispatchedNotificationCount = new AtomicLong(0);
+
+        public RegisteredApp(final String appName, final PushManager<T> pushManager,
+                final PushManagerConfiguration configuration) {
+            this.appName = appName;
+            this.pushManager = pushManager;
+            this.dispatchQuantum = configuration.getDispatchQuantum();
+            this.dispatchRateLimiter = configuration.getDispatchRateLimit() != null ? new TokenBucket(
+                    configuration.getDispatchRateLimit()) : null;
+        }
+    }
+
+    public PushManagerRegistry(final PushManagerRegistryConfiguration configuration) {
+        this(configuration, null);
+    }
+
+    /**
+     * @param name 用于线程名和日志，为null时自动生成
+     */
+    public PushManagerRegistry(final PushManagerRegistryConfiguration configuration, final String name) {
+        if (configuration == null) {
+            throw new NullPointerException("Configuration object must not be null.");
+        }
+
+        this.configuration = new PushManagerRegistryConfiguration(configuration);
+        this.name = name == null ? String.format("PushManagerRegistry-%d", registryCounter.getAndIncrement()) : name;
+
+        this.eventLoopGroup = TransportUtil.createEventLoopGroup(this.configuration.getTransportType(),
+                this.configuration.getEventLoopThreadCount());
+
+        this.listenerExecutorService = Executors.newFixedThreadPool(this.configuration.getListenerThreadCount(),
+                new DefaultThreadFactory(String.format("%s-listener", this.name)));
+
+        this.retryTimer = new HashedWheelTimer(new DefaultThreadFactory(String.format("%s-retry", this.name), true),
+                RetryScheduler.TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, RetryScheduler.TICKS_PER_WHEEL);
+    }
+
+    /**
+     * 注册一个应用并创建其PushManager；注册表已经启动时PushManager立即启动，否则随{@link #start()}启动
+     *
+     * @param configuration 应用的配置，分发方式总是被设置为{@link DispatchMode#SHARED}，传输类型由注册表决定
+     *
+     * @throws IllegalStateException 应用名称已被注册，或者注册表已经关闭
+     */
+    public PushManager<T> register(final String appName, final ApnsEnvironment environment,
+            final SSLContext sslContext, final PushManagerConfiguration configuration,
+            final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        return this.register(appName, environment, PushManager.wrapSslContext(sslContext, configuration),
+                configuration, null, pushNotificationFactory);
+    }
+
+    /**
+     * 与{@link #register(String, ApnsEnvironment, SSLContext, PushManagerConfiguration, ApnsPushNotificationFactory)}
+     * 相同，但使用Netty的{@link SslContext}，并且可以指定应用的发送队列
+     *
+     * @param queue 应用的发送队列，为null时创建无界队列
+     */
+    public synchronized PushManager<T> register(final String appName, final ApnsEnvironment environment,
+            final SslContext sslContext, final PushManagerConfiguration configuration, final BlockingQueue<T> queue,
+            final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        if (appName == null) {
+            throw new NullPointerException("App name must not be null.");
+        }
+
+        if (configuration == null) {
+            throw new NullPointerException("Configuration object must not be null.");
+        }
+
+        if (this.shutDown) {
+            throw new IllegalStateException("Apps may not be registered after the registry has been shut down.");
+        }
+
+        if (this.apps.containsKey(appName)) {
+            throw new IllegalStateException(String.format("An app named %s is already registered.", appName));
+        }
+
+        final PushManagerConfiguration sharedConfiguration = new PushManagerConfiguration(configuration);
+        sharedConfiguration.setDispatchMode(DispatchMode.SHARED);
+
+        final PushManager<T> pushManager = new PushManager<T>(environment, sslContext, this.eventLoopGroup,
+                this.listenerExecutorService, queue, sharedConfiguration, String.format("%s-%s", this.name, appName),
+                pushNotificationFactory, this.retryTimer, this.dispatchSignal);
+
+        final RegisteredApp<T> app = new RegisteredApp<T>(appName, pushManager, sharedConfiguration);
+
+        this.apps.put(appName, app);
+        this.dispatchOrder.add(app);
+
+        if (this.started) {
+            pushManager.start();
+        }
+
+        log.info("{} registered {}.", this.name, appName);
+
+        return pushManager;
+    }
+
+    /**
+     * 返回应用的PushManager，未注册时返回{@code null}
+     */
+    public synchronized PushManager<T> getPushManager(final String appName) {
+        final RegisteredApp<T> app = this.apps.get(appName);
+        return app != null ? app.pushManager : null;
+    }
+
+    public synchronized List<String> getAppNames() {
+        return new ArrayList<String>(this.apps.keySet());
+    }
+
+    /**
+     * 返回共享分发线程为该应用发送的消息数，未注册时返回0
+     */
+    public synchronized long getDispatchedNotificationCount(final String appName) {
+        final RegisteredApp<T> app = this.apps.get(appName);
+        return app != null ? app.dispatchedNotificationCount.get() : 0;
+    }
+
+    /**
+     * 启动共享分发线程和所有已注册的PushManager
+     *
+     * @throws IllegalStateException 注册表已经启动或者已经关闭
+     */
+    public synchronized void start() {
+        if (this.started) {
+            throw new IllegalStateException("Push manager registry has already been started.");
+        }
+
+        if (this.shutDown) {
+            throw new IllegalStateException("Push manager registry has already been shut down and may not be restarted.");
+        }
+
+        log.info("{} starting with {} apps.", this.name, this.apps.size());
+
+        this.started = true;
+
+        this.dispatchThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, String.format("%s-dispatch", this.name));
+
+        this.dispatchThread.start();
+
+        for (final RegisteredApp<T> app : this.apps.values()) {
+            app.pushManager.start();
+        }
+    }
+
+    private void dispatch() {
+        long idleParkNanos = MINIMUM_IDLE_PARK_NANOS;
+
+        while (this.dispatchThreadShouldContinue) {
+            boolean dispatchedAny = false;
+            long nanosUntilRateLimitedApp = Long.MAX_VALUE;
+
+            for (final RegisteredApp<T> app : this.dispatchOrder) {
+                final long nanosUntilAvailable = app.dispatchRateLimiter != null ? app.dispatchRateLimiter
+                        .getNanosUntilAvailable() : 0;
+
+                if (nanosUntilAvailable > 0) {
+                    nanosUntilRateLimitedApp = Math.min(nanosUntilRateLimitedApp, nanosUntilAvailable);
+                    continue;
+                }
+
+                try {
+                    final int dispatchedCount = app.pushManager.dispatch(app.dispatchQuantum);
+
+                    if (dispatchedCount > 0) {
+                        dispatchedAny = true;
+                        app.dispatchedNotificationCount.addAndGet(dispatchedCount);
+
+                        if (app.dispatchRateLimiter != null) {
+                            for (int i = 0; i < dispatchedCount; i++) {
+                                app.dispatchRateLimiter.acquire();
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // We're either shutting down or being asked to look again; either way, the loop condition decides
+                    break;
+                } catch (RuntimeException e) {
+                    // Don't let one app's problem stop delivery for every other app
+                    log.error("{} failed to dispatch notifications for {}.", new Object[]{this.name, app.appName, e});
+                }
+            }
+
+            if (dispatchedAny) {
+                idleParkNanos = MINIMUM_IDLE_PARK_NANOS;
+            } else {
+                // Registered push managers unpark this thread when notifications, retries or writable connections turn
+                // up, so the park only bounds how long direct queue insertions and refilling rate limits go unnoticed
+                LockSupport.parkNanos(this, Math.min(idleParkNanos, nanosUntilRateLimitedApp));
+                idleParkNanos = Math.min(idleParkNanos * 2, MAXIMUM_IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * 注销应用并关闭其PushManager，最多等待{@code timeout}毫秒；关闭期间共享分发线程继续发送该应用重试队列中的消息
+     *
+     * @return 尚未发送的消息，应用未注册时返回{@code null}
+     */
+    public List<T> unregister(final String appName, final long timeout) throws InterruptedException {
+        final RegisteredApp<T> app;
+
+        synchronized (this) {
+            app = this.apps.remove(appName);
+        }
+
+        if (app == null) {
+            return null;
+        }
+
+        final List<T> unsentNotifications = app.pushManager.isStarted() ? app.pushManager.shutdown(timeout)
+                : new ArrayList<T>();
+
+        this.dispatchOrder.remove(app);
+
+        log.info("{} unregistered {}.", this.name, appName);
+
+        return unsentNotifications;
+    }
+
+    /**
+     * 关闭所有应用的PushManager以及共享的线程，所有应用一共最多等待{@code timeout}毫秒，为0时不限制
+     *
+     * @return 每个应用尚未发送的消息
+     */
+    public synchronized Map<String, List<T>> shutdown(final long timeout) throws InterruptedException {
+        final Map<String, List<T>> unsentNotifications = new LinkedHashMap<String, List<T>>();
+
+        if (this.shutDown) {
+            log.warn("{} has already been shut down; shutting down multiple times is harmless, but may "
+                    + "indicate a problem elsewhere.", this.name);
+
+            return unsentNotifications;
+        }
+
+        log.info("{} shutting down.", this.name);
+
+        this.shutDown = true;
+
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        for (final RegisteredApp<T> app : this.apps.values()) {
+            if (app.pushManager.isStarted()) {
+                final long remainingMillis = timeout > 0 ? Math.max(deadline - System.currentTimeMillis(), 1) : 0;
+                unsentNotifications.put(app.appName, app.pushManager.shutdown(remainingMillis));
+            } else {
+                unsentNotifications.put(app.appName, new ArrayList<T>());
+            }
+        }
+
+        this.apps.clear();
+        this.dispatchOrder.clear();
+
+        this.dispatchThreadShouldContinue = false;
+
+        if (this.dispatchThread != null) {
+            this.dispatchThread.interrupt();
+            this.dispatchThread.join();
+        }
+
+        this.retryTimer.stop();
+        this.listenerExecutorService.shutdown();
+        this.eventLoopGroup.shutdownGracefully().await();
+
+        return unsentNotifications;
+    }
+}
@@ -2,24 +2,34 @@ package com.fansz.apns.codec;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
 import java.nio.charset.Charset;
 import java.util.Date;
+import java.util.List;
 
+import com.fansz.apns.model.ApnsPayload;
 import com.fansz.apns.model.SendableApnsPushNotification;
 import com.fansz.apns.support.ApnsFrameItem;
 import com.fansz.apns.support.ApnsPushNotification;
 import com.fansz.apns.support.DeliveryPriority;
+import com.fansz.apns.support.DeviceToken;
+import com.fansz.apns.support.DeviceTokenPushNotification;
+import com.fansz.apns.support.EncodedPayloadPushNotification;
+import com.fansz.apns.support.WritablePayloadPushNotification;
 
 /**
  * 推送消息编码器，将Java对象转换为二进制流
- * 
+ * <p>
+ * Payload被放在帧的最后一项，如果消息实现了{@link EncodedPayloadPushNotification}，帧由固定长度的帧头（包含device token）和共享Payload缓冲区的引用
+ * 两部分组成，Payload不会被重新编码或复制；如果消息实现了{@link WritablePayloadPushNotification}，Payload由消息直接写入帧缓冲区
+ * </p>
+ *
  * @author allan
  * @param <T>
  */
 public class ApnsPushNotificationEncoder<T extends ApnsPushNotification> extends
-        MessageToByteEncoder<SendableApnsPushNotification<T>> {
+        MessageToMessageEncoder<SendableApnsPushNotification<T>> {
 
     private static final byte BINARY_PUSH_NOTIFICATION_COMMAND = 2;
 
@@ -29,66 +39,106 @@ public class ApnsPushNotificationEncoder<T extends ApnsPushNotification> extends
 
     private static final int FRAME_ITEM_LENGTH_SIZE = 2;
 
+    private static final int FRAME_HEADER_LENGTH = 1 + 4;
+
+    /** 除device token和payload之外，帧数据的固定长度 */
+    private static final int FIXED_FRAME_LENGTH = ApnsFrameItem.values().length
+            * (FRAME_ITEM_ID_SIZE + FRAME_ITEM_LENGTH_SIZE) + ApnsFrameItem.SEQUENCE_NUMBER.getSize()
+            + ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getSize() + ApnsFrameItem.PRIORITY.getSize();
+
     private final Charset utf8 = Charset.forName("UTF-8");
 
     @Override
     protected void encode(final ChannelHandlerContext context,
-            final SendableApnsPushNotification<T> sendablePushNotification, final ByteBuf out) throws Exception {
-        out.writeByte(BINARY_PUSH_NOTIFICATION_COMMAND);// 按照Apple规范，一个字节，固定为2
-        out.writeInt(this.getFrameLength(sendablePushNotification));
+            final SendableApnsPushNotification<T> sendablePushNotification, final List<Object> out) throws Exception {
+        final ApnsPushNotification pushNotification = sendablePushNotification.getPushNotification();
+        final DeviceToken deviceToken = pushNotification instanceof DeviceTokenPushNotification ? ((DeviceTokenPushNotification)pushNotification)
+                .getDeviceToken() : null;
+        final byte[] token = deviceToken == null ? pushNotification.getToken() : null;
+        final int tokenLength = deviceToken != null ? deviceToken.getLength() : token.length;
+
+        final ApnsPayload encodedPayload = pushNotification instanceof EncodedPayloadPushNotification ? ((EncodedPayloadPushNotification)pushNotification)
+                .getEncodedPayload() : null;
+
+        final WritablePayloadPushNotification writablePayloadNotification = encodedPayload == null
+                && pushNotification instanceof WritablePayloadPushNotification ? (WritablePayloadPushNotification)pushNotification
+                : null;
+
+        final byte[] payloadBytes = encodedPayload == null && writablePayloadNotification == null ? pushNotification
+                .getPayload().getBytes(utf8) : null;
+
+        final int payloadLength;
 
-        out.writeByte(ApnsFrameItem.SEQUENCE_NUMBER.getCode());
-        out.writeShort(ApnsFrameItem.SEQUENCE_NUMBER.getSize());
-        out.writeInt(sendablePushNotification.getSequenceNumber());
+        if (encodedPayload != null) {
+            payloadLength = encodedPayload.getLength();
+        }
+        else if (writablePayloadNotification != null) {
+            payloadLength = writablePayloadNotification.getPayloadLength();
+        }
+        else {
+            payloadLength = payloadBytes.length;
+        }
 
-        out.writeByte(ApnsFrameItem.DEVICE_TOKEN.getCode());
-        out.writeShort(sendablePushNotification.getPushNotification().getToken().length);
-        out.writeBytes(sendablePushNotification.getPushNotification().getToken());
+        final int frameLength = FIXED_FRAME_LENGTH + tokenLength + payloadLength;
+        final ByteBuf header = context.alloc().ioBuffer(
+                FRAME_HEADER_LENGTH + frameLength - (encodedPayload != null ? payloadLength : 0));
 
-        final byte[] payloadBytes = sendablePushNotification.getPushNotification().getPayload().getBytes(utf8);
+        header.writeByte(BINARY_PUSH_NOTIFICATION_COMMAND);// 按照Apple规范，一个字节，固定为2
+        header.writeInt(frameLength);
 
-        out.writeByte(ApnsFrameItem.PAYLOAD.getCode());
-        out.writeShort(payloadBytes.length);
-        out.writeBytes(payloadBytes);
+        header.writeByte(ApnsFrameItem.SEQUENCE_NUMBER.getCode());
+        header.writeShort(ApnsFrameItem.SEQUENCE_NUMBER.getSize());
+        header.writeInt(sendablePushNotification.getSequenceNumber());
 
-        out.writeByte(ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getCode());
-        out.writeShort(ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getSize());
+        header.writeByte(ApnsFrameItem.DEVICE_TOKEN.getCode());
+        header.writeShort(tokenLength);
+
+        if (deviceToken != null) {
+            deviceToken.writeTo(header);
+        }
+        else {
+            header.writeBytes(token);
+        }
+
+        header.writeByte(ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getCode());
+        header.writeShort(ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getSize());
 
         final int deliveryInvalidationTime;
 
-        if (sendablePushNotification.getPushNotification().getDeliveryInvalidationTime() != null) {
-            deliveryInvalidationTime = this.getTimestampInSeconds(sendablePushNotification.getPushNotification()
-                    .getDeliveryInvalidationTime());
+        if (pushNotification.getDeliveryInvalidationTime() != null) {
+            deliveryInvalidationTime = this.getTimestampInSeconds(pushNotification.getDeliveryInvalidationTime());
         }
         else {
             deliveryInvalidationTime = INVALIDATE_IMMEDIATELY;
         }
 
-        out.writeInt(deliveryInvalidationTime);
+        header.writeInt(deliveryInvalidationTime);
 
-        final DeliveryPriority priority = sendablePushNotification.getPushNotification().getPriority() != null ? sendablePushNotification
-                .getPushNotification().getPriority() : DeliveryPriority.IMMEDIATE;
+        final DeliveryPriority priority = pushNotification.getPriority() != null ? pushNotification.getPriority()
+                : DeliveryPriority.IMMEDIATE;
 
-        out.writeByte(ApnsFrameItem.PRIORITY.getCode());
-        out.writeShort(ApnsFrameItem.PRIORITY.getSize());
-        out.writeByte(priority.getCode());
+        header.writeByte(ApnsFrameItem.PRIORITY.getCode());
+        header.writeShort(ApnsFrameItem.PRIORITY.getSize());
+        header.writeByte(priority.getCode());
+
+        header.writeByte(ApnsFrameItem.PAYLOAD.getCode());
+        header.writeShort(payloadLength);
+
+        if (encodedPayload != null) {
+            out.add(header);
+            out.add(encodedPayload.getBuffer().duplicate());
+        }
+        else if (writablePayloadNotification != null) {
+            writablePayloadNotification.writePayload(header);
+            out.add(header);
+        }
+        else {
+            header.writeBytes(payloadBytes);
+            out.add(header);
+        }
     }
 
     private int getTimestampInSeconds(final Date date) {
         return (int)(date.getTime() / 1000);
     }
-
-    /**
-     * 获取发送消息的大小
-     * 
-     * @param sendableApnsPushNotification
-     * @return
-     */
-    private int getFrameLength(final SendableApnsPushNotification<T> sendableApnsPushNotification) {
-        return ApnsFrameItem.values().length * (FRAME_ITEM_ID_SIZE + FRAME_ITEM_LENGTH_SIZE)
-                + sendableApnsPushNotification.getPushNotification().getToken().length
-                + sendableApnsPushNotification.getPushNotification().getPayload().getBytes(utf8).length
-                + ApnsFrameItem.SEQUENCE_NUMBER.getSize() + ApnsFrameItem.DELIVERY_INVALIDATION_TIME.getSize()
-                + ApnsFrameItem.PRIORITY.getSize();
-    }
 }
@@ -7,14 +7,20 @@ import io.netty.handler.codec.ReplayingDecoder;
 import java.util.Date;
 import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.fansz.apns.model.ExpiredToken;
+import com.fansz.apns.support.DeviceToken;
 import com.fansz.apns.support.ExpiredTokenDecoderState;
 
 public class ExpiredTokenDecoder extends ReplayingDecoder<ExpiredTokenDecoderState> {
 
+    private static final Logger log = LoggerFactory.getLogger(ExpiredTokenDecoder.class);
+
     private Date expiration;
 
-    private byte[] token;
+    private int tokenLength;
 
     public ExpiredTokenDecoder() {
         super(ExpiredTokenDecoderState.EXPIRATION);
@@ -33,15 +39,24 @@ public class ExpiredTokenDecoder extends ReplayingDecoder<ExpiredTokenDecoderSta
             }
 
             case TOKEN_LENGTH: {
-                this.token = new byte[in.readShort() & 0x0000FFFF];
-                this.checkpoint(ExpiredTokenDecoderState.TOKEN);
+                this.tokenLength = in.readShort() & 0x0000FFFF;
+
+                if (this.tokenLength < 1 || this.tokenLength > DeviceToken.MAX_LENGTH) {
+                    // The feedback service drops tokens once it has sent them, so skip the bad record instead of
+                    // failing the connection and losing everything after it
+                    in.skipBytes(this.tokenLength);
+                    log.warn("Skipped an expired token with an unexpected length of {} bytes.", this.tokenLength);
+
+                    this.checkpoint(ExpiredTokenDecoderState.EXPIRATION);
+                } else {
+                    this.checkpoint(ExpiredTokenDecoderState.TOKEN);
+                }
 
                 break;
             }
 
             case TOKEN: {
-                in.readBytes(this.token);
-                out.add(new ExpiredToken(this.token, this.expiration));
+                out.add(new ExpiredToken(DeviceToken.readFrom(in, this.tokenLength), this.expiration));
 
                 this.checkpoint(ExpiredTokenDecoderState.EXPIRATION);
 
@@ -0,0 +1,152 @@
+package com.fansz.apns.config;
+
+/**
+ * 自动调整连接数的配置，{@link com.fansz.apns.PushManager}定期采样排队消息数、连接不可写的次数和写入延迟，在最小和最大连接数之间增减连接
+ */
+public class AdaptiveConnectionPoolConfiguration {
+
+    private int minimumConnectionCount = 1;
+
+    private int maximumConnectionCount = 8;
+
+    private int sampleIntervalMillis = 1000;
+
+    private int queueDepthPerConnection = 1000;
+
+    private int maximumWriteLatencyMillis = 50;
+
+    private int idleSamplesBeforeShrinking = 30;
+
+    public AdaptiveConnectionPoolConfiguration() {
+    }
+
+    public AdaptiveConnectionPoolConfiguration(final AdaptiveConnectionPoolConfiguration configuration) {
+        this.minimumConnectionCount = configuration.minimumConnectionCount;
+        this.maximumConnectionCount = configuration.maximumConnectionCount;
+        this.sampleIntervalMillis = configuration.sampleIntervalMillis;
+        this.queueDepthPerConnection = configuration.queueDepthPerConnection;
+        this.maximumWriteLatencyMillis = configuration.maximumWriteLatencyMillis;
+        this.idleSamplesBeforeShrinking = configuration.idleSamplesBeforeShrinking;
+    }
+
+    public int getMinimumConnectionCount() {
+        return this.minimumConnectionCount;
+    }
+
+    public void setMinimumConnectionCount(final int minimumConnectionCount) {
+        if (minimumConnectionCount < 1) {
+            throw new IllegalArgumentException("Minimum connection count must be greater than zero.");
+        }
+
+        this.minimumConnectionCount = minimumConnectionCount;
+    }
+
+    public int getMaximumConnectionCount() {
+        return this.maximumConnectionCount;
+    }
+
+    public void setMaximumConnectionCount(final int maximumConnectionCount) {
+        if (maximumConnectionCount < 1) {
+            throw new IllegalArgumentException("Maximum connection count must be greater than zero.");
+        }
+
+        this.maximumConnectionCount = maximumConnectionCount;
+    }
+
+    public int getSampleIntervalMillis() {
+        return this.sampleIntervalMillis;
+    }
+
+    /**
+     * 设置采样间隔，每次采样最多增加或减少一个连接
+     */
+    public void setSampleIntervalMillis(final int sampleIntervalMillis) {
+        if (sampleIntervalMillis < 1) {
+            throw new IllegalArgumentException("Sample interval must be greater than zero.");
+        }
+
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    public int getQueueDepthPerConnection() {
+        return this.queueDepthPerConnection;
+    }
+
+    /**
+     * 设置每个连接可以承担的排队消息数，排队消息数超过该值与当前连接数的乘积时增加连接
+     */
+    public void setQueueDepthPerConnection(final int queueDepthPerConnection) {
+        if (queueDepthPerConnection < 1) {
+            throw new IllegalArgumentException("Queue depth per connection must be greater than zero.");
+        }
+
+        this.queueDepthPerConnection = queueDepthPerConnection;
+    }
+
+    public int getMaximumWriteLatencyMillis() {
+        return this.maximumWriteLatencyMillis;
+    }
+
+    /**
+     * 设置可以接受的平均写入延迟，有积压并且延迟超过该值时增加连接
+     */
+    public void setMaximumWriteLatencyMillis(final int maximumWriteLatencyMillis) {
+        if (maximumWriteLatencyMillis < 1) {
+            throw new IllegalArgumentException("Maximum write latency must be greater than zero.");
+        }
+
+        this.maximumWriteLatencyMillis = maximumWriteLatencyMillis;
+    }
+
+    public int getIdleSamplesBeforeShrinking() {
+        return this.idleSamplesBeforeShrinking;
+    }
+
+    /**
+     * 设置连续多少次采样都没有积压时减少一个连接
+     */
+    public void setIdleSamplesBeforeShrinking(final int idleSamplesBeforeShrinking) {
+        if (idleSamplesBeforeShrinking < 1) {
+            throw new IllegalArgumentException("Idle samples before shrinking must be greater than zero.");
+        }
+
+        this.idleSamplesBeforeShrinking = idleSamplesBeforeShrinking;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + minimumConnectionCount;
+        result = prime * result + maximumConnectionCount;
+        result = prime * result + sampleIntervalMillis;
+        result = prime * result + queueDepthPerConnection;
+        result = prime * result + maximumWriteLatencyMillis;
+        result = prime * result + idleSamplesBeforeShrinking;
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final AdaptiveConnectionPoolConfiguration other = (AdaptiveConnectionPoolConfiguration)obj;
+        if (minimumConnectionCount != other.minimumConnectionCount)
+            return false;
+        if (maximumConnectionCount != other.maximumConnectionCount)
+            return false;
+        if (sampleIntervalMillis != other.sampleIntervalMillis)
+            return false;
+        if (queueDepthPerConnection != other.queueDepthPerConnection)
+            return false;
+        if (maximumWriteLatencyMillis != other.maximumWriteLatencyMillis)
+            return false;
+        if (idleSamplesBeforeShrinking != other.idleSamplesBeforeShrinking)
+            return false;
+        return true;
+    }
+}
@@ -1,6 +1,8 @@
 package com.fansz.apns.config;
 
 import com.fansz.apns.connection.ApnsConnection;
+import com.fansz.apns.support.ApnsProtocol;
+import com.fansz.apns.support.RateLimit;
 
 /**
  * APNS连接配置类
@@ -15,6 +17,16 @@ public class ApnsConnectionConfiguration {
 
     private Integer sendAttemptLimit = null;
 
+    private Integer flushAfterWriteCount = null;
+
+    private Integer flushAfterMillis = null;
+
+    private boolean storeSentNotificationsOffHeap = false;
+
+    private RateLimit sendRateLimit = null;
+
+    private ApnsProtocol protocol = ApnsProtocol.LEGACY_BINARY;
+
     public ApnsConnectionConfiguration() {
     }
 
@@ -23,6 +35,11 @@ public class ApnsConnectionConfiguration {
         this.closeAfterInactivityTime = configuration.closeAfterInactivityTime;
         this.gracefulShutdownTimeout = configuration.gracefulShutdownTimeout;
         this.sendAttemptLimit = configuration.sendAttemptLimit;
+        this.flushAfterWriteCount = configuration.flushAfterWriteCount;
+        this.flushAfterMillis = configuration.flushAfterMillis;
+        this.storeSentNotificationsOffHeap = configuration.storeSentNotificationsOffHeap;
+        this.sendRateLimit = configuration.sendRateLimit;
+        this.protocol = configuration.protocol;
     }
 
     public int getSentNotificationBufferCapacity() {
@@ -57,14 +74,88 @@ public class ApnsConnectionConfiguration {
         this.sendAttemptLimit = sendAttemptLimit;
     }
 
+    public Integer getFlushAfterWriteCount() {
+        return this.flushAfterWriteCount;
+    }
+
+    /**
+     * 设置累计写入多少条消息之后才执行一次flush，为null时每条消息都立即flush
+     */
+    public void setFlushAfterWriteCount(final Integer flushAfterWriteCount) {
+        if (flushAfterWriteCount != null && flushAfterWriteCount < 1) {
+            throw new IllegalArgumentException("Flush write count must be positive.");
+        }
+
+        this.flushAfterWriteCount = flushAfterWriteCount;
+    }
+
+    public Integer getFlushAfterMillis() {
+        return this.flushAfterMillis;
+    }
+
+    /**
+     * 设置已写入但未flush的消息最多等待多少毫秒就会被flush，为null且{@link #getFlushAfterWriteCount()}也为null时每条消息都立即flush
+     */
+    public void setFlushAfterMillis(final Integer flushAfterMillis) {
+        if (flushAfterMillis != null && flushAfterMillis < 1) {
+            throw new IllegalArgumentException("Flush delay must be positive.");
+        }
+
+        this.flushAfterMillis = flushAfterMillis;
+    }
+
+    public boolean isStoreSentNotificationsOffHeap() {
+        return this.storeSentNotificationsOffHeap;
+    }
+
+    /**
+     * 设置是否将已发送、等待APNS确认的消息编码后保存在直接内存中，默认保存消息对象本身；启用后连接必须提供
+     * {@link com.fansz.apns.support.ApnsPushNotificationFactory}，以便在消息被拒绝或需要重发时还原消息对象
+     */
+    public void setStoreSentNotificationsOffHeap(final boolean storeSentNotificationsOffHeap) {
+        this.storeSentNotificationsOffHeap = storeSentNotificationsOffHeap;
+    }
+
+    public RateLimit getSendRateLimit() {
+        return this.sendRateLimit;
+    }
+
+    /**
+     * 设置单个连接向APNS写入消息的速度上限，为null（默认）时不限速；达到上限的连接会暂时停止从队列中获取消息，直到令牌补充
+     */
+    public void setSendRateLimit(final RateLimit sendRateLimit) {
+        this.sendRateLimit = sendRateLimit;
+    }
+
+    public ApnsProtocol getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * 设置与APNS网关通信的协议，默认为{@link ApnsProtocol#LEGACY_BINARY}；使用{@link ApnsProtocol#HTTP2}时，
+     * {@link #getSentNotificationBufferCapacity()}和{@link #isStoreSentNotificationsOffHeap()}不起作用
+     */
+    public void setProtocol(final ApnsProtocol protocol) {
+        if (protocol == null) {
+            throw new NullPointerException("Protocol must not be null.");
+        }
+
+        this.protocol = protocol;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((sendRateLimit == null) ? 0 : sendRateLimit.hashCode());
         result = prime * result + ((closeAfterInactivityTime == null) ? 0 : closeAfterInactivityTime.hashCode());
+        result = prime * result + ((flushAfterMillis == null) ? 0 : flushAfterMillis.hashCode());
+        result = prime * result + ((flushAfterWriteCount == null) ? 0 : flushAfterWriteCount.hashCode());
         result = prime * result + ((gracefulShutdownTimeout == null) ? 0 : gracefulShutdownTimeout.hashCode());
+        result = prime * result + ((protocol == null) ? 0 : protocol.hashCode());
         result = prime * result + ((sendAttemptLimit == null) ? 0 : sendAttemptLimit.hashCode());
         result = prime * result + sentNotificationBufferCapacity;
+        result = prime * result + (storeSentNotificationsOffHeap ? 1231 : 1237);
         return result;
     }
 
@@ -83,6 +174,18 @@ public class ApnsConnectionConfiguration {
         }
         else if (!closeAfterInactivityTime.equals(other.closeAfterInactivityTime))
             return false;
+        if (flushAfterMillis == null) {
+            if (other.flushAfterMillis != null)
+                return false;
+        }
+        else if (!flushAfterMillis.equals(other.flushAfterMillis))
+            return false;
+        if (flushAfterWriteCount == null) {
+            if (other.flushAfterWriteCount != null)
+                return false;
+        }
+        else if (!flushAfterWriteCount.equals(other.flushAfterWriteCount))
+            return false;
         if (gracefulShutdownTimeout == null) {
             if (other.gracefulShutdownTimeout != null)
                 return false;
@@ -97,6 +200,16 @@ public class ApnsConnectionConfiguration {
             return false;
         if (sentNotificationBufferCapacity != other.sentNotificationBufferCapacity)
             return false;
+        if (storeSentNotificationsOffHeap != other.storeSentNotificationsOffHeap)
+            return false;
+        if (sendRateLimit == null) {
+            if (other.sendRateLimit != null)
+                return false;
+        }
+        else if (!sendRateLimit.equals(other.sendRateLimit))
+            return false;
+        if (protocol != other.protocol)
+            return false;
         return true;
     }
 
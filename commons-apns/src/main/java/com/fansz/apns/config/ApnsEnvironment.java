@@ -16,13 +16,32 @@ public class ApnsEnvironment {
 
     private final int feedbackPort;
 
+    private final String apnsHttp2Host;
+
+    private final int apnsHttp2Port;
+
+    /**
+     * 创建只支持传统二进制协议的环境
+     */
     public ApnsEnvironment(final String apnsGatewayHost, final int apnsGatewayPort, final String feedbackHost,
             final int feedbackPort) {
+        this(apnsGatewayHost, apnsGatewayPort, feedbackHost, feedbackPort, null, 0);
+    }
+
+    /**
+     * @param apnsHttp2Host HTTP/2网关的地址，为null时不能使用{@link com.fansz.apns.support.ApnsProtocol#HTTP2}
+     * @param apnsHttp2Port HTTP/2网关的端口
+     */
+    public ApnsEnvironment(final String apnsGatewayHost, final int apnsGatewayPort, final String feedbackHost,
+            final int feedbackPort, final String apnsHttp2Host, final int apnsHttp2Port) {
         this.apnsGatewayHost = apnsGatewayHost;
         this.apnsGatewayPort = apnsGatewayPort;
 
         this.feedbackHost = feedbackHost;
         this.feedbackPort = feedbackPort;
+
+        this.apnsHttp2Host = apnsHttp2Host;
+        this.apnsHttp2Port = apnsHttp2Port;
     }
 
     public String getApnsGatewayHost() {
@@ -41,17 +60,27 @@ public class ApnsEnvironment {
         return this.feedbackPort;
     }
 
+    public String getApnsHttp2Host() {
+        return this.apnsHttp2Host;
+    }
+
+    public int getApnsHttp2Port() {
+        return this.apnsHttp2Port;
+    }
+
     /**
      * 返回生产环境配置信息
      */
     public static ApnsEnvironment getProductionEnvironment() {
-        return new ApnsEnvironment("gateway.push.apple.com", 2195, "feedback.push.apple.com", 2196);
+        return new ApnsEnvironment("gateway.push.apple.com", 2195, "feedback.push.apple.com", 2196,
+                "api.push.apple.com", 443);
     }
 
     /**
      * 返回测试环境配置信息
      */
     public static ApnsEnvironment getSandboxEnvironment() {
-        return new ApnsEnvironment("gateway.sandbox.push.apple.com", 2195, "feedback.sandbox.push.apple.com", 2196);
+        return new ApnsEnvironment("gateway.sandbox.push.apple.com", 2195, "feedback.sandbox.push.apple.com", 2196,
+                "api.development.push.apple.com", 443);
     }
 }
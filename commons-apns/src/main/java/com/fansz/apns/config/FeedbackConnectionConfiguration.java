@@ -3,11 +3,17 @@ package com.fansz.apns.config;
 public class FeedbackConnectionConfiguration {
     private int readTimeout = 1;
 
+    private int expiredTokenBatchSize = 1000;
+
+    private long pollingIntervalMillis = 0;
+
     public FeedbackConnectionConfiguration() {
     }
 
     public FeedbackConnectionConfiguration(final FeedbackConnectionConfiguration configuration) {
         this.readTimeout = configuration.readTimeout;
+        this.expiredTokenBatchSize = configuration.expiredTokenBatchSize;
+        this.pollingIntervalMillis = configuration.pollingIntervalMillis;
     }
 
     public int getReadTimeout() {
@@ -22,11 +28,45 @@ public class FeedbackConnectionConfiguration {
         this.readTimeout = readTimeout;
     }
 
+    public int getExpiredTokenBatchSize() {
+        return this.expiredTokenBatchSize;
+    }
+
+    /**
+     * 设置每次交给{@link com.fansz.apns.listener.ExpiredTokenListener}的失效token数量上限，默认为1000。收到的token每满一批就交给listener，
+     * 剩余的token在连接关闭时交付，因此一次查询返回大量token时不需要把它们全部保存在内存中
+     */
+    public void setExpiredTokenBatchSize(final int expiredTokenBatchSize) {
+        if (expiredTokenBatchSize < 1) {
+            throw new IllegalArgumentException("Expired token batch size must be positive.");
+        }
+
+        this.expiredTokenBatchSize = expiredTokenBatchSize;
+    }
+
+    public long getPollingIntervalMillis() {
+        return this.pollingIntervalMillis;
+    }
+
+    /**
+     * 设置{@link com.fansz.apns.PushManager}定期查询Feedback Service的间隔，第一次查询在启动时进行；为0（默认）时只在调用
+     * {@link com.fansz.apns.PushManager#requestExpiredTokens()}时查询
+     */
+    public void setPollingIntervalMillis(final long pollingIntervalMillis) {
+        if (pollingIntervalMillis < 0) {
+            throw new IllegalArgumentException("Polling interval must not be negative.");
+        }
+
+        this.pollingIntervalMillis = pollingIntervalMillis;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + readTimeout;
+        result = prime * result + expiredTokenBatchSize;
+        result = prime * result + (int)(pollingIntervalMillis ^ (pollingIntervalMillis >>> 32));
         return result;
     }
 
@@ -41,6 +81,10 @@ public class FeedbackConnectionConfiguration {
         final FeedbackConnectionConfiguration other = (FeedbackConnectionConfiguration)obj;
         if (readTimeout != other.readTimeout)
             return false;
+        if (expiredTokenBatchSize != other.expiredTokenBatchSize)
+            return false;
+        if (pollingIntervalMillis != other.pollingIntervalMillis)
+            return false;
         return true;
     }
 }
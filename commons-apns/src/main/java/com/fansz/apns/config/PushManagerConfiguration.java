@@ -1,9 +1,37 @@
 package com.fansz.apns.config;
 
+import com.fansz.apns.support.DispatchMode;
+import com.fansz.apns.support.RateLimit;
+import com.fansz.apns.support.TransportType;
+
 public class PushManagerConfiguration {
 
     private int concurrentConnectionCount = 1;
 
+    private int standbyConnectionCount = 0;
+
+    private DispatchMode dispatchMode = DispatchMode.SINGLE_THREAD;
+
+    private int dispatchQuantum = 64;
+
+    private int dispatchBatchSize = 64;
+
+    private RateLimit dispatchRateLimit = null;
+
+    private AdaptiveConnectionPoolConfiguration adaptiveConnectionPoolConfiguration;
+
+    private RateLimit admissionRateLimit = null;
+
+    private Long invalidTokenRetentionMillis = null;
+
+    private TransportType transportType = TransportType.AUTO;
+
+    private RetryConfiguration retryConfiguration = new RetryConfiguration();
+
+    private int rejectedNotificationBatchSize = 1000;
+
+    private int rejectedNotificationBatchDelayMillis = 100;
+
     private ApnsConnectionConfiguration connectionConfiguration = new ApnsConnectionConfiguration();
 
     private FeedbackConnectionConfiguration feedbackConfiguration = new FeedbackConnectionConfiguration();
@@ -13,6 +41,19 @@ public class PushManagerConfiguration {
 
     public PushManagerConfiguration(final PushManagerConfiguration configuration) {
         this.concurrentConnectionCount = configuration.getConcurrentConnectionCount();
+        this.standbyConnectionCount = configuration.getStandbyConnectionCount();
+        this.dispatchMode = configuration.getDispatchMode();
+        this.dispatchQuantum = configuration.getDispatchQuantum();
+        this.dispatchBatchSize = configuration.getDispatchBatchSize();
+        this.dispatchRateLimit = configuration.getDispatchRateLimit();
+        this.admissionRateLimit = configuration.getAdmissionRateLimit();
+        this.invalidTokenRetentionMillis = configuration.getInvalidTokenRetentionMillis();
+        this.transportType = configuration.getTransportType();
+        this.retryConfiguration = new RetryConfiguration(configuration.getRetryConfiguration());
+        this.rejectedNotificationBatchSize = configuration.getRejectedNotificationBatchSize();
+        this.rejectedNotificationBatchDelayMillis = configuration.getRejectedNotificationBatchDelayMillis();
+        this.adaptiveConnectionPoolConfiguration = configuration.getAdaptiveConnectionPoolConfiguration() != null ? new AdaptiveConnectionPoolConfiguration(
+                configuration.getAdaptiveConnectionPoolConfiguration()) : null;
 
         this.connectionConfiguration = new ApnsConnectionConfiguration(configuration.getConnectionConfiguration());
         this.feedbackConfiguration = new FeedbackConnectionConfiguration(
@@ -27,6 +68,101 @@ public class PushManagerConfiguration {
         this.concurrentConnectionCount = concurrentConnectionCount;
     }
 
+    public int getStandbyConnectionCount() {
+        return this.standbyConnectionCount;
+    }
+
+    /**
+     * 设置预先完成握手的备用连接数，默认为0；活动连接开始优雅关闭（达到发送次数上限或者空闲超时）时立即由备用连接接替，
+     * 然后在后台补充新的备用连接，避免在重新建立连接期间吞吐量下降
+     */
+    public void setStandbyConnectionCount(final int standbyConnectionCount) {
+        if (standbyConnectionCount < 0) {
+            throw new IllegalArgumentException("Standby connection count must not be negative.");
+        }
+
+        this.standbyConnectionCount = standbyConnectionCount;
+    }
+
+    public DispatchMode getDispatchMode() {
+        return this.dispatchMode;
+    }
+
+    /**
+     * 设置消息的分发方式，默认为{@link DispatchMode#SINGLE_THREAD}
+     */
+    public void setDispatchMode(final DispatchMode dispatchMode) {
+        if (dispatchMode == null) {
+            throw new NullPointerException("Dispatch mode must not be null.");
+        }
+
+        this.dispatchMode = dispatchMode;
+    }
+
+    public int getDispatchQuantum() {
+        return this.dispatchQuantum;
+    }
+
+    /**
+     * 设置{@link DispatchMode#SHARED}模式下每一轮最多发送的消息数，默认为64；共享分发线程按该值在各应用之间加权轮转，其他分发方式忽略该设置
+     */
+    public void setDispatchQuantum(final int dispatchQuantum) {
+        if (dispatchQuantum < 1) {
+            throw new IllegalArgumentException("Dispatch quantum must be greater than zero.");
+        }
+
+        this.dispatchQuantum = dispatchQuantum;
+    }
+
+    public int getDispatchBatchSize() {
+        return this.dispatchBatchSize;
+    }
+
+    /**
+     * 设置分发线程每次从队列中取出、写入同一个连接之后只flush一次的最多消息数，默认为64；队列中已经积压的消息才会合并，不会为了凑满一批而等待。
+     * 设置为1时逐条发送，每条消息是否立即flush由{@link ApnsConnectionConfiguration#getFlushAfterWriteCount()}和
+     * {@link ApnsConnectionConfiguration#getFlushAfterMillis()}决定。配置了{@link ApnsConnectionConfiguration#getSendRateLimit()}时，
+     * 一批消息可以暂时超出上限，超出的部分由之后的等待抵消
+     */
+    public void setDispatchBatchSize(final int dispatchBatchSize) {
+        if (dispatchBatchSize < 1) {
+            throw new IllegalArgumentException("Dispatch batch size must be greater than zero.");
+        }
+
+        this.dispatchBatchSize = dispatchBatchSize;
+    }
+
+    public RateLimit getDispatchRateLimit() {
+        return this.dispatchRateLimit;
+    }
+
+    /**
+     * 设置{@link DispatchMode#SHARED}模式下该应用的发送速度上限，为null（默认）时只受{@link #getDispatchQuantum()}限制；超出上限的应用在
+     * 令牌补充之前被跳过，不占用共享分发线程
+     */
+    public void setDispatchRateLimit(final RateLimit dispatchRateLimit) {
+        this.dispatchRateLimit = dispatchRateLimit;
+    }
+
+    public AdaptiveConnectionPoolConfiguration getAdaptiveConnectionPoolConfiguration() {
+        return this.adaptiveConnectionPoolConfiguration;
+    }
+
+    /**
+     * 设置自动调整连接数的配置，为null时（默认）连接数固定为{@link #getConcurrentConnectionCount()}；不为null时
+     * {@link #getConcurrentConnectionCount()}作为初始连接数，并被限制在最小和最大连接数之间
+     */
+    public void setAdaptiveConnectionPoolConfiguration(
+            final AdaptiveConnectionPoolConfiguration adaptiveConnectionPoolConfiguration) {
+        if (adaptiveConnectionPoolConfiguration != null
+                && adaptiveConnectionPoolConfiguration.getMinimumConnectionCount() > adaptiveConnectionPoolConfiguration
+                        .getMaximumConnectionCount()) {
+            throw new IllegalArgumentException("Minimum connection count must not exceed maximum connection count.");
+        }
+
+        this.adaptiveConnectionPoolConfiguration = adaptiveConnectionPoolConfiguration;
+    }
+
     public ApnsConnectionConfiguration getConnectionConfiguration() {
         return connectionConfiguration;
     }
@@ -51,13 +187,121 @@ public class PushManagerConfiguration {
         this.feedbackConfiguration = feedbackConnectionConfiguration;
     }
 
+    public RateLimit getAdmissionRateLimit() {
+        return this.admissionRateLimit;
+    }
+
+    /**
+     * 设置通过{@link com.fansz.apns.PushManager#offer(com.fansz.apns.support.ApnsPushNotification)}和
+     * {@link com.fansz.apns.PushManager#submit(com.fansz.apns.support.ApnsPushNotification)}进入发送队列的速度上限，为null（默认）时不限速；
+     * 直接向{@link com.fansz.apns.PushManager#getQueue()}添加的消息不受限制
+     */
+    public void setAdmissionRateLimit(final RateLimit admissionRateLimit) {
+        this.admissionRateLimit = admissionRateLimit;
+    }
+
+    public Long getInvalidTokenRetentionMillis() {
+        return this.invalidTokenRetentionMillis;
+    }
+
+    /**
+     * 设置失效token在{@link com.fansz.apns.support.InvalidTokenRegistry}中保留的时间，为null（默认）时不登记失效token；
+     * 保留期内发往这些token的消息不会被发送
+     */
+    public void setInvalidTokenRetentionMillis(final Long invalidTokenRetentionMillis) {
+        if (invalidTokenRetentionMillis != null && invalidTokenRetentionMillis < 1) {
+            throw new IllegalArgumentException("Invalid token retention time must be positive.");
+        }
+
+        this.invalidTokenRetentionMillis = invalidTokenRetentionMillis;
+    }
+
+    public TransportType getTransportType() {
+        return this.transportType;
+    }
+
+    /**
+     * 设置PushManager自行创建事件循环组时使用的传输，默认为{@link TransportType#AUTO}；调用者传入事件循环组时，连接使用与其匹配的传输，
+     * 该设置被忽略
+     */
+    public void setTransportType(final TransportType transportType) {
+        if (transportType == null) {
+            throw new NullPointerException("Transport type must not be null.");
+        }
+
+        this.transportType = transportType;
+    }
+
+    public RetryConfiguration getRetryConfiguration() {
+        return this.retryConfiguration;
+    }
+
+    /**
+     * 设置失败消息的重试退避、最大失败次数以及建立连接的熔断策略
+     */
+    public void setRetryConfiguration(final RetryConfiguration retryConfiguration) {
+        if (retryConfiguration == null) {
+            throw new NullPointerException("Retry configuration must not be null.");
+        }
+
+        if (retryConfiguration.getInitialRetryDelayMillis() > retryConfiguration.getMaximumRetryDelayMillis()) {
+            throw new IllegalArgumentException("Initial retry delay must not exceed maximum retry delay.");
+        }
+
+        this.retryConfiguration = retryConfiguration;
+    }
+
+    public int getRejectedNotificationBatchSize() {
+        return this.rejectedNotificationBatchSize;
+    }
+
+    /**
+     * 设置每次交给listener的被拒绝消息数量上限，默认为1000
+     */
+    public void setRejectedNotificationBatchSize(final int rejectedNotificationBatchSize) {
+        if (rejectedNotificationBatchSize < 1) {
+            throw new IllegalArgumentException("Rejected notification batch size must be positive.");
+        }
+
+        this.rejectedNotificationBatchSize = rejectedNotificationBatchSize;
+    }
+
+    public int getRejectedNotificationBatchDelayMillis() {
+        return this.rejectedNotificationBatchDelayMillis;
+    }
+
+    /**
+     * 设置被拒绝的消息最多累积多久才交给listener，默认为100毫秒；群发遇到大量失效token时，listener线程每批只执行一个任务，而不是每条拒绝一个任务。
+     * 为0时每条拒绝立即单独交付
+     */
+    public void setRejectedNotificationBatchDelayMillis(final int rejectedNotificationBatchDelayMillis) {
+        if (rejectedNotificationBatchDelayMillis < 0) {
+            throw new IllegalArgumentException("Rejected notification batch delay must not be negative.");
+        }
+
+        this.rejectedNotificationBatchDelayMillis = rejectedNotificationBatchDelayMillis;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
+        result = prime * result + ((admissionRateLimit == null) ? 0 : admissionRateLimit.hashCode());
         result = prime * result + concurrentConnectionCount;
+        result = prime * result + standbyConnectionCount;
+        result = prime * result + ((dispatchMode == null) ? 0 : dispatchMode.hashCode());
+        result = prime * result + dispatchQuantum;
+        result = prime * result + dispatchBatchSize;
+        result = prime * result + ((dispatchRateLimit == null) ? 0 : dispatchRateLimit.hashCode());
+        result = prime * result
+                + ((adaptiveConnectionPoolConfiguration == null) ? 0 : adaptiveConnectionPoolConfiguration.hashCode());
         result = prime * result + ((connectionConfiguration == null) ? 0 : connectionConfiguration.hashCode());
         result = prime * result + ((feedbackConfiguration == null) ? 0 : feedbackConfiguration.hashCode());
+        result = prime * result + ((invalidTokenRetentionMillis == null) ? 0 : invalidTokenRetentionMillis.hashCode());
+        result = prime * result + ((transportType == null) ? 0 : transportType.hashCode());
+        result = prime * result + ((retryConfiguration == null) ? 0 : retryConfiguration.hashCode());
+        result = prime * result + rejectedNotificationBatchSize;
+        result = prime * result + rejectedNotificationBatchDelayMillis;
         return result;
     }
 
@@ -72,6 +316,26 @@ public class PushManagerConfiguration {
         final PushManagerConfiguration other = (PushManagerConfiguration)obj;
         if (concurrentConnectionCount != other.concurrentConnectionCount)
             return false;
+        if (standbyConnectionCount != other.standbyConnectionCount)
+            return false;
+        if (dispatchMode != other.dispatchMode)
+            return false;
+        if (dispatchQuantum != other.dispatchQuantum)
+            return false;
+        if (dispatchBatchSize != other.dispatchBatchSize)
+            return false;
+        if (dispatchRateLimit == null) {
+            if (other.dispatchRateLimit != null)
+                return false;
+        }
+        else if (!dispatchRateLimit.equals(other.dispatchRateLimit))
+            return false;
+        if (adaptiveConnectionPoolConfiguration == null) {
+            if (other.adaptiveConnectionPoolConfiguration != null)
+                return false;
+        }
+        else if (!adaptiveConnectionPoolConfiguration.equals(other.adaptiveConnectionPoolConfiguration))
+            return false;
         if (connectionConfiguration == null) {
             if (other.connectionConfiguration != null)
                 return false;
@@ -84,6 +348,30 @@ public class PushManagerConfiguration {
         }
         else if (!feedbackConfiguration.equals(other.feedbackConfiguration))
             return false;
+        if (admissionRateLimit == null) {
+            if (other.admissionRateLimit != null)
+                return false;
+        }
+        else if (!admissionRateLimit.equals(other.admissionRateLimit))
+            return false;
+        if (invalidTokenRetentionMillis == null) {
+            if (other.invalidTokenRetentionMillis != null)
+                return false;
+        }
+        else if (!invalidTokenRetentionMillis.equals(other.invalidTokenRetentionMillis))
+            return false;
+        if (transportType != other.transportType)
+            return false;
+        if (retryConfiguration == null) {
+            if (other.retryConfiguration != null)
+                return false;
+        }
+        else if (!retryConfiguration.equals(other.retryConfiguration))
+            return false;
+        if (rejectedNotificationBatchSize != other.rejectedNotificationBatchSize)
+            return false;
+        if (rejectedNotificationBatchDelayMillis != other.rejectedNotificationBatchDelayMillis)
+            return false;
         return true;
     }
 }
@@ -0,0 +1,97 @@
+package com.fansz.apns.config;
+
+import com.fansz.apns.support.TransportType;
+
+/**
+ * {@link com.fansz.apns.PushManagerRegistry}的配置，这些资源由所有注册的应用共享，线程数不随应用数量增长
+ */
+public class PushManagerRegistryConfiguration {
+
+    private int eventLoopThreadCount = Runtime.getRuntime().availableProcessors();
+
+    private int listenerThreadCount = 1;
+
+    private TransportType transportType = TransportType.AUTO;
+
+    public PushManagerRegistryConfiguration() {
+    }
+
+    public PushManagerRegistryConfiguration(final PushManagerRegistryConfiguration configuration) {
+        this.eventLoopThreadCount = configuration.eventLoopThreadCount;
+        this.listenerThreadCount = configuration.listenerThreadCount;
+        this.transportType = configuration.transportType;
+    }
+
+    public int getEventLoopThreadCount() {
+        return this.eventLoopThreadCount;
+    }
+
+    /**
+     * 设置共享事件循环组的线程数，默认为CPU核数；所有应用的推送连接和反馈服务连接都在这些线程上运行
+     */
+    public void setEventLoopThreadCount(final int eventLoopThreadCount) {
+        if (eventLoopThreadCount < 1) {
+            throw new IllegalArgumentException("Event loop thread count must be greater than zero.");
+        }
+
+        this.eventLoopThreadCount = eventLoopThreadCount;
+    }
+
+    public int getListenerThreadCount() {
+        return this.listenerThreadCount;
+    }
+
+    /**
+     * 设置调用各种listener的共享线程数，默认为1；大于1时同一应用的listener调用顺序不再得到保证
+     */
+    public void setListenerThreadCount(final int listenerThreadCount) {
+        if (listenerThreadCount < 1) {
+            throw new IllegalArgumentException("Listener thread count must be greater than zero.");
+        }
+
+        this.listenerThreadCount = listenerThreadCount;
+    }
+
+    public TransportType getTransportType() {
+        return this.transportType;
+    }
+
+    /**
+     * 设置共享事件循环组使用的传输，默认为{@link TransportType#AUTO}
+     */
+    public void setTransportType(final TransportType transportType) {
+        if (transportType == null) {
+            throw new NullPointerException("Transport type must not be null.");
+        }
+
+        this.transportType = transportType;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + eventLoopThreadCount;
+        result = prime * result + listenerThreadCount;
+        result = prime * result + ((transportType == null) ? 0 : transportType.hashCode());
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final PushManagerRegistryConfiguration other = (PushManagerRegistryConfiguration)obj;
+        if (eventLoopThreadCount != other.eventLoopThreadCount)
+            return false;
+        if (listenerThreadCount != other.listenerThreadCount)
+            return false;
+        if (transportType != other.transportType)
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,144 @@
+package com.fansz.apns.config;
+
+/**
+ * 失败消息重试和连接熔断的配置。写入失败的消息按指数退避（带随机抖动）延迟之后重新进入重试队列，发送次数达到上限的消息交给
+ * {@link com.fansz.apns.listener.DeadLetterListener}；连续建立连接失败达到阈值时熔断，在一段时间内不再建立替换连接
+ */
+public class RetryConfiguration {
+
+    private int initialRetryDelayMillis = 10;
+
+    private int maximumRetryDelayMillis = 10000;
+
+    private Integer maximumDeliveryAttempts = null;
+
+    private int circuitBreakerFailureThreshold = 5;
+
+    private int circuitBreakerOpenMillis = 5000;
+
+    public RetryConfiguration() {
+    }
+
+    public RetryConfiguration(final RetryConfiguration configuration) {
+        this.initialRetryDelayMillis = configuration.initialRetryDelayMillis;
+        this.maximumRetryDelayMillis = configuration.maximumRetryDelayMillis;
+        this.maximumDeliveryAttempts = configuration.maximumDeliveryAttempts;
+        this.circuitBreakerFailureThreshold = configuration.circuitBreakerFailureThreshold;
+        this.circuitBreakerOpenMillis = configuration.circuitBreakerOpenMillis;
+    }
+
+    public int getInitialRetryDelayMillis() {
+        return this.initialRetryDelayMillis;
+    }
+
+    /**
+     * 设置退避延迟的初始上限。消息第一次失败时立即重试，第二次失败之后的延迟上限为该值，之后每次失败加倍；实际延迟在0到上限之间随机选取，
+     * 避免大量消息在同一时刻重试。为0时总是立即重试
+     */
+    public void setInitialRetryDelayMillis(final int initialRetryDelayMillis) {
+        if (initialRetryDelayMillis < 0) {
+            throw new IllegalArgumentException("Initial retry delay must not be negative.");
+        }
+
+        this.initialRetryDelayMillis = initialRetryDelayMillis;
+    }
+
+    public int getMaximumRetryDelayMillis() {
+        return this.maximumRetryDelayMillis;
+    }
+
+    /**
+     * 设置重试延迟的上限
+     */
+    public void setMaximumRetryDelayMillis(final int maximumRetryDelayMillis) {
+        if (maximumRetryDelayMillis < 1) {
+            throw new IllegalArgumentException("Maximum retry delay must be greater than zero.");
+        }
+
+        this.maximumRetryDelayMillis = maximumRetryDelayMillis;
+    }
+
+    public Integer getMaximumDeliveryAttempts() {
+        return this.maximumDeliveryAttempts;
+    }
+
+    /**
+     * 设置每条消息最多失败的次数，达到该次数的消息不再重试，而是交给{@link com.fansz.apns.listener.DeadLetterListener}；为null（默认）时
+     * 不限制。只有写入失败计为一次失败；旧版协议中排在被拒绝消息之后、未被APNS处理的消息立即重发，不计为失败
+     */
+    public void setMaximumDeliveryAttempts(final Integer maximumDeliveryAttempts) {
+        if (maximumDeliveryAttempts != null && maximumDeliveryAttempts < 1) {
+            throw new IllegalArgumentException("Maximum delivery attempts must be greater than zero.");
+        }
+
+        this.maximumDeliveryAttempts = maximumDeliveryAttempts;
+    }
+
+    public int getCircuitBreakerFailureThreshold() {
+        return this.circuitBreakerFailureThreshold;
+    }
+
+    /**
+     * 设置连续多少次建立连接失败之后熔断
+     */
+    public void setCircuitBreakerFailureThreshold(final int circuitBreakerFailureThreshold) {
+        if (circuitBreakerFailureThreshold < 1) {
+            throw new IllegalArgumentException("Circuit breaker failure threshold must be greater than zero.");
+        }
+
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public int getCircuitBreakerOpenMillis() {
+        return this.circuitBreakerOpenMillis;
+    }
+
+    /**
+     * 设置熔断持续的时间，之后只允许建立一个试探连接，成功时恢复，失败时再次熔断
+     */
+    public void setCircuitBreakerOpenMillis(final int circuitBreakerOpenMillis) {
+        if (circuitBreakerOpenMillis < 1) {
+            throw new IllegalArgumentException("Circuit breaker open time must be greater than zero.");
+        }
+
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + initialRetryDelayMillis;
+        result = prime * result + maximumRetryDelayMillis;
+        result = prime * result + ((maximumDeliveryAttempts == null) ? 0 : maximumDeliveryAttempts.hashCode());
+        result = prime * result + circuitBreakerFailureThreshold;
+        result = prime * result + circuitBreakerOpenMillis;
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final RetryConfiguration other = (RetryConfiguration)obj;
+        if (initialRetryDelayMillis != other.initialRetryDelayMillis)
+            return false;
+        if (maximumRetryDelayMillis != other.maximumRetryDelayMillis)
+            return false;
+        if (maximumDeliveryAttempts == null) {
+            if (other.maximumDeliveryAttempts != null)
+                return false;
+        }
+        else if (!maximumDeliveryAttempts.equals(other.maximumDeliveryAttempts))
+            return false;
+        if (circuitBreakerFailureThreshold != other.circuitBreakerFailureThreshold)
+            return false;
+        if (circuitBreakerOpenMillis != other.circuitBreakerOpenMillis)
+            return false;
+        return true;
+    }
+}
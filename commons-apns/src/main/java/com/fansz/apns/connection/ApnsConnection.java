@@ -10,23 +10,30 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.handler.timeout.IdleStateHandler;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,11 +43,22 @@ import com.fansz.apns.codec.RejectedNotificationDecoder;
 import com.fansz.apns.config.ApnsConnectionConfiguration;
 import com.fansz.apns.config.ApnsEnvironment;
 import com.fansz.apns.listener.ApnsConnectionListener;
+import com.fansz.apns.listener.ConnectionDrainingListener;
 import com.fansz.apns.model.KnownBadPushNotification;
 import com.fansz.apns.model.SendableApnsPushNotification;
+import com.fansz.apns.support.AbstractSentNotificationBuffer;
+import com.fansz.apns.support.ApnsProtocol;
 import com.fansz.apns.support.ApnsPushNotification;
+import com.fansz.apns.support.ApnsPushNotificationFactory;
+import com.fansz.apns.support.DeliveryOutcome;
+import com.fansz.apns.support.DeliveryReceipt;
+import com.fansz.apns.support.DeliveryTracker;
+import com.fansz.apns.support.OffHeapSentNotificationBuffer;
 import com.fansz.apns.support.RejectedNotificationReason;
 import com.fansz.apns.support.SentNotificationBuffer;
+import com.fansz.apns.support.TokenBucket;
+import com.fansz.apns.util.SSLContextUtil;
+import com.fansz.apns.util.TransportUtil;
 
 /**
  * <p>
@@ -52,6 +70,11 @@ import com.fansz.apns.support.SentNotificationBuffer;
  * connections are fully functional on their own). Connections are created in a disconnected state, and must be
  * explicitly connected before they can be used to send push notifications.
  * </p>
+ * <p>
+ * 默认使用传统的二进制协议；配置为{@link ApnsProtocol#HTTP2}时，连接通过ALPN协商HTTP/2，每条消息占用一个stream并由APNS逐条返回结果，
+ * 因此不再保存已发送的消息，也不需要通过格式错误的消息来优雅关闭。HTTP/2连接在收到服务器的SETTINGS之后才视为建立成功；JDK的ALPN支持要求
+ * Java 8u252或更高版本
+ * </p>
  *
  * @see PushManager
  */
@@ -59,9 +82,11 @@ public class ApnsConnection<T extends ApnsPushNotification> {
 
     private final ApnsEnvironment environment;
 
-    private final SSLContext sslContext;
+    private final SslContext sslContext;
 
-    private final NioEventLoopGroup eventLoopGroup;
+    private final EventLoopGroup eventLoopGroup;
+
+    private final Class<? extends SocketChannel> socketChannelClass;
 
     private final ApnsConnectionConfiguration configuration;
 
@@ -73,6 +98,14 @@ public class ApnsConnection<T extends ApnsPushNotification> {
 
     private volatile boolean handshakeCompleted = false;
 
+    /** 是否已经开始优雅关闭并通知了listener，只在持有连接的锁时访问 */
+    private boolean drainingStarted = false;
+
+    /** TLS握手耗费的时间，握手完成之前为-1 */
+    private volatile long handshakeDurationNanos = -1;
+
+    private volatile boolean sessionResumed = false;
+
     // We want to start the count at 1 here because the gateway will send back a sequence number of 0 if it doesn't know
     // which notification failed. This isn't 100% bulletproof (we'll legitimately get back to 0 after 2^32
     // notifications), but the probability of collision (or even sending 4 billion notifications without some recipient
@@ -87,12 +120,49 @@ public class ApnsConnection<T extends ApnsPushNotification> {
 
     private boolean rejectionReceived = false;
 
-    private final SentNotificationBuffer<T> sentNotificationBuffer;
+    /** HTTP/2连接已经开始优雅关闭 */
+    private boolean goAwayStarted = false;
+
+    /** 只有传统二进制协议需要保存已发送的消息，HTTP/2连接为null */
+    private final AbstractSentNotificationBuffer<T> sentNotificationBuffer;
+
+    private int unflushedWriteCount = 0;
+
+    /** 是否已经安排了定时flush；定时任务在event loop中清除该标记，不获取连接的锁 */
+    private volatile boolean flushScheduled = false;
+
+    private final TokenBucket sendRateLimiter;
+
+    private final DeliveryTracker<T> deliveryTracker;
+
+    /** 已写入、结果尚未确定的被跟踪消息或者曾经失败的消息，按序列号排列，只在event loop线程中访问 */
+    private final LinkedHashMap<Integer, InFlightDelivery<T>> inFlightDeliveries;
+
+    /** 写入延迟的指数加权平均值，只在event loop线程中更新 */
+    private volatile long writeLatencyNanos = 0;
 
     private static final Logger log = LoggerFactory.getLogger(ApnsConnection.class);
 
     public static final int DEFAULT_SENT_NOTIFICATION_BUFFER_CAPACITY = 8192;
 
+    /**
+     * 只配置了{@link ApnsConnectionConfiguration#getFlushAfterWriteCount()}时，未flush的消息最多等待的毫秒数
+     */
+    public static final int DEFAULT_MAXIMUM_FLUSH_DELAY_MILLIS = 5;
+
+    private static class InFlightDelivery<T> {
+
+        private final T notification;
+
+        /** 只有失败次数、没有凭证的消息为null */
+        private final DeliveryReceipt deliveryReceipt;
+
+        public InFlightDelivery(final T notification, final DeliveryReceipt deliveryReceipt) {
+            this.notification = notification;
+            this.deliveryReceipt = deliveryReceipt;
+        }
+    }
+
     private class ApnsConnectionHandler extends SimpleChannelInboundHandler<RejectedNotification> {
 
         private final ApnsConnection<T> apnsConnection;
@@ -108,6 +178,7 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                             rejectedNotification.getReason()});
 
             this.apnsConnection.rejectionReceived = true;
+            this.apnsConnection.resolveInFlightDeliveries(rejectedNotification);
             this.apnsConnection.sentNotificationBuffer.clearNotificationsBeforeSequenceNumber(rejectedNotification
                     .getSequenceNumber());
 
@@ -147,8 +218,8 @@ public class ApnsConnection<T extends ApnsPushNotification> {
             }
 
             if (rejectedNotification.getSequenceNumber() != 0) {
-                final Collection<T> unprocessedNotifications = this.apnsConnection.sentNotificationBuffer
-                        .getAllNotificationsAfterSequenceNumber(rejectedNotification.getSequenceNumber());
+                final Collection<T> unprocessedNotifications = this.apnsConnection
+                        .getUnprocessedNotifications(rejectedNotification.getSequenceNumber());
 
                 if (!unprocessedNotifications.isEmpty()) {
                     if (this.apnsConnection.listener != null) {
@@ -179,6 +250,17 @@ public class ApnsConnection<T extends ApnsPushNotification> {
             if (this.apnsConnection.gracefulDisconnectionTimeoutFuture != null) {
                 this.apnsConnection.gracefulDisconnectionTimeoutFuture.cancel(false);
             }
+
+            // Nothing more can be rejected once the channel is gone; release any off-heap storage right away
+            this.apnsConnection.sentNotificationBuffer.clearAllNotifications();
+
+            for (final InFlightDelivery<T> inFlightDelivery : this.apnsConnection.inFlightDeliveries.values()) {
+                this.apnsConnection.resolveDelivery(inFlightDelivery, DeliveryOutcome.UNCONFIRMED, null);
+            }
+
+            this.apnsConnection.inFlightDeliveries.clear();
+
+            this.apnsConnection.handleConnectionClosure();
         }
 
         @Override
@@ -218,8 +300,51 @@ public class ApnsConnection<T extends ApnsPushNotification> {
      * @param name           a human-readable name for this connection; names must not be {@code null}
      */
     public ApnsConnection(final ApnsEnvironment environment, final SSLContext sslContext,
-                          final NioEventLoopGroup eventLoopGroup, final ApnsConnectionConfiguration configuration,
+                          final EventLoopGroup eventLoopGroup, final ApnsConnectionConfiguration configuration,
                           final ApnsConnectionListener<T> listener, final String name) {
+        this(environment, sslContext, eventLoopGroup, configuration, listener, name, null);
+    }
+
+    /**
+     * 与{@link #ApnsConnection(ApnsEnvironment, SSLContext, EventLoopGroup, ApnsConnectionConfiguration, ApnsConnectionListener, String, ApnsPushNotificationFactory)}
+     * 相同，不跟踪消息的投递结果
+     */
+    public ApnsConnection(final ApnsEnvironment environment, final SSLContext sslContext,
+                          final EventLoopGroup eventLoopGroup, final ApnsConnectionConfiguration configuration,
+                          final ApnsConnectionListener<T> listener, final String name,
+                          final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        this(environment, sslContext, eventLoopGroup, configuration, listener, name, pushNotificationFactory, null);
+    }
+
+    /**
+     * 与{@link #ApnsConnection(ApnsEnvironment, SSLContext, EventLoopGroup, ApnsConnectionConfiguration, ApnsConnectionListener, String)}
+     * 相同，另外提供了从编码结果还原消息对象的工厂
+     *
+     * @param pushNotificationFactory 当配置了{@link ApnsConnectionConfiguration#isStoreSentNotificationsOffHeap()}时必须提供，否则可以为
+     *                                {@code null}
+     * @param deliveryTracker         用于查找被跟踪消息的{@link DeliveryReceipt}，可以为{@code null}
+     */
+    public ApnsConnection(final ApnsEnvironment environment, final SSLContext sslContext,
+                          final EventLoopGroup eventLoopGroup, final ApnsConnectionConfiguration configuration,
+                          final ApnsConnectionListener<T> listener, final String name,
+                          final ApnsPushNotificationFactory<T> pushNotificationFactory,
+                          final DeliveryTracker<T> deliveryTracker) {
+        this(environment, wrapSslContext(sslContext, configuration), eventLoopGroup, configuration, listener, name,
+                pushNotificationFactory, deliveryTracker);
+    }
+
+    /**
+     * 与{@link #ApnsConnection(ApnsEnvironment, SSLContext, EventLoopGroup, ApnsConnectionConfiguration, ApnsConnectionListener, String, ApnsPushNotificationFactory, DeliveryTracker)}
+     * 相同，但使用Netty的{@link SslContext}，可以由多个连接共享以便复用TLS会话，也可以使用OpenSSL实现；使用HTTP/2协议时必须配置ALPN
+     *
+     * @see SSLContextUtil#createSslContext(java.security.KeyStore, char[], ApnsProtocol, io.netty.handler.ssl.SslProvider,
+     *      long, long)
+     */
+    public ApnsConnection(final ApnsEnvironment environment, final SslContext sslContext,
+                          final EventLoopGroup eventLoopGroup, final ApnsConnectionConfiguration configuration,
+                          final ApnsConnectionListener<T> listener, final String name,
+                          final ApnsPushNotificationFactory<T> pushNotificationFactory,
+                          final DeliveryTracker<T> deliveryTracker) {
 
         if (environment == null) {
             throw new NullPointerException("Environment must not be null.");
@@ -238,6 +363,7 @@ public class ApnsConnection<T extends ApnsPushNotification> {
         }
 
         this.eventLoopGroup = eventLoopGroup;
+        this.socketChannelClass = TransportUtil.getSocketChannelClass(eventLoopGroup);
 
         if (configuration == null) {
             throw new NullPointerException("Connection configuration must not be null.");
@@ -252,7 +378,53 @@ public class ApnsConnection<T extends ApnsPushNotification> {
 
         this.name = name;
 
-        this.sentNotificationBuffer = new SentNotificationBuffer<T>(configuration.getSentNotificationBufferCapacity());
+        if (configuration.getProtocol() == ApnsProtocol.HTTP2) {
+            // Every HTTP/2 stream gets its own response, so nothing needs to be kept for replay
+            this.sentNotificationBuffer = null;
+        } else if (configuration.isStoreSentNotificationsOffHeap()) {
+            if (pushNotificationFactory == null) {
+                throw new IllegalArgumentException(
+                        "Storing sent notifications off-heap requires a push notification factory.");
+            }
+
+            this.sentNotificationBuffer = new OffHeapSentNotificationBuffer<T>(
+                    configuration.getSentNotificationBufferCapacity(), PooledByteBufAllocator.DEFAULT,
+                    pushNotificationFactory);
+        } else {
+            this.sentNotificationBuffer = new SentNotificationBuffer<T>(configuration.getSentNotificationBufferCapacity());
+        }
+
+        this.sendRateLimiter = configuration.getSendRateLimit() != null ? new TokenBucket(
+                configuration.getSendRateLimit()) : null;
+
+        this.deliveryTracker = deliveryTracker;
+
+        final int inFlightDeliveryLimit = configuration.getSentNotificationBufferCapacity();
+
+        this.inFlightDeliveries = new LinkedHashMap<Integer, InFlightDelivery<T>>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, InFlightDelivery<T>> eldest) {
+                if (this.size() > inFlightDeliveryLimit) {
+                    // The notification has left the sent notification buffer, so we'll never learn its fate
+                    ApnsConnection.this.resolveDelivery(eldest.getValue(), DeliveryOutcome.UNCONFIRMED, null);
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    private static SslContext wrapSslContext(final SSLContext sslContext,
+                                             final ApnsConnectionConfiguration configuration) {
+        if (configuration == null) {
+            throw new NullPointerException("Connection configuration must not be null.");
+        }
+
+        return SSLContextUtil.createSslContext(sslContext, configuration.getProtocol());
     }
 
     /**
@@ -269,9 +441,18 @@ public class ApnsConnection<T extends ApnsPushNotification> {
             throw new IllegalStateException(String.format("%s already started a connection attempt.", this.name));
         }
 
+        final boolean useHttp2 = this.configuration.getProtocol() == ApnsProtocol.HTTP2;
+        final String host = useHttp2 ? this.environment.getApnsHttp2Host() : this.environment.getApnsGatewayHost();
+        final int port = useHttp2 ? this.environment.getApnsHttp2Port() : this.environment.getApnsGatewayPort();
+
+        if (host == null) {
+            throw new IllegalStateException(String.format("%s has no %s gateway host in its environment.", this.name,
+                    this.configuration.getProtocol()));
+        }
+
         final Bootstrap bootstrap = new Bootstrap();
         bootstrap.group(this.eventLoopGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.channel(this.socketChannelClass);
         bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
         final LoggingHandler loggingHandler = new LoggingHandler();
@@ -283,25 +464,50 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                 final ChannelPipeline pipeline = channel.pipeline();
                 pipeline.addFirst("logging", loggingHandler);
 
-                final SSLEngine sslEngine = apnsConnection.sslContext.createSSLEngine();
-                sslEngine.setUseClientMode(true);
+                // Passing the peer's host and port lets the engine find a cached session to resume
+                pipeline.addLast("ssl", apnsConnection.sslContext.newHandler(channel.alloc(), host, port));
 
-                pipeline.addLast("ssl", new SslHandler(sslEngine));
-                pipeline.addLast("decoder", new RejectedNotificationDecoder());
-                pipeline.addLast("encoder", new ApnsPushNotificationEncoder<T>());
+                if (!useHttp2) {
+                    pipeline.addLast("decoder", new RejectedNotificationDecoder());
+                    pipeline.addLast("encoder", new ApnsPushNotificationEncoder<T>());
+                }
 
                 if (ApnsConnection.this.configuration.getCloseAfterInactivityTime() != null) {
                     pipeline.addLast("idleStateHandler",
                             new IdleStateHandler(0, 0, apnsConnection.configuration.getCloseAfterInactivityTime()));
                 }
 
-                pipeline.addLast("handler", new ApnsConnectionHandler(apnsConnection));
+                if (useHttp2) {
+                    pipeline.addLast("protocolNegotiationHandler", new ApplicationProtocolNegotiationHandler(
+                            ApplicationProtocolNames.HTTP_1_1) {
+
+                        @Override
+                        protected void configurePipeline(final ChannelHandlerContext context, final String protocol) {
+                            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                                final Integer gracefulDisconnectionTimeout = apnsConnection.configuration
+                                        .getGracefulDisconnectionTimeout();
+
+                                context.pipeline().addLast(
+                                        "handler",
+                                        ApnsHttp2ClientHandler.newHandler(apnsConnection, host,
+                                                gracefulDisconnectionTimeout != null ? TimeUnit.SECONDS
+                                                        .toMillis(gracefulDisconnectionTimeout) : null));
+                            } else {
+                                context.close();
+
+                                apnsConnection.handleHttp2ConnectionFailure(new IllegalStateException(String.format(
+                                        "APNs gateway negotiated %s instead of HTTP/2.", protocol)));
+                            }
+                        }
+                    });
+                } else {
+                    pipeline.addLast("handler", new ApnsConnectionHandler(apnsConnection));
+                }
             }
         });
 
         log.debug("{} beginning connection process.", apnsConnection.name);
-        this.connectFuture = bootstrap.connect(this.environment.getApnsGatewayHost(),
-                this.environment.getApnsGatewayPort());
+        this.connectFuture = bootstrap.connect(host, port);
         this.connectFuture.addListener(new GenericFutureListener<ChannelFuture>() {
 
             @Override
@@ -310,6 +516,8 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                     log.debug("{} connected; waiting for TLS handshake.", apnsConnection.name);
 
                     final SslHandler sslHandler = connectFuture.channel().pipeline().get(SslHandler.class);
+                    final long handshakeStartNanos = System.nanoTime();
+                    final long handshakeStartMillis = System.currentTimeMillis();
 
                     try {
                         sslHandler.handshakeFuture().addListener(new GenericFutureListener<Future<Channel>>() {
@@ -317,6 +525,19 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                             @Override
                             public void operationComplete(final Future<Channel> handshakeFuture) {
                                 if (handshakeFuture.isSuccess()) {
+                                    apnsConnection.handshakeDurationNanos = System.nanoTime() - handshakeStartNanos;
+
+                                    // A resumed session was created by an earlier handshake; the engine doesn't say
+                                    // so directly, so this is a heuristic (see isSessionResumed)
+                                    apnsConnection.sessionResumed = sslHandler.engine().getSession()
+                                            .getCreationTime() < handshakeStartMillis;
+                                }
+
+                                if (handshakeFuture.isSuccess() && useHttp2) {
+                                    // An HTTP/2 connection isn't usable until the server's settings arrive
+                                    log.debug("{} successfully completed TLS handshake; waiting for HTTP/2 settings.",
+                                            apnsConnection.name);
+                                } else if (handshakeFuture.isSuccess()) {
                                     log.debug("{} successfully completed TLS handshake.", apnsConnection.name);
 
                                     apnsConnection.handshakeCompleted = true;
@@ -359,7 +580,23 @@ public class ApnsConnection<T extends ApnsPushNotification> {
     }
 
     /**
-     * 异步的发送消息到APNS服务，如果消息成功接收，APNS不会返回结果，如果失败，APNS会返回失败消息
+     * 返回最近一次TLS握手耗费的时间（纳秒），握手完成之前返回-1
+     */
+    public long getHandshakeDurationNanos() {
+        return this.handshakeDurationNanos;
+    }
+
+    /**
+     * 最近一次TLS握手是否复用了之前缓存的会话，而不是完整握手。SSLEngine没有直接报告会话是否复用，这里根据会话的创建时间是否早于握手开始时间推断，
+     * 是一种启发式判断：时间只精确到毫秒，而且使用系统时钟，时钟被调整时结果可能不准确
+     */
+    public boolean isSessionResumed() {
+        return this.sessionResumed;
+    }
+
+    /**
+     * 异步的发送消息到APNS服务，如果消息成功接收，APNS不会返回结果，如果失败，APNS会返回失败消息；消息写入后是否立即flush由
+     * {@link ApnsConnectionConfiguration#getFlushAfterWriteCount()}和{@link ApnsConnectionConfiguration#getFlushAfterMillis()}决定
      *
      * @param notification the notification to send
      * @see ApnsConnectionListener#handleWriteFailure(ApnsConnection, ApnsPushNotification, Throwable)
@@ -371,13 +608,103 @@ public class ApnsConnection<T extends ApnsPushNotification> {
             throw new IllegalStateException(String.format("%s has not completed handshake.", this.name));
         }
 
-        if (this.disconnectNotification == null) {
+        this.writeNotification(notification);
+        this.flushIfNecessary();
+    }
+
+    /**
+     * 异步的批量发送消息到APNS服务，所有消息写入之后只执行一次flush，从而减少系统调用和TLS加密的次数。连接已经开始优雅关闭（包括写入过程中达到
+     * {@link ApnsConnectionConfiguration#getSendAttemptLimit()}）时，剩余的消息不再写入，而是通过
+     * {@link ApnsConnectionListener#handleUnprocessedNotifications(ApnsConnection, Collection)}交还给调用者
+     *
+     * @param notifications the notifications to send
+     * @see #sendNotification(ApnsPushNotification)
+     */
+    public synchronized void sendNotifications(final Collection<T> notifications) {
+        if (!this.handshakeCompleted) {
+            throw new IllegalStateException(String.format("%s has not completed handshake.", this.name));
+        }
+
+        final Iterator<T> iterator = notifications.iterator();
+
+        while (iterator.hasNext()) {
+            if (this.disconnectNotification != null || this.goAwayStarted) {
+                final List<T> unsentNotifications = new ArrayList<T>();
+
+                while (iterator.hasNext()) {
+                    unsentNotifications.add(iterator.next());
+                }
+
+                this.handleUnprocessedNotifications(unsentNotifications);
+                break;
+            }
+
+            this.writeNotification(iterator.next());
+        }
+
+        this.flush();
+    }
+
+    private void flushIfNecessary() {
+        final Integer flushAfterWriteCount = this.configuration.getFlushAfterWriteCount();
+        final Integer flushAfterMillis = this.configuration.getFlushAfterMillis();
+
+        if (flushAfterWriteCount == null && flushAfterMillis == null) {
+            this.flush();
+            return;
+        }
+
+        this.unflushedWriteCount += 1;
+
+        if (flushAfterWriteCount != null && this.unflushedWriteCount >= flushAfterWriteCount) {
+            this.flush();
+        } else if (!this.flushScheduled) {
+            final int delay = flushAfterMillis != null ? flushAfterMillis : DEFAULT_MAXIMUM_FLUSH_DELAY_MILLIS;
+            final Channel channel = this.connectFuture.channel();
+
+            this.flushScheduled = true;
+
+            channel.eventLoop().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ApnsConnection.this.flushScheduled = false;
+
+                    // Writes from the dispatch thread reach the event loop as tasks. Any write that still saw the flag
+                    // set was queued before this point, so flushing from a task queued behind it covers that write too.
+                    // Channel operations are thread-safe, so this never contends with the dispatch thread for the
+                    // connection's monitor.
+                    channel.eventLoop().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            channel.flush();
+                        }
+                    });
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        // A scheduled flush that is still pending finds nothing left to write and costs almost nothing, so it isn't
+        // cancelled here
+        this.unflushedWriteCount = 0;
+        this.connectFuture.channel().flush();
+    }
+
+    private void writeNotification(final T notification) {
+        if (this.disconnectNotification == null && !this.goAwayStarted) {
             final SendableApnsPushNotification<T> sendableNotification = new SendableApnsPushNotification<T>(
                     notification, this.sequenceNumber++);
 
             log.debug("{} sending {}", this.name, sendableNotification);
 
-            this.connectFuture.channel().writeAndFlush(sendableNotification)
+            final long writeStartTime = System.nanoTime();
+
+            if (this.sendRateLimiter != null) {
+                this.sendRateLimiter.acquire();
+            }
+
+            this.connectFuture.channel().write(sendableNotification)
                     .addListener(new GenericFutureListener<ChannelFuture>() {
 
                         @Override
@@ -386,6 +713,8 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                                 log.debug("{} successfully wrote notification {}", ApnsConnection.this.name,
                                         sendableNotification.getSequenceNumber());
 
+                                ApnsConnection.this.recordWriteLatency(System.nanoTime() - writeStartTime);
+
                                 if (ApnsConnection.this.rejectionReceived) {
                                     // Even though the write succeeded, we know for sure that this notification was
                                     // never
@@ -396,9 +725,14 @@ public class ApnsConnection<T extends ApnsPushNotification> {
                                         ApnsConnection.this.listener.handleUnprocessedNotifications(
                                                 ApnsConnection.this, java.util.Collections.singletonList(notification));
                                     }
-                                } else {
+                                } else if (ApnsConnection.this.sentNotificationBuffer != null) {
                                     ApnsConnection.this.sentNotificationBuffer
                                             .addSentNotification(sendableNotification);
+
+                                    ApnsConnection.this.trackInFlightDelivery(sendableNotification);
+                                } else {
+                                    // HTTP/2 responses arrive per stream, so there's nothing to keep for replay
+                                    ApnsConnection.this.handleWrittenNotification(notification);
                                 }
                             } else {
                                 log.debug("{} failed to write notification {}", new Object[]{ApnsConnection.this.name,
@@ -430,7 +764,7 @@ public class ApnsConnection<T extends ApnsPushNotification> {
     }
 
     /**
-     * 异步并优雅的关闭连接， 通过发送一个格式错误的消息给APN服务，当APNS服务拒绝了该消息，APNS服务会确保之前的所有消息被成功处理；在此之后的消息将不会被处理；
+     * 异步并优雅的关闭连接；HTTP/2连接发送GOAWAY，等待已发送的消息收到响应之后关闭。传统二进制协议的连接通过发送一个格式错误的消息给APN服务，当APNS服务拒绝了该消息，APNS服务会确保之前的所有消息被成功处理；在此之后的消息将不会被处理；
      * 在拒绝消息之后，APNS会关闭连接，并且通知连接Listener;
      * <p>
      * 当格式错误的消息被APNS拒绝时，Listner并不会收到通知
@@ -451,6 +785,30 @@ public class ApnsConnection<T extends ApnsPushNotification> {
         // still connected.
         if (this.handshakeCompleted && this.connectFuture.channel().isActive()) {
 
+            if (!this.drainingStarted) {
+                this.drainingStarted = true;
+
+                if (this.listener instanceof ConnectionDrainingListener) {
+                    @SuppressWarnings("unchecked")
+                    final ConnectionDrainingListener<T> drainingListener = (ConnectionDrainingListener<T>)this.listener;
+                    drainingListener.handleConnectionDraining(this);
+                }
+            }
+
+            if (this.configuration.getProtocol() == ApnsProtocol.HTTP2) {
+                if (!this.goAwayStarted) {
+                    log.debug("{} sending GOAWAY to disconnect.", this.name);
+
+                    this.goAwayStarted = true;
+
+                    // Closing goes through the HTTP/2 handler, which waits for open streams before closing the socket
+                    this.flush();
+                    this.connectFuture.channel().close();
+                }
+
+                return true;
+            }
+
             // Don't send a second disconnection notification if we've already started the graceful disconnection
             // process.
             if (this.disconnectNotification == null) {
@@ -503,10 +861,217 @@ public class ApnsConnection<T extends ApnsPushNotification> {
 
     public synchronized void disconnectImmediately() {
         if (this.connectFuture != null) {
+            final ApnsHttp2ClientHandler<?> http2Handler = this.connectFuture.channel().pipeline()
+                    .get(ApnsHttp2ClientHandler.class);
+
+            if (http2Handler != null) {
+                // Don't wait for open streams
+                http2Handler.gracefulShutdownTimeoutMillis(0);
+            }
+
             this.connectFuture.channel().close();
         }
     }
 
+    void handleHttp2ConnectionReady() {
+        log.debug("{} received HTTP/2 settings and is ready to send notifications.", this.name);
+
+        this.handshakeCompleted = true;
+
+        if (this.listener != null) {
+            this.listener.handleConnectionSuccess(this);
+        }
+    }
+
+    void handleConnectionClosure() {
+        if (this.handshakeCompleted && this.listener != null) {
+            this.listener.handleConnectionClosure(this);
+        }
+    }
+
+    void handleHttp2ConnectionFailure(final Throwable cause) {
+        log.debug("{} failed to establish an HTTP/2 connection.", this.name, cause);
+
+        if (this.listener != null) {
+            this.listener.handleConnectionFailure(this, cause);
+        }
+    }
+
+    void handleWrittenNotification(final T notification) {
+        final DeliveryReceipt deliveryReceipt = this.deliveryTracker != null ? this.deliveryTracker
+                .getDeliveryReceipt(notification) : null;
+
+        if (deliveryReceipt != null) {
+            deliveryReceipt.handleWrite();
+        }
+    }
+
+    void handleAcceptedNotification(final T notification) {
+        this.resolveDelivery(notification, DeliveryOutcome.ACCEPTED, null);
+    }
+
+    void handleRejectedNotification(final T notification, final RejectedNotificationReason reason) {
+        this.resolveDelivery(notification, DeliveryOutcome.REJECTED, reason);
+
+        if (this.listener != null) {
+            this.listener.handleRejectedNotification(this, notification, reason);
+        }
+    }
+
+    void handleUnprocessedNotifications(final Collection<T> notifications) {
+        if (this.listener != null) {
+            this.listener.handleUnprocessedNotifications(this, notifications);
+        }
+    }
+
+    void handleUnconfirmedNotifications(final Collection<T> notifications) {
+        for (final T notification : notifications) {
+            this.resolveDelivery(notification, DeliveryOutcome.UNCONFIRMED, null);
+        }
+    }
+
+    void handleWritabilityChange(final boolean writable) {
+        if (this.listener != null) {
+            this.listener.handleConnectionWritabilityChange(this, writable);
+        }
+    }
+
+    private void trackInFlightDelivery(final SendableApnsPushNotification<T> sendableNotification) {
+        final T notification = sendableNotification.getPushNotification();
+
+        // Notifications that failed before are kept too, so their attempt count can follow the copy restored from the
+        // sent notification buffer
+        if (this.deliveryTracker != null && this.deliveryTracker.hasDeliveryState(notification)) {
+            final DeliveryReceipt deliveryReceipt = this.deliveryTracker.getDeliveryReceipt(notification);
+
+            if (deliveryReceipt != null) {
+                deliveryReceipt.handleWrite();
+            }
+
+            this.inFlightDeliveries.put(sendableNotification.getSequenceNumber(), new InFlightDelivery<T>(
+                    notification, deliveryReceipt));
+        }
+    }
+
+    /**
+     * 根据APNS返回的错误确定被跟踪消息的结果：序列号较小的消息已被接受，被拒绝的消息失败；序列号较大的消息由
+     * {@link #getUnprocessedNotifications(int)}处理
+     */
+    private void resolveInFlightDeliveries(final RejectedNotification rejectedNotification) {
+        final int rejectedSequenceNumber = rejectedNotification.getSequenceNumber();
+        final Iterator<Map.Entry<Integer, InFlightDelivery<T>>> iterator = this.inFlightDeliveries.entrySet()
+                .iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<Integer, InFlightDelivery<T>> entry = iterator.next();
+            final int sequenceNumber = entry.getKey();
+
+            if (sequenceNumber - rejectedSequenceNumber < 0) {
+                this.resolveDelivery(entry.getValue(), DeliveryOutcome.ACCEPTED, null);
+                iterator.remove();
+            } else if (sequenceNumber == rejectedSequenceNumber) {
+                // A shutdown notice names the last notification the gateway processed successfully
+                if (RejectedNotificationReason.SHUTDOWN.equals(rejectedNotification.getReason())) {
+                    this.resolveDelivery(entry.getValue(), DeliveryOutcome.ACCEPTED, null);
+                } else {
+                    this.resolveDelivery(entry.getValue(), DeliveryOutcome.REJECTED, rejectedNotification.getReason());
+                }
+
+                iterator.remove();
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 返回序列号大于{@code sequenceNumber}、未被APNS处理的消息，被跟踪消息的凭证转移到返回的消息对象上
+     */
+    private List<T> getUnprocessedNotifications(final int sequenceNumber) {
+        final List<SendableApnsPushNotification<T>> sendableNotifications = this.sentNotificationBuffer
+                .getAllSendableNotificationsAfterSequenceNumber(sequenceNumber);
+
+        final List<T> unprocessedNotifications = new ArrayList<T>(sendableNotifications.size());
+
+        for (final SendableApnsPushNotification<T> sendableNotification : sendableNotifications) {
+            final InFlightDelivery<T> inFlightDelivery = this.inFlightDeliveries.remove(sendableNotification
+                    .getSequenceNumber());
+
+            if (inFlightDelivery != null) {
+                this.deliveryTracker.transferDeliveryReceipt(inFlightDelivery.notification,
+                        sendableNotification.getPushNotification());
+            }
+
+            unprocessedNotifications.add(sendableNotification.getPushNotification());
+        }
+
+        return unprocessedNotifications;
+    }
+
+    private void resolveDelivery(final InFlightDelivery<T> inFlightDelivery, final DeliveryOutcome outcome,
+            final RejectedNotificationReason rejectionReason) {
+        this.deliveryTracker.releaseDeliveryReceipt(inFlightDelivery.notification);
+
+        if (inFlightDelivery.deliveryReceipt == null) {
+            return;
+        }
+
+        if (outcome == DeliveryOutcome.REJECTED) {
+            inFlightDelivery.deliveryReceipt.handleRejection(rejectionReason);
+        } else {
+            inFlightDelivery.deliveryReceipt.handleOutcome(outcome);
+        }
+    }
+
+    private void resolveDelivery(final T notification, final DeliveryOutcome outcome,
+            final RejectedNotificationReason rejectionReason) {
+        if (this.deliveryTracker != null && this.deliveryTracker.hasDeliveryState(notification)) {
+            this.resolveDelivery(new InFlightDelivery<T>(notification, this.deliveryTracker
+                    .getDeliveryReceipt(notification)), outcome, rejectionReason);
+        }
+    }
+
+    private void recordWriteLatency(final long latencyNanos) {
+        // Exponentially weighted moving average with a weight of 1/8 for the newest sample
+        this.writeLatencyNanos += (latencyNanos - this.writeLatencyNanos) >> 3;
+    }
+
+    /**
+     * 返回最近写入延迟的加权平均值，即消息从提交写入到被写入socket所经过的时间，包括等待flush和连接不可写时排队的时间
+     *
+     * @return 写入延迟，单位为纳秒
+     */
+    public long getWriteLatencyNanos() {
+        return this.writeLatencyNanos;
+    }
+
+    /**
+     * 返回距离该连接可以再次发送消息还需要等待的时间，未配置{@link ApnsConnectionConfiguration#getSendRateLimit()}或者当前未达到上限时返回0；
+     * 调用方应当在返回0之后再发送消息
+     *
+     * @return 等待时间，单位为纳秒
+     */
+    public long getNanosUntilSendPermitted() {
+        return this.sendRateLimiter != null ? this.sendRateLimiter.getNanosUntilAvailable() : 0;
+    }
+
+    /**
+     * 返回处理该连接读写的事件循环，在该事件循环中执行的任务与连接的读写和可写状态变化不会并发执行；只能在{@link #connect()}之后调用
+     *
+     * @return 连接的事件循环
+     */
+    public synchronized EventLoop getEventLoop() {
+        if (this.connectFuture == null) {
+            throw new IllegalStateException(String.format("%s has not started connecting.", this.name));
+        }
+
+        return this.connectFuture.channel().eventLoop();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
     @Override
     public String toString() {
         return "ApnsConnection [name=" + name + "]";
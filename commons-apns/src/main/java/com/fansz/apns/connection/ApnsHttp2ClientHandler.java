@@ -0,0 +1,380 @@
+package com.fansz.apns.connection;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpScheme;
+import io.netty.handler.codec.http2.DefaultHttp2Connection;
+import io.netty.handler.codec.http2.DefaultHttp2ConnectionDecoder;
+import io.netty.handler.codec.http2.DefaultHttp2ConnectionEncoder;
+import io.netty.handler.codec.http2.DefaultHttp2FrameReader;
+import io.netty.handler.codec.http2.DefaultHttp2FrameWriter;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.Http2Connection;
+import io.netty.handler.codec.http2.Http2ConnectionAdapter;
+import io.netty.handler.codec.http2.Http2ConnectionDecoder;
+import io.netty.handler.codec.http2.Http2ConnectionEncoder;
+import io.netty.handler.codec.http2.Http2ConnectionHandler;
+import io.netty.handler.codec.http2.Http2FrameAdapter;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.StreamBufferingEncoder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.PromiseCombiner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.fansz.apns.model.ApnsPayload;
+import com.fansz.apns.model.SendableApnsPushNotification;
+import com.fansz.apns.support.ApnsPushNotification;
+import com.fansz.apns.support.DeviceTokenPushNotification;
+import com.fansz.apns.support.EncodedPayloadPushNotification;
+import com.fansz.apns.support.RejectedNotificationReason;
+import com.fansz.apns.support.WritablePayloadPushNotification;
+import com.fansz.apns.util.TokenUtil;
+
+/**
+ * <p>
+ * {@link com.fansz.apns.support.ApnsProtocol#HTTP2}连接的处理器，每条消息作为一个POST请求发送到独立的stream上，并根据响应状态将结果报告给
+ * {@link ApnsConnection}：200表示已接受；429、500和503表示APNS暂时无法处理，消息需要重发；其他状态表示消息被拒绝
+ * </p>
+ * <p>
+ * 超出服务器允许的并发stream数量的请求由{@link StreamBufferingEncoder}缓存，等有stream关闭之后再发送。连接收到GOAWAY时，编号大于
+ * 最后处理的stream的消息需要重发，连接随后被优雅关闭
+ * </p>
+ * <p>
+ * 所有方法都在连接的event loop线程中调用
+ * </p>
+ */
+class ApnsHttp2ClientHandler<T extends ApnsPushNotification> extends Http2ConnectionHandler {
+
+    private static final String APNS_PATH_PREFIX = "/3/device/";
+
+    private static final AsciiString APNS_EXPIRATION_HEADER = new AsciiString("apns-expiration");
+
+    private static final AsciiString APNS_PRIORITY_HEADER = new AsciiString("apns-priority");
+
+    private static final String REASON_FIELD = "reason";
+
+    private final ApnsConnection<T> apnsConnection;
+
+    private final AsciiString authority;
+
+    /** 已发送、尚未收到响应的消息，按stream编号索引 */
+    private final Map<Integer, T> pendingNotifications = new HashMap<Integer, T>();
+
+    /** 已收到响应头、正在等待响应体的stream */
+    private final Map<Integer, Http2Headers> pendingResponseHeaders = new HashMap<Integer, Http2Headers>();
+
+    private final Map<Integer, StringBuilder> pendingResponseBodies = new HashMap<Integer, StringBuilder>();
+
+    private boolean settingsReceived = false;
+
+    private static final Logger log = LoggerFactory.getLogger(ApnsHttp2ClientHandler.class);
+
+    private class ResponseListener extends Http2FrameAdapter {
+
+        @Override
+        public void onSettingsRead(final ChannelHandlerContext context, final Http2Settings settings) {
+            if (!ApnsHttp2ClientHandler.this.settingsReceived) {
+                ApnsHttp2ClientHandler.this.settingsReceived = true;
+                ApnsHttp2ClientHandler.this.apnsConnection.handleHttp2ConnectionReady();
+            }
+        }
+
+        @Override
+        public void onHeadersRead(final ChannelHandlerContext context, final int streamId,
+                final Http2Headers headers, final int padding, final boolean endOfStream) {
+            if (endOfStream) {
+                ApnsHttp2ClientHandler.this.handleResponse(streamId, headers, null);
+            } else {
+                ApnsHttp2ClientHandler.this.pendingResponseHeaders.put(streamId, headers);
+            }
+        }
+
+        @Override
+        public void onHeadersRead(final ChannelHandlerContext context, final int streamId,
+                final Http2Headers headers, final int streamDependency, final short weight, final boolean exclusive,
+                final int padding, final boolean endOfStream) {
+            this.onHeadersRead(context, streamId, headers, padding, endOfStream);
+        }
+
+        @Override
+        public int onDataRead(final ChannelHandlerContext context, final int streamId, final ByteBuf data,
+                final int padding, final boolean endOfStream) {
+            final int processedBytes = data.readableBytes() + padding;
+
+            StringBuilder body = ApnsHttp2ClientHandler.this.pendingResponseBodies.get(streamId);
+
+            if (body == null) {
+                body = new StringBuilder(data.readableBytes());
+                ApnsHttp2ClientHandler.this.pendingResponseBodies.put(streamId, body);
+            }
+
+            body.append(data.toString(CharsetUtil.UTF_8));
+
+            if (endOfStream) {
+                final Http2Headers headers = ApnsHttp2ClientHandler.this.pendingResponseHeaders.remove(streamId);
+                ApnsHttp2ClientHandler.this.pendingResponseBodies.remove(streamId);
+
+                ApnsHttp2ClientHandler.this.handleResponse(streamId, headers, body.toString());
+            }
+
+            return processedBytes;
+        }
+
+        @Override
+        public void onRstStreamRead(final ChannelHandlerContext context, final int streamId, final long errorCode) {
+            ApnsHttp2ClientHandler.this.pendingResponseHeaders.remove(streamId);
+            ApnsHttp2ClientHandler.this.pendingResponseBodies.remove(streamId);
+
+            final T notification = ApnsHttp2ClientHandler.this.pendingNotifications.remove(streamId);
+
+            if (notification != null) {
+                log.debug("{} reset stream {} with error code {}; notification will be resent.", new Object[] {
+                        ApnsHttp2ClientHandler.this.apnsConnection.getName(), streamId, errorCode });
+
+                ApnsHttp2ClientHandler.this.apnsConnection.handleUnprocessedNotifications(Collections
+                        .singletonList(notification));
+            }
+        }
+    }
+
+    private ApnsHttp2ClientHandler(final Http2ConnectionDecoder decoder, final Http2ConnectionEncoder encoder,
+            final ApnsConnection<T> apnsConnection, final String authority) {
+        super(decoder, encoder, new Http2Settings().pushEnabled(false));
+
+        this.apnsConnection = apnsConnection;
+        this.authority = new AsciiString(authority);
+
+        decoder.frameListener(new ResponseListener());
+
+        this.connection().addListener(new Http2ConnectionAdapter() {
+
+            @Override
+            public void onGoAwayReceived(final int lastStreamId, final long errorCode, final ByteBuf debugData) {
+                ApnsHttp2ClientHandler.this.handleGoAway(lastStreamId, errorCode);
+            }
+        });
+    }
+
+    /**
+     * @param authority 请求的:authority，即网关的主机名
+     * @param gracefulShutdownTimeoutMillis 优雅关闭时等待未完成stream的最长时间，为null时使用Netty的默认值
+     */
+    static <T extends ApnsPushNotification> ApnsHttp2ClientHandler<T> newHandler(
+            final ApnsConnection<T> apnsConnection, final String authority, final Long gracefulShutdownTimeoutMillis) {
+        final Http2Connection connection = new DefaultHttp2Connection(false);
+
+        // Requests beyond the server's stream limit wait here instead of failing
+        final Http2ConnectionEncoder encoder = new StreamBufferingEncoder(new DefaultHttp2ConnectionEncoder(
+                connection, new DefaultHttp2FrameWriter()));
+        final Http2ConnectionDecoder decoder = new DefaultHttp2ConnectionDecoder(connection, encoder,
+                new DefaultHttp2FrameReader());
+
+        final ApnsHttp2ClientHandler<T> handler = new ApnsHttp2ClientHandler<T>(decoder, encoder, apnsConnection,
+                authority);
+
+        if (gracefulShutdownTimeoutMillis != null) {
+            handler.gracefulShutdownTimeoutMillis(gracefulShutdownTimeoutMillis);
+        }
+
+        return handler;
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext context, final Object message, final ChannelPromise writePromise)
+            throws Exception {
+        if (message instanceof SendableApnsPushNotification) {
+            @SuppressWarnings("unchecked")
+            final T notification = ((SendableApnsPushNotification<T>)message).getPushNotification();
+
+            this.writeNotification(context, notification, writePromise);
+        } else {
+            super.write(context, message, writePromise);
+        }
+    }
+
+    private void writeNotification(final ChannelHandlerContext context, final T notification,
+            final ChannelPromise writePromise) {
+        final int streamId = this.connection().local().incrementAndGetNextStreamId();
+
+        if (streamId < 0) {
+            // Stream IDs have run out; the connection has to be replaced
+            writePromise.tryFailure(new IllegalStateException("HTTP/2 stream IDs exhausted."));
+            this.apnsConnection.disconnectGracefully();
+            return;
+        }
+
+        final Http2Headers headers = new DefaultHttp2Headers().method(HttpMethod.POST.asciiName())
+                .scheme(HttpScheme.HTTPS.name()).authority(this.authority)
+                .path(APNS_PATH_PREFIX + (notification instanceof DeviceTokenPushNotification ? ((DeviceTokenPushNotification)notification)
+                        .getDeviceToken().toString() : TokenUtil.tokenBytesToString(notification.getToken())));
+
+        if (notification.getDeliveryInvalidationTime() != null) {
+            headers.addLong(APNS_EXPIRATION_HEADER, notification.getDeliveryInvalidationTime().getTime() / 1000);
+        }
+
+        if (notification.getPriority() != null) {
+            headers.addInt(APNS_PRIORITY_HEADER, notification.getPriority().getCode());
+        }
+
+        final ApnsPayload encodedPayload = notification instanceof EncodedPayloadPushNotification ? ((EncodedPayloadPushNotification)notification)
+                .getEncodedPayload() : null;
+
+        final ByteBuf payload;
+
+        if (encodedPayload != null) {
+            payload = encodedPayload.getBuffer().duplicate();
+        } else if (notification instanceof WritablePayloadPushNotification) {
+            final WritablePayloadPushNotification writablePayloadNotification = (WritablePayloadPushNotification)notification;
+
+            payload = context.alloc().ioBuffer(writablePayloadNotification.getPayloadLength());
+            writablePayloadNotification.writePayload(payload);
+        } else {
+            payload = ByteBufUtil.writeUtf8(context.alloc(), notification.getPayload());
+        }
+
+        final ChannelFuture headersFuture = this.encoder().writeHeaders(context, streamId, headers, 0, false,
+                context.newPromise());
+        final ChannelFuture dataFuture = this.encoder().writeData(context, streamId, payload, 0, true,
+                context.newPromise());
+
+        this.pendingNotifications.put(streamId, notification);
+
+        writePromise.addListener(new GenericFutureListener<ChannelFuture>() {
+
+            @Override
+            public void operationComplete(final ChannelFuture future) {
+                if (!future.isSuccess()) {
+                    // The connection reports the write failure; there will be no response to wait for
+                    ApnsHttp2ClientHandler.this.pendingNotifications.remove(streamId);
+                }
+            }
+        });
+
+        final PromiseCombiner promiseCombiner = new PromiseCombiner(context.executor());
+        promiseCombiner.addAll(headersFuture, dataFuture);
+        promiseCombiner.finish(writePromise);
+    }
+
+    private void handleResponse(final int streamId, final Http2Headers headers, final String body) {
+        final T notification = this.pendingNotifications.remove(streamId);
+
+        if (notification == null) {
+            log.warn("{} received a response for unknown stream {}.", this.apnsConnection.getName(), streamId);
+            return;
+        }
+
+        final int status = headers != null && headers.status() != null ? HttpResponseStatus.parseLine(
+                headers.status()).code() : 0;
+
+        if (status == HttpResponseStatus.OK.code()) {
+            this.apnsConnection.handleAcceptedNotification(notification);
+        } else if (status == HttpResponseStatus.TOO_MANY_REQUESTS.code()
+                || status == HttpResponseStatus.INTERNAL_SERVER_ERROR.code()
+                || status == HttpResponseStatus.SERVICE_UNAVAILABLE.code()) {
+            log.debug("{} could not process notification on stream {} (status {}); notification will be resent.",
+                    new Object[] { this.apnsConnection.getName(), streamId, status });
+
+            this.apnsConnection.handleUnprocessedNotifications(Collections.singletonList(notification));
+        } else {
+            final String reason = getReason(body);
+
+            log.debug("APNs gateway rejected notification on stream {} from {} (status {}, reason {}).",
+                    new Object[] { streamId, this.apnsConnection.getName(), status, reason });
+
+            this.apnsConnection.handleRejectedNotification(notification,
+                    RejectedNotificationReason.getByHttp2Reason(reason));
+        }
+    }
+
+    private static String getReason(final String body) {
+        if (body == null || body.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return JSON.parseObject(body).getString(REASON_FIELD);
+        } catch (RuntimeException e) {
+            log.debug("Failed to parse APNs response body {}.", body, e);
+            return null;
+        }
+    }
+
+    private void handleGoAway(final int lastStreamId, final long errorCode) {
+        log.debug("{} received GOAWAY (last stream {}, error code {}).",
+                new Object[] { this.apnsConnection.getName(), lastStreamId, errorCode });
+
+        // The server promises it never touched streams after the last one it names, so those are safe to resend
+        final List<T> unprocessedNotifications = new ArrayList<T>();
+        final Iterator<Map.Entry<Integer, T>> iterator = this.pendingNotifications.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            final Map.Entry<Integer, T> entry = iterator.next();
+
+            if (entry.getKey() > lastStreamId) {
+                unprocessedNotifications.add(entry.getValue());
+                iterator.remove();
+            }
+        }
+
+        if (!unprocessedNotifications.isEmpty()) {
+            this.apnsConnection.handleUnprocessedNotifications(unprocessedNotifications);
+        }
+
+        this.apnsConnection.disconnectGracefully();
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext context) throws Exception {
+        super.channelInactive(context);
+
+        if (!this.pendingNotifications.isEmpty()) {
+            log.debug("{} closed with {} notifications awaiting a response.", this.apnsConnection.getName(),
+                    this.pendingNotifications.size());
+
+            this.apnsConnection.handleUnconfirmedNotifications(new ArrayList<T>(this.pendingNotifications.values()));
+            this.pendingNotifications.clear();
+        }
+
+        if (!this.settingsReceived) {
+            this.apnsConnection.handleHttp2ConnectionFailure(new IllegalStateException(
+                    "Connection closed before HTTP/2 settings were received."));
+        } else {
+            this.apnsConnection.handleConnectionClosure();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(final ChannelHandlerContext context) throws Exception {
+        super.channelWritabilityChanged(context);
+        this.apnsConnection.handleWritabilityChange(context.channel().isWritable());
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext context, final Object event) throws Exception {
+        if (event instanceof IdleStateEvent) {
+            log.debug("{} will disconnect gracefully due to inactivity.", this.apnsConnection.getName());
+            this.apnsConnection.disconnectGracefully();
+        } else {
+            super.userEventTriggered(context, event);
+        }
+    }
+}
@@ -8,11 +8,11 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.ReadTimeoutException;
 import io.netty.handler.timeout.ReadTimeoutHandler;
@@ -20,7 +20,6 @@ import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +28,9 @@ import com.fansz.apns.codec.ExpiredTokenDecoder;
 import com.fansz.apns.config.ApnsEnvironment;
 import com.fansz.apns.config.FeedbackConnectionConfiguration;
 import com.fansz.apns.model.ExpiredToken;
+import com.fansz.apns.support.ApnsProtocol;
+import com.fansz.apns.util.SSLContextUtil;
+import com.fansz.apns.util.TransportUtil;
 
 /**
  * <p>
@@ -62,9 +64,11 @@ public class FeedbackServiceConnection {
 
     private final ApnsEnvironment environment;
 
-    private final SSLContext sslContext;
+    private final SslContext sslContext;
 
-    private final NioEventLoopGroup eventLoopGroup;
+    private final EventLoopGroup eventLoopGroup;
+
+    private final Class<? extends SocketChannel> socketChannelClass;
 
     private final FeedbackConnectionConfiguration configuration;
 
@@ -114,7 +118,18 @@ public class FeedbackServiceConnection {
     }
 
     public FeedbackServiceConnection(final ApnsEnvironment environment, final SSLContext sslContext,
-            final NioEventLoopGroup eventLoopGroup, final FeedbackConnectionConfiguration configuration,
+            final EventLoopGroup eventLoopGroup, final FeedbackConnectionConfiguration configuration,
+            final FeedbackServiceListener listener, final String name) {
+        this(environment, SSLContextUtil.createSslContext(sslContext, ApnsProtocol.LEGACY_BINARY), eventLoopGroup,
+                configuration, listener, name);
+    }
+
+    /**
+     * 使用Netty的{@link SslContext}创建反馈服务连接，可以与推送连接共享同一个上下文以便复用TLS会话；反馈服务只支持二进制协议，
+     * 因此上下文不能配置ALPN
+     */
+    public FeedbackServiceConnection(final ApnsEnvironment environment, final SslContext sslContext,
+            final EventLoopGroup eventLoopGroup, final FeedbackConnectionConfiguration configuration,
             final FeedbackServiceListener listener, final String name) {
         if (environment == null) {
             throw new NullPointerException("Environment must not be null.");
@@ -139,6 +154,7 @@ public class FeedbackServiceConnection {
         this.environment = environment;
         this.sslContext = sslContext;
         this.eventLoopGroup = eventLoopGroup;
+        this.socketChannelClass = TransportUtil.getSocketChannelClass(eventLoopGroup);
         this.configuration = configuration;
         this.listener = listener;
         this.name = name;
@@ -152,7 +168,7 @@ public class FeedbackServiceConnection {
 
         final Bootstrap bootstrap = new Bootstrap();
         bootstrap.group(this.eventLoopGroup);
-        bootstrap.channel(NioSocketChannel.class);
+        bootstrap.channel(this.socketChannelClass);
 
         final LoggingHandler loggingHandler = new LoggingHandler();
         final FeedbackServiceConnection feedbackConnection = this;
@@ -164,10 +180,9 @@ public class FeedbackServiceConnection {
                 final ChannelPipeline pipeline = channel.pipeline();
 
                 pipeline.addFirst("logging", loggingHandler);
-                final SSLEngine sslEngine = feedbackConnection.sslContext.createSSLEngine();
-                sslEngine.setUseClientMode(true);
-
-                pipeline.addLast("ssl", new SslHandler(sslEngine));
+                pipeline.addLast("ssl", feedbackConnection.sslContext.newHandler(channel.alloc(),
+                        feedbackConnection.environment.getFeedbackHost(),
+                        feedbackConnection.environment.getFeedbackPort()));
                 pipeline.addLast("readTimeoutHandler",
                         new ReadTimeoutHandler(feedbackConnection.configuration.getReadTimeout()));
                 pipeline.addLast("decoder", new ExpiredTokenDecoder());
@@ -0,0 +1,22 @@
+package com.fansz.apns.listener;
+
+import com.fansz.apns.connection.ApnsConnection;
+import com.fansz.apns.support.ApnsPushNotification;
+
+/**
+ * <p>
+ * 可选的连接事件：{@link ApnsConnectionListener}的实现同时实现这个接口时，{@link ApnsConnection}会在连接开始优雅关闭时通知它
+ * </p>
+ * <p>
+ * 单独定义是为了不给{@link ApnsConnectionListener}增加方法，已有的实现不需要修改
+ * </p>
+ */
+public interface ConnectionDrainingListener<T extends ApnsPushNotification> {
+
+    /**
+     * 连接开始优雅关闭，例如达到发送次数上限或者空闲超时；此后写入的消息都会通过
+     * {@link ApnsConnectionListener#handleWriteFailure(ApnsConnection, ApnsPushNotification, Throwable)}返回，连接关闭时仍会调用
+     * {@link ApnsConnectionListener#handleConnectionClosure(ApnsConnection)}
+     */
+    void handleConnectionDraining(ApnsConnection<T> connection);
+}
@@ -0,0 +1,19 @@
+package com.fansz.apns.listener;
+
+import com.fansz.apns.PushManager;
+import com.fansz.apns.support.ApnsPushNotification;
+
+/**
+ * @see PushManager#registerDeadLetterListener(DeadLetterListener)
+ * @see PushManager#unregisterDeadLetterListener(DeadLetterListener)
+ * @see com.fansz.apns.config.RetryConfiguration#setMaximumDeliveryAttempts(Integer)
+ */
+public interface DeadLetterListener<T extends ApnsPushNotification> {
+
+    /**
+     * 处理失败次数达到上限、不再重试的消息
+     *
+     * @param attempts 消息失败的次数
+     */
+    void handleDeadLetter(PushManager<? extends T> pushManager, T notification, int attempts);
+}
@@ -18,7 +18,8 @@ import com.fansz.apns.support.ApnsPushNotification;
 public interface ExpiredTokenListener<T extends ApnsPushNotification> {
 
     /**
-     * 处理Feedback Service返回的失效的Device Token
+     * 处理Feedback Service返回的失效的Device Token。每次查询的结果按
+     * {@link com.fansz.apns.config.FeedbackConnectionConfiguration#setExpiredTokenBatchSize(int)}分批交付，最后一批在连接关闭时交付，可能为空
      */
     void handleExpiredTokens(PushManager<? extends T> pushManager, Collection<ExpiredToken> expiredTokens);
 }
@@ -0,0 +1,27 @@
+package com.fansz.apns.listener;
+
+import java.util.List;
+
+import com.fansz.apns.PushManager;
+import com.fansz.apns.model.Rejection;
+import com.fansz.apns.support.ApnsPushNotification;
+
+/**
+ * <p>
+ * 成批接收被APNS拒绝的消息，适合把{@link com.fansz.apns.support.RejectedNotificationReason#INVALID_TOKEN}的token一次性从数据库中清除
+ * </p>
+ *
+ * @see PushManager#registerRejectedNotificationBatchListener(RejectedNotificationBatchListener)
+ * @see PushManager#unregisterRejectedNotificationBatchListener(RejectedNotificationBatchListener)
+ * @see com.fansz.apns.config.PushManagerConfiguration#setRejectedNotificationBatchSize(int)
+ * @see com.fansz.apns.config.PushManagerConfiguration#setRejectedNotificationBatchDelayMillis(int)
+ */
+public interface RejectedNotificationBatchListener<T extends ApnsPushNotification> {
+
+    /**
+     * 处理一批被拒绝的消息，按拒绝的先后顺序排列
+     *
+     * @param rejections 不可修改的列表，每批至少包含一条消息
+     */
+    void handleRejectedNotifications(PushManager<? extends T> pushManager, List<Rejection<T>> rejections);
+}
@@ -0,0 +1,96 @@
+package com.fansz.apns.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+
+import com.fansz.apns.util.ApnsPayloadBuilder;
+
+/**
+ * <p>
+ * JSON格式的推送Payload及其UTF-8编码结果，编码只在第一次使用时进行一次，之后被所有引用该Payload的推送消息共享；
+ * 群发同一内容时，应只创建一个{@code ApnsPayload}实例供所有消息使用，从而避免对每一帧重复编码
+ * </p>
+ *
+ * @see ApnsPayloadBuilder
+ */
+public final class ApnsPayload {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String payload;
+
+    private volatile ByteBuf buffer;
+
+    public ApnsPayload(final String payload) {
+        if (payload == null) {
+            throw new NullPointerException("Payload must not be null.");
+        }
+
+        this.payload = payload;
+    }
+
+    /**
+     * 使用已经编码好的UTF-8字节创建Payload，之后不得再修改{@code encodedPayload}
+     */
+    public ApnsPayload(final byte[] encodedPayload) {
+        if (encodedPayload == null) {
+            throw new NullPointerException("Encoded payload must not be null.");
+        }
+
+        this.payload = new String(encodedPayload, UTF8);
+        this.buffer = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(encodedPayload));
+    }
+
+    /**
+     * JSON格式的Payload
+     */
+    public String getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * 返回Payload编码后的只读共享缓冲区，调用者应通过{@link ByteBuf#duplicate()}使用，不得修改其读写索引；该缓冲区不需要也不能被释放
+     */
+    public ByteBuf getBuffer() {
+        ByteBuf buffer = this.buffer;
+
+        if (buffer == null) {
+            // Concurrent callers may both encode the payload, but the results are identical and either one may win
+            buffer = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(this.payload.getBytes(UTF8)));
+            this.buffer = buffer;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Payload编码后的字节数
+     */
+    public int getLength() {
+        return this.getBuffer().readableBytes();
+    }
+
+    @Override
+    public int hashCode() {
+        return this.payload.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final ApnsPayload other = (ApnsPayload)obj;
+        return this.payload.equals(other.payload);
+    }
+
+    @Override
+    public String toString() {
+        return this.payload;
+    }
+}
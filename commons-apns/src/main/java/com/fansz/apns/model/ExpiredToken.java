@@ -1,9 +1,8 @@
 package com.fansz.apns.model;
 
-import java.util.Arrays;
 import java.util.Date;
 
-import com.fansz.apns.util.TokenUtil;
+import com.fansz.apns.support.DeviceToken;
 
 /**
  * <p>
@@ -19,21 +18,36 @@ import com.fansz.apns.util.TokenUtil;
  *      The Feedback Service</a>
  */
 public class ExpiredToken {
-    private final byte[] token;
+    private final DeviceToken token;
 
     private final Date expiration;
 
     public ExpiredToken(final byte[] token, final Date expiration) {
-        this.token = Arrays.copyOf(token, token.length);
+        this(DeviceToken.fromBytes(token), expiration);
+    }
+
+    public ExpiredToken(final DeviceToken token, final Date expiration) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        this.token = token;
         this.expiration = new Date(expiration.getTime());
     }
 
     /**
-     * 失效的device token
+     * 失效的device token，每次调用都会创建新的数组
      * 
      * @return the expired token
      */
     public byte[] getToken() {
+        return this.token.toByteArray();
+    }
+
+    /**
+     * 失效的device token
+     */
+    public DeviceToken getDeviceToken() {
         return this.token;
     }
 
@@ -49,7 +63,7 @@ public class ExpiredToken {
         final int prime = 31;
         int result = 1;
         result = prime * result + ((expiration == null) ? 0 : expiration.hashCode());
-        result = prime * result + Arrays.hashCode(token);
+        result = prime * result + ((token == null) ? 0 : token.hashCode());
         return result;
     }
 
@@ -68,13 +82,17 @@ public class ExpiredToken {
         }
         else if (!expiration.equals(other.expiration))
             return false;
-        if (!Arrays.equals(token, other.token))
+        if (token == null) {
+            if (other.token != null)
+                return false;
+        }
+        else if (!token.equals(other.token))
             return false;
         return true;
     }
 
     @Override
     public String toString() {
-        return "ExpiredToken [token=" + TokenUtil.tokenBytesToString(token) + ", expiration=" + expiration + "]";
+        return "ExpiredToken [token=" + token + ", expiration=" + expiration + "]";
     }
 }
@@ -0,0 +1,32 @@
+package com.fansz.apns.model;
+
+import com.fansz.apns.support.ApnsPushNotification;
+import com.fansz.apns.support.RejectedNotificationReason;
+
+/**
+ * 被APNS拒绝的消息及拒绝原因，由{@link com.fansz.apns.listener.RejectedNotificationBatchListener}成批接收
+ */
+public class Rejection<T extends ApnsPushNotification> {
+
+    private final T notification;
+
+    private final RejectedNotificationReason reason;
+
+    public Rejection(final T notification, final RejectedNotificationReason reason) {
+        this.notification = notification;
+        this.reason = reason;
+    }
+
+    public T getNotification() {
+        return this.notification;
+    }
+
+    public RejectedNotificationReason getReason() {
+        return this.reason;
+    }
+
+    @Override
+    public String toString() {
+        return "Rejection [notification=" + notification + ", reason=" + reason + "]";
+    }
+}
@@ -1,24 +1,39 @@
 package com.fansz.apns.model;
 
-import java.util.Arrays;
 import java.util.Date;
 
 import com.fansz.apns.support.ApnsPushNotification;
+import com.fansz.apns.support.ApnsPushNotificationFactory;
 import com.fansz.apns.support.DeliveryPriority;
+import com.fansz.apns.support.DeviceToken;
+import com.fansz.apns.support.DeviceTokenPushNotification;
+import com.fansz.apns.support.EncodedPayloadPushNotification;
 import com.fansz.apns.util.ApnsPayloadBuilder;
 import com.fansz.apns.util.TokenUtil;
 
 /**
- * {@link ApnsPushNotification}接口的简单实现.
+ * {@link ApnsPushNotification}接口的简单实现. 群发同一内容时，应使用以{@link ApnsPayload}为参数的构造器，使所有消息共享同一份编码后的Payload
  * 
  * @see ApnsPayloadBuilder
  * @see TokenUtil
  */
-public class SimpleApnsPushNotification implements ApnsPushNotification {
+public class SimpleApnsPushNotification implements EncodedPayloadPushNotification, DeviceTokenPushNotification {
 
-    private final byte[] token;
+    /**
+     * 创建{@code SimpleApnsPushNotification}的工厂
+     */
+    public static final ApnsPushNotificationFactory<SimpleApnsPushNotification> FACTORY = new ApnsPushNotificationFactory<SimpleApnsPushNotification>() {
 
-    private final String payload;
+        @Override
+        public SimpleApnsPushNotification createPushNotification(final byte[] token, final ApnsPayload payload,
+                final Date deliveryInvalidationTime, final DeliveryPriority priority) {
+            return new SimpleApnsPushNotification(token, payload, deliveryInvalidationTime, priority);
+        }
+    };
+
+    private final DeviceToken token;
+
+    private final ApnsPayload payload;
 
     private final Date invalidationTime;
 
@@ -38,17 +53,61 @@ public class SimpleApnsPushNotification implements ApnsPushNotification {
 
     public SimpleApnsPushNotification(final byte[] token, final String payload, final Date invalidationTime,
             final DeliveryPriority priority) {
+        this(token, new ApnsPayload(payload), invalidationTime, priority);
+    }
+
+    public SimpleApnsPushNotification(final byte[] token, final ApnsPayload payload) {
+        this(token, payload, null, DeliveryPriority.IMMEDIATE);
+    }
+
+    /**
+     * @throws IllegalArgumentException token为空或超过{@value DeviceToken#MAX_LENGTH}字节
+     */
+    public SimpleApnsPushNotification(final byte[] token, final ApnsPayload payload, final Date invalidationTime,
+            final DeliveryPriority priority) {
+        this(DeviceToken.fromBytes(token), payload, invalidationTime, priority);
+    }
+
+    public SimpleApnsPushNotification(final DeviceToken token, final String payload) {
+        this(token, new ApnsPayload(payload), null, DeliveryPriority.IMMEDIATE);
+    }
+
+    public SimpleApnsPushNotification(final DeviceToken token, final ApnsPayload payload) {
+        this(token, payload, null, DeliveryPriority.IMMEDIATE);
+    }
+
+    public SimpleApnsPushNotification(final DeviceToken token, final ApnsPayload payload, final Date invalidationTime,
+            final DeliveryPriority priority) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        if (payload == null) {
+            throw new NullPointerException("Payload must not be null.");
+        }
+
         this.token = token;
         this.payload = payload;
         this.invalidationTime = invalidationTime;
         this.priority = priority;
     }
 
+    /**
+     * 返回token的副本，每次调用都会创建新的数组；需要比较或查找时应使用{@link #getDeviceToken()}
+     */
     public byte[] getToken() {
+        return this.token.toByteArray();
+    }
+
+    public DeviceToken getDeviceToken() {
         return this.token;
     }
 
     public String getPayload() {
+        return this.payload.getPayload();
+    }
+
+    public ApnsPayload getEncodedPayload() {
         return this.payload;
     }
 
@@ -67,7 +126,7 @@ public class SimpleApnsPushNotification implements ApnsPushNotification {
         result = prime * result + ((invalidationTime == null) ? 0 : invalidationTime.hashCode());
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         result = prime * result + ((priority == null) ? 0 : priority.hashCode());
-        result = prime * result + Arrays.hashCode(token);
+        result = prime * result + ((token == null) ? 0 : token.hashCode());
         return result;
     }
 
@@ -94,14 +153,18 @@ public class SimpleApnsPushNotification implements ApnsPushNotification {
             return false;
         if (priority != other.priority)
             return false;
-        if (!Arrays.equals(token, other.token))
+        if (token == null) {
+            if (other.token != null)
+                return false;
+        }
+        else if (!token.equals(other.token))
             return false;
         return true;
     }
 
     @Override
     public String toString() {
-        return "SimpleApnsPushNotification [token=" + Arrays.toString(token) + ", payload=" + payload
+        return "SimpleApnsPushNotification [token=" + token + ", payload=" + payload
                 + ", invalidationTime=" + invalidationTime + ", priority=" + priority + "]";
     }
 }
@@ -0,0 +1,172 @@
+package com.fansz.apns.model;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+
+import com.fansz.apns.support.DeliveryPriority;
+import com.fansz.apns.support.DeviceToken;
+import com.fansz.apns.support.DeviceTokenPushNotification;
+import com.fansz.apns.support.WritablePayloadPushNotification;
+import com.fansz.apns.util.PayloadTemplate;
+import com.fansz.apns.util.PayloadTemplateCache;
+
+/**
+ * 由{@link PayloadTemplate}和参数构成的推送消息，发送时模板直接渲染到帧缓冲区，不产生中间的JSON字符串；参数在构造时检查，
+ * 格式错误或者超长不能截断的消息不会进入发送队列
+ *
+ * @see PayloadTemplateCache
+ */
+public class TemplatedPushNotification implements WritablePayloadPushNotification, DeviceTokenPushNotification {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final DeviceToken token;
+
+    private final PayloadTemplate template;
+
+    private final Object[] arguments;
+
+    private final Date invalidationTime;
+
+    private final DeliveryPriority priority;
+
+    private final int payloadLength;
+
+    public TemplatedPushNotification(final byte[] token, final PayloadTemplate template, final Object... arguments) {
+        this(token, template, arguments, null, DeliveryPriority.IMMEDIATE);
+    }
+
+    /**
+     * @param arguments 模板参数，顺序与{@link PayloadTemplate#getArgumentNames()}相同；发送之前不得修改
+     *
+     * @throws IllegalArgumentException 参数数量或类型不符，或者渲染结果超出最大长度并且不能截断；或者token为空或超过
+     *             {@value DeviceToken#MAX_LENGTH}字节
+     */
+    public TemplatedPushNotification(final byte[] token, final PayloadTemplate template, final Object[] arguments,
+            final Date invalidationTime, final DeliveryPriority priority) {
+        this(DeviceToken.fromBytes(token), template, arguments, invalidationTime, priority);
+    }
+
+    public TemplatedPushNotification(final DeviceToken token, final PayloadTemplate template,
+            final Object... arguments) {
+        this(token, template, arguments, null, DeliveryPriority.IMMEDIATE);
+    }
+
+    /**
+     * @param arguments 模板参数，顺序与{@link PayloadTemplate#getArgumentNames()}相同；发送之前不得修改
+     *
+     * @throws IllegalArgumentException 参数数量或类型不符，或者渲染结果超出最大长度并且不能截断
+     */
+    public TemplatedPushNotification(final DeviceToken token, final PayloadTemplate template,
+            final Object[] arguments, final Date invalidationTime, final DeliveryPriority priority) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        if (template == null) {
+            throw new NullPointerException("Template must not be null.");
+        }
+
+        this.token = token;
+        this.template = template;
+        this.arguments = arguments;
+        this.invalidationTime = invalidationTime;
+        this.priority = priority;
+
+        this.payloadLength = template.getEncodedLength(arguments);
+    }
+
+    /**
+     * 返回token的副本，每次调用都会创建新的数组；需要比较或查找时应使用{@link #getDeviceToken()}
+     */
+    public byte[] getToken() {
+        return this.token.toByteArray();
+    }
+
+    public DeviceToken getDeviceToken() {
+        return this.token;
+    }
+
+    /**
+     * 渲染并返回JSON格式的Payload，每次调用都会重新渲染；发送时不会调用该方法
+     */
+    public String getPayload() {
+        final ByteBuf buffer = Unpooled.buffer(this.payloadLength);
+
+        this.template.writeTo(buffer, this.arguments);
+        return buffer.toString(UTF8);
+    }
+
+    public int getPayloadLength() {
+        return this.payloadLength;
+    }
+
+    public void writePayload(final ByteBuf out) {
+        this.template.writeTo(out, this.arguments);
+    }
+
+    public PayloadTemplate getTemplate() {
+        return this.template;
+    }
+
+    public Object[] getArguments() {
+        return this.arguments;
+    }
+
+    public Date getDeliveryInvalidationTime() {
+        return this.invalidationTime;
+    }
+
+    public DeliveryPriority getPriority() {
+        return this.priority;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + Arrays.hashCode(arguments);
+        result = prime * result + ((invalidationTime == null) ? 0 : invalidationTime.hashCode());
+        result = prime * result + ((priority == null) ? 0 : priority.hashCode());
+        result = prime * result + template.hashCode();
+        result = prime * result + token.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        TemplatedPushNotification other = (TemplatedPushNotification)obj;
+        if (!Arrays.equals(arguments, other.arguments))
+            return false;
+        if (invalidationTime == null) {
+            if (other.invalidationTime != null)
+                return false;
+        }
+        else if (!invalidationTime.equals(other.invalidationTime))
+            return false;
+        if (priority != other.priority)
+            return false;
+        if (template != other.template)
+            return false;
+        if (!token.equals(other.token))
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "TemplatedPushNotification [token=" + token + ", template=" + template
+                + ", arguments=" + Arrays.toString(arguments) + ", invalidationTime=" + invalidationTime
+                + ", priority=" + priority + "]";
+    }
+}
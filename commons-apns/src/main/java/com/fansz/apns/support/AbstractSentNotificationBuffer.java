@@ -0,0 +1,218 @@
+package com.fansz.apns.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fansz.apns.model.SendableApnsPushNotification;
+
+/**
+ * <p>
+ * A bounded-length buffer meant to store sent APNs notifications. This is necessary because the APNs protocol is
+ * asynchronous, and notifications may be identified as failed or in need of retransmission after they've been
+ * successfully written to the wire.
+ * </p>
+ * <p>
+ * If a notification is present in the buffer, it is assumed to have been written to the outbound network buffer, but
+ * its state is otherwise unknown.
+ * </p>
+ * <p>
+ * 缓冲区是一个以{@code sequenceNumber & mask}为下标的环形数组，按序号查找是O(1)的操作；缓冲区不加锁，所有方法都必须在同一个线程中调用（连接所在的
+ * event loop线程，写入回调和APNS的拒绝消息都在该线程中处理），并且写入的序号必须单调递增
+ * </p>
+ * <p>
+ * 子类决定每个槽位中消息的存储方式
+ * </p>
+ *
+ * @see SentNotificationBuffer
+ * @see OffHeapSentNotificationBuffer
+ */
+public abstract class AbstractSentNotificationBuffer<E extends ApnsPushNotification> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final int[] sequenceNumbers;
+
+    private int lowestSequenceNumber;
+
+    private int highestSequenceNumber;
+
+    private int size = 0;
+
+    /**
+     * Constructs a new sent notification buffer with the given maximum capacity.
+     *
+     * @param capacity the capacity of the buffer
+     */
+    protected AbstractSentNotificationBuffer(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must not be greater than 2^30.");
+        }
+
+        this.capacity = capacity;
+
+        int slots = 1;
+
+        while (slots < capacity) {
+            slots <<= 1;
+        }
+
+        this.mask = slots - 1;
+        this.sequenceNumbers = new int[slots];
+    }
+
+    /**
+     * 环形数组的槽位数，为不小于容量的2的幂
+     */
+    protected final int getSlotCount() {
+        return this.mask + 1;
+    }
+
+    /**
+     * 将消息保存到指定槽位，调用时该槽位一定为空
+     */
+    protected abstract void storeNotification(int slot, E notification);
+
+    /**
+     * 读取指定槽位中的消息，槽位为空时返回null
+     */
+    protected abstract E loadNotification(int slot);
+
+    /**
+     * 清空指定槽位
+     *
+     * @return 如果槽位原来保存了消息则返回{@code true}
+     */
+    protected abstract boolean clearNotification(int slot);
+
+    public void addSentNotification(final SendableApnsPushNotification<E> notification) {
+        final int sequenceNumber = notification.getSequenceNumber();
+
+        if (this.size == 0) {
+            this.lowestSequenceNumber = sequenceNumber;
+        } else {
+            // Evict everything that falls out of the window ending at the new sequence number
+            final int newLowestSequenceNumber = sequenceNumber - this.capacity + 1;
+
+            if (newLowestSequenceNumber - this.lowestSequenceNumber > 0) {
+                this.clearRange(this.lowestSequenceNumber, newLowestSequenceNumber);
+                this.lowestSequenceNumber = this.size == 0 ? sequenceNumber : newLowestSequenceNumber;
+            }
+        }
+
+        final int index = sequenceNumber & this.mask;
+
+        this.sequenceNumbers[index] = sequenceNumber;
+        this.storeNotification(index, notification.getPushNotification());
+        this.highestSequenceNumber = sequenceNumber;
+        this.size += 1;
+    }
+
+    public void clearNotificationsBeforeSequenceNumber(final int sequenceNumber) {
+        if (this.size > 0 && sequenceNumber - this.lowestSequenceNumber > 0) {
+            this.clearRange(this.lowestSequenceNumber, sequenceNumber);
+            this.lowestSequenceNumber = sequenceNumber;
+        }
+    }
+
+    public E getNotificationWithSequenceNumber(final int sequenceNumber) {
+        if (!this.isInWindow(sequenceNumber)) {
+            return null;
+        }
+
+        return this.getNotificationAt(sequenceNumber);
+    }
+
+    public List<E> getAllNotificationsAfterSequenceNumber(final int sequenceNumber) {
+        final List<SendableApnsPushNotification<E>> sendableNotifications = this
+                .getAllSendableNotificationsAfterSequenceNumber(sequenceNumber);
+        final ArrayList<E> notifications = new ArrayList<E>(sendableNotifications.size());
+
+        for (final SendableApnsPushNotification<E> sendableNotification : sendableNotifications) {
+            notifications.add(sendableNotification.getPushNotification());
+        }
+
+        return notifications;
+    }
+
+    /**
+     * 与{@link #getAllNotificationsAfterSequenceNumber(int)}相同，但同时返回每条消息的序列号
+     */
+    public List<SendableApnsPushNotification<E>> getAllSendableNotificationsAfterSequenceNumber(
+            final int sequenceNumber) {
+        if (this.size == 0 || sequenceNumber - this.highestSequenceNumber >= 0) {
+            return new ArrayList<SendableApnsPushNotification<E>>(0);
+        }
+
+        final int start = sequenceNumber - this.lowestSequenceNumber >= 0 ? sequenceNumber + 1
+                : this.lowestSequenceNumber;
+        final ArrayList<SendableApnsPushNotification<E>> notifications = new ArrayList<SendableApnsPushNotification<E>>(
+                this.highestSequenceNumber - start + 1);
+
+        for (int i = start; i - this.highestSequenceNumber <= 0; i++) {
+            final E notification = this.getNotificationAt(i);
+
+            if (notification != null) {
+                notifications.add(new SendableApnsPushNotification<E>(notification, i));
+            }
+        }
+
+        notifications.trimToSize();
+        return notifications;
+    }
+
+    public void clearAllNotifications() {
+        if (this.size > 0) {
+            this.clearRange(this.lowestSequenceNumber, this.highestSequenceNumber + 1);
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public Integer getLowestSequenceNumber() {
+        return this.size > 0 ? this.lowestSequenceNumber : null;
+    }
+
+    public Integer getHighestSequenceNumber() {
+        return this.size > 0 ? this.highestSequenceNumber : null;
+    }
+
+    private boolean isInWindow(final int sequenceNumber) {
+        return this.size > 0 && sequenceNumber - this.lowestSequenceNumber >= 0
+                && sequenceNumber - this.highestSequenceNumber <= 0;
+    }
+
+    private E getNotificationAt(final int sequenceNumber) {
+        final int index = sequenceNumber & this.mask;
+
+        if (this.sequenceNumbers[index] == sequenceNumber) {
+            return this.loadNotification(index);
+        }
+
+        return null;
+    }
+
+    /**
+     * 清除[from, to)范围内的消息，最多遍历一次整个环
+     */
+    private void clearRange(final int from, final int to) {
+        final int end = to - from > this.mask ? from + this.mask + 1 : to;
+
+        for (int i = from; i - end < 0 && this.size > 0; i++) {
+            if (this.clearNotification(i & this.mask)) {
+                this.size -= 1;
+            }
+        }
+    }
+}
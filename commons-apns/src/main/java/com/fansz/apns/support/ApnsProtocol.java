@@ -0,0 +1,21 @@
+package com.fansz.apns.support;
+
+/**
+ * 与APNS网关通信使用的协议
+ *
+ * @see com.fansz.apns.config.ApnsConnectionConfiguration#setProtocol(ApnsProtocol)
+ */
+public enum ApnsProtocol {
+
+    /**
+     * 传统的二进制协议，连接到{@link com.fansz.apns.config.ApnsEnvironment#getApnsGatewayHost()}。APNS只在出错时返回结果，
+     * 连接需要保存已发送的消息以便重发，并通过发送格式错误的消息来优雅关闭
+     */
+    LEGACY_BINARY,
+
+    /**
+     * HTTP/2协议，连接到{@link com.fansz.apns.config.ApnsEnvironment#getApnsHttp2Host()}。每条消息占用一个stream，APNS为每条消息返回状态，
+     * 同一连接上可以同时发送多条消息，不需要保存已发送的消息
+     */
+    HTTP2
+}
@@ -0,0 +1,21 @@
+package com.fansz.apns.support;
+
+import java.util.Date;
+
+import com.fansz.apns.model.ApnsPayload;
+
+/**
+ * <p>
+ * 根据device token和共享的Payload创建推送消息，用于群发等由PushManager内部按需生成消息的场景
+ * </p>
+ *
+ * @see com.fansz.apns.PushManager#broadcast(ApnsPayload, Iterable, DeliveryPriority, Date)
+ */
+public interface ApnsPushNotificationFactory<T extends ApnsPushNotification> {
+
+    /**
+     * 创建一条推送消息，实现类应直接引用传入的Payload，不应复制其内容
+     */
+    T createPushNotification(byte[] token, ApnsPayload payload, Date deliveryInvalidationTime,
+            DeliveryPriority priority);
+}
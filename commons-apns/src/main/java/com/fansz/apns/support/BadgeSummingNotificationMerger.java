@@ -0,0 +1,75 @@
+package com.fansz.apns.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fansz.apns.model.ApnsPayload;
+import com.fansz.apns.util.ApnsPayloadBuilder;
+
+/**
+ * <p>
+ * 保留新消息的内容，并将两条消息的badge数字相加，例如多条“新的赞”通知合并为一条显示总数的通知。两条消息都没有badge时直接使用新消息
+ * </p>
+ * <p>
+ * 合并后的payload超过最大长度时不相加badge，直接使用新消息
+ * </p>
+ */
+public class BadgeSummingNotificationMerger<T extends ApnsPushNotification> implements NotificationMerger<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(BadgeSummingNotificationMerger.class);
+
+    private final ApnsPushNotificationFactory<T> pushNotificationFactory;
+
+    private final int maximumPayloadLength;
+
+    /**
+     * 合并后的payload最多{@link ApnsFrameItem#PAYLOAD}允许的字节数
+     *
+     * @param pushNotificationFactory 用于创建合并后的消息
+     */
+    public BadgeSummingNotificationMerger(final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        this(pushNotificationFactory, ApnsFrameItem.PAYLOAD.getSize());
+    }
+
+    /**
+     * @param pushNotificationFactory 用于创建合并后的消息
+     * @param maximumPayloadLength 合并后的payload最多的字节数
+     */
+    public BadgeSummingNotificationMerger(final ApnsPushNotificationFactory<T> pushNotificationFactory,
+            final int maximumPayloadLength) {
+        if (pushNotificationFactory == null) {
+            throw new NullPointerException("Push notification factory must not be null.");
+        }
+
+        if (maximumPayloadLength < 1) {
+            throw new IllegalArgumentException("Maximum payload length must be positive.");
+        }
+
+        this.pushNotificationFactory = pushNotificationFactory;
+        this.maximumPayloadLength = maximumPayloadLength;
+    }
+
+    @Override
+    public T merge(final T pendingNotification, final T newNotification) {
+        final Integer pendingBadge = ApnsPayloadBuilder.getBadgeNumber(pendingNotification.getPayload());
+        final Integer newBadge = ApnsPayloadBuilder.getBadgeNumber(newNotification.getPayload());
+
+        if (pendingBadge == null && newBadge == null) {
+            return newNotification;
+        }
+
+        final int badgeNumber = (pendingBadge != null ? pendingBadge : 0) + (newBadge != null ? newBadge : 0);
+        final ApnsPayload payload = new ApnsPayload(ApnsPayloadBuilder.replaceBadgeNumber(newNotification.getPayload(),
+                badgeNumber));
+
+        if (payload.getLength() > this.maximumPayloadLength) {
+            log.warn("Merged payload would be {} bytes (with a maximum of {} bytes); sending the new notification "
+                    + "without summing badges.", payload.getLength(), this.maximumPayloadLength);
+
+            return newNotification;
+        }
+
+        return this.pushNotificationFactory.createPushNotification(newNotification.getToken(), payload,
+                newNotification.getDeliveryInvalidationTime(), newNotification.getPriority());
+    }
+}
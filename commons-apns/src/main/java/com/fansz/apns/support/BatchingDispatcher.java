@@ -0,0 +1,121 @@
+package com.fansz.apns.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 线程安全的事件累积器：逐个到达的事件累积成批交给{@link BatchHandler}，一批达到{@code maxBatchSize}个事件时立即交付，否则在这一批的第一个事件
+ * 到达{@code maxDelayMillis}毫秒之后交付，因此每批的大小和等待时间都有上限。{@code maxDelayMillis}为0时每个事件单独交付
+ * </p>
+ */
+public class BatchingDispatcher<E> {
+
+    /**
+     * 在调用{@link #add(Object)}或者{@link #flush()}的线程、或者定时交付的线程中调用，持有累积器的锁，因此应当尽快返回，例如把批次提交给其他线程
+     */
+    public interface BatchHandler<E> {
+
+        /**
+         * @param batch 不可修改的事件列表，按到达顺序排列
+         */
+        void handleBatch(List<E> batch);
+    }
+
+    private final ScheduledExecutorService scheduler;
+
+    private final int maxBatchSize;
+
+    private final long maxDelayMillis;
+
+    private final BatchHandler<E> handler;
+
+    private List<E> pendingEvents;
+
+    private ScheduledFuture<?> flushFuture;
+
+    /**
+     * @param scheduler 用于定时交付未满的批次
+     */
+    public BatchingDispatcher(final ScheduledExecutorService scheduler, final int maxBatchSize,
+            final long maxDelayMillis, final BatchHandler<E> handler) {
+        if (scheduler == null) {
+            throw new NullPointerException("Scheduler must not be null.");
+        }
+
+        if (handler == null) {
+            throw new NullPointerException("Batch handler must not be null.");
+        }
+
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Maximum batch size must be greater than zero.");
+        }
+
+        if (maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Maximum delay must not be negative.");
+        }
+
+        this.scheduler = scheduler;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.handler = handler;
+        this.pendingEvents = new ArrayList<E>();
+    }
+
+    public synchronized void add(final E event) {
+        this.pendingEvents.add(event);
+
+        if (this.pendingEvents.size() >= this.maxBatchSize || this.maxDelayMillis == 0) {
+            this.flush();
+        } else if (this.flushFuture == null) {
+            final List<E> batch = this.pendingEvents;
+
+            this.flushFuture = this.scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    flushIfPending(batch);
+                }
+            }, this.maxDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 定时交付；如果定时任务已经开始执行、没能被取消，这一批可能已经交付，此时什么也不做，以免提前交付下一批并取消其定时
+     */
+    private synchronized void flushIfPending(final List<E> batch) {
+        if (this.pendingEvents == batch) {
+            this.flush();
+        }
+    }
+
+    /**
+     * 立即交付已经累积的事件，没有事件时不做任何事情
+     */
+    public synchronized void flush() {
+        if (this.flushFuture != null) {
+            this.flushFuture.cancel(false);
+            this.flushFuture = null;
+        }
+
+        if (this.pendingEvents.isEmpty()) {
+            return;
+        }
+
+        final List<E> batch = this.pendingEvents;
+        this.pendingEvents = new ArrayList<E>(Math.min(batch.size(), this.maxBatchSize));
+
+        this.handler.handleBatch(Collections.unmodifiableList(batch));
+    }
+
+    /**
+     * 返回已经累积、尚未交付的事件数
+     */
+    public synchronized int getPendingEventCount() {
+        return this.pendingEvents.size();
+    }
+}
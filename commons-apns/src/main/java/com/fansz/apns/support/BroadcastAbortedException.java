@@ -0,0 +1,43 @@
+package com.fansz.apns.support;
+
+import java.util.Iterator;
+
+/**
+ * <p>
+ * PushManager关闭时群发任务尚未完成，群发返回的Future以该异常失败；调用方可以通过{@link #getRemainingTokens()}继续读取尚未发送的device
+ * token，例如交给下一个PushManager重新群发
+ * </p>
+ *
+ * @see com.fansz.apns.PushManager#broadcast(com.fansz.apns.model.ApnsPayload, Iterable, DeliveryPriority,
+ *      java.util.Date)
+ */
+public class BroadcastAbortedException extends IllegalStateException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Iterator<byte[]> remainingTokens;
+
+    private final long sentCount;
+
+    public BroadcastAbortedException(final String message, final Iterator<byte[]> remainingTokens,
+            final long sentCount) {
+        super(message);
+
+        this.remainingTokens = remainingTokens;
+        this.sentCount = sentCount;
+    }
+
+    /**
+     * 返回群发任务的token迭代器，从第一个尚未读取的token开始；PushManager关闭之后不会再访问该迭代器
+     */
+    public Iterator<byte[]> getRemainingTokens() {
+        return this.remainingTokens;
+    }
+
+    /**
+     * 返回关闭之前已经交给连接发送的消息数量，不包括被跳过的无效token
+     */
+    public long getSentCount() {
+        return this.sentCount;
+    }
+}
@@ -0,0 +1,99 @@
+package com.fansz.apns.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 线程安全的熔断器。连续失败{@code failureThreshold}次之后进入{@link State#OPEN}，在{@code openMillis}毫秒内拒绝所有请求；之后进入
+ * {@link State#HALF_OPEN}，只允许一个试探请求，试探成功时恢复为{@link State#CLOSED}，失败时再次熔断
+ * </p>
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailureCount = 0;
+
+    private long openUntil;
+
+    private long tripCount = 0;
+
+    public CircuitBreaker(final int failureThreshold, final long openMillis) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException("Failure threshold must be greater than zero.");
+        }
+
+        if (openMillis < 1) {
+            throw new IllegalArgumentException("Open time must be greater than zero.");
+        }
+
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * 判断是否允许发起一次请求；熔断时间结束后的第一次调用返回{@code true}并进入{@link State#HALF_OPEN}，试探结束之前的其他调用都返回
+     * {@code false}
+     */
+    public synchronized boolean allowRequest() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - this.openUntil >= 0) {
+                    this.state = State.HALF_OPEN;
+                    return true;
+                }
+
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        this.state = State.CLOSED;
+        this.consecutiveFailureCount = 0;
+    }
+
+    public synchronized void recordFailure() {
+        this.consecutiveFailureCount += 1;
+
+        if (this.state == State.HALF_OPEN
+                || (this.state == State.CLOSED && this.consecutiveFailureCount >= this.failureThreshold)) {
+            this.state = State.OPEN;
+            this.openUntil = System.nanoTime() + this.openNanos;
+            this.tripCount += 1;
+        }
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * 返回熔断剩余的毫秒数，未熔断时返回0
+     */
+    public synchronized long getMillisUntilHalfOpen() {
+        if (this.state != State.OPEN) {
+            return 0;
+        }
+
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(this.openUntil - System.nanoTime()), 0);
+    }
+
+    /**
+     * 返回进入{@link State#OPEN}的次数
+     */
+    public synchronized long getTripCount() {
+        return this.tripCount;
+    }
+}
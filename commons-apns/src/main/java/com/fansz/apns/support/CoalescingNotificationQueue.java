@@ -0,0 +1,467 @@
+package com.fansz.apns.support;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * 合并重复消息的阻塞队列，可以作为{@link com.fansz.apns.PushManager}的发送队列使用。发往同一个device token并且
+ * {@link CollapseKeyExtractor}返回相同合并键的消息，如果前一条还在排队，新消息不会单独入队，而是由{@link NotificationMerger}
+ * 与排队中的消息合并，合并结果保留原来的排队位置，从而在短时间内产生大量相同类型的通知时减少发送的帧数和被APNS限流的可能
+ * </p>
+ * <p>
+ * 合并不占用队列容量，因此队列已满时可以合并的消息仍然能够加入；已经被取出发送的消息不再参与合并
+ * </p>
+ * <p>
+ * 设置了{@link DeliveryTracker}时（作为PushManager的发送队列时由PushManager设置），合并后的消息继承排队消息的{@link DeliveryReceipt}，
+ * 排队消息没有被跟踪时继承新消息的凭证；另一个凭证以{@link DeliveryOutcome#COALESCED}结束，不会一直等待结果
+ * </p>
+ *
+ * @see BadgeSummingNotificationMerger
+ */
+public class CoalescingNotificationQueue<T extends ApnsPushNotification> extends AbstractQueue<T> implements
+        BlockingQueue<T> {
+
+    private static class CoalescingKey {
+
+        private final DeviceToken token;
+
+        private final String collapseKey;
+
+        private final int hashCode;
+
+        public CoalescingKey(final DeviceToken token, final String collapseKey) {
+            this.token = token;
+            this.collapseKey = collapseKey;
+            this.hashCode = 31 * token.hashCode() + collapseKey.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof CoalescingKey))
+                return false;
+            final CoalescingKey other = (CoalescingKey)obj;
+            return this.collapseKey.equals(other.collapseKey) && this.token.equals(other.token);
+        }
+    }
+
+    private static class Slot<T> {
+
+        private final CoalescingKey key;
+
+        private T notification;
+
+        public Slot(final CoalescingKey key, final T notification) {
+            this.key = key;
+            this.notification = notification;
+        }
+    }
+
+    private final CollapseKeyExtractor<T> collapseKeyExtractor;
+
+    private final NotificationMerger<T> merger;
+
+    private final int capacity;
+
+    private final ArrayDeque<Slot<T>> slots = new ArrayDeque<Slot<T>>();
+
+    private final Map<CoalescingKey, Slot<T>> slotsByKey = new HashMap<CoalescingKey, Slot<T>>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private final AtomicLong coalescedCount = new AtomicLong(0);
+
+    private volatile DeliveryTracker<T> deliveryTracker;
+
+    /**
+     * 创建不限长度、用新消息替换排队消息的队列
+     */
+    public CoalescingNotificationQueue(final CollapseKeyExtractor<T> collapseKeyExtractor) {
+        this(collapseKeyExtractor, null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param collapseKeyExtractor 决定消息的合并键
+     * @param merger 合并两条消息，为{@code null}时新消息直接替换排队中的消息
+     * @param capacity 队列中最多排队的消息数量
+     */
+    public CoalescingNotificationQueue(final CollapseKeyExtractor<T> collapseKeyExtractor,
+            final NotificationMerger<T> merger, final int capacity) {
+        if (collapseKeyExtractor == null) {
+            throw new NullPointerException("Collapse key extractor must not be null.");
+        }
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+
+        this.collapseKeyExtractor = collapseKeyExtractor;
+        this.merger = merger;
+        this.capacity = capacity;
+    }
+
+    /**
+     * 返回自创建以来被合并掉的消息数量
+     */
+    public long getCoalescedCount() {
+        return this.coalescedCount.get();
+    }
+
+    /**
+     * 设置合并消息时用于转移和结束投递凭证的{@link DeliveryTracker}
+     */
+    public void setDeliveryTracker(final DeliveryTracker<T> deliveryTracker) {
+        this.deliveryTracker = deliveryTracker;
+    }
+
+    private CoalescingKey getCoalescingKey(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        final String collapseKey = this.collapseKeyExtractor.getCollapseKey(notification);
+        return collapseKey != null ? new CoalescingKey(DeviceToken.of(notification), collapseKey) : null;
+    }
+
+    /**
+     * 尝试与排队中的消息合并，调用时必须持有锁
+     *
+     * @return 是否已经合并
+     */
+    private boolean coalesce(final CoalescingKey key, final T notification) {
+        final Slot<T> slot = key != null ? this.slotsByKey.get(key) : null;
+
+        if (slot == null) {
+            return false;
+        }
+
+        final T pendingNotification = slot.notification;
+
+        slot.notification = this.merger != null ? this.merger.merge(pendingNotification, notification) : notification;
+        this.coalescedCount.incrementAndGet();
+
+        if (this.deliveryTracker != null) {
+            this.transferDeliveryReceipt(this.deliveryTracker, pendingNotification, notification, slot.notification);
+        }
+
+        return true;
+    }
+
+    /**
+     * 合并后的消息继承排队消息的凭证，排队消息没有被跟踪时继承新消息的凭证；新消息原有的凭证以{@link DeliveryOutcome#COALESCED}结束
+     */
+    private void transferDeliveryReceipt(final DeliveryTracker<T> deliveryTracker, final T pendingNotification,
+            final T newNotification, final T mergedNotification) {
+        final DeliveryReceipt pendingReceipt = deliveryTracker.getDeliveryReceipt(pendingNotification);
+
+        if (pendingReceipt == null) {
+            deliveryTracker.transferDeliveryReceipt(newNotification, mergedNotification);
+            return;
+        }
+
+        final DeliveryReceipt newReceipt = deliveryTracker.getDeliveryReceipt(newNotification);
+
+        if (newReceipt != null && newReceipt != pendingReceipt) {
+            deliveryTracker.releaseDeliveryReceipt(newNotification);
+            newReceipt.handleOutcome(DeliveryOutcome.COALESCED);
+        }
+
+        deliveryTracker.transferDeliveryReceipt(pendingNotification, mergedNotification);
+    }
+
+    private void enqueue(final CoalescingKey key, final T notification) {
+        final Slot<T> slot = new Slot<T>(key, notification);
+
+        this.slots.addLast(slot);
+
+        if (key != null) {
+            this.slotsByKey.put(key, slot);
+        }
+
+        this.notEmpty.signal();
+    }
+
+    private T dequeue() {
+        final Slot<T> slot = this.slots.pollFirst();
+
+        if (slot.key != null) {
+            this.slotsByKey.remove(slot.key);
+        }
+
+        this.notFull.signal();
+
+        return slot.notification;
+    }
+
+    @Override
+    public boolean offer(final T notification) {
+        final CoalescingKey key = this.getCoalescingKey(notification);
+
+        this.lock.lock();
+        try {
+            if (this.coalesce(key, notification)) {
+                return true;
+            }
+
+            if (this.slots.size() >= this.capacity) {
+                return false;
+            }
+
+            this.enqueue(key, notification);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final T notification) throws InterruptedException {
+        final CoalescingKey key = this.getCoalescingKey(notification);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (!this.coalesce(key, notification)) {
+                if (this.slots.size() < this.capacity) {
+                    this.enqueue(key, notification);
+                    break;
+                }
+
+                this.notFull.await();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final T notification, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final CoalescingKey key = this.getCoalescingKey(notification);
+        long nanos = unit.toNanos(timeout);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (!this.coalesce(key, notification)) {
+                if (this.slots.size() < this.capacity) {
+                    this.enqueue(key, notification);
+                    break;
+                }
+
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll() {
+        this.lock.lock();
+        try {
+            return this.slots.isEmpty() ? null : this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.slots.isEmpty()) {
+                this.notEmpty.await();
+            }
+
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (this.slots.isEmpty()) {
+                if (nanos <= 0) {
+                    return null;
+                }
+
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T peek() {
+        this.lock.lock();
+        try {
+            return this.slots.isEmpty() ? null : this.slots.peekFirst().notification;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.slots.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        this.lock.lock();
+        try {
+            return this.capacity - this.slots.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+
+        this.lock.lock();
+        try {
+            final Iterator<Slot<T>> iterator = this.slots.iterator();
+
+            while (iterator.hasNext()) {
+                final Slot<T> slot = iterator.next();
+
+                if (o.equals(slot.notification)) {
+                    iterator.remove();
+
+                    if (slot.key != null) {
+                        this.slotsByKey.remove(slot.key);
+                    }
+
+                    this.notFull.signal();
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c, final int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue into itself.");
+        }
+
+        this.lock.lock();
+        try {
+            int drained = 0;
+
+            while (drained < maxElements && !this.slots.isEmpty()) {
+                c.add(this.dequeue());
+                drained += 1;
+            }
+
+            return drained;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 返回队列内容快照的迭代器，顺序与出队顺序相同
+     */
+    @Override
+    public Iterator<T> iterator() {
+        final List<T> snapshot;
+
+        this.lock.lock();
+        try {
+            snapshot = new ArrayList<T>(this.slots.size());
+
+            for (final Slot<T> slot : this.slots) {
+                snapshot.add(slot.notification);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        final Iterator<T> snapshotIterator = snapshot.iterator();
+
+        return new Iterator<T>() {
+
+            private T lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                this.lastReturned = snapshotIterator.next();
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (this.lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+
+                CoalescingNotificationQueue.this.remove(this.lastReturned);
+                this.lastReturned = null;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "CoalescingNotificationQueue [capacity=" + capacity + ", size=" + this.size() + ", coalescedCount="
+                + this.getCoalescedCount() + "]";
+    }
+}
@@ -0,0 +1,14 @@
+package com.fansz.apns.support;
+
+/**
+ * 返回消息的合并键，发往同一设备并且合并键相同的排队消息可以被合并
+ *
+ * @see CoalescingNotificationQueue
+ */
+public interface CollapseKeyExtractor<T extends ApnsPushNotification> {
+
+    /**
+     * @return 合并键，返回{@code null}表示该消息不与其他消息合并
+     */
+    String getCollapseKey(T notification);
+}
@@ -0,0 +1,100 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.nio.charset.Charset;
+import java.util.Date;
+
+import com.fansz.apns.model.ApnsPayload;
+
+/**
+ * <p>
+ * 推送消息的紧凑二进制格式，用于在直接内存或磁盘上保存消息，需要时再通过{@link ApnsPushNotificationFactory}还原为消息对象
+ * </p>
+ * <p>
+ * 编码格式为: 失效时间(8字节，-1表示null) + 优先级(1字节，0表示null) + token长度(2字节) + token + payload(UTF-8)
+ * </p>
+ */
+public class CompactNotificationCodec<T extends ApnsPushNotification> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final long NO_INVALIDATION_TIME = -1;
+
+    private static final byte NO_PRIORITY = 0;
+
+    private static final int HEADER_LENGTH = 8 + 1 + 2;
+
+    private final ApnsPushNotificationFactory<T> pushNotificationFactory;
+
+    public CompactNotificationCodec(final ApnsPushNotificationFactory<T> pushNotificationFactory) {
+        if (pushNotificationFactory == null) {
+            throw new NullPointerException("Push notification factory must not be null.");
+        }
+
+        this.pushNotificationFactory = pushNotificationFactory;
+    }
+
+    /**
+     * 将消息编码到由{@code allocator}分配的新缓冲区中，缓冲区的可读部分即为编码结果
+     */
+    public ByteBuf encode(final ApnsPushNotification notification, final ByteBufAllocator allocator, final boolean direct) {
+        final DeviceToken deviceToken = notification instanceof DeviceTokenPushNotification ? ((DeviceTokenPushNotification)notification)
+                .getDeviceToken() : null;
+        final byte[] token = deviceToken == null ? notification.getToken() : null;
+        final int tokenLength = deviceToken != null ? deviceToken.getLength() : token.length;
+
+        final ByteBuf payloadBuffer = notification instanceof EncodedPayloadPushNotification ? ((EncodedPayloadPushNotification)notification)
+                .getEncodedPayload().getBuffer() : null;
+        final byte[] payloadBytes = payloadBuffer == null ? notification.getPayload().getBytes(UTF8) : null;
+        final int payloadLength = payloadBuffer != null ? payloadBuffer.readableBytes() : payloadBytes.length;
+
+        final int length = HEADER_LENGTH + tokenLength + payloadLength;
+        final ByteBuf encoded = direct ? allocator.directBuffer(length) : allocator.heapBuffer(length);
+
+        encoded.writeLong(notification.getDeliveryInvalidationTime() != null ? notification
+                .getDeliveryInvalidationTime().getTime() : NO_INVALIDATION_TIME);
+        encoded.writeByte(notification.getPriority() != null ? notification.getPriority().getCode() : NO_PRIORITY);
+        encoded.writeShort(tokenLength);
+
+        if (deviceToken != null) {
+            deviceToken.writeTo(encoded);
+        } else {
+            encoded.writeBytes(token);
+        }
+
+        if (payloadBuffer != null) {
+            encoded.writeBytes(payloadBuffer, payloadBuffer.readerIndex(), payloadLength);
+        } else {
+            encoded.writeBytes(payloadBytes);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * 从缓冲区的可读部分还原消息，不改变缓冲区的读写索引
+     */
+    public T decode(final ByteBuf encoded) {
+        int offset = encoded.readerIndex();
+
+        final long invalidationTime = encoded.getLong(offset);
+        offset += 8;
+
+        final byte priorityCode = encoded.getByte(offset);
+        offset += 1;
+
+        final byte[] token = new byte[encoded.getUnsignedShort(offset)];
+        offset += 2;
+
+        encoded.getBytes(offset, token);
+        offset += token.length;
+
+        final String payload = encoded.toString(offset, encoded.writerIndex() - offset, UTF8);
+
+        return this.pushNotificationFactory.createPushNotification(token, new ApnsPayload(payload),
+                invalidationTime != NO_INVALIDATION_TIME ? new Date(invalidationTime) : null,
+                priorityCode != NO_PRIORITY ? DeliveryPriority.getFromCode(priorityCode) : null);
+    }
+}
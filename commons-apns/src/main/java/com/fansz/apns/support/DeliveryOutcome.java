@@ -0,0 +1,39 @@
+package com.fansz.apns.support;
+
+/**
+ * 被跟踪消息的最终结果
+ *
+ * @see DeliveryReceipt
+ */
+public enum DeliveryOutcome {
+    /**
+     * APNS已经接受该消息：同一连接上之后的消息被拒绝，或者连接被优雅关闭，说明该消息已被处理
+     */
+    ACCEPTED,
+
+    /**
+     * APNS拒绝了该消息，原因见{@link DeliveryReceipt#getRejectionReason()}；token已登记在{@link InvalidTokenRegistry}中而被跳过的消息
+     * 也属于此类，原因为{@link RejectedNotificationReason#INVALID_TOKEN}
+     */
+    REJECTED,
+
+    /**
+     * 消息已经写入，但在APNS确认之前连接被意外断开，或者消息已经超出已发送消息缓冲区的范围，无法再确定其结果
+     */
+    UNCONFIRMED,
+
+    /**
+     * PushManager关闭时消息仍未被写入
+     */
+    NOT_SENT,
+
+    /**
+     * 消息失败的次数达到{@link com.fansz.apns.config.RetryConfiguration#getMaximumDeliveryAttempts()}，不再重试
+     */
+    DEAD_LETTERED,
+
+    /**
+     * 消息在{@link CoalescingNotificationQueue}中与另一条排队的消息合并，由合并后的消息代为发送，合并后消息的结果由另一个凭证报告
+     */
+    COALESCED
+}
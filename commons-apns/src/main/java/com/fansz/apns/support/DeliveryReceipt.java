@@ -0,0 +1,99 @@
+package com.fansz.apns.support;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * 单条消息的投递凭证，由{@link com.fansz.apns.PushManager#sendWithReceipt(ApnsPushNotification)}返回。{@link #getWriteFuture()}
+ * 在消息第一次被写入socket时完成；{@link #getOutcomeFuture()}在消息的结果确定时以{@link DeliveryOutcome}完成。旧版APNS协议不会确认成功的消息，
+ * 只有同一连接上之后的消息被拒绝或者连接被优雅关闭时，之前的消息才能确认为{@link DeliveryOutcome#ACCEPTED}
+ * </p>
+ * <p>
+ * 以{@code handle}开头的方法由PushManager和连接在消息状态变化时调用，调用方不应直接使用
+ * </p>
+ */
+public class DeliveryReceipt {
+
+    private final long enqueueTimeNanos = System.nanoTime();
+
+    private final Promise<Void> writePromise;
+
+    private final Promise<DeliveryOutcome> outcomePromise;
+
+    private final Histogram writeLatencyHistogram;
+
+    private final Histogram retryCountHistogram;
+
+    private final AtomicInteger retryCount = new AtomicInteger(0);
+
+    private volatile RejectedNotificationReason rejectionReason;
+
+    /**
+     * @param executor 通知Future监听器的线程
+     * @param writeLatencyHistogram 记录从提交到第一次写入的延迟，单位为微秒
+     * @param retryCountHistogram 在结果确定时记录重试次数
+     */
+    public DeliveryReceipt(final EventExecutor executor, final Histogram writeLatencyHistogram,
+            final Histogram retryCountHistogram) {
+        this.writePromise = executor.newPromise();
+        this.outcomePromise = executor.newPromise();
+        this.writeLatencyHistogram = writeLatencyHistogram;
+        this.retryCountHistogram = retryCountHistogram;
+    }
+
+    /**
+     * 消息第一次被写入socket时完成；消息从未被写入时以{@link IllegalStateException}失败
+     */
+    public Future<Void> getWriteFuture() {
+        return this.writePromise;
+    }
+
+    public Future<DeliveryOutcome> getOutcomeFuture() {
+        return this.outcomePromise;
+    }
+
+    /**
+     * 返回消息因为写入失败而重新发送的次数；排在其他消息的拒绝之后、未被APNS处理而重发的情况不计算在内
+     */
+    public int getRetryCount() {
+        return this.retryCount.get();
+    }
+
+    /**
+     * 结果为{@link DeliveryOutcome#REJECTED}时返回APNS给出的原因，否则返回{@code null}
+     */
+    public RejectedNotificationReason getRejectionReason() {
+        return this.rejectionReason;
+    }
+
+    public void handleWrite() {
+        if (this.writePromise.trySuccess(null)) {
+            this.writeLatencyHistogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()
+                    - this.enqueueTimeNanos));
+        }
+    }
+
+    public void handleRetry() {
+        this.retryCount.incrementAndGet();
+    }
+
+    public void handleRejection(final RejectedNotificationReason reason) {
+        this.rejectionReason = reason;
+        this.handleOutcome(DeliveryOutcome.REJECTED);
+    }
+
+    public void handleOutcome(final DeliveryOutcome outcome) {
+        if (this.outcomePromise.trySuccess(outcome)) {
+            this.retryCountHistogram.record(this.retryCount.get());
+
+            if (!this.writePromise.isDone()) {
+                this.writePromise.tryFailure(new IllegalStateException("Notification was never written."));
+            }
+        }
+    }
+}
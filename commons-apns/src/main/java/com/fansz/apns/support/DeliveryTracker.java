@@ -0,0 +1,27 @@
+package com.fansz.apns.support;
+
+/**
+ * 维护消息对象与{@link DeliveryReceipt}以及失败次数之间的关联，供连接在消息状态变化时找到对应的凭证
+ */
+public interface DeliveryTracker<T extends ApnsPushNotification> {
+
+    /**
+     * 返回与消息对象关联的凭证，未被跟踪的消息返回{@code null}
+     */
+    DeliveryReceipt getDeliveryReceipt(T notification);
+
+    /**
+     * 判断消息对象是否关联了凭证或者失败次数；连接只为这些消息保留原始对象，以便重发还原的副本时转移这些状态
+     */
+    boolean hasDeliveryState(T notification);
+
+    /**
+     * 将凭证和失败次数关联到另一个消息对象，用于重发从已发送消息缓冲区中还原的消息副本
+     */
+    void transferDeliveryReceipt(T previousNotification, T notification);
+
+    /**
+     * 消息的结果已经确定，解除消息对象与凭证以及失败次数的关联
+     */
+    void releaseDeliveryReceipt(T notification);
+}
@@ -0,0 +1,283 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+
+import com.fansz.apns.util.MalformedTokenStringException;
+import com.fansz.apns.util.TokenUtil;
+
+/**
+ * <p>
+ * 不可变的device token，最多{@value #MAX_LENGTH}字节，按大端顺序保存在四个{@code long}中，哈希值在创建时计算；
+ * 适合作为{@link java.util.HashMap}和{@link java.util.HashSet}的键，比较和查找不产生任何对象
+ * </p>
+ * <p>
+ * 16进制字符串的解析和格式化都通过查表完成，解析时忽略所有非16进制字符，与{@link TokenUtil#tokenStringToByteArray(String)}相同
+ * </p>
+ *
+ * @see DeviceTokenPushNotification
+ */
+public final class DeviceToken {
+
+    /** 可以保存的最大token长度，即APNS device token的长度 */
+    public static final int MAX_LENGTH = 32;
+
+    private static final int WORD_COUNT = 4;
+
+    private final long word0;
+
+    private final long word1;
+
+    private final long word2;
+
+    private final long word3;
+
+    private final int length;
+
+    private final int hashCode;
+
+    private DeviceToken(final long word0, final long word1, final long word2, final long word3, final int length) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+        this.length = length;
+
+        long hash = word0 ^ Long.rotateLeft(word1, 16) ^ Long.rotateLeft(word2, 32) ^ Long.rotateLeft(word3, 48)
+                ^ length;
+        hash *= 0x9e3779b97f4a7c15L;
+
+        this.hashCode = (int)(hash ^ (hash >>> 32));
+    }
+
+    /**
+     * 从字节数组创建token，不保留对数组的引用
+     *
+     * @throws IllegalArgumentException token为空或超过{@value #MAX_LENGTH}字节
+     */
+    public static DeviceToken fromBytes(final byte[] token) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        checkLength(token.length);
+
+        return new DeviceToken(word(token, 0), word(token, 1), word(token, 2), word(token, 3), token.length);
+    }
+
+    /**
+     * 解析16进制字符串，所有非16进制字符都将被忽略
+     *
+     * @throws MalformedTokenStringException 16进制字符的数量为0、奇数或者超过{@value #MAX_LENGTH}字节
+     */
+    public static DeviceToken fromString(final String tokenString) throws MalformedTokenStringException {
+        if (tokenString == null) {
+            throw new NullPointerException("Token string must not be null.");
+        }
+
+        long word0 = 0;
+        long word1 = 0;
+        long word2 = 0;
+        long word3 = 0;
+        int digitCount = 0;
+
+        for (int i = 0; i < tokenString.length(); i++) {
+            final long value = TokenUtil.hexDigitValue(tokenString.charAt(i));
+
+            if (value < 0) {
+                continue;
+            }
+
+            if (digitCount == MAX_LENGTH * 2) {
+                throw new MalformedTokenStringException(String.format(
+                        "Token strings must not contain more than %d hexadecimal digits.", MAX_LENGTH * 2));
+            }
+
+            // Each word holds sixteen digits, most significant first
+            final long shifted = value << (60 - (digitCount % 16) * 4);
+
+            switch (digitCount / 16) {
+                case 0:
+                    word0 |= shifted;
+                    break;
+                case 1:
+                    word1 |= shifted;
+                    break;
+                case 2:
+                    word2 |= shifted;
+                    break;
+                default:
+                    word3 |= shifted;
+            }
+
+            digitCount += 1;
+        }
+
+        if (digitCount == 0) {
+            throw new MalformedTokenStringException("Token strings must contain at least one hexadecimal digit.");
+        }
+
+        if (digitCount % 2 != 0) {
+            throw new MalformedTokenStringException("Token strings must contain an even number of hexadecimal digits.");
+        }
+
+        return new DeviceToken(word0, word1, word2, word3, digitCount / 2);
+    }
+
+    /**
+     * 从{@code in}中读取{@code length}字节的token
+     *
+     * @throws IllegalArgumentException {@code length}为0或超过{@value #MAX_LENGTH}
+     */
+    public static DeviceToken readFrom(final ByteBuf in, final int length) {
+        checkLength(length);
+
+        final long word0 = readWord(in, length, 0);
+        final long word1 = readWord(in, length, 1);
+        final long word2 = readWord(in, length, 2);
+        final long word3 = readWord(in, length, 3);
+
+        return new DeviceToken(word0, word1, word2, word3, length);
+    }
+
+    /**
+     * 返回消息的token；{@link DeviceTokenPushNotification}直接返回其持有的实例，其他消息由{@link ApnsPushNotification#getToken()}创建
+     */
+    public static DeviceToken of(final ApnsPushNotification notification) {
+        if (notification instanceof DeviceTokenPushNotification) {
+            return ((DeviceTokenPushNotification)notification).getDeviceToken();
+        }
+
+        return fromBytes(notification.getToken());
+    }
+
+    private static void checkLength(final int length) {
+        if (length < 1 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException(String.format("Tokens must be between 1 and %d bytes long, but was %d.",
+                    MAX_LENGTH, length));
+        }
+    }
+
+    /**
+     * 返回{@code token}中第{@code index}个8字节组成的大端{@code long}，超出数组的部分以0填充
+     */
+    static long word(final byte[] token, final int index) {
+        long word = 0;
+
+        for (int i = index * 8; i < index * 8 + 8; i++) {
+            word = (word << 8) | (i < token.length ? token[i] & 0xff : 0);
+        }
+
+        return word;
+    }
+
+    private static long readWord(final ByteBuf in, final int length, final int index) {
+        final int remaining = length - index * 8;
+
+        if (remaining >= 8) {
+            return in.readLong();
+        }
+
+        long word = 0;
+
+        for (int i = 0; i < 8; i++) {
+            word = (word << 8) | (i < remaining ? in.readByte() & 0xff : 0);
+        }
+
+        return word;
+    }
+
+    /**
+     * 返回第{@code index}个8字节组成的大端{@code long}，供按字比较的调用者使用
+     */
+    long getWord(final int index) {
+        switch (index) {
+            case 0:
+                return this.word0;
+            case 1:
+                return this.word1;
+            case 2:
+                return this.word2;
+            case 3:
+                return this.word3;
+            default:
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+
+    /**
+     * token的字节数
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * 返回第{@code index}个字节
+     */
+    public byte getByte(final int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException(String.format("Index %d is out of bounds for a %d-byte token.", index,
+                    this.length));
+        }
+
+        return (byte)(this.getWord(index / 8) >>> (56 - (index % 8) * 8));
+    }
+
+    public byte[] toByteArray() {
+        final byte[] token = new byte[this.length];
+
+        for (int i = 0; i < this.length; i++) {
+            token[i] = (byte)(this.getWord(i / 8) >>> (56 - (i % 8) * 8));
+        }
+
+        return token;
+    }
+
+    /**
+     * 将token的{@link #getLength()}个字节写入{@code out}
+     */
+    public void writeTo(final ByteBuf out) {
+        for (int index = 0; index < WORD_COUNT && index * 8 < this.length; index++) {
+            final long word = this.getWord(index);
+            final int remaining = this.length - index * 8;
+
+            if (remaining >= 8) {
+                out.writeLong(word);
+            } else {
+                for (int i = 0; i < remaining; i++) {
+                    out.writeByte((int)(word >>> (56 - i * 8)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof DeviceToken))
+            return false;
+        final DeviceToken other = (DeviceToken)obj;
+        return this.length == other.length && this.word0 == other.word0 && this.word1 == other.word1
+                && this.word2 == other.word2 && this.word3 == other.word3;
+    }
+
+    /**
+     * 返回小写的16进制字符串
+     */
+    @Override
+    public String toString() {
+        final char[] hexChars = new char[this.length * 2];
+
+        for (int i = 0; i < hexChars.length; i++) {
+            hexChars[i] = TokenUtil.hexDigit((int)(this.getWord(i / 16) >>> (60 - (i % 16) * 4)));
+        }
+
+        return new String(hexChars);
+    }
+}
@@ -0,0 +1,16 @@
+package com.fansz.apns.support;
+
+/**
+ * <p>
+ * 以{@link DeviceToken}持有token的推送消息，编码器、合并队列和失效token登记表直接使用该实例，而不是从{@link #getToken()}重新创建
+ * </p>
+ *
+ * @see DeviceToken#of(ApnsPushNotification)
+ */
+public interface DeviceTokenPushNotification extends ApnsPushNotification {
+
+    /**
+     * 设备的Device Token
+     */
+    DeviceToken getDeviceToken();
+}
@@ -0,0 +1,25 @@
+package com.fansz.apns.support;
+
+/**
+ * PushManager从队列中获取消息并分发到连接的方式
+ *
+ * @see com.fansz.apns.config.PushManagerConfiguration#setDispatchMode(DispatchMode)
+ */
+public enum DispatchMode {
+
+    /**
+     * 由一个分发线程轮流将消息写入所有可写的连接，发送速率受限于该线程
+     */
+    SINGLE_THREAD,
+
+    /**
+     * 每个连接在处理自身读写的事件循环中从共享队列获取消息，不需要额外的线程，发送速率随连接数和事件循环线程数近似线性增长
+     */
+    PER_CONNECTION,
+
+    /**
+     * PushManager自身没有分发线程，由{@link com.fansz.apns.PushManagerRegistry}的共享分发线程在所有应用之间轮流发送；只能用于通过
+     * {@link com.fansz.apns.PushManagerRegistry}注册的PushManager
+     */
+    SHARED
+}
@@ -0,0 +1,18 @@
+package com.fansz.apns.support;
+
+import com.fansz.apns.model.ApnsPayload;
+
+/**
+ * <p>
+ * 持有已编码Payload的推送消息，编码器直接引用其共享的Payload缓冲区，而不是对{@link #getPayload()}重新编码
+ * </p>
+ *
+ * @see ApnsPayload
+ */
+public interface EncodedPayloadPushNotification extends ApnsPushNotification {
+
+    /**
+     * 推送通知的Payload，其编码结果可以被多条消息共享
+     */
+    ApnsPayload getEncodedPayload();
+}
@@ -0,0 +1,109 @@
+package com.fansz.apns.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * 线程安全的对数分桶直方图，第{@code i}个桶统计落在{@code [2^(i-1), 2^i)}之间的值（第0个桶只统计0），记录一个值只需要几次原子操作，
+ * 适合在发送路径上持续记录延迟和重试次数
+ * </p>
+ * <p>
+ * 百分位数返回所在桶的上界，因此误差不超过实际值的一倍
+ * </p>
+ */
+public class Histogram {
+
+    private static final int BUCKET_COUNT = 65;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong(0);
+
+    private final AtomicLong sum = new AtomicLong(0);
+
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * 记录一个值，负数按0处理
+     */
+    public void record(final long value) {
+        final long boundedValue = Math.max(value, 0);
+
+        this.bucketCounts.incrementAndGet(64 - Long.numberOfLeadingZeros(boundedValue));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(boundedValue);
+
+        long currentMax;
+
+        while ((currentMax = this.max.get()) < boundedValue) {
+            if (this.max.compareAndSet(currentMax, boundedValue)) {
+                break;
+            }
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    public double getMean() {
+        final long count = this.count.get();
+        return count > 0 ? (double)this.sum.get() / count : 0;
+    }
+
+    /**
+     * 返回不小于{@code percentile}%的记录值的近似上界
+     *
+     * @param percentile 百分位，取值范围为0到100
+     */
+    public long getValueAtPercentile(final double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+
+        final long count = this.count.get();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long targetCount = Math.max(1, (long)Math.ceil(count * percentile / 100));
+        long seenCount = 0;
+
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seenCount += this.bucketCounts.get(bucket);
+
+            if (seenCount >= targetCount) {
+                final long upperBound = bucket == 0 ? 0 : (bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1);
+                return Math.min(upperBound, this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * 清空所有记录，与{@link #record(long)}并发执行时可能丢失少量记录
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            this.bucketCounts.set(bucket, 0);
+        }
+
+        this.count.set(0);
+        this.sum.set(0);
+        this.max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram [count=" + this.getCount() + ", mean=" + this.getMean() + ", p50="
+                + this.getValueAtPercentile(50) + ", p99=" + this.getValueAtPercentile(99) + ", max=" + this.getMax()
+                + "]";
+    }
+}
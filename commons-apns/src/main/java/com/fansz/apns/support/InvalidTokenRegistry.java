@@ -0,0 +1,389 @@
+package com.fansz.apns.support;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * 已失效device token的登记表，保存在直接内存中的开放寻址哈希表里，每个token只占用40字节（32字节token + 8字节过期时间），
+ * 几百万个token也不会增加GC的负担。token在登记之后保留{@code retentionMillis}毫秒，过期之后自动失效，以便重新安装App的用户可以再次收到推送
+ * </p>
+ * <p>
+ * 只接受{@value #TOKEN_LENGTH}字节的token；查询和登记都是线程安全的
+ * </p>
+ * <p>
+ * 哈希表保存在单个直接内存缓冲区中，最多同时登记{@link #MAXIMUM_CAPACITY}个尚未过期的token（约1.3GB直接内存，rehash时临时需要两倍）；登记表已满时，新的token在已有的
+ * token过期之前不会被登记
+ * </p>
+ */
+public class InvalidTokenRegistry {
+
+    /** APNS device token的长度 */
+    public static final int TOKEN_LENGTH = 32;
+
+    private static final int SLOT_SIZE = TOKEN_LENGTH + 8;
+
+    private static final int EXPIRATION_OFFSET = TOKEN_LENGTH;
+
+    /** 过期时间为0表示空槽位，其他已过期的槽位视为已删除，查找时需要跳过 */
+    private static final long EMPTY = 0;
+
+    /** 被显式移除的槽位，总是视为已过期 */
+    private static final long REMOVED = 1;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    private static final double MAXIMUM_LOAD_FACTOR = 0.75;
+
+    /** 槽位数必须是2的幂，并且整个表要放进一个最多2^31 - 1字节的缓冲区 */
+    private static final int MAXIMUM_SLOT_COUNT = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+
+    /** 最多可以同时登记的token数量 */
+    public static final int MAXIMUM_CAPACITY = (int)(MAXIMUM_SLOT_COUNT * MAXIMUM_LOAD_FACTOR);
+
+    private final long retentionMillis;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer slots;
+
+    private int slotCount;
+
+    /** 非空槽位数，包括已过期和已移除的槽位 */
+    private int usedSlotCount = 0;
+
+    /** 上次rehash之后最早的过期时间，在此之前表已满时rehash也腾不出槽位 */
+    private long earliestExpiration = EMPTY;
+
+    /**
+     * @param retentionMillis token登记之后保留的时间
+     */
+    public InvalidTokenRegistry(final long retentionMillis) {
+        this(retentionMillis, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param retentionMillis token登记之后保留的时间
+     * @param initialCapacity 预计登记的token数量，不能超过{@link #MAXIMUM_CAPACITY}
+     */
+    public InvalidTokenRegistry(final long retentionMillis, final int initialCapacity) {
+        if (retentionMillis < 1) {
+            throw new IllegalArgumentException("Retention time must be positive.");
+        }
+
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Initial capacity must be positive.");
+        }
+
+        if (initialCapacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException(String.format(
+                    "Initial capacity must not be greater than %d tokens, but was %d.", MAXIMUM_CAPACITY,
+                    initialCapacity));
+        }
+
+        this.retentionMillis = retentionMillis;
+        this.allocate(Math.min(Integer.highestOneBit((int)(initialCapacity / MAXIMUM_LOAD_FACTOR)) << 1,
+                MAXIMUM_SLOT_COUNT));
+    }
+
+    private void allocate(final int slotCount) {
+        this.slotCount = slotCount;
+        this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE);
+        this.usedSlotCount = 0;
+    }
+
+    /**
+     * 登记失效的token，已经登记过的token重新计算保留时间
+     *
+     * @return 登记表已满、无法登记新的token时返回{@code false}
+     * @throws IllegalArgumentException token长度不是{@value #TOKEN_LENGTH}字节
+     */
+    public boolean add(final byte[] token) {
+        this.checkToken(token);
+        return this.add(DeviceToken.word(token, 0), DeviceToken.word(token, 1), DeviceToken.word(token, 2),
+                DeviceToken.word(token, 3));
+    }
+
+    /**
+     * 登记失效的token，已经登记过的token重新计算保留时间
+     *
+     * @return 登记表已满、无法登记新的token时返回{@code false}
+     * @throws IllegalArgumentException token长度不是{@value #TOKEN_LENGTH}字节
+     */
+    public boolean add(final DeviceToken token) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        if (token.getLength() != TOKEN_LENGTH) {
+            throw new IllegalArgumentException(String.format("Tokens must be %d bytes long, but was %d bytes.",
+                    TOKEN_LENGTH, token.getLength()));
+        }
+
+        return this.add(token.getWord(0), token.getWord(1), token.getWord(2), token.getWord(3));
+    }
+
+    private boolean add(final long word0, final long word1, final long word2, final long word3) {
+        final long now = System.currentTimeMillis();
+        final long expiration = this.retentionMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now
+                + this.retentionMillis;
+
+        this.lock.writeLock().lock();
+        try {
+            final int existingSlot = this.findSlot(word0, word1, word2, word3, now);
+
+            if (existingSlot >= 0) {
+                this.slots.putLong(existingSlot * SLOT_SIZE + EXPIRATION_OFFSET, expiration);
+                return true;
+            }
+
+            if (this.usedSlotCount + 1 > this.slotCount * MAXIMUM_LOAD_FACTOR) {
+                // A full table at its maximum size can't free anything until its earliest token expires; don't scan
+                // the whole thing again for every new token before then
+                if (this.slotCount == MAXIMUM_SLOT_COUNT && now < this.earliestExpiration) {
+                    return false;
+                }
+
+                this.rehash();
+
+                if (this.usedSlotCount + 1 > this.slotCount * MAXIMUM_LOAD_FACTOR) {
+                    return false;
+                }
+            }
+
+            this.insert(word0, word1, word2, word3, expiration);
+            return true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 移除已登记的token，例如设备重新注册了相同的token
+     *
+     * @return token是否已登记并且尚未过期
+     */
+    public boolean remove(final byte[] token) {
+        if (token == null || token.length != TOKEN_LENGTH) {
+            return false;
+        }
+
+        return this.remove(DeviceToken.word(token, 0), DeviceToken.word(token, 1), DeviceToken.word(token, 2),
+                DeviceToken.word(token, 3));
+    }
+
+    /**
+     * 移除已登记的token，例如设备重新注册了相同的token
+     *
+     * @return token是否已登记并且尚未过期
+     */
+    public boolean remove(final DeviceToken token) {
+        if (token == null || token.getLength() != TOKEN_LENGTH) {
+            return false;
+        }
+
+        return this.remove(token.getWord(0), token.getWord(1), token.getWord(2), token.getWord(3));
+    }
+
+    private boolean remove(final long word0, final long word1, final long word2, final long word3) {
+        this.lock.writeLock().lock();
+        try {
+            final int slot = this.findSlot(word0, word1, word2, word3, System.currentTimeMillis());
+
+            if (slot >= 0) {
+                this.slots.putLong(slot * SLOT_SIZE + EXPIRATION_OFFSET, REMOVED);
+                this.earliestExpiration = REMOVED;
+                return true;
+            }
+
+            return false;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return token是否已登记并且尚未过期；长度不符的token总是返回{@code false}
+     */
+    public boolean contains(final byte[] token) {
+        if (token == null || token.length != TOKEN_LENGTH) {
+            return false;
+        }
+
+        return this.contains(DeviceToken.word(token, 0), DeviceToken.word(token, 1), DeviceToken.word(token, 2),
+                DeviceToken.word(token, 3));
+    }
+
+    /**
+     * @return token是否已登记并且尚未过期；长度不符的token总是返回{@code false}
+     */
+    public boolean contains(final DeviceToken token) {
+        if (token == null || token.getLength() != TOKEN_LENGTH) {
+            return false;
+        }
+
+        return this.contains(token.getWord(0), token.getWord(1), token.getWord(2), token.getWord(3));
+    }
+
+    private boolean contains(final long word0, final long word1, final long word2, final long word3) {
+        this.lock.readLock().lock();
+        try {
+            return this.findSlot(word0, word1, word2, word3, System.currentTimeMillis()) >= 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 返回已登记并且尚未过期的token数量，需要遍历整个表
+     */
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            final long now = System.currentTimeMillis();
+            int size = 0;
+
+            for (int slot = 0; slot < this.slotCount; slot++) {
+                if (this.slots.getLong(slot * SLOT_SIZE + EXPIRATION_OFFSET) > now) {
+                    size += 1;
+                }
+            }
+
+            return size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清除所有已过期的token，释放它们占用的槽位
+     */
+    public void purgeExpiredTokens() {
+        this.lock.writeLock().lock();
+        try {
+            this.rehash();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void checkToken(final byte[] token) {
+        if (token == null) {
+            throw new NullPointerException("Token must not be null.");
+        }
+
+        if (token.length != TOKEN_LENGTH) {
+            throw new IllegalArgumentException(String.format("Tokens must be %d bytes long, but was %d bytes.",
+                    TOKEN_LENGTH, token.length));
+        }
+    }
+
+    private static int hash(final long word0, final long word3) {
+        // Tokens are effectively random, so the first and last bytes are as good a hash as any; mix them anyway in
+        // case they aren't
+        int hash = (int)(word0 >>> 32) ^ (int)word3;
+        hash *= 0x9e3779b9;
+
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 槽位按大端顺序保存token的32个字节，与{@link DeviceToken}的字布局相同，因此可以按字比较
+     */
+    private boolean tokenEquals(final int slot, final long word0, final long word1, final long word2,
+            final long word3) {
+        final int offset = slot * SLOT_SIZE;
+
+        return this.slots.getLong(offset) == word0 && this.slots.getLong(offset + 8) == word1
+                && this.slots.getLong(offset + 16) == word2 && this.slots.getLong(offset + 24) == word3;
+    }
+
+    /**
+     * 查找保存{@code token}并且尚未过期的槽位，调用时必须持有锁
+     *
+     * @return 槽位序号，没有找到时返回-1
+     */
+    private int findSlot(final long word0, final long word1, final long word2, final long word3, final long now) {
+        final int mask = this.slotCount - 1;
+
+        for (int slot = hash(word0, word3) & mask, probes = 0; probes < this.slotCount; slot = (slot + 1) & mask, probes++) {
+            final long expiration = this.slots.getLong(slot * SLOT_SIZE + EXPIRATION_OFFSET);
+
+            if (expiration == EMPTY) {
+                return -1;
+            }
+
+            if (expiration > now && this.tokenEquals(slot, word0, word1, word2, word3)) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * 将token写入第一个空槽位，调用时必须持有写锁，并且确认表中没有该token的有效记录
+     */
+    private void insert(final long word0, final long word1, final long word2, final long word3,
+            final long expiration) {
+        final int mask = this.slotCount - 1;
+        int slot = hash(word0, word3) & mask;
+
+        while (this.slots.getLong(slot * SLOT_SIZE + EXPIRATION_OFFSET) != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+
+        final int offset = slot * SLOT_SIZE;
+
+        this.slots.putLong(offset, word0);
+        this.slots.putLong(offset + 8, word1);
+        this.slots.putLong(offset + 16, word2);
+        this.slots.putLong(offset + 24, word3);
+        this.slots.putLong(offset + EXPIRATION_OFFSET, expiration);
+        this.usedSlotCount += 1;
+    }
+
+    /**
+     * 丢弃已过期的槽位，必要时扩大哈希表，调用时必须持有写锁
+     */
+    private void rehash() {
+        final long now = System.currentTimeMillis();
+        final ByteBuffer previousSlots = this.slots;
+        final int previousSlotCount = this.slotCount;
+
+        int liveCount = 0;
+        long earliestExpiration = Long.MAX_VALUE;
+
+        for (int slot = 0; slot < previousSlotCount; slot++) {
+            final long expiration = previousSlots.getLong(slot * SLOT_SIZE + EXPIRATION_OFFSET);
+
+            if (expiration > now) {
+                liveCount += 1;
+                earliestExpiration = Math.min(earliestExpiration, expiration);
+            }
+        }
+
+        // Leave room to grow so we don't have to rehash again right away
+        final int newSlotCount = (liveCount + 1) * 2 > previousSlotCount * MAXIMUM_LOAD_FACTOR
+                && previousSlotCount < MAXIMUM_SLOT_COUNT ? previousSlotCount * 2 : previousSlotCount;
+
+        this.earliestExpiration = earliestExpiration;
+
+        this.allocate(newSlotCount);
+
+        for (int slot = 0; slot < previousSlotCount; slot++) {
+            final int offset = slot * SLOT_SIZE;
+            final long expiration = previousSlots.getLong(offset + EXPIRATION_OFFSET);
+
+            if (expiration > now) {
+                this.insert(previousSlots.getLong(offset), previousSlots.getLong(offset + 8),
+                        previousSlots.getLong(offset + 16), previousSlots.getLong(offset + 24), expiration);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InvalidTokenRegistry [retentionMillis=" + retentionMillis + ", slotCount=" + slotCount + "]";
+    }
+}
@@ -0,0 +1,369 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * 基于内存映射文件的先进先出记录日志。日志由目录下若干固定大小的段文件组成，记录按顺序追加到最新的段，读完的段会被删除，读取位置保存在单独的
+ * checkpoint文件中，因此进程重启后可以从上次的位置继续读取
+ * </p>
+ * <p>
+ * 每条记录的格式为: 长度(4字节) + 数据，长度最后写入，长度为0表示段内没有更多记录。进程异常退出时，最后一条未写完的记录会被丢弃；checkpoint
+ * 在{@link #poll()}返回记录之前就已更新，所以每条记录至多被读出一次：异常退出时，已经读出但调用方尚未处理完的记录在重启之后不会再被读出
+ * </p>
+ * <p>
+ * 所有方法都不是线程安全的，由调用方负责同步
+ * </p>
+ */
+public class MappedSegmentLog implements Closeable {
+
+    /** 默认段文件大小 */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_FILE_SUFFIX = ".seg";
+
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+
+    private static final int RECORD_LENGTH_SIZE = 4;
+
+    /** 段序号(8字节) + 读取位置(4字节) */
+    private static final int CHECKPOINT_SIZE = 8 + 4;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final MappedByteBuffer checkpoint;
+
+    private long headSegmentId;
+
+    private MappedByteBuffer headSegment;
+
+    private int readPosition;
+
+    private long tailSegmentId;
+
+    private MappedByteBuffer tailSegment;
+
+    private int writePosition;
+
+    private int recordCount;
+
+    private boolean closed = false;
+
+    private static final Logger log = LoggerFactory.getLogger(MappedSegmentLog.class);
+
+    /**
+     * 打开指定目录下的日志，目录不存在时会被创建
+     *
+     * @param directory 保存段文件的目录，同一时间只能被一个日志使用
+     * @param segmentSize 段文件大小，单条记录加上4字节的长度不能超过该值
+     */
+    public MappedSegmentLog(final File directory, final int segmentSize) throws IOException {
+        if (directory == null) {
+            throw new NullPointerException("Directory must not be null.");
+        }
+
+        if (segmentSize <= RECORD_LENGTH_SIZE) {
+            throw new IllegalArgumentException(String.format("Segment size must be greater than %d bytes.",
+                    RECORD_LENGTH_SIZE));
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create log directory %s.", directory));
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpoint = this.map(new File(directory, CHECKPOINT_FILE_NAME), CHECKPOINT_SIZE);
+
+        final long[] segmentIds = this.listSegmentIds();
+
+        if (segmentIds.length == 0) {
+            this.headSegmentId = 0;
+            this.headSegment = this.mapSegment(0);
+            this.tailSegmentId = 0;
+            this.tailSegment = this.headSegment;
+            this.readPosition = 0;
+            this.writePosition = 0;
+        } else {
+            final long checkpointSegmentId = this.checkpoint.getLong(0);
+            final int checkpointPosition = this.checkpoint.getInt(8);
+
+            if (Arrays.binarySearch(segmentIds, checkpointSegmentId) >= 0 && checkpointPosition >= 0
+                    && checkpointPosition <= segmentSize) {
+                this.headSegmentId = checkpointSegmentId;
+                this.readPosition = checkpointPosition;
+            } else {
+                this.headSegmentId = segmentIds[0];
+                this.readPosition = 0;
+            }
+
+            for (final long segmentId : segmentIds) {
+                if (segmentId < this.headSegmentId) {
+                    this.deleteSegment(segmentId);
+                }
+            }
+
+            this.tailSegmentId = segmentIds[segmentIds.length - 1];
+            this.headSegment = this.mapSegment(this.headSegmentId);
+            this.tailSegment = this.tailSegmentId == this.headSegmentId ? this.headSegment : this
+                    .mapSegment(this.tailSegmentId);
+
+            this.recordCount = this.countRecords(this.headSegment, this.readPosition);
+
+            for (final long segmentId : segmentIds) {
+                if (segmentId > this.headSegmentId && segmentId < this.tailSegmentId) {
+                    this.recordCount += this.countRecords(this.mapSegment(segmentId), 0);
+                }
+            }
+
+            if (this.tailSegmentId != this.headSegmentId) {
+                this.recordCount += this.countRecords(this.tailSegment, 0);
+            }
+
+            this.writePosition = this.findEndOfRecords(this.tailSegment,
+                    this.tailSegmentId == this.headSegmentId ? this.readPosition : 0);
+        }
+
+        this.writeCheckpoint();
+    }
+
+    /**
+     * 追加一条记录，数据为{@code record}的可读部分，不改变其读写索引
+     */
+    public void append(final ByteBuf record) throws IOException {
+        this.assertOpen();
+
+        final int length = record.readableBytes();
+
+        if (length == 0 || length + RECORD_LENGTH_SIZE > this.segmentSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Record length must be between 1 and %d bytes, but was %d bytes.", this.segmentSize
+                            - RECORD_LENGTH_SIZE, length));
+        }
+
+        if (this.writePosition + RECORD_LENGTH_SIZE + length > this.segmentSize) {
+            this.tailSegmentId += 1;
+            this.tailSegment = this.mapSegment(this.tailSegmentId);
+            this.writePosition = 0;
+        }
+
+        final ByteBuffer dataView = this.tailSegment.duplicate();
+        dataView.position(this.writePosition + RECORD_LENGTH_SIZE);
+        dataView.limit(this.writePosition + RECORD_LENGTH_SIZE + length);
+        record.getBytes(record.readerIndex(), dataView);
+
+        // The length goes in last so a half-written record is never visible after a crash
+        this.tailSegment.putInt(this.writePosition, length);
+
+        this.writePosition += RECORD_LENGTH_SIZE + length;
+        this.recordCount += 1;
+    }
+
+    /**
+     * 读出并移除最早的一条记录
+     *
+     * @return 记录数据，没有记录时返回{@code null}
+     */
+    public byte[] poll() throws IOException {
+        return this.read(true);
+    }
+
+    /**
+     * 读出最早的一条记录，但不移除
+     *
+     * @return 记录数据，没有记录时返回{@code null}
+     */
+    public byte[] peek() throws IOException {
+        return this.read(false);
+    }
+
+    private byte[] read(final boolean remove) throws IOException {
+        this.assertOpen();
+
+        while (this.recordCount > 0) {
+            final int length = this.readPosition + RECORD_LENGTH_SIZE <= this.segmentSize ? this.headSegment
+                    .getInt(this.readPosition) : 0;
+
+            if (length <= 0) {
+                if (this.headSegmentId == this.tailSegmentId) {
+                    // Should never happen; the record count disagrees with the segment contents
+                    log.warn("Record count {} does not match contents of log in {}.", this.recordCount,
+                            this.directory);
+
+                    this.recordCount = 0;
+                    break;
+                }
+
+                this.deleteSegment(this.headSegmentId);
+
+                this.headSegmentId += 1;
+                this.headSegment = this.headSegmentId == this.tailSegmentId ? this.tailSegment : this
+                        .mapSegment(this.headSegmentId);
+                this.readPosition = 0;
+
+                continue;
+            }
+
+            final byte[] record = new byte[length];
+
+            final ByteBuffer dataView = this.headSegment.duplicate();
+            dataView.position(this.readPosition + RECORD_LENGTH_SIZE);
+            dataView.get(record);
+
+            if (remove) {
+                this.readPosition += RECORD_LENGTH_SIZE + length;
+                this.recordCount -= 1;
+                this.writeCheckpoint();
+            }
+
+            return record;
+        }
+
+        return null;
+    }
+
+    /**
+     * 返回日志中尚未读出的记录数
+     */
+    public int size() {
+        return this.recordCount;
+    }
+
+    public boolean isEmpty() {
+        return this.recordCount == 0;
+    }
+
+    /**
+     * 将映射内容写回磁盘，关闭之后不能再读写日志
+     */
+    @Override
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+
+            this.headSegment.force();
+
+            if (this.tailSegment != this.headSegment) {
+                this.tailSegment.force();
+            }
+
+            this.checkpoint.force();
+        }
+    }
+
+    private void assertOpen() throws IOException {
+        if (this.closed) {
+            throw new IOException("Log has already been closed.");
+        }
+    }
+
+    private void writeCheckpoint() {
+        this.checkpoint.putLong(0, this.headSegmentId);
+        this.checkpoint.putInt(8, this.readPosition);
+    }
+
+    private int findEndOfRecords(final MappedByteBuffer segment, final int startPosition) {
+        int position = startPosition;
+
+        while (position + RECORD_LENGTH_SIZE <= this.segmentSize) {
+            final int length = segment.getInt(position);
+
+            if (length <= 0 || position + RECORD_LENGTH_SIZE + length > this.segmentSize) {
+                break;
+            }
+
+            position += RECORD_LENGTH_SIZE + length;
+        }
+
+        return position;
+    }
+
+    private int countRecords(final MappedByteBuffer segment, final int startPosition) {
+        int count = 0;
+        int position = startPosition;
+
+        while (position + RECORD_LENGTH_SIZE <= this.segmentSize) {
+            final int length = segment.getInt(position);
+
+            if (length <= 0 || position + RECORD_LENGTH_SIZE + length > this.segmentSize) {
+                break;
+            }
+
+            position += RECORD_LENGTH_SIZE + length;
+            count += 1;
+        }
+
+        return count;
+    }
+
+    private long[] listSegmentIds() {
+        final File[] segmentFiles = this.directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_FILE_SUFFIX);
+            }
+        });
+
+        final long[] segmentIds = new long[segmentFiles != null ? segmentFiles.length : 0];
+        int count = 0;
+
+        for (int i = 0; i < segmentIds.length; i++) {
+            final String name = segmentFiles[i].getName();
+
+            try {
+                segmentIds[count] = Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+                count += 1;
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring unexpected file {} in log directory {}.", name, this.directory);
+            }
+        }
+
+        final long[] sortedIds = Arrays.copyOf(segmentIds, count);
+        Arrays.sort(sortedIds);
+
+        return sortedIds;
+    }
+
+    private File getSegmentFile(final long segmentId) {
+        return new File(this.directory, String.format("%020d%s", segmentId, SEGMENT_FILE_SUFFIX));
+    }
+
+    private MappedByteBuffer mapSegment(final long segmentId) throws IOException {
+        return this.map(this.getSegmentFile(segmentId), this.segmentSize);
+    }
+
+    private void deleteSegment(final long segmentId) {
+        final File segmentFile = this.getSegmentFile(segmentId);
+
+        if (!segmentFile.delete()) {
+            log.warn("Could not delete consumed log segment {}.", segmentFile);
+        }
+    }
+
+    private MappedByteBuffer map(final File file, final int size) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            // The mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
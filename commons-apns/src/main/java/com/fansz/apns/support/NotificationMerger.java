@@ -0,0 +1,16 @@
+package com.fansz.apns.support;
+
+/**
+ * 合并发往同一设备并且合并键相同的两条排队消息
+ *
+ * @see CoalescingNotificationQueue
+ */
+public interface NotificationMerger<T extends ApnsPushNotification> {
+
+    /**
+     * @param pendingNotification 已经在队列中的消息
+     * @param newNotification 新加入的消息
+     * @return 代替两条消息排在原位置的消息
+     */
+    T merge(T pendingNotification, T newNotification);
+}
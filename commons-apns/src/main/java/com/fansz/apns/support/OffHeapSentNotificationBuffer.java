@@ -0,0 +1,69 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * <p>
+ * 将已发送消息编码后保存在池化的直接内存中的缓冲区，消息对象在写入之后即可被回收，只有在APNS拒绝消息或者需要重发时才通过
+ * {@link ApnsPushNotificationFactory}重新解码为消息对象
+ * </p>
+ * <p>
+ * 每个槽位保存消息的{@link CompactNotificationCodec}编码结果
+ * </p>
+ * <p>
+ * 缓冲区持有直接内存，不再使用时必须调用{@link #clearAllNotifications()}释放
+ * </p>
+ */
+public class OffHeapSentNotificationBuffer<E extends ApnsPushNotification> extends AbstractSentNotificationBuffer<E> {
+
+    private final ByteBuf[] encodedNotifications;
+
+    private final ByteBufAllocator allocator;
+
+    private final CompactNotificationCodec<E> codec;
+
+    /**
+     * @param capacity 缓冲区容量
+     * @param allocator 用于分配直接内存的分配器，通常为{@link io.netty.buffer.PooledByteBufAllocator#DEFAULT}
+     * @param pushNotificationFactory 将编码结果还原为消息对象的工厂
+     */
+    public OffHeapSentNotificationBuffer(final int capacity, final ByteBufAllocator allocator,
+            final ApnsPushNotificationFactory<E> pushNotificationFactory) {
+        super(capacity);
+
+        if (allocator == null) {
+            throw new NullPointerException("Allocator must not be null.");
+        }
+
+        this.allocator = allocator;
+        this.codec = new CompactNotificationCodec<E>(pushNotificationFactory);
+        this.encodedNotifications = new ByteBuf[this.getSlotCount()];
+    }
+
+    @Override
+    protected void storeNotification(final int slot, final E notification) {
+        this.encodedNotifications[slot] = this.codec.encode(notification, this.allocator, true);
+    }
+
+    @Override
+    protected E loadNotification(final int slot) {
+        final ByteBuf encoded = this.encodedNotifications[slot];
+
+        return encoded != null ? this.codec.decode(encoded) : null;
+    }
+
+    @Override
+    protected boolean clearNotification(final int slot) {
+        final ByteBuf encoded = this.encodedNotifications[slot];
+
+        if (encoded != null) {
+            this.encodedNotifications[slot] = null;
+            encoded.release();
+
+            return true;
+        }
+
+        return false;
+    }
+}
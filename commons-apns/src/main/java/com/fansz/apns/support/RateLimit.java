@@ -0,0 +1,79 @@
+package com.fansz.apns.support;
+
+/**
+ * <p>
+ * 令牌桶限速参数：令牌以{@code permitsPerSecond}的速度补充，最多积攒{@code burstSize}个，每发送一条消息消耗一个令牌
+ * </p>
+ *
+ * @see TokenBucket
+ */
+public class RateLimit {
+
+    private final int permitsPerSecond;
+
+    private final int burstSize;
+
+    /**
+     * 允许的突发量等于每秒的消息数
+     *
+     * @param permitsPerSecond 每秒允许的消息数，必须为正数
+     */
+    public RateLimit(final int permitsPerSecond) {
+        this(permitsPerSecond, permitsPerSecond);
+    }
+
+    /**
+     * @param permitsPerSecond 每秒允许的消息数，必须为正数
+     * @param burstSize 空闲之后最多可以连续发送的消息数，必须为正数
+     */
+    public RateLimit(final int permitsPerSecond, final int burstSize) {
+        if (permitsPerSecond < 1) {
+            throw new IllegalArgumentException("Permits per second must be positive.");
+        }
+
+        if (burstSize < 1) {
+            throw new IllegalArgumentException("Burst size must be positive.");
+        }
+
+        this.permitsPerSecond = permitsPerSecond;
+        this.burstSize = burstSize;
+    }
+
+    public int getPermitsPerSecond() {
+        return this.permitsPerSecond;
+    }
+
+    public int getBurstSize() {
+        return this.burstSize;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + burstSize;
+        result = prime * result + permitsPerSecond;
+        return result;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final RateLimit other = (RateLimit)obj;
+        if (burstSize != other.burstSize)
+            return false;
+        if (permitsPerSecond != other.permitsPerSecond)
+            return false;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit [permitsPerSecond=" + permitsPerSecond + ", burstSize=" + burstSize + "]";
+    }
+}
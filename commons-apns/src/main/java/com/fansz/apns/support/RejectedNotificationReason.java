@@ -42,4 +42,43 @@ public enum RejectedNotificationReason {
 
         throw new IllegalArgumentException(String.format("Unrecognized error code: %d", errorCode));
     }
+
+    /**
+     * 将HTTP/2协议响应中的reason字段转换为对应的错误代码，无法对应的reason返回{@link #UNKNOWN}
+     *
+     * @param reason APNS返回的reason，可以为null
+     */
+    public static RejectedNotificationReason getByHttp2Reason(final String reason) {
+        if (reason == null) {
+            return UNKNOWN;
+        }
+
+        switch (reason) {
+            case "BadDeviceToken":
+            case "DeviceTokenNotForTopic":
+            case "Unregistered":
+                return INVALID_TOKEN;
+
+            case "MissingDeviceToken":
+                return MISSING_TOKEN;
+
+            case "MissingTopic":
+                return MISSING_TOPIC;
+
+            case "PayloadEmpty":
+                return MISSING_PAYLOAD;
+
+            case "PayloadTooLarge":
+                return INVALID_PAYLOAD_SIZE;
+
+            case "InternalServerError":
+                return PROCESSING_ERROR;
+
+            case "Shutdown":
+                return SHUTDOWN;
+
+            default:
+                return UNKNOWN;
+        }
+    }
 }
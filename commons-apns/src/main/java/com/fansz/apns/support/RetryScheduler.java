@@ -0,0 +1,307 @@
+package com.fansz.apns.support;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fansz.apns.config.RetryConfiguration;
+
+/**
+ * <p>
+ * 基于时间轮的失败消息重试调度器。每条消息（按对象identity区分）记录失败次数，第一次失败立即重试；第{@code n}次失败之后在0到
+ * {@code min(initialRetryDelay * 2^(n-2), maximumRetryDelay)}毫秒之间随机延迟，再交给
+ * {@link RetryHandler#handleRetry(Object)}；失败次数达到{@link RetryConfiguration#getMaximumDeliveryAttempts()}的消息交给
+ * {@link RetryHandler#handleDeadLetter(Object, int)}
+ * </p>
+ * <p>
+ * 旧版协议无法确认消息成功，所以失败次数在消息最后一次失败之后保留一段时间再丢弃，之后再次失败的消息重新计数；结果已经确定的消息可以通过
+ * {@link #releaseAttemptCount(Object)}提前丢弃。消息被还原成另一个对象重发时（例如从堆外的已发送消息缓冲区中还原），需要通过
+ * {@link #transferAttemptCount(Object, Object)}把失败次数转移到新的对象上
+ * </p>
+ */
+public class RetryScheduler<T> {
+
+    /**
+     * 接收到期的重试和放弃的消息，在时间轮线程或者报告失败的线程中调用，不应阻塞
+     */
+    public interface RetryHandler<T> {
+
+        void handleRetry(T notification);
+
+        void handleDeadLetter(T notification, int attempts);
+    }
+
+    private static final long ATTEMPT_COUNT_RETENTION_MILLIS = 60000;
+
+    /** 自行创建的时间轮的刻度 */
+    public static final long TICK_DURATION_MILLIS = 10;
+
+    /** 自行创建的时间轮的槽数 */
+    public static final int TICKS_PER_WHEEL = 512;
+
+    private final RetryConfiguration configuration;
+
+    private final RetryHandler<T> handler;
+
+    private final Timer timer;
+
+    private final boolean shouldStopTimer;
+
+    private final Map<T, AttemptCount> attemptCounts = new IdentityHashMap<T, AttemptCount>();
+
+    private final Set<Timeout> pendingRetries = Collections.newSetFromMap(new IdentityHashMap<Timeout, Boolean>());
+
+    private final AtomicLong deadLetterCount = new AtomicLong(0);
+
+    private boolean stopped = false;
+
+    private class AttemptCount {
+
+        /** 失败次数当前关联的消息对象，只在持有调度器的锁时访问 */
+        private T notification;
+
+        private int attempts = 0;
+
+        private Timeout expiry;
+    }
+
+    private class RetryTask implements TimerTask {
+
+        private final T notification;
+
+        public RetryTask(final T notification) {
+            this.notification = notification;
+        }
+
+        @Override
+        public void run(final Timeout timeout) {
+            synchronized (RetryScheduler.this) {
+                pendingRetries.remove(timeout);
+            }
+
+            handler.handleRetry(this.notification);
+        }
+    }
+
+    private class ExpiryTask implements TimerTask {
+
+        private final AttemptCount attemptCount;
+
+        public ExpiryTask(final AttemptCount attemptCount) {
+            this.attemptCount = attemptCount;
+        }
+
+        @Override
+        public void run(final Timeout timeout) {
+            synchronized (RetryScheduler.this) {
+                if (attemptCounts.get(this.attemptCount.notification) == this.attemptCount) {
+                    attemptCounts.remove(this.attemptCount.notification);
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建自己的时间轮，在{@link #stop()}时停止
+     *
+     * @param name 时间轮线程的名称
+     */
+    public RetryScheduler(final RetryConfiguration configuration, final RetryHandler<T> handler, final String name) {
+        // The timer's worker thread only starts when the first timeout is scheduled
+        this(configuration, handler, new HashedWheelTimer(new DefaultThreadFactory(name, true), TICK_DURATION_MILLIS,
+                TimeUnit.MILLISECONDS, TICKS_PER_WHEEL), true);
+    }
+
+    /**
+     * 使用多个调度器共享的时间轮，{@link #stop()}只取消本调度器的任务，时间轮由调用者停止
+     */
+    public RetryScheduler(final RetryConfiguration configuration, final RetryHandler<T> handler, final Timer timer) {
+        this(configuration, handler, timer, false);
+    }
+
+    private RetryScheduler(final RetryConfiguration configuration, final RetryHandler<T> handler, final Timer timer,
+            final boolean shouldStopTimer) {
+        if (configuration == null) {
+            throw new NullPointerException("Retry configuration must not be null.");
+        }
+
+        if (handler == null) {
+            throw new NullPointerException("Retry handler must not be null.");
+        }
+
+        if (timer == null) {
+            throw new NullPointerException("Timer must not be null.");
+        }
+
+        this.configuration = new RetryConfiguration(configuration);
+        this.handler = handler;
+        this.timer = timer;
+        this.shouldStopTimer = shouldStopTimer;
+    }
+
+    /**
+     * 记录一次失败，并安排消息重试或者放弃该消息；调用{@link #stop()}之后到期的重试立即交给{@link RetryHandler#handleRetry(Object)}
+     */
+    public void scheduleRetry(final T notification) {
+        final int attempts;
+        final boolean deadLetter;
+
+        synchronized (this) {
+            AttemptCount attemptCount = this.attemptCounts.get(notification);
+
+            if (attemptCount == null) {
+                attemptCount = new AttemptCount();
+                attemptCount.notification = notification;
+                this.attemptCounts.put(notification, attemptCount);
+            } else if (attemptCount.expiry != null) {
+                attemptCount.expiry.cancel();
+                attemptCount.expiry = null;
+            }
+
+            attempts = ++attemptCount.attempts;
+
+            final Integer maximumDeliveryAttempts = this.configuration.getMaximumDeliveryAttempts();
+            deadLetter = maximumDeliveryAttempts != null && attempts >= maximumDeliveryAttempts;
+
+            if (deadLetter) {
+                this.attemptCounts.remove(notification);
+            } else if (!this.stopped) {
+                final long delayMillis = this.getRetryDelayMillis(attempts);
+
+                attemptCount.expiry = this.timer.newTimeout(new ExpiryTask(attemptCount), delayMillis
+                        + ATTEMPT_COUNT_RETENTION_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (delayMillis > 0) {
+                    this.pendingRetries.add(this.timer.newTimeout(new RetryTask(notification), delayMillis,
+                            TimeUnit.MILLISECONDS));
+
+                    return;
+                }
+            }
+        }
+
+        if (deadLetter) {
+            this.deadLetterCount.incrementAndGet();
+            this.handler.handleDeadLetter(notification, attempts);
+        } else {
+            this.handler.handleRetry(notification);
+        }
+    }
+
+    /**
+     * 判断消息是否有尚未丢弃的失败次数
+     */
+    public synchronized boolean hasAttemptCount(final T notification) {
+        return this.attemptCounts.containsKey(notification);
+    }
+
+    /**
+     * 把失败次数从{@code previousNotification}转移到代表同一条消息的{@code notification}上；{@code previousNotification}没有失败次数时
+     * 不做任何事情
+     */
+    public synchronized void transferAttemptCount(final T previousNotification, final T notification) {
+        if (previousNotification == notification) {
+            return;
+        }
+
+        final AttemptCount attemptCount = this.attemptCounts.remove(previousNotification);
+
+        if (attemptCount != null) {
+            // The expiry task follows the count, so it doesn't need to be rescheduled
+            attemptCount.notification = notification;
+            this.attemptCounts.put(notification, attemptCount);
+        }
+    }
+
+    /**
+     * 消息的结果已经确定，丢弃它的失败次数
+     */
+    public synchronized void releaseAttemptCount(final T notification) {
+        final AttemptCount attemptCount = this.attemptCounts.remove(notification);
+
+        if (attemptCount != null && attemptCount.expiry != null) {
+            attemptCount.expiry.cancel();
+        }
+    }
+
+    private long getRetryDelayMillis(final int attempts) {
+        final long initialRetryDelayMillis = this.configuration.getInitialRetryDelayMillis();
+
+        if (initialRetryDelayMillis == 0 || attempts < 2) {
+            return 0;
+        }
+
+        // Cap the exponent so the shift can't overflow; the maximum delay takes over long before that anyway
+        final long ceiling = Math.min(initialRetryDelayMillis << Math.min(attempts - 2, 30),
+                this.configuration.getMaximumRetryDelayMillis());
+
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * 返回已经安排、尚未到期的重试数
+     */
+    public synchronized int getPendingRetryCount() {
+        return this.pendingRetries.size();
+    }
+
+    /**
+     * 返回因为失败次数达到上限而被放弃的消息数
+     */
+    public long getDeadLetterCount() {
+        return this.deadLetterCount.get();
+    }
+
+    /**
+     * 取消所有尚未到期的任务，此后的失败不再延迟重试；自行创建的时间轮同时被停止，此时不能在{@link RetryHandler}中调用
+     *
+     * @return 尚未到期的重试消息
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> stop() {
+        final List<T> unscheduledNotifications = new ArrayList<T>();
+
+        synchronized (this) {
+            if (this.stopped) {
+                return unscheduledNotifications;
+            }
+
+            this.stopped = true;
+
+            // A retry that can't be cancelled is already running and will hand its notification over by itself
+            for (final Timeout timeout : this.pendingRetries) {
+                if (timeout.cancel()) {
+                    unscheduledNotifications.add(((RetryTask)timeout.task()).notification);
+                }
+            }
+
+            this.pendingRetries.clear();
+
+            for (final AttemptCount attemptCount : this.attemptCounts.values()) {
+                if (attemptCount.expiry != null) {
+                    attemptCount.expiry.cancel();
+                    attemptCount.expiry = null;
+                }
+            }
+        }
+
+        // Stopping waits for the timer's worker thread, which may be waiting for this object's monitor
+        if (this.shouldStopTimer) {
+            this.timer.stop();
+        }
+
+        return unscheduledNotifications;
+    }
+}
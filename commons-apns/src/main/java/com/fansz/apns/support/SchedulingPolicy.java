@@ -0,0 +1,19 @@
+package com.fansz.apns.support;
+
+/**
+ * 多个流量类别之间的调度策略
+ *
+ * @see TrafficClassQueue
+ */
+public enum SchedulingPolicy {
+
+    /**
+     * 严格优先级，总是先发送权重最高且非空的类别中的消息，低权重类别只在高权重类别为空时才会被发送
+     */
+    STRICT_PRIORITY,
+
+    /**
+     * 加权轮询，各个非空类别按照权重比例交替发送，低权重类别不会被饿死
+     */
+    WEIGHTED
+}
@@ -0,0 +1,420 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ * 可以溢出到磁盘的无界阻塞队列，可以作为{@link com.fansz.apns.PushManager}的发送队列使用。堆内最多保存{@code memoryCapacity}条消息，
+ * 超出的消息用{@link CompactNotificationCodec}编码后写入{@link MappedSegmentLog}，出队时再通过{@link ApnsPushNotificationFactory}还原，
+ * 因此在短时间内提交大量消息时不会耗尽堆内存
+ * </p>
+ * <p>
+ * 一旦开始溢出，后续的消息也都写入磁盘，直到磁盘上的消息被全部取出，从而保持先进先出的顺序。调用{@link #close()}时，堆内剩余的消息也会被写入磁盘，
+ * 下次用同一个目录创建队列时，这些消息会重新出队；堆内的消息早于已经溢出的消息，因此被写入目录下单独的{@code head}日志，重新打开时先于其它消息出队，
+ * 重启前后的顺序保持不变。{@link com.fansz.apns.PushManager#shutdown()}会把尚未发送的重发消息写入该队列
+ * </p>
+ * <p>
+ * 迭代器只遍历堆内的消息
+ * </p>
+ */
+public class SpillingNotificationQueue<T extends ApnsPushNotification> extends AbstractQueue<T> implements
+        BlockingQueue<T>, Closeable {
+
+    private final int memoryCapacity;
+
+    private final ArrayDeque<T> memoryQueue = new ArrayDeque<T>();
+
+    private final MappedSegmentLog spillLog;
+
+    /** 上次关闭时堆内剩余的消息，早于{@link #spillLog}中的所有消息 */
+    private final MappedSegmentLog headLog;
+
+    private final CompactNotificationCodec<T> codec;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private boolean closed = false;
+
+    private static final String HEAD_LOG_DIRECTORY_NAME = "head";
+
+    private static final Logger log = LoggerFactory.getLogger(SpillingNotificationQueue.class);
+
+    /**
+     * 使用默认段文件大小创建队列
+     *
+     * @see #SpillingNotificationQueue(File, int, int, ApnsPushNotificationFactory)
+     */
+    public SpillingNotificationQueue(final File directory, final int memoryCapacity,
+            final ApnsPushNotificationFactory<T> pushNotificationFactory) throws IOException {
+        this(directory, memoryCapacity, MappedSegmentLog.DEFAULT_SEGMENT_SIZE, pushNotificationFactory);
+    }
+
+    /**
+     * @param directory 保存溢出消息的目录，目录中已有的消息会排在队首
+     * @param memoryCapacity 堆内最多保存的消息数量，超出后写入磁盘
+     * @param segmentSize 段文件大小
+     * @param pushNotificationFactory 将磁盘上的消息还原为消息对象的工厂
+     */
+    public SpillingNotificationQueue(final File directory, final int memoryCapacity, final int segmentSize,
+            final ApnsPushNotificationFactory<T> pushNotificationFactory) throws IOException {
+        if (memoryCapacity < 0) {
+            throw new IllegalArgumentException("Memory capacity must not be negative.");
+        }
+
+        this.memoryCapacity = memoryCapacity;
+        this.codec = new CompactNotificationCodec<T>(pushNotificationFactory);
+        this.spillLog = new MappedSegmentLog(directory, segmentSize);
+
+        try {
+            this.headLog = new MappedSegmentLog(new File(directory, HEAD_LOG_DIRECTORY_NAME), segmentSize);
+        } catch (IOException e) {
+            this.spillLog.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 返回磁盘上排队的消息数量
+     */
+    public int getSpilledCount() {
+        this.lock.lock();
+        try {
+            return this.headLog.size() + this.spillLog.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 将消息直接写入磁盘，不经过堆内队列
+     *
+     * @throws IOException 写入磁盘失败，部分消息可能已经写入
+     */
+    public void spill(final Collection<? extends T> notifications) throws IOException {
+        this.lock.lock();
+        try {
+            this.assertOpen();
+
+            for (final T notification : notifications) {
+                this.writeToLog(this.spillLog, notification);
+            }
+
+            this.notEmpty.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void assertOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Queue has already been closed.");
+        }
+    }
+
+    private void writeToLog(final MappedSegmentLog targetLog, final T notification) throws IOException {
+        final ByteBuf encoded = this.codec.encode(notification, UnpooledByteBufAllocator.DEFAULT, false);
+
+        try {
+            targetLog.append(encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private T dequeue() {
+        final T notification = this.memoryQueue.pollFirst();
+
+        if (notification != null) {
+            return notification;
+        }
+
+        return this.readFromLogs(true);
+    }
+
+    /**
+     * 读取磁盘上的第一条消息；堆内队列只在两个日志都为空时才会接收新消息，所以调用时堆内队列一定为空
+     */
+    private T readFromLogs(final boolean remove) {
+        if (this.closed) {
+            return null;
+        }
+
+        try {
+            final MappedSegmentLog sourceLog = this.headLog.isEmpty() ? this.spillLog : this.headLog;
+            final byte[] record = remove ? sourceLog.poll() : sourceLog.peek();
+
+            return record != null ? this.codec.decode(Unpooled.wrappedBuffer(record)) : null;
+        } catch (IOException e) {
+            log.error("Failed to read spilled notification.", e);
+            return null;
+        }
+    }
+
+    private int count() {
+        return this.memoryQueue.size() + this.headLog.size() + this.spillLog.size();
+    }
+
+    /**
+     * 将消息加入队列，堆内队列已满时写入磁盘
+     *
+     * @return 写入磁盘失败时返回{@code false}
+     * @throws IllegalStateException 队列已经关闭
+     */
+    @Override
+    public boolean offer(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        this.lock.lock();
+        try {
+            this.assertOpen();
+
+            if (this.headLog.isEmpty() && this.spillLog.isEmpty() && this.memoryQueue.size() < this.memoryCapacity) {
+                this.memoryQueue.addLast(notification);
+            } else {
+                try {
+                    this.writeToLog(this.spillLog, notification);
+                } catch (IOException e) {
+                    log.error("Failed to spill notification to disk.", e);
+                    return false;
+                }
+            }
+
+            this.notEmpty.signal();
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final T notification) throws InterruptedException {
+        if (!this.offer(notification)) {
+            throw new IllegalStateException("Failed to spill notification to disk.");
+        }
+    }
+
+    @Override
+    public boolean offer(final T notification, final long timeout, final TimeUnit unit) {
+        return this.offer(notification);
+    }
+
+    @Override
+    public T poll() {
+        this.lock.lock();
+        try {
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            T notification;
+
+            while ((notification = this.dequeue()) == null) {
+                this.notEmpty.await();
+            }
+
+            return notification;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        this.lock.lockInterruptibly();
+        try {
+            T notification;
+
+            while ((notification = this.dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+
+            return notification;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 返回队首的消息；消息在磁盘上时，每次调用都会解码出一个新的对象
+     */
+    @Override
+    public T peek() {
+        this.lock.lock();
+        try {
+            // Spilled notifications stay on disk; moving one onto the heap would put it behind the head log on close
+            final T notification = this.memoryQueue.peekFirst();
+
+            return notification != null ? notification : this.readFromLogs(false);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c, final int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue into itself.");
+        }
+
+        this.lock.lock();
+        try {
+            int drained = 0;
+            T notification;
+
+            while (drained < maxElements && (notification = this.dequeue()) != null) {
+                c.add(notification);
+                drained += 1;
+            }
+
+            return drained;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 返回堆内消息快照的迭代器，不包括磁盘上的消息
+     */
+    @Override
+    public Iterator<T> iterator() {
+        final List<T> snapshot;
+
+        this.lock.lock();
+        try {
+            snapshot = new ArrayList<T>(this.memoryQueue);
+        } finally {
+            this.lock.unlock();
+        }
+
+        final Iterator<T> snapshotIterator = snapshot.iterator();
+
+        return new Iterator<T>() {
+
+            private T lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                this.lastReturned = snapshotIterator.next();
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (this.lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+
+                SpillingNotificationQueue.this.lock.lock();
+                try {
+                    SpillingNotificationQueue.this.memoryQueue.remove(this.lastReturned);
+                } finally {
+                    SpillingNotificationQueue.this.lock.unlock();
+                }
+
+                this.lastReturned = null;
+            }
+        };
+    }
+
+    /**
+     * 将堆内剩余的消息写入磁盘并关闭日志，关闭之后不能再向队列中加入消息。已经有消息溢出时，堆内的消息写入{@code head}日志，
+     * 下次打开时排在溢出的消息之前
+     */
+    @Override
+    public void close() throws IOException {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+
+            this.closed = true;
+
+            try {
+                // Heap notifications are older than anything on disk, and the head log is empty whenever the heap
+                // queue isn't, so appending them to the head log keeps them first in line
+                final MappedSegmentLog targetLog = this.spillLog.isEmpty() ? this.spillLog : this.headLog;
+                T notification;
+
+                while ((notification = this.memoryQueue.pollFirst()) != null) {
+                    this.writeToLog(targetLog, notification);
+                }
+            } finally {
+                this.headLog.close();
+                this.spillLog.close();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SpillingNotificationQueue [memoryCapacity=" + memoryCapacity + ", size=" + this.size() + "]";
+    }
+}
@@ -0,0 +1,89 @@
+package com.fansz.apns.support;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 线程安全的令牌桶。{@link #tryAcquire()}只在有令牌时成功；{@link #acquire()}总是成功，令牌不足时记为欠账，之后补充的令牌先用于偿还欠账，
+ * 适合“先检查{@link #getNanosUntilAvailable()}，发送之后再扣除”的用法
+ * </p>
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final RateLimit rateLimit;
+
+    private final double permitsPerNano;
+
+    private double availablePermits;
+
+    private long lastRefillTime;
+
+    public TokenBucket(final RateLimit rateLimit) {
+        if (rateLimit == null) {
+            throw new NullPointerException("Rate limit must not be null.");
+        }
+
+        this.rateLimit = rateLimit;
+        this.permitsPerNano = (double)rateLimit.getPermitsPerSecond() / NANOS_PER_SECOND;
+        this.availablePermits = rateLimit.getBurstSize();
+        this.lastRefillTime = System.nanoTime();
+    }
+
+    public RateLimit getRateLimit() {
+        return this.rateLimit;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+
+        this.availablePermits = Math.min(this.rateLimit.getBurstSize(), this.availablePermits
+                + (now - this.lastRefillTime) * this.permitsPerNano);
+        this.lastRefillTime = now;
+    }
+
+    /**
+     * 有令牌时取走一个令牌
+     *
+     * @return 是否取到令牌
+     */
+    public synchronized boolean tryAcquire() {
+        this.refill();
+
+        if (this.availablePermits >= 1) {
+            this.availablePermits -= 1;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 无条件取走一个令牌，令牌不足时记为欠账
+     */
+    public synchronized void acquire() {
+        this.refill();
+        this.availablePermits -= 1;
+    }
+
+    /**
+     * 归还一个通过{@link #tryAcquire()}取得但最终没有使用的令牌
+     */
+    public synchronized void release() {
+        this.availablePermits = Math.min(this.rateLimit.getBurstSize(), this.availablePermits + 1);
+    }
+
+    /**
+     * 返回距离下一个令牌可用还需要等待的时间，当前有令牌时返回0
+     */
+    public synchronized long getNanosUntilAvailable() {
+        this.refill();
+
+        if (this.availablePermits >= 1) {
+            return 0;
+        }
+
+        return (long)Math.ceil((1 - this.availablePermits) / this.permitsPerNano);
+    }
+}
@@ -0,0 +1,62 @@
+package com.fansz.apns.support;
+
+/**
+ * <p>
+ * 流量类别，同一类别中的消息按照先进先出的顺序发送，不同类别之间按照{@link SchedulingPolicy}和权重调度
+ * </p>
+ *
+ * @see TrafficClassQueue
+ */
+public class TrafficClass {
+
+    /**
+     * 不限制队列长度
+     */
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private final String name;
+
+    private final int weight;
+
+    private final int capacity;
+
+    /**
+     * @param name 类别名称，由{@link TrafficClassifier}返回
+     * @param weight 权重，必须为正数
+     * @param capacity 该类别最多排队的消息数量，超过之后{@link TrafficClassQueue#offer(Object)}将返回{@code false}
+     */
+    public TrafficClass(final String name, final int weight, final int capacity) {
+        if (name == null) {
+            throw new NullPointerException("Traffic class name must not be null.");
+        }
+
+        if (weight < 1) {
+            throw new IllegalArgumentException("Traffic class weight must be positive.");
+        }
+
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Traffic class capacity must be positive.");
+        }
+
+        this.name = name;
+        this.weight = weight;
+        this.capacity = capacity;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getWeight() {
+        return this.weight;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficClass [name=" + name + ", weight=" + weight + ", capacity=" + capacity + "]";
+    }
+}
@@ -0,0 +1,474 @@
+package com.fansz.apns.support;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * 按流量类别调度的阻塞队列，可以作为{@link com.fansz.apns.PushManager}的发送队列使用。每条消息由{@link TrafficClassifier}划分到一个
+ * {@link TrafficClass}，每个类别有独立的先进先出队列和长度上限，出队时按照{@link SchedulingPolicy}在非空的类别之间选择，从而在群发大量消息时，
+ * 聊天、好友请求等对延迟敏感的消息不需要排在群发消息之后
+ * </p>
+ * <p>
+ * 某个类别已满时，{@link #offer(Object)}返回{@code false}，{@link #put(Object)}阻塞直到该类别有空位，其他类别不受影响
+ * </p>
+ *
+ * @see #byDeliveryPriority(SchedulingPolicy, int)
+ */
+public class TrafficClassQueue<T extends ApnsPushNotification> extends AbstractQueue<T> implements BlockingQueue<T> {
+
+    private static class ClassState<T> {
+
+        private final TrafficClass trafficClass;
+
+        private final ArrayDeque<T> notifications = new ArrayDeque<T>();
+
+        private int currentWeight = 0;
+
+        public ClassState(final TrafficClass trafficClass) {
+            this.trafficClass = trafficClass;
+        }
+
+        public boolean isFull() {
+            return this.notifications.size() >= this.trafficClass.getCapacity();
+        }
+    }
+
+    private final SchedulingPolicy schedulingPolicy;
+
+    private final TrafficClassifier<T> classifier;
+
+    private final ClassState<T>[] classes;
+
+    private final Map<String, ClassState<T>> classesByName;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = this.lock.newCondition();
+
+    private final Condition notFull = this.lock.newCondition();
+
+    private int count = 0;
+
+    /**
+     * @param schedulingPolicy 类别之间的调度策略
+     * @param classifier 决定消息所属类别
+     * @param trafficClasses 所有流量类别，名称不能重复
+     */
+    @SuppressWarnings("unchecked")
+    public TrafficClassQueue(final SchedulingPolicy schedulingPolicy, final TrafficClassifier<T> classifier,
+            final Collection<TrafficClass> trafficClasses) {
+        if (schedulingPolicy == null) {
+            throw new NullPointerException("Scheduling policy must not be null.");
+        }
+
+        if (classifier == null) {
+            throw new NullPointerException("Traffic classifier must not be null.");
+        }
+
+        if (trafficClasses == null || trafficClasses.isEmpty()) {
+            throw new IllegalArgumentException("At least one traffic class must be given.");
+        }
+
+        this.schedulingPolicy = schedulingPolicy;
+        this.classifier = classifier;
+
+        final List<TrafficClass> sortedClasses = new ArrayList<TrafficClass>(trafficClasses);
+
+        // Highest weight first, so strict priority is simply "first non-empty class"
+        Collections.sort(sortedClasses, new Comparator<TrafficClass>() {
+            @Override
+            public int compare(final TrafficClass a, final TrafficClass b) {
+                return b.getWeight() < a.getWeight() ? -1 : (b.getWeight() == a.getWeight() ? 0 : 1);
+            }
+        });
+
+        this.classes = (ClassState<T>[])new ClassState<?>[sortedClasses.size()];
+        this.classesByName = new HashMap<String, ClassState<T>>();
+
+        for (int i = 0; i < sortedClasses.size(); i++) {
+            this.classes[i] = new ClassState<T>(sortedClasses.get(i));
+
+            if (this.classesByName.put(sortedClasses.get(i).getName(), this.classes[i]) != null) {
+                throw new IllegalArgumentException(String.format("Duplicate traffic class name: %s",
+                        sortedClasses.get(i).getName()));
+            }
+        }
+    }
+
+    /**
+     * 按照{@link DeliveryPriority}划分类别的队列，类别名称为优先级的名称，权重为优先级的代码
+     *
+     * @param schedulingPolicy 类别之间的调度策略
+     * @param capacityPerClass 每个类别的长度上限
+     */
+    public static <T extends ApnsPushNotification> TrafficClassQueue<T> byDeliveryPriority(
+            final SchedulingPolicy schedulingPolicy, final int capacityPerClass) {
+        final List<TrafficClass> trafficClasses = new ArrayList<TrafficClass>();
+
+        for (final DeliveryPriority priority : DeliveryPriority.values()) {
+            trafficClasses.add(new TrafficClass(priority.name(), priority.getCode(), capacityPerClass));
+        }
+
+        return new TrafficClassQueue<T>(schedulingPolicy, new TrafficClassifier<T>() {
+
+            @Override
+            public String classify(final T notification) {
+                return notification.getPriority() != null ? notification.getPriority().name()
+                        : DeliveryPriority.IMMEDIATE.name();
+            }
+        }, trafficClasses);
+    }
+
+    /**
+     * 返回指定类别中排队的消息数量
+     */
+    public int getQueueDepth(final String trafficClassName) {
+        final ClassState<T> classState = this.getClassState(trafficClassName);
+
+        this.lock.lock();
+        try {
+            return classState.notifications.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private ClassState<T> getClassState(final String trafficClassName) {
+        final ClassState<T> classState = this.classesByName.get(trafficClassName);
+
+        if (classState == null) {
+            throw new IllegalArgumentException(String.format("Unknown traffic class: %s", trafficClassName));
+        }
+
+        return classState;
+    }
+
+    private ClassState<T> classify(final T notification) {
+        if (notification == null) {
+            throw new NullPointerException("Notification must not be null.");
+        }
+
+        return this.getClassState(this.classifier.classify(notification));
+    }
+
+    private void enqueue(final ClassState<T> classState, final T notification) {
+        classState.notifications.addLast(notification);
+        this.count += 1;
+        this.notEmpty.signal();
+    }
+
+    /**
+     * 选出下一个要出队的类别，调用时必须持有锁并且队列非空
+     */
+    private ClassState<T> selectClass(final boolean updateWeights) {
+        if (this.schedulingPolicy == SchedulingPolicy.STRICT_PRIORITY) {
+            for (final ClassState<T> classState : this.classes) {
+                if (!classState.notifications.isEmpty()) {
+                    return classState;
+                }
+            }
+
+            throw new NoSuchElementException();
+        }
+
+        // Smooth weighted round-robin: every non-empty class earns its weight, the richest class is served and pays
+        // back the total weight of all competing classes
+        ClassState<T> selected = null;
+        int selectedWeight = 0;
+        int totalWeight = 0;
+
+        for (final ClassState<T> classState : this.classes) {
+            if (!classState.notifications.isEmpty()) {
+                final int weight = classState.currentWeight + classState.trafficClass.getWeight();
+
+                if (updateWeights) {
+                    classState.currentWeight = weight;
+                }
+
+                totalWeight += classState.trafficClass.getWeight();
+
+                if (selected == null || weight > selectedWeight) {
+                    selected = classState;
+                    selectedWeight = weight;
+                }
+            }
+        }
+
+        if (selected == null) {
+            throw new NoSuchElementException();
+        }
+
+        if (updateWeights) {
+            selected.currentWeight -= totalWeight;
+        }
+
+        return selected;
+    }
+
+    private T dequeue() {
+        final ClassState<T> classState = this.selectClass(true);
+        final T notification = classState.notifications.pollFirst();
+
+        if (classState.notifications.isEmpty()) {
+            // Don't let an idle class bank credit (or debt) for later
+            classState.currentWeight = 0;
+        }
+
+        this.count -= 1;
+        this.notFull.signalAll();
+
+        return notification;
+    }
+
+    @Override
+    public boolean offer(final T notification) {
+        final ClassState<T> classState = this.classify(notification);
+
+        this.lock.lock();
+        try {
+            if (classState.isFull()) {
+                return false;
+            }
+
+            this.enqueue(classState, notification);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final T notification) throws InterruptedException {
+        final ClassState<T> classState = this.classify(notification);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (classState.isFull()) {
+                this.notFull.await();
+            }
+
+            this.enqueue(classState, notification);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(final T notification, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final ClassState<T> classState = this.classify(notification);
+        long nanos = unit.toNanos(timeout);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (classState.isFull()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+
+                nanos = this.notFull.awaitNanos(nanos);
+            }
+
+            this.enqueue(classState, notification);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll() {
+        this.lock.lock();
+        try {
+            return this.count == 0 ? null : this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                this.notEmpty.await();
+            }
+
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+
+        this.lock.lockInterruptibly();
+        try {
+            while (this.count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+
+            return this.dequeue();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public T peek() {
+        this.lock.lock();
+        try {
+            return this.count == 0 ? null : this.selectClass(false).notifications.peekFirst();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.count;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        this.lock.lock();
+        try {
+            long remainingCapacity = 0;
+
+            for (final ClassState<T> classState : this.classes) {
+                remainingCapacity += classState.trafficClass.getCapacity() - classState.notifications.size();
+            }
+
+            return (int)Math.min(remainingCapacity, Integer.MAX_VALUE);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object o) {
+        if (o == null) {
+            return false;
+        }
+
+        this.lock.lock();
+        try {
+            for (final ClassState<T> classState : this.classes) {
+                if (classState.notifications.remove(o)) {
+                    this.count -= 1;
+                    this.notFull.signalAll();
+
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> c, final int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException("Cannot drain a queue into itself.");
+        }
+
+        this.lock.lock();
+        try {
+            int drained = 0;
+
+            while (drained < maxElements && this.count > 0) {
+                c.add(this.dequeue());
+                drained += 1;
+            }
+
+            return drained;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * 返回队列内容快照的迭代器，按类别依次遍历，顺序与出队顺序无关
+     */
+    @Override
+    public Iterator<T> iterator() {
+        final List<T> snapshot;
+
+        this.lock.lock();
+        try {
+            snapshot = new ArrayList<T>(this.count);
+
+            for (final ClassState<T> classState : this.classes) {
+                snapshot.addAll(classState.notifications);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        final Iterator<T> snapshotIterator = snapshot.iterator();
+
+        return new Iterator<T>() {
+
+            private T lastReturned;
+
+            @Override
+            public boolean hasNext() {
+                return snapshotIterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                this.lastReturned = snapshotIterator.next();
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() {
+                if (this.lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+
+                TrafficClassQueue.this.remove(this.lastReturned);
+                this.lastReturned = null;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "TrafficClassQueue [schedulingPolicy=" + schedulingPolicy + ", classes="
+                + Arrays.toString(this.classesByName.keySet().toArray()) + ", size=" + this.size() + "]";
+    }
+}
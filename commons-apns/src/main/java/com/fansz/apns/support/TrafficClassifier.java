@@ -0,0 +1,14 @@
+package com.fansz.apns.support;
+
+/**
+ * 决定推送消息所属的流量类别
+ *
+ * @see TrafficClassQueue
+ */
+public interface TrafficClassifier<T extends ApnsPushNotification> {
+
+    /**
+     * 返回消息所属流量类别的名称，返回的类别必须已经在队列中注册
+     */
+    String classify(T notification);
+}
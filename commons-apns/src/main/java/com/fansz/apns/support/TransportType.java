@@ -0,0 +1,25 @@
+package com.fansz.apns.support;
+
+/**
+ * 连接使用的Netty传输实现
+ *
+ * @see com.fansz.apns.config.PushManagerConfiguration#setTransportType(TransportType)
+ * @see com.fansz.apns.util.TransportUtil
+ */
+public enum TransportType {
+
+    /**
+     * 在可用时使用epoll，否则使用NIO
+     */
+    AUTO,
+
+    /**
+     * 使用Linux原生的epoll传输（需要netty-transport-native-epoll的原生库），不可用时回退到NIO并记录警告
+     */
+    EPOLL,
+
+    /**
+     * 使用JDK的NIO传输，在所有平台上可用
+     */
+    NIO
+}
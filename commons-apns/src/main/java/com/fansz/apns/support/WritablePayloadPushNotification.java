@@ -0,0 +1,24 @@
+package com.fansz.apns.support;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * <p>
+ * 能够把Payload直接写入帧缓冲区的推送消息，编码器不会调用{@link #getPayload()}再重新编码，而是预留{@link #getPayloadLength()}个字节，
+ * 然后由{@link #writePayload(ByteBuf)}写入
+ * </p>
+ *
+ * @see com.fansz.apns.model.TemplatedPushNotification
+ */
+public interface WritablePayloadPushNotification extends ApnsPushNotification {
+
+    /**
+     * Payload编码后的字节数
+     */
+    int getPayloadLength();
+
+    /**
+     * 把编码后的Payload写入{@code out}，写入的字节数必须等于{@link #getPayloadLength()}
+     */
+    void writePayload(ByteBuf out);
+}
@@ -1,12 +1,13 @@
 package com.fansz.apns.util;
 
-import java.nio.charset.Charset;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.alibaba.fastjson.JSON;
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.parser.Feature;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.fansz.apns.model.ApnsPayload;
 
 /**
  * <p>
@@ -73,11 +74,17 @@ public class ApnsPayloadBuilder {
 
     private static final String LAUNCH_IMAGE_KEY = "launch-image";
 
-    private final HashMap<String, Object> customProperties = new HashMap<String, Object>();
+    private final LinkedHashMap<String, Object> customProperties = new LinkedHashMap<String, Object>();
 
-    private static final int DEFAULT_PAYLOAD_SIZE = 2048;
+    /** 在多次构建之间重用的输出缓冲区 */
+    private final PayloadWriter writer = new PayloadWriter(DEFAULT_PAYLOAD_SIZE);
+
+    /** 最近一次构建时alert body内容在{@link #writer}中的位置，没有alert body时为-1 */
+    private int alertBodyStart = -1;
 
-    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private int alertBodyEnd = -1;
+
+    private static final int DEFAULT_PAYLOAD_SIZE = 2048;
 
     /**
      * 推送通知默认的声音 ({@value DEFAULT_SOUND_FILENAME}).
@@ -264,175 +271,223 @@ public class ApnsPayloadBuilder {
      * @return a JSON representation of the payload under construction (possibly with an abbreviated alert body)
      */
     public String buildWithMaximumLength(final int maximumPayloadLength) {
-        final Map<String, Object> payload = new HashMap<String, Object>();
+        this.writePayloadWithMaximumLength(maximumPayloadLength);
+        return this.writer.toUtf8String();
+    }
 
-        final Map<String, Object> aps = new HashMap<String, Object>();
+    /**
+     * 与{@link #buildWithDefaultMaximumLength()}相同，但返回已经编码好的{@link ApnsPayload}，发送时不需要再次编码
+     */
+    public ApnsPayload buildPayloadWithDefaultMaximumLength() {
+        return this.buildPayloadWithMaximumLength(DEFAULT_PAYLOAD_SIZE);
+    }
 
-        if (this.badgeNumber != null) {
-            aps.put(BADGE_KEY, this.badgeNumber);
-        }
+    /**
+     * 与{@link #buildWithMaximumLength(int)}相同，但返回已经编码好的{@link ApnsPayload}，发送时不需要再次编码
+     */
+    public ApnsPayload buildPayloadWithMaximumLength(final int maximumPayloadLength) {
+        this.writePayloadWithMaximumLength(maximumPayloadLength);
+        return new ApnsPayload(this.writer.toByteArray());
+    }
 
-        if (this.soundFileName != null) {
-            aps.put(SOUND_KEY, this.soundFileName);
-        }
+    /**
+     * 把payload以UTF-8编码写入{@link #writer}，只写一遍；超出长度时根据写入时记录的alert body位置一次算出body可用的字节数，在码点边界上截断
+     */
+    private void writePayloadWithMaximumLength(final int maximumPayloadLength) {
+        this.writePayload();
 
-        if (this.categoryName != null) {
-            aps.put(CATEGORY_KEY, this.categoryName);
+        final int initialPayloadLength = this.writer.length();
+
+        if (initialPayloadLength <= maximumPayloadLength) {
+            return;
         }
 
-        if (this.contentAvailable) {
-            aps.put(CONTENT_AVAILABLE_KEY, 1);
+        if (this.alertBodyStart < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Payload length is %d bytes (with a maximum of %d bytes) and cannot be shortened.",
+                    initialPayloadLength, maximumPayloadLength));
         }
 
-        final Object alertObject = this.createAlertObject();
+        final int payloadLengthWithEmptyMessage = initialPayloadLength - (this.alertBodyEnd - this.alertBodyStart);
 
-        if (alertObject != null) {
-            aps.put(ALERT_KEY, alertObject);
+        if (payloadLengthWithEmptyMessage > maximumPayloadLength) {
+            throw new IllegalArgumentException("Payload exceeds maximum length even with an empty message body.");
         }
 
-        payload.put(APS_KEY, aps);
+        final int maximumMessageBodyLength = maximumPayloadLength - payloadLengthWithEmptyMessage;
 
-        for (final Map.Entry<String, Object> entry : this.customProperties.entrySet()) {
-            payload.put(entry.getKey(), entry.getValue());
+        if (maximumMessageBodyLength <= PayloadWriter.ELLIPSIS.length()) {
+            throw new IllegalArgumentException("Cannot abbreviate string to fewer than three characters.");
         }
 
-        final String payloadString = JSON.toJSONString(payload);
-        final int initialPayloadLength = payloadString.getBytes(UTF8).length;
+        final int abbreviatedLength = PayloadWriter.abbreviationEnd(this.alertBody, maximumMessageBodyLength
+                - PayloadWriter.ELLIPSIS.length());
 
-        if (initialPayloadLength <= maximumPayloadLength) {
-            return payloadString;
-        }
-        else {
-            if (this.alertBody != null) {
-                this.replaceMessageBody(payload, "");
-                final int payloadLengthWithEmptyMessage = JSON.toJSONString(payload).getBytes(UTF8).length;
+        this.writer.abbreviateRange(this.alertBodyStart, this.alertBodyEnd, this.alertBody, abbreviatedLength);
+    }
 
-                if (payloadLengthWithEmptyMessage > maximumPayloadLength) {
-                    throw new IllegalArgumentException(
-                            "Payload exceeds maximum length even with an empty message body.");
-                }
+    private void writePayload() {
+        this.writer.reset();
+        this.alertBodyStart = -1;
+        this.alertBodyEnd = -1;
 
-                int maximumMessageBodyLength = maximumPayloadLength - payloadLengthWithEmptyMessage;
+        this.writer.writeByte('{');
+        this.writer.writeKey(APS_KEY);
+        this.writer.writeByte('{');
 
-                this.replaceMessageBody(payload, this.abbreviateString(this.alertBody, maximumMessageBodyLength--));
+        if (this.badgeNumber != null) {
+            this.writer.writeKey(BADGE_KEY);
+            this.writer.writeAscii(this.badgeNumber.toString());
+        }
 
-                while (JSON.toJSONString(payload).getBytes(UTF8).length > maximumPayloadLength) {
-                    this.replaceMessageBody(payload, this.abbreviateString(this.alertBody, maximumMessageBodyLength--));
-                }
+        if (this.soundFileName != null) {
+            this.writer.writeKey(SOUND_KEY);
+            this.writer.writeString(this.soundFileName);
+        }
 
-                return JSON.toJSONString(payload);
+        if (this.categoryName != null) {
+            this.writer.writeKey(CATEGORY_KEY);
+            this.writer.writeString(this.categoryName);
+        }
 
-            }
-            else {
-                throw new IllegalArgumentException(String.format(
-                        "Payload length is %d bytes (with a maximum of %d bytes) and cannot be shortened.",
-                        initialPayloadLength, maximumPayloadLength));
-            }
+        if (this.contentAvailable) {
+            this.writer.writeKey(CONTENT_AVAILABLE_KEY);
+            this.writer.writeByte('1');
         }
-    }
 
-    @SuppressWarnings("unchecked")
-    private void replaceMessageBody(final Map<String, Object> payload, final String messageBody) {
-        final Map<String, Object> aps = (Map<String, Object>)payload.get(APS_KEY);
-        final Object alert = aps.get(ALERT_KEY);
+        if (this.hasAlertContent()) {
+            this.writer.writeKey(ALERT_KEY);
 
-        if (alert != null) {
-            if (alert instanceof String) {
-                aps.put(ALERT_KEY, messageBody);
+            if (this.shouldRepresentAlertAsString()) {
+                this.writeAlertBody();
             }
             else {
-                final Map<String, Object> alertObject = (Map<String, Object>)alert;
-
-                if (alertObject.get(ALERT_BODY_KEY) != null) {
-                    alertObject.put(ALERT_BODY_KEY, messageBody);
-                }
-                else {
-                    throw new IllegalArgumentException("Payload has no message body.");
-                }
+                this.writeAlertObject();
             }
         }
-        else {
-            throw new IllegalArgumentException("Payload has no message body.");
+
+        this.writer.writeByte('}');
+
+        for (final Map.Entry<String, Object> entry : this.customProperties.entrySet()) {
+            this.writer.writeKey(entry.getKey());
+            this.writer.writeValue(entry.getValue());
         }
+
+        this.writer.writeByte('}');
+    }
+
+    /**
+     * 写入alert body并记录其内容（不含引号）所在的位置，以便需要时截断
+     */
+    private void writeAlertBody() {
+        this.writer.writeByte('"');
+        this.alertBodyStart = this.writer.length();
+        this.writer.writeEscaped(this.alertBody, 0, this.alertBody.length());
+        this.alertBodyEnd = this.writer.length();
+        this.writer.writeByte('"');
     }
 
-    private final String abbreviateString(final String string, final int maximumLength) {
-        if (string.length() <= maximumLength) {
-            return string;
+    private void writeAlertObject() {
+        this.writer.writeByte('{');
+
+        if (this.alertBody != null) {
+            this.writer.writeKey(ALERT_BODY_KEY);
+            this.writeAlertBody();
         }
-        else {
-            if (maximumLength <= 3) {
-                throw new IllegalArgumentException("Cannot abbreviate string to fewer than three characters.");
-            }
-            return string.substring(0, maximumLength - 3) + "...";
+
+        if (this.alertTitle != null) {
+            this.writer.writeKey(ALERT_TITLE_KEY);
+            this.writer.writeString(this.alertTitle);
         }
-    }
 
-    private Object createAlertObject() {
-        if (this.hasAlertContent()) {
-            if (this.shouldRepresentAlertAsString()) {
-                return this.alertBody;
+        if (this.showActionButton) {
+            if (this.localizedActionButtonKey != null) {
+                this.writer.writeKey(ACTION_LOC_KEY);
+                this.writer.writeString(this.localizedActionButtonKey);
             }
-            else {
-                final JSONObject alert = new JSONObject();
+        }
+        else {
+            // To hide the action button, the key needs to be present, but the value needs to be null
+            this.writer.writeKey(ACTION_LOC_KEY);
+            this.writer.writeAscii("null");
+        }
 
-                if (this.alertBody != null) {
-                    alert.put(ALERT_BODY_KEY, this.alertBody);
-                }
+        if (this.localizedAlertKey != null) {
+            this.writer.writeKey(ALERT_LOC_KEY);
+            this.writer.writeString(this.localizedAlertKey);
 
-                if (this.alertTitle != null) {
-                    alert.put(ALERT_TITLE_KEY, this.alertTitle);
-                }
+            if (this.localizedAlertArguments != null) {
+                this.writer.writeKey(ALERT_ARGS_KEY);
+                this.writeStringArray(this.localizedAlertArguments);
+            }
+        }
 
-                if (this.showActionButton) {
-                    if (this.localizedActionButtonKey != null) {
-                        alert.put(ACTION_LOC_KEY, this.localizedActionButtonKey);
-                    }
-                }
-                else {
-                    // To hide the action button, the key needs to be present,
-                    // but the value needs to be null
-                    alert.put(ACTION_LOC_KEY, null);
-                }
+        if (this.localizedAlertTitleKey != null) {
+            this.writer.writeKey(ALERT_TITLE_LOC_KEY);
+            this.writer.writeString(this.localizedAlertTitleKey);
 
-                if (this.localizedAlertKey != null) {
-                    alert.put(ALERT_LOC_KEY, this.localizedAlertKey);
+            if (this.localizedAlertTitleArguments != null) {
+                this.writer.writeKey(ALERT_TITLE_ARGS_KEY);
+                this.writeStringArray(this.localizedAlertTitleArguments);
+            }
+        }
 
-                    if (this.localizedAlertArguments != null) {
-                        final JSONArray alertArgs = new JSONArray();
+        if (this.launchImageFileName != null) {
+            this.writer.writeKey(LAUNCH_IMAGE_KEY);
+            this.writer.writeString(this.launchImageFileName);
+        }
 
-                        for (final String arg : this.localizedAlertArguments) {
-                            alertArgs.add(arg);
-                        }
+        this.writer.writeByte('}');
+    }
 
-                        alert.put(ALERT_ARGS_KEY, alertArgs);
-                    }
-                }
+    private void writeStringArray(final String[] strings) {
+        this.writer.writeByte('[');
 
-                if (this.localizedAlertTitleKey != null) {
-                    alert.put(ALERT_TITLE_LOC_KEY, this.localizedAlertTitleKey);
+        for (int i = 0; i < strings.length; i++) {
+            if (i > 0) {
+                this.writer.writeByte(',');
+            }
 
-                    if (this.localizedAlertTitleArguments != null) {
-                        final JSONArray alertTitleArgs = new JSONArray();
+            this.writer.writeValue(strings[i]);
+        }
 
-                        for (final String arg : this.localizedAlertTitleArguments) {
-                            alertTitleArgs.add(arg);
-                        }
+        this.writer.writeByte(']');
+    }
 
-                        alert.put(ALERT_TITLE_ARGS_KEY, alertTitleArgs);
-                    }
-                }
+    /**
+     * 读取已生成的payload中的badge数字，payload中没有badge时返回null
+     *
+     * @param payload JSON格式的payload
+     */
+    public static Integer getBadgeNumber(final String payload) {
+        final JSONObject aps = JSON.parseObject(payload).getJSONObject(APS_KEY);
+        return aps != null ? aps.getInteger(BADGE_KEY) : null;
+    }
 
-                if (this.launchImageFileName != null) {
-                    alert.put(LAUNCH_IMAGE_KEY, this.launchImageFileName);
-                }
+    /**
+     * 替换已生成的payload中的badge数字，其他内容保持不变；值为null的字段（例如隐藏按钮的{@code "action-loc-key":null}）和字段顺序都会保留
+     *
+     * @param payload JSON格式的payload
+     * @param badgeNumber 新的badge数字，为null时移除badge
+     * @return 替换后的payload
+     */
+    public static String replaceBadgeNumber(final String payload, final Integer badgeNumber) {
+        final JSONObject payloadObject = JSON.parseObject(payload, Feature.OrderedField);
+        JSONObject aps = payloadObject.getJSONObject(APS_KEY);
 
-                return alert;
-            }
+        if (aps == null) {
+            aps = new JSONObject();
+            payloadObject.put(APS_KEY, aps);
+        }
+
+        if (badgeNumber != null) {
+            aps.put(BADGE_KEY, badgeNumber);
         }
         else {
-            return null;
+            aps.remove(BADGE_KEY);
         }
+
+        return JSON.toJSONString(payloadObject, SerializerFeature.WriteMapNullValue);
     }
 
     private boolean hasAlertContent() {
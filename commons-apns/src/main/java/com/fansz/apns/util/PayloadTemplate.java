@@ -0,0 +1,364 @@
+package com.fansz.apns.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.fansz.apns.model.ApnsPayload;
+
+/**
+ * <p>
+ * 预编译的Payload模板。模板是包含占位符的JSON文本，编译时被拆分为已编码成UTF-8的固定片段和带类型的参数槽位，渲染时只需要复制片段、
+ * 转义并编码参数，不需要重新构造和序列化整个JSON。占位符的格式为{@code ${name}}或{@code ${name:type}}，类型包括：
+ * </p>
+ * <ul>
+ * <li>{@code string}（默认）：字符串，占位符必须位于模板的JSON字符串内部，参数会被转义</li>
+ * <li>{@code int}：整数，占位符必须位于JSON字符串之外</li>
+ * <li>{@code body}：与{@code string}相同，但Payload超出最大长度时截断该参数并加上省略号；每个模板最多只能有一个{@code body}占位符</li>
+ * </ul>
+ * <p>
+ * 例如：{@code {"aps":{"alert":"${nickname}评论了你的帖子：${comment:body}","badge":${badge:int}}}}。渲染时参数按
+ * {@link #getArgumentNames()}的顺序传入，即各参数名在模板中第一次出现的顺序；同一个参数可以在模板中出现多次。模板是不可变的，可以被多个线程共享
+ * </p>
+ *
+ * @see PayloadTemplateCache
+ * @see com.fansz.apns.model.TemplatedPushNotification
+ */
+public final class PayloadTemplate {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String PLACEHOLDER_START = "${";
+
+    private static final String PLACEHOLDER_END = "}";
+
+    private enum SlotType {
+        STRING, INTEGER, BODY
+    }
+
+    /** 固定片段，比槽位多一个，第i个槽位位于第i和i+1个片段之间 */
+    private final byte[][] fragments;
+
+    private final SlotType[] slotTypes;
+
+    /** 每个槽位对应的参数序号 */
+    private final int[] slotArguments;
+
+    private final List<String> argumentNames;
+
+    private final int bodySlot;
+
+    private final int fragmentLength;
+
+    private final int maximumPayloadLength;
+
+    /**
+     * @param template 包含占位符的JSON模板
+     * @param maximumPayloadLength 渲染结果的最大字节数
+     *
+     * @throws IllegalArgumentException 占位符格式错误，或者模板在代入参数之后不是合法的JSON
+     */
+    public PayloadTemplate(final String template, final int maximumPayloadLength) {
+        if (template == null) {
+            throw new NullPointerException("Template must not be null.");
+        }
+
+        if (maximumPayloadLength < 1) {
+            throw new IllegalArgumentException("Maximum payload length must be positive.");
+        }
+
+        final List<byte[]> fragments = new ArrayList<byte[]>();
+        final List<SlotType> slotTypes = new ArrayList<SlotType>();
+        final List<Integer> slotArguments = new ArrayList<Integer>();
+        final List<SlotType> argumentTypes = new ArrayList<SlotType>();
+        final List<String> argumentNames = new ArrayList<String>();
+
+        int bodySlot = -1;
+        int fragmentLength = 0;
+        int fragmentStart = 0;
+
+        while (true) {
+            final int placeholderStart = template.indexOf(PLACEHOLDER_START, fragmentStart);
+            final int fragmentEnd = placeholderStart >= 0 ? placeholderStart : template.length();
+
+            final byte[] fragment = template.substring(fragmentStart, fragmentEnd).getBytes(UTF8);
+            fragments.add(fragment);
+            fragmentLength += fragment.length;
+
+            if (placeholderStart < 0) {
+                break;
+            }
+
+            final int placeholderEnd = template.indexOf(PLACEHOLDER_END, placeholderStart);
+
+            if (placeholderEnd < 0) {
+                throw new IllegalArgumentException(String.format("Unterminated placeholder at index %d.",
+                        placeholderStart));
+            }
+
+            final String placeholder = template.substring(placeholderStart + PLACEHOLDER_START.length(),
+                    placeholderEnd);
+            final int separator = placeholder.indexOf(':');
+
+            final String name = (separator >= 0 ? placeholder.substring(0, separator) : placeholder).trim();
+            final SlotType slotType = getSlotType(separator >= 0 ? placeholder.substring(separator + 1).trim() : null);
+
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException(String.format("Placeholder at index %d has no name.",
+                        placeholderStart));
+            }
+
+            if (slotType == SlotType.BODY) {
+                if (bodySlot >= 0) {
+                    throw new IllegalArgumentException("Templates may have at most one body placeholder.");
+                }
+
+                bodySlot = slotTypes.size();
+            }
+
+            int argument = argumentNames.indexOf(name);
+
+            if (argument < 0) {
+                argument = argumentNames.size();
+                argumentNames.add(name);
+                argumentTypes.add(slotType);
+            } else if ((argumentTypes.get(argument) == SlotType.INTEGER) != (slotType == SlotType.INTEGER)) {
+                throw new IllegalArgumentException(String.format(
+                        "Placeholder \"%s\" is used as both a string and an integer.", name));
+            }
+
+            slotTypes.add(slotType);
+            slotArguments.add(argument);
+
+            fragmentStart = placeholderEnd + PLACEHOLDER_END.length();
+        }
+
+        this.fragments = fragments.toArray(new byte[fragments.size()][]);
+        this.slotTypes = slotTypes.toArray(new SlotType[slotTypes.size()]);
+        this.slotArguments = new int[slotArguments.size()];
+
+        for (int i = 0; i < this.slotArguments.length; i++) {
+            this.slotArguments[i] = slotArguments.get(i);
+        }
+
+        this.argumentNames = Collections.unmodifiableList(argumentNames);
+        this.bodySlot = bodySlot;
+        this.fragmentLength = fragmentLength;
+        this.maximumPayloadLength = maximumPayloadLength;
+
+        this.checkTemplateSyntax(argumentTypes);
+    }
+
+    private static SlotType getSlotType(final String type) {
+        if (type == null || "string".equals(type)) {
+            return SlotType.STRING;
+        } else if ("int".equals(type)) {
+            return SlotType.INTEGER;
+        } else if ("body".equals(type)) {
+            return SlotType.BODY;
+        }
+
+        throw new IllegalArgumentException(String.format("Unknown placeholder type \"%s\".", type));
+    }
+
+    /**
+     * 用占位参数渲染一次模板，确认结果是合法的JSON，从而尽早发现位于字符串外部的字符串占位符等错误
+     */
+    private void checkTemplateSyntax(final List<SlotType> argumentTypes) {
+        final Object[] arguments = new Object[argumentTypes.size()];
+
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = argumentTypes.get(i) == SlotType.INTEGER ? 0 : "";
+        }
+
+        final ByteBuf buffer = Unpooled.buffer(this.fragmentLength);
+        this.write(buffer, this.toStrings(arguments), Integer.MAX_VALUE);
+
+        try {
+            JSON.parse(buffer.toString(UTF8));
+        } catch (final JSONException e) {
+            throw new IllegalArgumentException("Template is not valid JSON once placeholders are filled in.", e);
+        }
+    }
+
+    /**
+     * 返回参数名，顺序即渲染时传入参数的顺序
+     */
+    public List<String> getArgumentNames() {
+        return this.argumentNames;
+    }
+
+    public int getMaximumPayloadLength() {
+        return this.maximumPayloadLength;
+    }
+
+    /**
+     * 返回使用给定参数渲染之后的字节数（截断之后）
+     *
+     * @throws IllegalArgumentException 参数数量或类型不符，或者渲染结果超出最大长度并且不能截断
+     */
+    public int getEncodedLength(final Object... arguments) {
+        final String[] values = this.toStrings(arguments);
+        return this.getEncodedLength(values, this.getBodyEnd(values));
+    }
+
+    /**
+     * 把渲染结果直接写入{@code out}，写入的字节数与{@link #getEncodedLength(Object...)}相同
+     *
+     * @throws IllegalArgumentException 参数数量或类型不符，或者渲染结果超出最大长度并且不能截断
+     */
+    public void writeTo(final ByteBuf out, final Object... arguments) {
+        final String[] values = this.toStrings(arguments);
+        final int bodyEnd = this.getBodyEnd(values);
+
+        out.ensureWritable(this.getEncodedLength(values, bodyEnd));
+        this.write(out, values, bodyEnd);
+    }
+
+    /**
+     * 渲染为{@link ApnsPayload}，其编码结果可以被多条消息共享
+     *
+     * @throws IllegalArgumentException 参数数量或类型不符，或者渲染结果超出最大长度并且不能截断
+     */
+    public ApnsPayload render(final Object... arguments) {
+        final byte[] encodedPayload = new byte[this.getEncodedLength(arguments)];
+        final ByteBuf buffer = Unpooled.wrappedBuffer(encodedPayload);
+
+        buffer.writerIndex(0);
+        this.writeTo(buffer, arguments);
+
+        return new ApnsPayload(encodedPayload);
+    }
+
+    private String[] toStrings(final Object[] arguments) {
+        if (arguments == null) {
+            throw new NullPointerException("Arguments must not be null.");
+        }
+
+        if (arguments.length != this.argumentNames.size()) {
+            throw new IllegalArgumentException(String.format("Template takes %d arguments, but %d were given.",
+                    this.argumentNames.size(), arguments.length));
+        }
+
+        final String[] values = new String[arguments.length];
+
+        for (int slot = 0; slot < this.slotTypes.length; slot++) {
+            final int argument = this.slotArguments[slot];
+
+            if (values[argument] != null) {
+                continue;
+            }
+
+            if (arguments[argument] == null) {
+                throw new NullPointerException(String.format("Argument \"%s\" must not be null.",
+                        this.argumentNames.get(argument)));
+            }
+
+            if (this.slotTypes[slot] == SlotType.INTEGER) {
+                if (!(arguments[argument] instanceof Number)) {
+                    throw new IllegalArgumentException(String.format("Argument \"%s\" must be a number.",
+                            this.argumentNames.get(argument)));
+                }
+
+                values[argument] = Long.toString(((Number)arguments[argument]).longValue());
+            } else {
+                values[argument] = arguments[argument].toString();
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * 返回渲染时保留的body字符数，不需要截断时返回{@link Integer#MAX_VALUE}
+     */
+    private int getBodyEnd(final String[] values) {
+        int untruncatedLength = this.fragmentLength;
+
+        for (int slot = 0; slot < this.slotTypes.length; slot++) {
+            final String value = values[this.slotArguments[slot]];
+
+            untruncatedLength += this.slotTypes[slot] == SlotType.INTEGER ? value.length() : PayloadWriter
+                    .escapedLength(value, 0, value.length());
+        }
+
+        if (untruncatedLength <= this.maximumPayloadLength) {
+            return Integer.MAX_VALUE;
+        }
+
+        if (this.bodySlot < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Payload length is %d bytes (with a maximum of %d bytes) and cannot be shortened.",
+                    untruncatedLength, this.maximumPayloadLength));
+        }
+
+        final String body = values[this.slotArguments[this.bodySlot]];
+        final int lengthWithEmptyBody = untruncatedLength - PayloadWriter.escapedLength(body, 0, body.length());
+
+        if (lengthWithEmptyBody > this.maximumPayloadLength) {
+            throw new IllegalArgumentException("Payload exceeds maximum length even with an empty message body.");
+        }
+
+        final int maximumBodyLength = this.maximumPayloadLength - lengthWithEmptyBody;
+
+        if (maximumBodyLength <= PayloadWriter.ELLIPSIS.length()) {
+            throw new IllegalArgumentException("Cannot abbreviate string to fewer than three characters.");
+        }
+
+        return PayloadWriter.abbreviationEnd(body, maximumBodyLength - PayloadWriter.ELLIPSIS.length());
+    }
+
+    private int getEncodedLength(final String[] values, final int bodyEnd) {
+        int length = this.fragmentLength;
+
+        for (int slot = 0; slot < this.slotTypes.length; slot++) {
+            final String value = values[this.slotArguments[slot]];
+
+            if (this.slotTypes[slot] == SlotType.INTEGER) {
+                length += value.length();
+            } else if (slot == this.bodySlot && bodyEnd < value.length()) {
+                length += PayloadWriter.escapedLength(value, 0, bodyEnd) + PayloadWriter.ELLIPSIS.length();
+            } else {
+                length += PayloadWriter.escapedLength(value, 0, value.length());
+            }
+        }
+
+        return length;
+    }
+
+    private void write(final ByteBuf out, final String[] values, final int bodyEnd) {
+        out.writeBytes(this.fragments[0]);
+
+        for (int slot = 0; slot < this.slotTypes.length; slot++) {
+            final String value = values[this.slotArguments[slot]];
+
+            if (this.slotTypes[slot] == SlotType.INTEGER) {
+                for (int i = 0; i < value.length(); i++) {
+                    out.writeByte(value.charAt(i));
+                }
+            } else if (slot == this.bodySlot && bodyEnd < value.length()) {
+                PayloadWriter.writeEscaped(out, value, 0, bodyEnd);
+
+                for (int i = 0; i < PayloadWriter.ELLIPSIS.length(); i++) {
+                    out.writeByte(PayloadWriter.ELLIPSIS.charAt(i));
+                }
+            } else {
+                PayloadWriter.writeEscaped(out, value, 0, value.length());
+            }
+
+            out.writeBytes(this.fragments[slot + 1]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadTemplate [argumentNames=" + argumentNames + ", maximumPayloadLength=" + maximumPayloadLength
+                + "]";
+    }
+}
@@ -0,0 +1,165 @@
+package com.fansz.apns.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * 按模板ID和语言环境缓存已编译的{@link PayloadTemplate}，模板文本从{@link PayloadTemplateSource}加载，每个模板只编译一次。
+ * 找不到指定语言环境的模板时，依次尝试去掉variant、country之后的语言环境，最后是{@link Locale#ROOT}
+ * </p>
+ * <p>
+ * 该类是线程安全的；并发加载同一个模板时可能会重复编译，但结果相同，只有一个会被保留
+ * </p>
+ */
+public class PayloadTemplateCache {
+
+    private static final int DEFAULT_PAYLOAD_SIZE = 2048;
+
+    private static final class TemplateKey {
+
+        private final String templateId;
+
+        private final Locale locale;
+
+        public TemplateKey(final String templateId, final Locale locale) {
+            this.templateId = templateId;
+            this.locale = locale;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + locale.hashCode();
+            result = prime * result + templateId.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TemplateKey))
+                return false;
+            final TemplateKey other = (TemplateKey)obj;
+            return this.templateId.equals(other.templateId) && this.locale.equals(other.locale);
+        }
+    }
+
+    private final PayloadTemplateSource templateSource;
+
+    private final int maximumPayloadLength;
+
+    private final ConcurrentMap<TemplateKey, PayloadTemplate> templates = new ConcurrentHashMap<TemplateKey, PayloadTemplate>();
+
+    /**
+     * 创建渲染结果最大长度为2048字节的缓存
+     */
+    public PayloadTemplateCache(final PayloadTemplateSource templateSource) {
+        this(templateSource, DEFAULT_PAYLOAD_SIZE);
+    }
+
+    /**
+     * @param templateSource 模板文本的来源
+     * @param maximumPayloadLength 渲染结果的最大字节数
+     */
+    public PayloadTemplateCache(final PayloadTemplateSource templateSource, final int maximumPayloadLength) {
+        if (templateSource == null) {
+            throw new NullPointerException("Template source must not be null.");
+        }
+
+        if (maximumPayloadLength < 1) {
+            throw new IllegalArgumentException("Maximum payload length must be positive.");
+        }
+
+        this.templateSource = templateSource;
+        this.maximumPayloadLength = maximumPayloadLength;
+    }
+
+    /**
+     * 返回已编译的模板，第一次使用时从{@link PayloadTemplateSource}加载并编译
+     *
+     * @param locale 语言环境，为{@code null}时使用{@link Locale#ROOT}
+     *
+     * @throws IllegalArgumentException 找不到模板，或者模板格式错误
+     */
+    public PayloadTemplate getTemplate(final String templateId, final Locale locale) {
+        if (templateId == null) {
+            throw new NullPointerException("Template ID must not be null.");
+        }
+
+        final TemplateKey key = new TemplateKey(templateId, locale != null ? locale : Locale.ROOT);
+        final PayloadTemplate cachedTemplate = this.templates.get(key);
+
+        if (cachedTemplate != null) {
+            return cachedTemplate;
+        }
+
+        for (final Locale candidateLocale : getCandidateLocales(key.locale)) {
+            final String template = this.templateSource.getTemplate(templateId, candidateLocale);
+
+            if (template != null) {
+                final PayloadTemplate compiledTemplate = new PayloadTemplate(template, this.maximumPayloadLength);
+                final PayloadTemplate previousTemplate = this.templates.putIfAbsent(key, compiledTemplate);
+
+                return previousTemplate != null ? previousTemplate : compiledTemplate;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("No template \"%s\" found for locale %s.", templateId,
+                key.locale));
+    }
+
+    private static List<Locale> getCandidateLocales(final Locale locale) {
+        final List<Locale> candidateLocales = new ArrayList<Locale>(4);
+        candidateLocales.add(locale);
+
+        if (!locale.getVariant().isEmpty()) {
+            candidateLocales.add(new Locale(locale.getLanguage(), locale.getCountry()));
+        }
+
+        if (!locale.getCountry().isEmpty()) {
+            candidateLocales.add(new Locale(locale.getLanguage()));
+        }
+
+        if (!Locale.ROOT.equals(locale)) {
+            candidateLocales.add(Locale.ROOT);
+        }
+
+        return candidateLocales;
+    }
+
+    /**
+     * 移除指定模板在所有语言环境下的缓存，之后的使用会重新加载
+     */
+    public void invalidate(final String templateId) {
+        final Iterator<TemplateKey> iterator = this.templates.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().templateId.equals(templateId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        this.templates.clear();
+    }
+
+    /**
+     * 返回已缓存的模板数量
+     */
+    public int size() {
+        return this.templates.size();
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadTemplateCache [maximumPayloadLength=" + maximumPayloadLength + ", size=" + this.size() + "]";
+    }
+}
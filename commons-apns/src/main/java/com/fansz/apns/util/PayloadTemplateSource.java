@@ -0,0 +1,17 @@
+package com.fansz.apns.util;
+
+import java.util.Locale;
+
+/**
+ * {@link PayloadTemplateCache}加载模板文本的来源，例如数据库或者资源文件
+ */
+public interface PayloadTemplateSource {
+
+    /**
+     * 返回指定模板在指定语言环境下的JSON模板文本，不存在时返回{@code null}；{@link PayloadTemplateCache}会依次尝试更宽泛的语言环境，
+     * 最后是{@link Locale#ROOT}
+     *
+     * @see PayloadTemplate
+     */
+    String getTemplate(String templateId, Locale locale);
+}
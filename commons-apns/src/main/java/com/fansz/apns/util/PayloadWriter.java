@@ -0,0 +1,292 @@
+package com.fansz.apns.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 把JSON直接以UTF-8编码写入可重用字节数组的写入器，供{@link ApnsPayloadBuilder}使用；字符串在写入的同时完成转义和编码，不产生中间对象。
+ * 转义规则与fastjson相同，因此输出与原来用fastjson序列化的结果逐字节一致，截断位置也不变
+ */
+final class PayloadWriter {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D',
+            'E', 'F' };
+
+    static final String ELLIPSIS = "...";
+
+    private byte[] buffer;
+
+    private int length = 0;
+
+    PayloadWriter(final int initialCapacity) {
+        this.buffer = new byte[initialCapacity];
+    }
+
+    void reset() {
+        this.length = 0;
+    }
+
+    int length() {
+        return this.length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+
+    String toUtf8String() {
+        return new String(this.buffer, 0, this.length, UTF8);
+    }
+
+    private void ensureCapacity(final int additionalBytes) {
+        if (this.length + additionalBytes > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + additionalBytes));
+        }
+    }
+
+    void writeByte(final char c) {
+        this.ensureCapacity(1);
+        this.buffer[this.length++] = (byte)c;
+    }
+
+    /**
+     * 写入只包含ASCII字符、不需要转义的内容，例如已知的键名
+     */
+    void writeAscii(final String ascii) {
+        this.ensureCapacity(ascii.length());
+
+        for (int i = 0; i < ascii.length(); i++) {
+            this.buffer[this.length++] = (byte)ascii.charAt(i);
+        }
+    }
+
+    /**
+     * 写入对象中的一个键，必要时先写入分隔的逗号
+     */
+    void writeKey(final String key) {
+        if (this.length > 0 && this.buffer[this.length - 1] != '{') {
+            this.writeByte(',');
+        }
+
+        this.writeString(key);
+        this.writeByte(':');
+    }
+
+    void writeString(final String string) {
+        this.writeByte('"');
+        this.writeEscaped(string, 0, string.length());
+        this.writeByte('"');
+    }
+
+    /**
+     * 写入{@code string}中[start, end)范围内的字符，转义后编码为UTF-8，不包括两侧的引号
+     */
+    void writeEscaped(final String string, final int start, final int end) {
+        // Worst case is six bytes per char (a \\u00XX escape)
+        this.ensureCapacity((end - start) * 6);
+
+        final ByteBuf target = Unpooled.wrappedBuffer(this.buffer);
+        target.writerIndex(this.length);
+
+        writeEscaped(target, string, start, end);
+
+        this.length = target.writerIndex();
+    }
+
+    /**
+     * 把{@code string}中[start, end)范围内的字符转义后以UTF-8编码写入{@code out}，不包括两侧的引号
+     */
+    static void writeEscaped(final ByteBuf out, final String string, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = string.charAt(i);
+
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    out.writeByte('\\');
+                    out.writeByte(c);
+                } else if (c < 0x20 || c == 0x7f) {
+                    writeControlCharacter(out, c);
+                } else {
+                    out.writeByte(c);
+                }
+            } else if (c < 0xa0) {
+                // fastjson escapes the C1 control characters too
+                writeUnicodeEscape(out, c);
+            } else if (c < 0x800) {
+                out.writeByte(0xc0 | (c >> 6));
+                out.writeByte(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(string.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+
+                out.writeByte(0xf0 | (codePoint >> 18));
+                out.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                out.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                out.writeByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates can't be encoded; replace them the same way String#getBytes does
+                out.writeByte('?');
+            } else if (c == '\u2028' || c == '\u2029') {
+                // Line and paragraph separators aren't legal in JavaScript strings, so fastjson escapes them
+                writeUnicodeEscape(out, c);
+            } else {
+                out.writeByte(0xe0 | (c >> 12));
+                out.writeByte(0x80 | ((c >> 6) & 0x3f));
+                out.writeByte(0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    private static void writeControlCharacter(final ByteBuf out, final char c) {
+        switch (c) {
+            case '\b':
+                out.writeByte('\\');
+                out.writeByte('b');
+                break;
+            case '\f':
+                out.writeByte('\\');
+                out.writeByte('f');
+                break;
+            case '\n':
+                out.writeByte('\\');
+                out.writeByte('n');
+                break;
+            case '\r':
+                out.writeByte('\\');
+                out.writeByte('r');
+                break;
+            case '\t':
+                out.writeByte('\\');
+                out.writeByte('t');
+                break;
+            default:
+                writeUnicodeEscape(out, c);
+        }
+    }
+
+    private static void writeUnicodeEscape(final ByteBuf out, final char c) {
+        out.writeByte('\\');
+        out.writeByte('u');
+        out.writeByte(HEX_DIGITS[(c >> 12) & 0xf]);
+        out.writeByte(HEX_DIGITS[(c >> 8) & 0xf]);
+        out.writeByte(HEX_DIGITS[(c >> 4) & 0xf]);
+        out.writeByte(HEX_DIGITS[c & 0xf]);
+    }
+
+    /**
+     * 返回{@code string}中[start, end)范围内的字符转义并编码之后的字节数
+     */
+    static int escapedLength(final String string, final int start, final int end) {
+        int length = 0;
+
+        for (int i = start; i < end; i++) {
+            final int codePointLength = escapedLength(string, i);
+
+            if (codePointLength == 4) {
+                i++;
+            }
+
+            length += codePointLength;
+        }
+
+        return length;
+    }
+
+    /**
+     * 返回{@code string}的最长前缀的字符数，该前缀转义并编码之后不超过{@code availableLength}字节，并且不会拆开代理对
+     */
+    static int abbreviationEnd(final String string, final int availableLength) {
+        int end = 0;
+        int length = 0;
+
+        while (end < string.length()) {
+            final int codePointLength = escapedLength(string, end);
+
+            if (length + codePointLength > availableLength) {
+                break;
+            }
+
+            length += codePointLength;
+            end += codePointLength == 4 ? 2 : 1;
+        }
+
+        return end;
+    }
+
+    /**
+     * 返回从{@code string}的{@code index}位置开始的一个码点转义并编码之后的字节数
+     */
+    static int escapedLength(final String string, final int index) {
+        final char c = string.charAt(index);
+
+        if (c < 0x80) {
+            if (c == '"' || c == '\\') {
+                return 2;
+            } else if (c < 0x20) {
+                return c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t' ? 2 : 6;
+            } else if (c == 0x7f) {
+                return 6;
+            }
+
+            return 1;
+        } else if (c < 0xa0) {
+            return 6;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (Character.isHighSurrogate(c) && index + 1 < string.length()
+                && Character.isLowSurrogate(string.charAt(index + 1))) {
+            return 4;
+        } else if (Character.isSurrogate(c)) {
+            return 1;
+        } else if (c == '\u2028' || c == '\u2029') {
+            return 6;
+        }
+
+        return 3;
+    }
+
+    /**
+     * 写入自定义属性的值；字符串、整数和布尔值直接写入，其他类型交给fastjson序列化
+     */
+    void writeValue(final Object value) {
+        if (value == null) {
+            this.writeAscii("null");
+        } else if (value instanceof String) {
+            this.writeString((String)value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte || value instanceof Boolean) {
+            this.writeAscii(value.toString());
+        } else {
+            // fastjson has already escaped everything, so the result only needs to be encoded
+            final byte[] bytes = JSON.toJSONString(value).getBytes(UTF8);
+
+            this.ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+            this.length += bytes.length;
+        }
+    }
+
+    /**
+     * 用{@code string}中前{@code end}个字符加上省略号替换[rangeStart, rangeEnd)范围内的字节，之后的内容前移
+     *
+     * 替换后的内容不能比原来的更长
+     */
+    void abbreviateRange(final int rangeStart, final int rangeEnd, final String string, final int end) {
+        final int abbreviatedEnd = rangeStart + escapedLength(string, 0, end) + ELLIPSIS.length();
+
+        System.arraycopy(this.buffer, rangeEnd, this.buffer, abbreviatedEnd, this.length - rangeEnd);
+
+        final int newLength = this.length - (rangeEnd - abbreviatedEnd);
+
+        this.length = rangeStart;
+        this.writeEscaped(string, 0, end);
+        this.writeAscii(ELLIPSIS);
+        this.length = newLength;
+    }
+}
@@ -1,5 +1,17 @@
 package com.fansz.apns.util;
 
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ClientAuth;
+import io.netty.handler.ssl.IdentityCipherSuiteFilter;
+import io.netty.handler.ssl.JdkSslContext;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -15,11 +27,20 @@ import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
+import javax.net.ssl.SSLException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fansz.apns.support.ApnsProtocol;
+
 /**
  * SSL工具类
+ * <p>
+ * 连接使用Netty的{@link SslContext}，同一个PushManager的所有连接共享一个实例，以便复用TLS会话；可以通过
+ * {@link #createSslContext(KeyStore, char[], ApnsProtocol, SslProvider, long, long)}使用OpenSSL（需要netty-tcnative），
+ * 或者通过{@link #createSslContext(SSLContext, ApnsProtocol)}包装已有的JDK {@link SSLContext}
+ * </p>
  */
 public class SSLContextUtil {
 
@@ -88,4 +109,92 @@ public class SSLContextUtil {
 
         return sslContext;
     }
+
+    /**
+     * 包装已有的JDK {@link SSLContext}，HTTP/2协议需要的ALPN和加密套件会被自动配置；会话缓存使用{@code sslContext}自身的
+     * {@link SSLContext#getClientSessionContext()}
+     */
+    public static SslContext createSslContext(final SSLContext sslContext, final ApnsProtocol protocol) {
+        if (sslContext == null) {
+            throw new NullPointerException("SSL context must not be null.");
+        }
+
+        // Null protocols keep whatever the engine enables by default
+        if (protocol == ApnsProtocol.HTTP2) {
+            return new JdkSslContext(sslContext, true, Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE,
+                    createHttp2ProtocolConfig(), ClientAuth.NONE, null, false);
+        }
+
+        return new JdkSslContext(sslContext, true, null, IdentityCipherSuiteFilter.INSTANCE,
+                ApplicationProtocolConfig.DISABLED, ClientAuth.NONE, null, false);
+    }
+
+    /**
+     * 使用PKCS12文件中的证书创建{@link SslContext}，会话缓存的大小和超时时间使用{@code provider}的默认值
+     *
+     * @param provider 为{@link SslProvider#OPENSSL}但OpenSSL不可用时退回JDK实现
+     */
+    public static SslContext createSslContext(final InputStream keystoreInputStream, final String keystorePassword,
+            final ApnsProtocol protocol, final SslProvider provider) throws KeyStoreException,
+            NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException, IOException {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        final char[] password = keystorePassword != null ? keystorePassword.toCharArray() : null;
+
+        keyStore.load(keystoreInputStream, password);
+
+        return createSslContext(keyStore, password, protocol, provider, 0, 0);
+    }
+
+    /**
+     * 创建{@link SslContext}
+     *
+     * @param provider 为{@link SslProvider#OPENSSL}但OpenSSL不可用时退回JDK实现
+     * @param sessionCacheSize 缓存的TLS会话数量，为0时使用默认值；重新连接时可以复用缓存的会话，省去完整握手
+     * @param sessionTimeoutSeconds 缓存的TLS会话的有效时间，为0时使用默认值
+     */
+    public static SslContext createSslContext(final KeyStore keyStore, final char[] keyStorePassword,
+            final ApnsProtocol protocol, final SslProvider provider, final long sessionCacheSize,
+            final long sessionTimeoutSeconds) throws KeyStoreException, NoSuchAlgorithmException,
+            UnrecoverableKeyException, SSLException {
+        if (protocol == null) {
+            throw new NullPointerException("Protocol must not be null.");
+        }
+
+        String algorithm = Security.getProperty("ssl.KeyManagerFactory.algorithm");
+
+        if (algorithm == null) {
+            algorithm = DEFAULT_ALGORITHM;
+        }
+
+        if (keyStore.size() == 0) {
+            throw new KeyStoreException(
+                    "Keystore is empty; while this is legal for keystores in general, APNs clients must have at least one key.");
+        }
+
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(algorithm);
+        keyManagerFactory.init(keyStore, keyStorePassword);
+
+        SslProvider effectiveProvider = provider != null ? provider : SslProvider.JDK;
+
+        if (effectiveProvider != SslProvider.JDK && !OpenSsl.isAvailable()) {
+            log.warn("OpenSSL is not available; falling back to the JDK SSL provider.", OpenSsl.unavailabilityCause());
+            effectiveProvider = SslProvider.JDK;
+        }
+
+        final SslContextBuilder builder = SslContextBuilder.forClient().sslProvider(effectiveProvider)
+                .keyManager(keyManagerFactory).sessionCacheSize(sessionCacheSize).sessionTimeout(sessionTimeoutSeconds);
+
+        if (protocol == ApnsProtocol.HTTP2) {
+            builder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE).applicationProtocolConfig(
+                    createHttp2ProtocolConfig());
+        }
+
+        return builder.build();
+    }
+
+    private static ApplicationProtocolConfig createHttp2ProtocolConfig() {
+        return new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT, ApplicationProtocolNames.HTTP_2);
+    }
 }
@@ -1,14 +1,49 @@
 package com.fansz.apns.util;
 
+import java.util.Arrays;
+
 /**
- * Device Token工具类，用于二进制和16进制字符串的转换
+ * Device Token工具类，用于二进制和16进制字符串的转换；转换通过查表完成，不使用正则表达式，也不产生中间字符串
+ *
+ * @see com.fansz.apns.support.DeviceToken
  */
 public final class TokenUtil {
-    private static final String NON_HEX_CHARACTER_PATTERN = "[^0-9a-fA-F]";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** ASCII字符到16进制数值的映射，非16进制字符为-1 */
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte)-1);
+
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte)i;
+        }
+
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte)(10 + i);
+            HEX_VALUES['A' + i] = (byte)(10 + i);
+        }
+    }
 
     private TokenUtil() {
     }
 
+    /**
+     * 返回16进制字符{@code c}表示的数值，{@code c}不是16进制字符时返回-1
+     */
+    public static int hexDigitValue(final char c) {
+        return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * 返回{@code value}的低4位对应的小写16进制字符
+     */
+    public static char hexDigit(final int value) {
+        return HEX_DIGITS[value & 0xf];
+    }
+
     /**
      * 将16进制字符串转换为2进制，所有非16进制字符(例如0-9 and A-F)都将被忽略
      *
@@ -21,16 +56,28 @@ public final class TokenUtil {
             throw new NullPointerException("Token string must not be null.");
         }
 
-        final String strippedTokenString = tokenString.replaceAll(NON_HEX_CHARACTER_PATTERN, "");
+        int digitCount = 0;
+
+        for (int i = 0; i < tokenString.length(); i++) {
+            if (hexDigitValue(tokenString.charAt(i)) >= 0) {
+                digitCount += 1;
+            }
+        }
 
-        if (strippedTokenString.length() % 2 != 0) {
+        if (digitCount % 2 != 0) {
             throw new MalformedTokenStringException("Token strings must contain an even number of hexadecimal digits.");
         }
 
-        final byte[] tokenBytes = new byte[strippedTokenString.length() / 2];
+        final byte[] tokenBytes = new byte[digitCount / 2];
+        int digitIndex = 0;
+
+        for (int i = 0; i < tokenString.length(); i++) {
+            final int value = hexDigitValue(tokenString.charAt(i));
 
-        for (int i = 0; i < strippedTokenString.length(); i += 2) {
-            tokenBytes[i / 2] = (byte)(Integer.parseInt(strippedTokenString.substring(i, i + 2), 16));
+            if (value >= 0) {
+                tokenBytes[digitIndex / 2] |= (digitIndex % 2 == 0) ? value << 4 : value;
+                digitIndex += 1;
+            }
         }
 
         return tokenBytes;
@@ -46,19 +93,13 @@ public final class TokenUtil {
             throw new NullPointerException("Token byte array must not be null.");
         }
 
-        final StringBuilder builder = new StringBuilder();
-
-        for (final byte b : tokenBytes) {
-            final String hexString = Integer.toHexString(b & 0xff);
-
-            if (hexString.length() == 1) {
-                // We need a leading zero
-                builder.append("0");
-            }
+        final char[] hexChars = new char[tokenBytes.length * 2];
 
-            builder.append(hexString);
+        for (int i = 0; i < tokenBytes.length; i++) {
+            hexChars[i * 2] = hexDigit(tokenBytes[i] >> 4);
+            hexChars[i * 2 + 1] = hexDigit(tokenBytes[i]);
         }
 
-        return builder.toString();
+        return new String(hexChars);
     }
 }
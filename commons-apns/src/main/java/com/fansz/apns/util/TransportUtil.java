@@ -0,0 +1,74 @@
+package com.fansz.apns.util;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fansz.apns.support.TransportType;
+
+/**
+ * Netty传输工具类，根据{@link TransportType}创建事件循环组，并为事件循环组选择匹配的channel类型
+ */
+public class TransportUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(TransportUtil.class);
+
+    /**
+     * 返回实际使用的传输：{@link TransportType#AUTO}在epoll可用时解析为{@link TransportType#EPOLL}，否则解析为
+     * {@link TransportType#NIO}；要求使用epoll但不可用时回退到NIO
+     */
+    public static TransportType resolve(final TransportType transportType) {
+        if (transportType == null) {
+            throw new NullPointerException("Transport type must not be null.");
+        }
+
+        switch (transportType) {
+            case NIO:
+                return TransportType.NIO;
+            case EPOLL:
+                if (!Epoll.isAvailable()) {
+                    log.warn("Epoll transport was requested but is not available; falling back to NIO.",
+                            Epoll.unavailabilityCause());
+
+                    return TransportType.NIO;
+                }
+
+                return TransportType.EPOLL;
+            default:
+                return Epoll.isAvailable() ? TransportType.EPOLL : TransportType.NIO;
+        }
+    }
+
+    /**
+     * 创建指定传输的事件循环组，调用者负责关闭
+     *
+     * @param threadCount 线程数，为0时使用Netty的默认值
+     */
+    public static EventLoopGroup createEventLoopGroup(final TransportType transportType, final int threadCount) {
+        return resolve(transportType) == TransportType.EPOLL ? new EpollEventLoopGroup(threadCount)
+                : new NioEventLoopGroup(threadCount);
+    }
+
+    /**
+     * 返回可以注册到{@code eventLoopGroup}的socket channel类型
+     *
+     * @throws IllegalArgumentException 事件循环组既不是epoll也不是NIO的实现
+     */
+    public static Class<? extends SocketChannel> getSocketChannelClass(final EventLoopGroup eventLoopGroup) {
+        if (eventLoopGroup instanceof EpollEventLoopGroup) {
+            return EpollSocketChannel.class;
+        } else if (eventLoopGroup instanceof NioEventLoopGroup) {
+            return NioSocketChannel.class;
+        }
+
+        throw new IllegalArgumentException(String.format("Unsupported event loop group type: %s",
+                eventLoopGroup.getClass().getName()));
+    }
+}
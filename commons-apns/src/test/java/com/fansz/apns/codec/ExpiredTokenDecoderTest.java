@@ -0,0 +1,98 @@
+package com.fansz.apns.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.ExpiredToken;
+import com.fansz.apns.support.DeviceToken;
+
+public class ExpiredTokenDecoderTest {
+
+    private static void writeRecord(final ByteBuf buffer, final long timestampSeconds, final byte[] token) {
+        buffer.writeInt((int)timestampSeconds);
+        buffer.writeShort(token.length);
+        buffer.writeBytes(token);
+    }
+
+    private static byte[] createToken(final int length, final int seed) {
+        final byte[] token = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            token[i] = (byte)(seed + i);
+        }
+
+        return token;
+    }
+
+    @Test
+    public void testDecodeRecords() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ExpiredTokenDecoder());
+        final ByteBuf buffer = Unpooled.buffer();
+
+        writeRecord(buffer, 1000, createToken(32, 1));
+        writeRecord(buffer, 0xFFFFFFFFL, createToken(8, 2));
+
+        assertTrue(channel.writeInbound(buffer));
+
+        final ExpiredToken first = channel.readInbound();
+        assertEquals(DeviceToken.fromBytes(createToken(32, 1)), first.getDeviceToken());
+        assertEquals(new Date(1000 * 1000L), first.getExpiration());
+
+        final ExpiredToken second = channel.readInbound();
+        assertEquals(DeviceToken.fromBytes(createToken(8, 2)), second.getDeviceToken());
+        assertEquals(new Date(0xFFFFFFFFL * 1000L), second.getExpiration());
+
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+
+    @Test
+    public void testSkipRecordsWithBadTokenLengths() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ExpiredTokenDecoder());
+        final ByteBuf buffer = Unpooled.buffer();
+
+        writeRecord(buffer, 1, new byte[0]);
+        writeRecord(buffer, 2, createToken(33, 3));
+        writeRecord(buffer, 3, createToken(32, 4));
+
+        channel.writeInbound(buffer);
+
+        final ExpiredToken expiredToken = channel.readInbound();
+        assertEquals(DeviceToken.fromBytes(createToken(32, 4)), expiredToken.getDeviceToken());
+        assertEquals(new Date(3000), expiredToken.getExpiration());
+
+        assertNull(channel.readInbound());
+        assertTrue(channel.isActive());
+        channel.finish();
+    }
+
+    @Test
+    public void testSkipBadRecordSplitAcrossReads() {
+        final EmbeddedChannel channel = new EmbeddedChannel(new ExpiredTokenDecoder());
+        final ByteBuf buffer = Unpooled.buffer();
+
+        writeRecord(buffer, 1, createToken(100, 5));
+        writeRecord(buffer, 2, createToken(1, 6));
+
+        // Deliver the stream a few bytes at a time so the skip has to wait for the whole bad record
+        while (buffer.isReadable()) {
+            channel.writeInbound(buffer.readRetainedSlice(Math.min(7, buffer.readableBytes())));
+        }
+
+        buffer.release();
+
+        final ExpiredToken expiredToken = channel.readInbound();
+        assertEquals(DeviceToken.fromBytes(createToken(1, 6)), expiredToken.getDeviceToken());
+
+        assertNull(channel.readInbound());
+        channel.finish();
+    }
+}
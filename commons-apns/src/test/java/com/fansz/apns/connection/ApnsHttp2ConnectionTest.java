@@ -0,0 +1,343 @@
+package com.fansz.apns.connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fansz.apns.config.ApnsConnectionConfiguration;
+import com.fansz.apns.config.ApnsEnvironment;
+import com.fansz.apns.listener.ApnsConnectionListener;
+import com.fansz.apns.mock.MockApnsServer;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+import com.fansz.apns.support.ApnsProtocol;
+import com.fansz.apns.support.DeliveryOutcome;
+import com.fansz.apns.support.DeliveryReceipt;
+import com.fansz.apns.support.DeliveryTracker;
+import com.fansz.apns.support.Histogram;
+import com.fansz.apns.support.RejectedNotificationReason;
+
+public class ApnsHttp2ConnectionTest {
+
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":\"Hello\"}}";
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private NioEventLoopGroup eventLoopGroup;
+
+    private MockApnsServer server;
+
+    private ApnsEnvironment environment;
+
+    private SSLContext sslContext;
+
+    private MapDeliveryTracker tracker;
+
+    private RecordingListener listener;
+
+    private ApnsConnection<SimpleApnsPushNotification> connection;
+
+    private static class MapDeliveryTracker implements DeliveryTracker<SimpleApnsPushNotification> {
+
+        private final Map<SimpleApnsPushNotification, DeliveryReceipt> receipts = new ConcurrentHashMap<SimpleApnsPushNotification, DeliveryReceipt>();
+
+        public DeliveryReceipt track(final SimpleApnsPushNotification notification) {
+            final DeliveryReceipt receipt = new DeliveryReceipt(ImmediateEventExecutor.INSTANCE, new Histogram(),
+                    new Histogram());
+            this.receipts.put(notification, receipt);
+
+            return receipt;
+        }
+
+        @Override
+        public DeliveryReceipt getDeliveryReceipt(final SimpleApnsPushNotification notification) {
+            return this.receipts.get(notification);
+        }
+
+        @Override
+        public boolean hasDeliveryState(final SimpleApnsPushNotification notification) {
+            return this.receipts.containsKey(notification);
+        }
+
+        @Override
+        public void transferDeliveryReceipt(final SimpleApnsPushNotification previousNotification,
+                final SimpleApnsPushNotification notification) {
+            final DeliveryReceipt receipt = this.receipts.remove(previousNotification);
+
+            if (receipt != null) {
+                this.receipts.put(notification, receipt);
+            }
+        }
+
+        @Override
+        public void releaseDeliveryReceipt(final SimpleApnsPushNotification notification) {
+            this.receipts.remove(notification);
+        }
+    }
+
+    private static class RecordingListener implements ApnsConnectionListener<SimpleApnsPushNotification> {
+
+        private final CountDownLatch connectionLatch = new CountDownLatch(1);
+
+        private final CountDownLatch closureLatch = new CountDownLatch(1);
+
+        private final List<SimpleApnsPushNotification> rejectedNotifications = new ArrayList<SimpleApnsPushNotification>();
+
+        private final List<RejectedNotificationReason> rejectionReasons = new ArrayList<RejectedNotificationReason>();
+
+        private final List<SimpleApnsPushNotification> unprocessedNotifications = new ArrayList<SimpleApnsPushNotification>();
+
+        @Override
+        public void handleConnectionSuccess(final ApnsConnection<SimpleApnsPushNotification> connection) {
+            this.connectionLatch.countDown();
+        }
+
+        @Override
+        public void handleConnectionFailure(final ApnsConnection<SimpleApnsPushNotification> connection,
+                final Throwable cause) {
+        }
+
+        @Override
+        public void handleConnectionWritabilityChange(final ApnsConnection<SimpleApnsPushNotification> connection,
+                final boolean writable) {
+        }
+
+        @Override
+        public void handleConnectionClosure(final ApnsConnection<SimpleApnsPushNotification> connection) {
+            this.closureLatch.countDown();
+        }
+
+        @Override
+        public void handleWriteFailure(final ApnsConnection<SimpleApnsPushNotification> connection,
+                final SimpleApnsPushNotification notification, final Throwable cause) {
+        }
+
+        @Override
+        public synchronized void handleRejectedNotification(
+                final ApnsConnection<SimpleApnsPushNotification> connection,
+                final SimpleApnsPushNotification rejectedNotification, final RejectedNotificationReason reason) {
+            this.rejectedNotifications.add(rejectedNotification);
+            this.rejectionReasons.add(reason);
+            this.notifyAll();
+        }
+
+        @Override
+        public synchronized void handleUnprocessedNotifications(
+                final ApnsConnection<SimpleApnsPushNotification> connection,
+                final Collection<SimpleApnsPushNotification> unprocessedNotifications) {
+            this.unprocessedNotifications.addAll(unprocessedNotifications);
+            this.notifyAll();
+        }
+
+        /**
+         * 连接先确定凭证的结果再通知listener，所以等到凭证完成之后，listener可能还没有收到通知
+         */
+        public synchronized List<SimpleApnsPushNotification> awaitRejectedNotifications(final int count)
+                throws InterruptedException {
+            this.await(this.rejectedNotifications, count);
+            return new ArrayList<SimpleApnsPushNotification>(this.rejectedNotifications);
+        }
+
+        public synchronized List<SimpleApnsPushNotification> awaitUnprocessedNotifications(final int count)
+                throws InterruptedException {
+            this.await(this.unprocessedNotifications, count);
+            return new ArrayList<SimpleApnsPushNotification>(this.unprocessedNotifications);
+        }
+
+        private void await(final List<?> list, final int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+            while (list.size() < count && System.currentTimeMillis() < deadline) {
+                this.wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        }
+    }
+
+    private static SimpleApnsPushNotification createNotification(final int index) {
+        final byte[] token = new byte[32];
+        token[0] = (byte)index;
+
+        return new SimpleApnsPushNotification(token, PAYLOAD);
+    }
+
+    private static DeliveryOutcome awaitOutcome(final DeliveryReceipt receipt) throws InterruptedException {
+        assertTrue(receipt.getOutcomeFuture().await(TIMEOUT_MILLIS));
+        return receipt.getOutcomeFuture().getNow();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.eventLoopGroup = new NioEventLoopGroup(2);
+        this.server = new MockApnsServer(this.eventLoopGroup, ApnsProtocol.HTTP2);
+
+        final int port = this.server.start(0);
+        this.environment = new ApnsEnvironment("localhost", 0, "localhost", 0, "localhost", port);
+
+        this.sslContext = SSLContext.getInstance("TLS");
+        this.sslContext.init(null, InsecureTrustManagerFactory.INSTANCE.getTrustManagers(), new SecureRandom());
+
+        this.tracker = new MapDeliveryTracker();
+        this.listener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.connection != null) {
+            this.connection.disconnectImmediately();
+        }
+
+        this.server.shutdown();
+        this.eventLoopGroup.shutdownGracefully().await();
+    }
+
+    private void connect() throws InterruptedException {
+        final ApnsConnectionConfiguration configuration = new ApnsConnectionConfiguration();
+        configuration.setProtocol(ApnsProtocol.HTTP2);
+
+        this.connection = new ApnsConnection<SimpleApnsPushNotification>(this.environment, this.sslContext,
+                this.eventLoopGroup, configuration, this.listener, "Http2Test", null, this.tracker);
+
+        this.connection.connect();
+
+        assertTrue(this.listener.connectionLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testAcceptedNotifications() throws Exception {
+        this.connect();
+
+        final List<DeliveryReceipt> receipts = new ArrayList<DeliveryReceipt>();
+
+        for (int i = 0; i < 3; i++) {
+            final SimpleApnsPushNotification notification = createNotification(i);
+            receipts.add(this.tracker.track(notification));
+
+            this.connection.sendNotification(notification);
+        }
+
+        for (final DeliveryReceipt receipt : receipts) {
+            assertEquals(DeliveryOutcome.ACCEPTED, awaitOutcome(receipt));
+        }
+
+        assertEquals(3, this.server.getReceivedNotificationCount());
+        assertTrue(this.listener.rejectedNotifications.isEmpty());
+        assertTrue(this.tracker.receipts.isEmpty());
+    }
+
+    @Test
+    public void testRejectedNotificationReasons() throws Exception {
+        this.server.setRejectionProbability(1);
+        this.connect();
+
+        final int[] statuses = { 400, 410, 400, 413, 403 };
+        final String[] reasons = { "BadDeviceToken", "Unregistered", "MissingTopic", "PayloadTooLarge",
+                "InvalidProviderToken" };
+
+        for (int i = 0; i < statuses.length; i++) {
+            this.server.setHttp2RejectionStatus(statuses[i]);
+            this.server.setHttp2RejectionReason(reasons[i]);
+
+            final SimpleApnsPushNotification notification = createNotification(i);
+            final DeliveryReceipt receipt = this.tracker.track(notification);
+
+            this.connection.sendNotification(notification);
+
+            assertEquals(DeliveryOutcome.REJECTED, awaitOutcome(receipt));
+            assertEquals(RejectedNotificationReason.getByHttp2Reason(reasons[i]), receipt.getRejectionReason());
+
+            assertEquals(notification, this.listener.awaitRejectedNotifications(i + 1).get(i));
+
+            synchronized (this.listener) {
+                assertEquals(receipt.getRejectionReason(), this.listener.rejectionReasons.get(i));
+            }
+        }
+
+        assertEquals(Arrays.asList(RejectedNotificationReason.INVALID_TOKEN, RejectedNotificationReason.INVALID_TOKEN,
+                RejectedNotificationReason.MISSING_TOPIC, RejectedNotificationReason.INVALID_PAYLOAD_SIZE,
+                RejectedNotificationReason.UNKNOWN), this.listener.rejectionReasons);
+
+        // Rejections are per stream, so the connection stays open
+        assertEquals(1, this.server.getConnectionCount());
+    }
+
+    @Test
+    public void testUnavailableStatusesAreResent() throws Exception {
+        this.server.setRejectionProbability(1);
+        this.connect();
+
+        final int[] statuses = { 429, 500, 503 };
+        final String[] reasons = { "TooManyRequests", "InternalServerError", "ServiceUnavailable" };
+
+        for (int i = 0; i < statuses.length; i++) {
+            this.server.setHttp2RejectionStatus(statuses[i]);
+            this.server.setHttp2RejectionReason(reasons[i]);
+
+            final SimpleApnsPushNotification notification = createNotification(i);
+            final DeliveryReceipt receipt = this.tracker.track(notification);
+
+            this.connection.sendNotification(notification);
+
+            assertEquals(notification, this.listener.awaitUnprocessedNotifications(i + 1).get(i));
+
+            // Left for the retry to resolve
+            assertFalse(receipt.getOutcomeFuture().isDone());
+        }
+
+        assertTrue(this.listener.rejectedNotifications.isEmpty());
+    }
+
+    @Test
+    public void testGoAwayResendsLaterStreams() throws Exception {
+        this.server.setDisconnectAfterNotificationCount(2);
+        this.connect();
+
+        final List<SimpleApnsPushNotification> notifications = new ArrayList<SimpleApnsPushNotification>();
+        final List<DeliveryReceipt> receipts = new ArrayList<DeliveryReceipt>();
+
+        for (int i = 0; i < 5; i++) {
+            final SimpleApnsPushNotification notification = createNotification(i);
+
+            notifications.add(notification);
+            receipts.add(this.tracker.track(notification));
+        }
+
+        // One flush, so the later streams are open when the server names the second one in its GOAWAY
+        this.connection.sendNotifications(notifications);
+
+        assertEquals(DeliveryOutcome.ACCEPTED, awaitOutcome(receipts.get(0)));
+        assertEquals(DeliveryOutcome.ACCEPTED, awaitOutcome(receipts.get(1)));
+
+        final List<SimpleApnsPushNotification> unprocessedNotifications = this.listener
+                .awaitUnprocessedNotifications(3);
+
+        assertEquals(3, unprocessedNotifications.size());
+        assertTrue(unprocessedNotifications.containsAll(notifications.subList(2, 5)));
+
+        for (final DeliveryReceipt receipt : receipts.subList(2, 5)) {
+            assertFalse(receipt.getOutcomeFuture().isDone());
+        }
+
+        // The client closes the connection once the GOAWAY arrives
+        assertTrue(this.listener.closureLatch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(2, this.server.getReceivedNotificationCount());
+        assertTrue(this.listener.rejectedNotifications.isEmpty());
+    }
+}
@@ -0,0 +1,172 @@
+package com.fansz.apns.mock;
+
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import com.fansz.apns.PushManager;
+import com.fansz.apns.config.ApnsConnectionConfiguration;
+import com.fansz.apns.config.ApnsEnvironment;
+import com.fansz.apns.config.PushManagerConfiguration;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+import com.fansz.apns.support.DispatchMode;
+import com.fansz.apns.support.RejectedNotificationReason;
+
+/**
+ * <p>
+ * 针对{@link MockApnsServer}的压测程序，依次使用不同的连接数和已发送消息缓冲区大小发送固定数量的消息，输出每秒发送的消息数、被跟踪消息从提交到写入的p99延迟，
+ * 以及每条在途消息（已写入但尚未被确认、保存在已发送消息缓冲区中的消息）大约占用的堆内存；注入故障时，
+ * 还会输出丢失的消息数量，即服务端一直没有收到、客户端也没有重发的消息；模拟网关返回错误之后只关闭输出方向并继续丢弃收到的数据，错误响应总能到达客户端，
+ * 所以丢失数量应当为0
+ * </p>
+ * <p>
+ * 用法：{@code ApnsLoadTest [消息数量] [拒绝概率] [每个连接断开前的消息数] [分发方式]}，拒绝概率和断开前的消息数默认为0，即不注入任何故障；
+ * 分发方式为{@link DispatchMode}的名称，默认为{@link DispatchMode#SINGLE_THREAD}
+ * </p>
+ */
+public class ApnsLoadTest {
+
+    private static final int[] CONNECTION_COUNTS = { 1, 2, 4, 8 };
+
+    private static final int[] BUFFER_CAPACITIES = { 8192, 65536 };
+
+    /** 每隔多少条消息使用sendWithReceipt跟踪一条，用于采样写入延迟 */
+    private static final int RECEIPT_SAMPLE_INTERVAL = 100;
+
+    /** 服务端连续这么长时间没有收到新消息时，认为剩余的消息已经丢失 */
+    private static final long STALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":\"Load test\",\"badge\":1}}";
+
+    public static void main(final String[] args) throws Exception {
+        final int notificationCount = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final double rejectionProbability = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+        final int disconnectAfterNotificationCount = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        final DispatchMode dispatchMode = args.length > 3 ? DispatchMode.valueOf(args[3]) : DispatchMode.SINGLE_THREAD;
+
+        final NioEventLoopGroup serverEventLoopGroup = new NioEventLoopGroup(2);
+        final MockApnsServer server = new MockApnsServer(serverEventLoopGroup);
+        final MockFeedbackServer feedbackServer = new MockFeedbackServer(serverEventLoopGroup);
+
+        server.setRejectionProbability(rejectionProbability);
+        server.setRejectionReason(RejectedNotificationReason.INVALID_TOKEN);
+        server.setDisconnectAfterNotificationCount(disconnectAfterNotificationCount);
+
+        final int gatewayPort = server.start(0);
+        final int feedbackPort = feedbackServer.start(0);
+
+        final ApnsEnvironment environment = new ApnsEnvironment("localhost", gatewayPort, "localhost", feedbackPort);
+
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, InsecureTrustManagerFactory.INSTANCE.getTrustManagers(), new SecureRandom());
+
+        final SimpleApnsPushNotification[] notifications = createNotifications(notificationCount);
+
+        System.out.println("connections\tbuffer\tnotifications/s\tp99 write latency (us)\tbytes/in-flight\tlost\tresumed/full handshakes");
+
+        try {
+            for (final int connectionCount : CONNECTION_COUNTS) {
+                for (final int bufferCapacity : BUFFER_CAPACITIES) {
+                    run(environment, sslContext, server, notifications, dispatchMode, connectionCount, bufferCapacity);
+                }
+            }
+        } finally {
+            server.shutdown();
+            feedbackServer.shutdown();
+            serverEventLoopGroup.shutdownGracefully().await();
+        }
+    }
+
+    private static SimpleApnsPushNotification[] createNotifications(final int notificationCount) {
+        final Random random = new Random();
+        final SimpleApnsPushNotification[] notifications = new SimpleApnsPushNotification[notificationCount];
+
+        for (int i = 0; i < notificationCount; i++) {
+            final byte[] token = new byte[32];
+            random.nextBytes(token);
+
+            notifications[i] = new SimpleApnsPushNotification(token, PAYLOAD);
+        }
+
+        return notifications;
+    }
+
+    private static void run(final ApnsEnvironment environment, final SSLContext sslContext,
+            final MockApnsServer server, final SimpleApnsPushNotification[] notifications,
+            final DispatchMode dispatchMode, final int connectionCount, final int bufferCapacity) throws Exception {
+
+        final ApnsConnectionConfiguration connectionConfiguration = new ApnsConnectionConfiguration();
+        connectionConfiguration.setSentNotificationBufferCapacity(bufferCapacity);
+
+        final PushManagerConfiguration configuration = new PushManagerConfiguration();
+        configuration.setConcurrentConnectionCount(connectionCount);
+        configuration.setDispatchMode(dispatchMode);
+        configuration.setConnectionConfiguration(connectionConfiguration);
+
+        final PushManager<SimpleApnsPushNotification> pushManager = new PushManager<SimpleApnsPushNotification>(
+                environment, sslContext, null, null, null, configuration, "LoadTest", SimpleApnsPushNotification.FACTORY);
+
+        server.resetCounts();
+
+        final long heapBefore = usedHeap();
+        final long start = System.nanoTime();
+
+        pushManager.start();
+
+        for (int i = 0; i < notifications.length; i++) {
+            if (i % RECEIPT_SAMPLE_INTERVAL == 0) {
+                pushManager.sendWithReceipt(notifications[i]);
+            } else {
+                pushManager.getQueue().put(notifications[i]);
+            }
+        }
+
+        // The server ignores everything after a rejection on the same connection and the client resends those
+        // notifications, so every notification is eventually counted exactly once (rejected ones included) unless the
+        // client gave up on some of them
+        long lastProgressTime = System.nanoTime();
+        long lastReceivedCount = 0;
+
+        while (server.getReceivedNotificationCount() < notifications.length
+                && System.nanoTime() - lastProgressTime < STALL_TIMEOUT_NANOS) {
+            Thread.sleep(1);
+
+            if (server.getReceivedNotificationCount() != lastReceivedCount) {
+                lastReceivedCount = server.getReceivedNotificationCount();
+                lastProgressTime = System.nanoTime();
+            }
+        }
+
+        final long receivedCount = server.getReceivedNotificationCount();
+        final long elapsedNanos = (receivedCount < notifications.length ? lastProgressTime : System.nanoTime()) - start;
+
+        // Sent notification buffers are full (or hold everything) at this point, so the difference in retained heap
+        // is dominated by in-flight notifications
+        final long heapAfter = usedHeap();
+        final long inFlightCount = Math.min(notifications.length, (long)connectionCount * bufferCapacity);
+
+        System.out.println(String.format("%d\t%d\t%.0f\t%d\t%d\t%d\t%d/%d", connectionCount, bufferCapacity,
+                receivedCount / (elapsedNanos / 1e9),
+                pushManager.getWriteLatencyHistogram().getValueAtPercentile(99),
+                Math.max(0, heapAfter - heapBefore) / inFlightCount, notifications.length - receivedCount,
+                pushManager.getResumedHandshakeCount(), pushManager.getFullHandshakeCount()));
+
+        pushManager.shutdown();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
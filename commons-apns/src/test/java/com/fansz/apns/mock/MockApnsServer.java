@@ -0,0 +1,560 @@
+package com.fansz.apns.mock;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2Error;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2Headers;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.fastjson.JSONObject;
+import com.fansz.apns.support.ApnsFrameItem;
+import com.fansz.apns.support.ApnsProtocol;
+import com.fansz.apns.support.RejectedNotificationReason;
+
+/**
+ * <p>
+ * 本地模拟的APNS网关，使用自签名证书，解码传统二进制协议的command 2帧，可以按比例拒绝消息、延迟返回错误，或者在收到一定数量的消息之后以
+ * {@link RejectedNotificationReason#SHUTDOWN}断开连接；用于在不连接Apple的情况下测试和压测{@link com.fansz.apns.PushManager}
+ * </p>
+ * <p>
+ * 使用{@link ApnsProtocol#HTTP2}创建时，服务器通过ALPN协商HTTP/2并逐个stream返回响应：被拒绝的消息返回
+ * {@link #setHttp2RejectionStatus(int)}和{@link #setHttp2RejectionReason(String)}设置的状态和reason，其余消息返回200；打开的stream数量达到
+ * {@link #setDisconnectAfterNotificationCount(int)}时发送GOAWAY，其中的最后一个stream就是触发GOAWAY的stream，之后的stream不再处理
+ * </p>
+ * <p>
+ * 客户端需要使用信任所有证书的SSLContext，例如
+ * {@link io.netty.handler.ssl.util.InsecureTrustManagerFactory}
+ * </p>
+ */
+public class MockApnsServer {
+
+    private static final byte ERROR_RESPONSE_COMMAND = 8;
+
+    private static final String APNS_PATH_PREFIX = "/3/device/";
+
+    private final NioEventLoopGroup eventLoopGroup;
+
+    private final ApnsProtocol protocol;
+
+    private Channel serverChannel;
+
+    private volatile double rejectionProbability = 0;
+
+    private volatile RejectedNotificationReason rejectionReason = RejectedNotificationReason.INVALID_TOKEN;
+
+    private volatile int rejectionDelayMillis = 0;
+
+    private volatile int disconnectAfterNotificationCount = 0;
+
+    private volatile int http2RejectionStatus = HttpResponseStatus.BAD_REQUEST.code();
+
+    private volatile String http2RejectionReason = "BadDeviceToken";
+
+    private final AtomicLong receivedNotificationCount = new AtomicLong(0);
+
+    private final AtomicLong rejectedNotificationCount = new AtomicLong(0);
+
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+    private static class ReceivedNotification {
+
+        private final int sequenceNumber;
+
+        private final int tokenLength;
+
+        public ReceivedNotification(final int sequenceNumber, final int tokenLength) {
+            this.sequenceNumber = sequenceNumber;
+            this.tokenLength = tokenLength;
+        }
+    }
+
+    /**
+     * 解码command 2帧，只保留序列号和token长度
+     */
+    private static class FrameDecoder extends ByteToMessageDecoder {
+
+        private static final int FRAME_HEADER_LENGTH = 1 + 4;
+
+        @Override
+        protected void decode(final ChannelHandlerContext context, final ByteBuf in, final List<Object> out) {
+            if (in.readableBytes() < FRAME_HEADER_LENGTH) {
+                return;
+            }
+
+            final int frameLength = in.getInt(in.readerIndex() + 1);
+
+            if (in.readableBytes() < FRAME_HEADER_LENGTH + frameLength) {
+                return;
+            }
+
+            in.skipBytes(FRAME_HEADER_LENGTH);
+
+            final int frameEnd = in.readerIndex() + frameLength;
+            int sequenceNumber = 0;
+            int tokenLength = 0;
+
+            while (in.readerIndex() < frameEnd) {
+                final byte itemCode = in.readByte();
+                final int itemLength = in.readUnsignedShort();
+
+                if (itemCode == ApnsFrameItem.SEQUENCE_NUMBER.getCode()) {
+                    sequenceNumber = in.getInt(in.readerIndex());
+                } else if (itemCode == ApnsFrameItem.DEVICE_TOKEN.getCode()) {
+                    tokenLength = itemLength;
+                }
+
+                in.skipBytes(itemLength);
+            }
+
+            out.add(new ReceivedNotification(sequenceNumber, tokenLength));
+        }
+    }
+
+    private class GatewayHandler extends SimpleChannelInboundHandler<ReceivedNotification> {
+
+        private final Random random = new Random();
+
+        private int notificationCount = 0;
+
+        private boolean closing = false;
+
+        @Override
+        public void channelActive(final ChannelHandlerContext context) throws Exception {
+            super.channelActive(context);
+            MockApnsServer.this.connectionCount.incrementAndGet();
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext context) throws Exception {
+            super.channelInactive(context);
+            MockApnsServer.this.connectionCount.decrementAndGet();
+        }
+
+        @Override
+        protected void channelRead0(final ChannelHandlerContext context, final ReceivedNotification notification) {
+            // The real gateway ignores everything after the notification that closed the connection
+            if (this.closing) {
+                return;
+            }
+
+            this.notificationCount += 1;
+
+            if (notification.tokenLength == 0) {
+                // The known-bad notification sent for a graceful disconnection
+                this.reject(context, notification.sequenceNumber, RejectedNotificationReason.MISSING_TOKEN, 0);
+                return;
+            }
+
+            MockApnsServer.this.receivedNotificationCount.incrementAndGet();
+
+            final double rejectionProbability = MockApnsServer.this.rejectionProbability;
+            final int disconnectAfterNotificationCount = MockApnsServer.this.disconnectAfterNotificationCount;
+
+            if (rejectionProbability > 0 && this.random.nextDouble() < rejectionProbability) {
+                MockApnsServer.this.rejectedNotificationCount.incrementAndGet();
+                this.reject(context, notification.sequenceNumber, MockApnsServer.this.rejectionReason,
+                        MockApnsServer.this.rejectionDelayMillis);
+            } else if (disconnectAfterNotificationCount > 0
+                    && this.notificationCount >= disconnectAfterNotificationCount) {
+                this.reject(context, notification.sequenceNumber, RejectedNotificationReason.SHUTDOWN, 0);
+            }
+        }
+
+        private void reject(final ChannelHandlerContext context, final int sequenceNumber,
+                final RejectedNotificationReason reason, final int delayMillis) {
+            this.closing = true;
+
+            final Runnable rejection = new Runnable() {
+
+                @Override
+                public void run() {
+                    final ByteBuf response = context.alloc().ioBuffer(6);
+                    response.writeByte(ERROR_RESPONSE_COMMAND);
+                    response.writeByte(reason.getErrorCode());
+                    response.writeInt(sequenceNumber);
+
+                    // Closing outright while the client's later frames sit unread in the receive buffer makes the
+                    // kernel reset the connection, and the client can lose the error response that's still in flight.
+                    // Half-close instead and keep discarding input; the client closes once it reads end-of-stream.
+                    context.writeAndFlush(response).addListener(new ChannelFutureListener() {
+
+                        @Override
+                        public void operationComplete(final ChannelFuture writeFuture) {
+                            context.pipeline().get(SslHandler.class).closeOutbound()
+                                    .addListener(new ChannelFutureListener() {
+
+                                        @Override
+                                        public void operationComplete(final ChannelFuture closeNotifyFuture) {
+                                            ((SocketChannel)context.channel()).shutdownOutput();
+                                        }
+                                    });
+                        }
+                    });
+                }
+            };
+
+            if (delayMillis > 0) {
+                context.executor().schedule(rejection, delayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                rejection.run();
+            }
+        }
+    }
+
+    /**
+     * 处理{@link Http2FrameCodec}解码出的帧，每个请求在收到最后一帧时返回响应
+     */
+    private class Http2GatewayHandler extends ChannelInboundHandlerAdapter {
+
+        private final Http2FrameCodec codec;
+
+        private final Random random = new Random();
+
+        /** 已收到请求头、正在等待请求体的stream */
+        private final Map<Integer, Http2Headers> pendingRequestHeaders = new HashMap<Integer, Http2Headers>();
+
+        private int streamCount = 0;
+
+        /** GOAWAY中的最后一个stream，尚未发送GOAWAY时为0 */
+        private int lastStreamId = 0;
+
+        public Http2GatewayHandler(final Http2FrameCodec codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void handlerAdded(final ChannelHandlerContext context) {
+            // Added after protocol negotiation, by which time the channel is long since active
+            MockApnsServer.this.connectionCount.incrementAndGet();
+        }
+
+        @Override
+        public void channelInactive(final ChannelHandlerContext context) throws Exception {
+            super.channelInactive(context);
+            MockApnsServer.this.connectionCount.decrementAndGet();
+        }
+
+        @Override
+        public void channelRead(final ChannelHandlerContext context, final Object message) {
+            try {
+                if (message instanceof Http2HeadersFrame) {
+                    final Http2HeadersFrame headersFrame = (Http2HeadersFrame)message;
+
+                    this.handleStreamOpened(context, headersFrame.stream());
+
+                    if (headersFrame.isEndStream()) {
+                        this.handleRequest(context, headersFrame.stream(), headersFrame.headers());
+                    } else {
+                        this.pendingRequestHeaders.put(headersFrame.stream().id(), headersFrame.headers());
+                    }
+                } else if (message instanceof Http2DataFrame) {
+                    final Http2DataFrame dataFrame = (Http2DataFrame)message;
+
+                    // Hand the bytes back right away so the client's flow-control window never runs out
+                    if (dataFrame.initialFlowControlledBytes() > 0) {
+                        context.write(new DefaultHttp2WindowUpdateFrame(dataFrame.initialFlowControlledBytes())
+                                .stream(dataFrame.stream()));
+                    }
+
+                    if (dataFrame.isEndStream()) {
+                        this.handleRequest(context, dataFrame.stream(),
+                                this.pendingRequestHeaders.remove(dataFrame.stream().id()));
+                    }
+                }
+            } finally {
+                ReferenceCountUtil.release(message);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(final ChannelHandlerContext context) {
+            context.flush();
+        }
+
+        /**
+         * 达到{@link MockApnsServer#setDisconnectAfterNotificationCount(int)}时发送GOAWAY。请求体可能以任意顺序到达，所以按stream打开的顺序计数，
+         * 编号不超过GOAWAY中最后一个stream的请求仍然会收到响应
+         */
+        private void handleStreamOpened(final ChannelHandlerContext context, final Http2FrameStream stream) {
+            final int disconnectAfterNotificationCount = MockApnsServer.this.disconnectAfterNotificationCount;
+
+            this.streamCount += 1;
+
+            if (this.lastStreamId == 0 && disconnectAfterNotificationCount > 0
+                    && this.streamCount >= disconnectAfterNotificationCount) {
+                this.lastStreamId = stream.id();
+
+                // Written straight to the frame writer rather than through Http2ConnectionHandler#goAway: once the
+                // codec knows about the GOAWAY it refuses the streams the client opened before receiving it, and then
+                // fails the whole connection on their DATA frames. Streams after this one are dropped by handleRequest
+                // instead, and the client resends them.
+                final ChannelHandlerContext codecContext = context.pipeline().context(this.codec);
+                this.codec.encoder().frameWriter().writeGoAway(codecContext, this.lastStreamId,
+                        Http2Error.NO_ERROR.code(), Unpooled.EMPTY_BUFFER, codecContext.newPromise());
+            }
+        }
+
+        private void handleRequest(final ChannelHandlerContext context, final Http2FrameStream stream,
+                final Http2Headers headers) {
+            // Streams after the one named in the GOAWAY are never processed or answered
+            if (this.lastStreamId != 0 && stream.id() > this.lastStreamId) {
+                return;
+            }
+
+            final CharSequence path = headers != null ? headers.path() : null;
+
+            if (path == null || path.length() <= APNS_PATH_PREFIX.length()) {
+                this.respond(context, stream, HttpResponseStatus.BAD_REQUEST.code(), "MissingDeviceToken", 0);
+                return;
+            }
+
+            MockApnsServer.this.receivedNotificationCount.incrementAndGet();
+
+            final double rejectionProbability = MockApnsServer.this.rejectionProbability;
+
+            if (rejectionProbability > 0 && this.random.nextDouble() < rejectionProbability) {
+                MockApnsServer.this.rejectedNotificationCount.incrementAndGet();
+                this.respond(context, stream, MockApnsServer.this.http2RejectionStatus,
+                        MockApnsServer.this.http2RejectionReason, MockApnsServer.this.rejectionDelayMillis);
+            } else {
+                this.respond(context, stream, HttpResponseStatus.OK.code(), null, 0);
+            }
+        }
+
+        private void respond(final ChannelHandlerContext context, final Http2FrameStream stream, final int status,
+                final String reason, final int delayMillis) {
+            final Runnable response = new Runnable() {
+
+                @Override
+                public void run() {
+                    final Http2Headers headers = new DefaultHttp2Headers().status(String.valueOf(status));
+
+                    if (reason == null) {
+                        context.write(new DefaultHttp2HeadersFrame(headers, true).stream(stream));
+                    } else {
+                        final JSONObject body = new JSONObject();
+                        body.put("reason", reason);
+
+                        if (status == HttpResponseStatus.GONE.code()) {
+                            body.put("timestamp", System.currentTimeMillis());
+                        }
+
+                        headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+
+                        context.write(new DefaultHttp2HeadersFrame(headers, false).stream(stream));
+                        context.write(new DefaultHttp2DataFrame(ByteBufUtil.writeUtf8(context.alloc(),
+                                body.toJSONString()), true).stream(stream));
+                    }
+                }
+            };
+
+            if (delayMillis > 0) {
+                context.executor().schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        response.run();
+                        context.flush();
+                    }
+                }, delayMillis, TimeUnit.MILLISECONDS);
+            } else {
+                // Flushed once the read completes
+                response.run();
+            }
+        }
+    }
+
+    /**
+     * 使用传统的二进制协议
+     */
+    public MockApnsServer(final NioEventLoopGroup eventLoopGroup) {
+        this(eventLoopGroup, ApnsProtocol.LEGACY_BINARY);
+    }
+
+    public MockApnsServer(final NioEventLoopGroup eventLoopGroup, final ApnsProtocol protocol) {
+        if (eventLoopGroup == null) {
+            throw new NullPointerException("Event loop group must not be null.");
+        }
+
+        if (protocol == null) {
+            throw new NullPointerException("Protocol must not be null.");
+        }
+
+        this.eventLoopGroup = eventLoopGroup;
+        this.protocol = protocol;
+    }
+
+    /**
+     * 在指定端口启动，端口为0时使用随机端口
+     *
+     * @return 实际监听的端口
+     */
+    public synchronized int start(final int port) throws Exception {
+        if (this.serverChannel != null) {
+            throw new IllegalStateException("Server has already been started.");
+        }
+
+        final boolean useHttp2 = this.protocol == ApnsProtocol.HTTP2;
+
+        final SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        final SslContextBuilder sslContextBuilder = SslContextBuilder.forServer(certificate.certificate(),
+                certificate.privateKey());
+
+        if (useHttp2) {
+            sslContextBuilder.ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                    .applicationProtocolConfig(
+                            new ApplicationProtocolConfig(ApplicationProtocolConfig.Protocol.ALPN,
+                                    ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                                    ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                                    ApplicationProtocolNames.HTTP_2));
+        }
+
+        final SslContext sslContext = sslContextBuilder.build();
+
+        final ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(this.eventLoopGroup);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+
+            @Override
+            protected void initChannel(final SocketChannel channel) {
+                channel.pipeline().addLast("ssl", sslContext.newHandler(channel.alloc()));
+
+                if (useHttp2) {
+                    channel.pipeline().addLast("protocolNegotiationHandler",
+                            new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+
+                                @Override
+                                protected void configurePipeline(final ChannelHandlerContext context,
+                                        final String protocol) {
+                                    if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                                        final Http2FrameCodec codec = Http2FrameCodecBuilder.forServer().build();
+
+                                        context.pipeline().addLast("codec", codec);
+                                        context.pipeline().addLast("handler", new Http2GatewayHandler(codec));
+                                    } else {
+                                        context.close();
+                                    }
+                                }
+                            });
+                } else {
+                    channel.pipeline().addLast("decoder", new FrameDecoder());
+                    channel.pipeline().addLast("handler", new GatewayHandler());
+                }
+            }
+        });
+
+        this.serverChannel = bootstrap.bind(port).sync().channel();
+
+        return ((InetSocketAddress)this.serverChannel.localAddress()).getPort();
+    }
+
+    public synchronized void shutdown() throws InterruptedException {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().sync();
+            this.serverChannel = null;
+        }
+    }
+
+    /**
+     * 设置每条消息被拒绝的概率，为0（默认）时不拒绝任何消息；使用传统二进制协议时，拒绝之后连接被关闭
+     */
+    public void setRejectionProbability(final double rejectionProbability) {
+        this.rejectionProbability = rejectionProbability;
+    }
+
+    /**
+     * 设置传统二进制协议拒绝消息时返回的错误代码
+     */
+    public void setRejectionReason(final RejectedNotificationReason rejectionReason) {
+        this.rejectionReason = rejectionReason;
+    }
+
+    /**
+     * 设置HTTP/2模式下被拒绝的消息的响应状态，默认为400；429、500和503表示APNS暂时无法处理，客户端应当重发
+     */
+    public void setHttp2RejectionStatus(final int http2RejectionStatus) {
+        this.http2RejectionStatus = http2RejectionStatus;
+    }
+
+    /**
+     * 设置HTTP/2模式下被拒绝的消息在响应体中返回的reason，默认为{@code BadDeviceToken}；为null时响应没有响应体
+     */
+    public void setHttp2RejectionReason(final String http2RejectionReason) {
+        this.http2RejectionReason = http2RejectionReason;
+    }
+
+    /**
+     * 设置拒绝消息之后延迟多少毫秒才返回错误；使用传统二进制协议时，期间收到的消息都不会被处理
+     */
+    public void setRejectionDelayMillis(final int rejectionDelayMillis) {
+        this.rejectionDelayMillis = rejectionDelayMillis;
+    }
+
+    /**
+     * 设置每个连接收到多少条消息之后以SHUTDOWN断开（HTTP/2模式下发送GOAWAY），为0（默认）时不主动断开
+     */
+    public void setDisconnectAfterNotificationCount(final int disconnectAfterNotificationCount) {
+        this.disconnectAfterNotificationCount = disconnectAfterNotificationCount;
+    }
+
+    public long getReceivedNotificationCount() {
+        return this.receivedNotificationCount.get();
+    }
+
+    public long getRejectedNotificationCount() {
+        return this.rejectedNotificationCount.get();
+    }
+
+    public int getConnectionCount() {
+        return this.connectionCount.get();
+    }
+
+    public void resetCounts() {
+        this.receivedNotificationCount.set(0);
+        this.rejectedNotificationCount.set(0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.fansz.apns.mock;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fansz.apns.model.ExpiredToken;
+import com.fansz.apns.support.DeviceToken;
+
+/**
+ * 本地模拟的APNS Feedback Service，使用自签名证书，客户端连接之后发送预先登记的失效token并关闭连接，已发送的token不会再次发送
+ */
+public class MockFeedbackServer {
+
+    private final NioEventLoopGroup eventLoopGroup;
+
+    private final List<ExpiredToken> expiredTokens = new ArrayList<ExpiredToken>();
+
+    private Channel serverChannel;
+
+    private class FeedbackHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void userEventTriggered(final ChannelHandlerContext context, final Object event) throws Exception {
+            if (event instanceof SslHandshakeCompletionEvent && ((SslHandshakeCompletionEvent)event).isSuccess()) {
+                final List<ExpiredToken> expiredTokens;
+
+                synchronized (MockFeedbackServer.this.expiredTokens) {
+                    expiredTokens = new ArrayList<ExpiredToken>(MockFeedbackServer.this.expiredTokens);
+                    MockFeedbackServer.this.expiredTokens.clear();
+                }
+
+                for (final ExpiredToken expiredToken : expiredTokens) {
+                    final DeviceToken token = expiredToken.getDeviceToken();
+                    final ByteBuf buffer = context.alloc().ioBuffer(4 + 2 + token.getLength());
+
+                    buffer.writeInt((int)(expiredToken.getExpiration().getTime() / 1000));
+                    buffer.writeShort(token.getLength());
+                    token.writeTo(buffer);
+
+                    context.write(buffer);
+                }
+
+                context.writeAndFlush(context.alloc().ioBuffer(0)).addListener(ChannelFutureListener.CLOSE);
+            }
+
+            super.userEventTriggered(context, event);
+        }
+    }
+
+    public MockFeedbackServer(final NioEventLoopGroup eventLoopGroup) {
+        if (eventLoopGroup == null) {
+            throw new NullPointerException("Event loop group must not be null.");
+        }
+
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    /**
+     * 在指定端口启动，端口为0时使用随机端口
+     *
+     * @return 实际监听的端口
+     */
+    public synchronized int start(final int port) throws Exception {
+        if (this.serverChannel != null) {
+            throw new IllegalStateException("Server has already been started.");
+        }
+
+        final SelfSignedCertificate certificate = new SelfSignedCertificate("localhost");
+        final SslContext sslContext = SslContextBuilder.forServer(certificate.certificate(), certificate.privateKey())
+                .build();
+
+        final ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(this.eventLoopGroup);
+        bootstrap.channel(NioServerSocketChannel.class);
+        bootstrap.childHandler(new ChannelInitializer<SocketChannel>() {
+
+            @Override
+            protected void initChannel(final SocketChannel channel) {
+                channel.pipeline().addLast("ssl", sslContext.newHandler(channel.alloc()));
+                channel.pipeline().addLast("handler", new FeedbackHandler());
+            }
+        });
+
+        this.serverChannel = bootstrap.bind(port).sync().channel();
+
+        return ((InetSocketAddress)this.serverChannel.localAddress()).getPort();
+    }
+
+    public synchronized void shutdown() throws InterruptedException {
+        if (this.serverChannel != null) {
+            this.serverChannel.close().sync();
+            this.serverChannel = null;
+        }
+    }
+
+    /**
+     * 登记下一次查询时返回的失效token
+     */
+    public void addExpiredToken(final ExpiredToken expiredToken) {
+        synchronized (this.expiredTokens) {
+            this.expiredTokens.add(expiredToken);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class BadgeSummingNotificationMergerTest {
+
+    private static final byte[] TOKEN = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+
+    private final BadgeSummingNotificationMerger<SimpleApnsPushNotification> merger = new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(
+            SimpleApnsPushNotification.FACTORY);
+
+    private static SimpleApnsPushNotification createNotification(final String payload) {
+        return new SimpleApnsPushNotification(TOKEN, payload);
+    }
+
+    @Test
+    public void testSumBadges() {
+        final SimpleApnsPushNotification merged = this.merger.merge(
+                createNotification("{\"aps\":{\"alert\":\"a\",\"badge\":2}}"),
+                createNotification("{\"aps\":{\"alert\":\"b\",\"badge\":3}}"));
+
+        assertEquals("{\"aps\":{\"alert\":\"b\",\"badge\":5}}", merged.getPayload());
+    }
+
+    @Test
+    public void testKeepNullValues() {
+        // A null action-loc-key hides the action button, so dropping it would bring the button back
+        final SimpleApnsPushNotification merged = this.merger.merge(
+                createNotification("{\"aps\":{\"badge\":4}}"),
+                createNotification("{\"aps\":{\"badge\":1,\"alert\":{\"body\":\"hi\",\"action-loc-key\":null}}}"));
+
+        assertEquals("{\"aps\":{\"badge\":5,\"alert\":{\"body\":\"hi\",\"action-loc-key\":null}}}",
+                merged.getPayload());
+    }
+
+    @Test
+    public void testKeepFieldOrderAndCustomProperties() {
+        final SimpleApnsPushNotification merged = this.merger.merge(
+                createNotification("{\"aps\":{\"badge\":1}}"),
+                createNotification("{\"z\":[1,null,\"x\"],\"aps\":{\"sound\":\"default\",\"badge\":1},\"a\":1.50}"));
+
+        assertEquals("{\"z\":[1,null,\"x\"],\"aps\":{\"sound\":\"default\",\"badge\":2},\"a\":1.50}",
+                merged.getPayload());
+    }
+
+    @Test
+    public void testBadgeOnlyOnPendingNotification() {
+        final SimpleApnsPushNotification merged = this.merger.merge(
+                createNotification("{\"aps\":{\"badge\":7}}"),
+                createNotification("{\"aps\":{\"alert\":\"b\"}}"));
+
+        assertEquals("{\"aps\":{\"alert\":\"b\",\"badge\":7}}", merged.getPayload());
+    }
+
+    @Test
+    public void testNoBadges() {
+        final SimpleApnsPushNotification newNotification = createNotification("{\"aps\":{\"alert\":\"b\"}}");
+
+        assertSame(newNotification, this.merger.merge(createNotification("{\"aps\":{\"alert\":\"a\"}}"),
+                newNotification));
+    }
+
+    @Test
+    public void testMergedPayloadTooLong() {
+        final String newPayload = "{\"aps\":{\"alert\":\"b\",\"badge\":9}}";
+        final BadgeSummingNotificationMerger<SimpleApnsPushNotification> merger = new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(
+                SimpleApnsPushNotification.FACTORY, newPayload.length());
+
+        final SimpleApnsPushNotification newNotification = createNotification(newPayload);
+
+        // 9 + 1 needs one more digit than the limit allows
+        assertSame(newNotification, merger.merge(createNotification("{\"aps\":{\"badge\":1}}"), newNotification));
+
+        // A sum that doesn't need more digits still fits
+        final SimpleApnsPushNotification merged = merger.merge(createNotification("{\"aps\":{\"badge\":-8}}"),
+                newNotification);
+        assertEquals("{\"aps\":{\"alert\":\"b\",\"badge\":1}}", merged.getPayload());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaximumLength() {
+        new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(SimpleApnsPushNotification.FACTORY, 0);
+    }
+}
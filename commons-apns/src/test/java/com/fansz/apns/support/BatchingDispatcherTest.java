@@ -0,0 +1,193 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingDispatcherTest {
+
+    private RecordingScheduler scheduler;
+
+    private RecordingBatchHandler handler;
+
+    /**
+     * 记录每个定时任务，测试可以用{@link #runLastTask()}模拟已经开始执行、无法再被取消的定时任务
+     */
+    private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public RecordingScheduler() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(final Runnable command, final long delay, final TimeUnit unit) {
+            this.tasks.add(command);
+            return super.schedule(command, delay, unit);
+        }
+
+        public synchronized int getScheduledCount() {
+            return this.tasks.size();
+        }
+
+        public void runLastTask() {
+            final Runnable task;
+
+            synchronized (this) {
+                task = this.tasks.get(this.tasks.size() - 1);
+            }
+
+            task.run();
+        }
+    }
+
+    private static class RecordingBatchHandler implements BatchingDispatcher.BatchHandler<Integer> {
+
+        private final List<List<Integer>> batches = new ArrayList<List<Integer>>();
+
+        private CountDownLatch latch = new CountDownLatch(0);
+
+        @Override
+        public synchronized void handleBatch(final List<Integer> batch) {
+            this.batches.add(new ArrayList<Integer>(batch));
+            this.latch.countDown();
+        }
+
+        public synchronized List<List<Integer>> getBatches() {
+            return new ArrayList<List<Integer>>(this.batches);
+        }
+
+        public synchronized CountDownLatch expectBatches(final int count) {
+            this.latch = new CountDownLatch(count);
+            return this.latch;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.scheduler = new RecordingScheduler();
+        this.handler = new RecordingBatchHandler();
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testSizeTrigger() {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 3, 60000,
+                this.handler);
+
+        for (int i = 0; i < 7; i++) {
+            dispatcher.add(i);
+        }
+
+        assertEquals(Arrays.asList(Arrays.asList(0, 1, 2), Arrays.asList(3, 4, 5)), this.handler.getBatches());
+        assertEquals(1, dispatcher.getPendingEventCount());
+    }
+
+    @Test
+    public void testDelayTrigger() throws Exception {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 100, 20,
+                this.handler);
+
+        final CountDownLatch latch = this.handler.expectBatches(1);
+        final long start = System.nanoTime();
+
+        dispatcher.add(1);
+        dispatcher.add(2);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), this.handler.getBatches());
+        assertEquals(0, dispatcher.getPendingEventCount());
+        assertEquals(1, this.scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testZeroDelayDeliversEachEvent() {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 100, 0,
+                this.handler);
+
+        dispatcher.add(1);
+        dispatcher.add(2);
+
+        assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)), this.handler.getBatches());
+        assertEquals(0, this.scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void testFlushOnShutdown() throws Exception {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 100, 50,
+                this.handler);
+
+        dispatcher.add(1);
+        dispatcher.flush();
+
+        assertEquals(Arrays.asList(Arrays.asList(1)), this.handler.getBatches());
+        assertEquals(0, dispatcher.getPendingEventCount());
+
+        // The cancelled timer never delivers anything, and flushing again with nothing pending does nothing
+        Thread.sleep(100);
+        dispatcher.flush();
+
+        assertEquals(1, this.handler.getBatches().size());
+    }
+
+    @Test
+    public void testStaleTimerDoesNotFlushNextBatch() {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 3, 60000,
+                this.handler);
+
+        dispatcher.add(1);
+        dispatcher.add(2);
+        dispatcher.add(3);
+        dispatcher.add(4);
+
+        assertEquals(2, this.scheduler.getScheduledCount());
+
+        // The first batch's timer started running before the size trigger could cancel it
+        this.scheduler.tasks.get(0).run();
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3)), this.handler.getBatches());
+        assertEquals(1, dispatcher.getPendingEventCount());
+
+        // The second batch's timer is still armed, so adding doesn't schedule another one
+        dispatcher.add(5);
+        assertEquals(2, this.scheduler.getScheduledCount());
+
+        this.scheduler.runLastTask();
+
+        assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5)), this.handler.getBatches());
+        assertEquals(0, dispatcher.getPendingEventCount());
+    }
+
+    @Test
+    public void testTimerStillFlushesItsOwnBatch() {
+        final BatchingDispatcher<Integer> dispatcher = new BatchingDispatcher<Integer>(this.scheduler, 10, 60000,
+                this.handler);
+
+        dispatcher.add(1);
+        this.scheduler.runLastTask();
+
+        assertEquals(Arrays.asList(Arrays.asList(1)), this.handler.getBatches());
+
+        // A new batch arms a new timer
+        dispatcher.add(2);
+        assertEquals(2, this.scheduler.getScheduledCount());
+    }
+}
@@ -0,0 +1,82 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getMillisUntilHalfOpen() > 0);
+        assertEquals(1, breaker.getTripCount());
+    }
+
+    @Test
+    public void testSuccessResetsFailureCount() {
+        final CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getMillisUntilHalfOpen());
+    }
+
+    @Test
+    public void testHalfOpenAllowsSingleTrial() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 1);
+
+        breaker.recordFailure();
+        Thread.sleep(5);
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialOpensAgain() throws InterruptedException {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 1);
+
+        breaker.recordFailure();
+        Thread.sleep(5);
+
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getTripCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroFailureThreshold() {
+        new CircuitBreaker(0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroOpenTime() {
+        new CircuitBreaker(1, 0);
+    }
+}
@@ -0,0 +1,222 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.SimpleApnsPushNotification;
+import com.fansz.apns.util.ApnsPayloadBuilder;
+
+public class CoalescingNotificationQueueTest {
+
+    private static final byte[] TOKEN = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+
+    private static final byte[] OTHER_TOKEN = new byte[] { 0x05, 0x06, 0x07, 0x08 };
+
+    /** Uses the alert text as the collapse key, and never merges notifications without one */
+    private static final CollapseKeyExtractor<SimpleApnsPushNotification> ALERT_KEY = new CollapseKeyExtractor<SimpleApnsPushNotification>() {
+
+        @Override
+        public String getCollapseKey(final SimpleApnsPushNotification notification) {
+            final int start = notification.getPayload().indexOf("\"alert\":\"");
+            return start >= 0 ? notification.getPayload().substring(start, notification.getPayload().indexOf('"',
+                    start + 9)) : null;
+        }
+    };
+
+    private static class MapDeliveryTracker implements DeliveryTracker<SimpleApnsPushNotification> {
+
+        private final Map<SimpleApnsPushNotification, DeliveryReceipt> receipts = new IdentityHashMap<SimpleApnsPushNotification, DeliveryReceipt>();
+
+        public DeliveryReceipt track(final SimpleApnsPushNotification notification) {
+            final DeliveryReceipt receipt = new DeliveryReceipt(ImmediateEventExecutor.INSTANCE, new Histogram(),
+                    new Histogram());
+            this.receipts.put(notification, receipt);
+
+            return receipt;
+        }
+
+        @Override
+        public DeliveryReceipt getDeliveryReceipt(final SimpleApnsPushNotification notification) {
+            return this.receipts.get(notification);
+        }
+
+        @Override
+        public boolean hasDeliveryState(final SimpleApnsPushNotification notification) {
+            return this.receipts.containsKey(notification);
+        }
+
+        @Override
+        public void transferDeliveryReceipt(final SimpleApnsPushNotification previousNotification,
+                final SimpleApnsPushNotification notification) {
+            if (previousNotification != notification) {
+                final DeliveryReceipt receipt = this.receipts.remove(previousNotification);
+
+                if (receipt != null) {
+                    this.receipts.put(notification, receipt);
+                }
+            }
+        }
+
+        @Override
+        public void releaseDeliveryReceipt(final SimpleApnsPushNotification notification) {
+            this.receipts.remove(notification);
+        }
+    }
+
+    private static SimpleApnsPushNotification createNotification(final byte[] token, final String alert,
+            final Integer badge) {
+        final StringBuilder payload = new StringBuilder("{\"aps\":{");
+
+        if (alert != null) {
+            payload.append("\"alert\":\"").append(alert).append('"');
+        }
+
+        if (badge != null) {
+            payload.append(alert != null ? "," : "").append("\"badge\":").append(badge);
+        }
+
+        return new SimpleApnsPushNotification(token, payload.append("}}").toString());
+    }
+
+    @Test
+    public void testReplaceKeepsQueuePosition() {
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY);
+
+        final SimpleApnsPushNotification first = createNotification(TOKEN, "like", 1);
+        final SimpleApnsPushNotification second = createNotification(OTHER_TOKEN, "like", 1);
+        final SimpleApnsPushNotification replacement = createNotification(TOKEN, "like", 2);
+
+        queue.add(first);
+        queue.add(second);
+        queue.add(replacement);
+
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        assertSame(replacement, queue.poll());
+        assertSame(second, queue.poll());
+    }
+
+    @Test
+    public void testDifferentKeysAndUnkeyedNotificationsAreNotMerged() {
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY);
+
+        queue.add(createNotification(TOKEN, "like", null));
+        queue.add(createNotification(TOKEN, "comment", null));
+        queue.add(createNotification(TOKEN, null, 1));
+        queue.add(createNotification(TOKEN, null, 1));
+
+        assertEquals(4, queue.size());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void testDequeuedNotificationsAreNotMerged() {
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY);
+
+        queue.add(createNotification(TOKEN, "like", null));
+        queue.poll();
+        queue.add(createNotification(TOKEN, "like", null));
+
+        assertEquals(1, queue.size());
+        assertEquals(0, queue.getCoalescedCount());
+    }
+
+    @Test
+    public void testMergeDoesNotNeedCapacity() {
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY, null, 1);
+
+        assertTrue(queue.offer(createNotification(TOKEN, "like", null)));
+        assertFalse(queue.offer(createNotification(OTHER_TOKEN, "like", null)));
+        assertTrue(queue.offer(createNotification(TOKEN, "like", null)));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testBadgeSummingMerger() {
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY, new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(
+                        SimpleApnsPushNotification.FACTORY), 10);
+
+        queue.add(createNotification(TOKEN, "like", 2));
+        queue.add(createNotification(TOKEN, "like", 3));
+        queue.add(createNotification(TOKEN, "like", null));
+
+        assertEquals(1, queue.size());
+        assertEquals(Integer.valueOf(5), ApnsPayloadBuilder.getBadgeNumber(queue.poll().getPayload()));
+    }
+
+    @Test
+    public void testMergedNotificationInheritsPendingReceipt() {
+        final MapDeliveryTracker tracker = new MapDeliveryTracker();
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY, new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(
+                        SimpleApnsPushNotification.FACTORY), 10);
+        queue.setDeliveryTracker(tracker);
+
+        final SimpleApnsPushNotification pending = createNotification(TOKEN, "like", 1);
+        final SimpleApnsPushNotification newNotification = createNotification(TOKEN, "like", 1);
+        final DeliveryReceipt pendingReceipt = tracker.track(pending);
+        final DeliveryReceipt newReceipt = tracker.track(newNotification);
+
+        queue.add(pending);
+        queue.add(newNotification);
+
+        final SimpleApnsPushNotification merged = queue.poll();
+
+        assertSame(pendingReceipt, tracker.getDeliveryReceipt(merged));
+        assertFalse(pendingReceipt.getOutcomeFuture().isDone());
+        assertEquals(DeliveryOutcome.COALESCED, newReceipt.getOutcomeFuture().getNow());
+        assertEquals(1, tracker.receipts.size());
+    }
+
+    @Test
+    public void testReplacementInheritsPendingReceipt() {
+        final MapDeliveryTracker tracker = new MapDeliveryTracker();
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY);
+        queue.setDeliveryTracker(tracker);
+
+        final SimpleApnsPushNotification pending = createNotification(TOKEN, "like", null);
+        final SimpleApnsPushNotification replacement = createNotification(TOKEN, "like", null);
+        final DeliveryReceipt pendingReceipt = tracker.track(pending);
+        final DeliveryReceipt replacementReceipt = tracker.track(replacement);
+
+        queue.add(pending);
+        queue.add(replacement);
+
+        assertSame(pendingReceipt, tracker.getDeliveryReceipt(replacement));
+        assertNull(tracker.getDeliveryReceipt(pending));
+        assertEquals(DeliveryOutcome.COALESCED, replacementReceipt.getOutcomeFuture().getNow());
+    }
+
+    @Test
+    public void testUntrackedPendingNotificationTakesNewReceipt() {
+        final MapDeliveryTracker tracker = new MapDeliveryTracker();
+        final CoalescingNotificationQueue<SimpleApnsPushNotification> queue = new CoalescingNotificationQueue<SimpleApnsPushNotification>(
+                ALERT_KEY, new BadgeSummingNotificationMerger<SimpleApnsPushNotification>(
+                        SimpleApnsPushNotification.FACTORY), 10);
+        queue.setDeliveryTracker(tracker);
+
+        final SimpleApnsPushNotification newNotification = createNotification(TOKEN, "like", 1);
+        final DeliveryReceipt newReceipt = tracker.track(newNotification);
+
+        queue.add(createNotification(TOKEN, "like", 1));
+        queue.add(newNotification);
+
+        assertSame(newReceipt, tracker.getDeliveryReceipt(queue.poll()));
+        assertFalse(newReceipt.getOutcomeFuture().isDone());
+    }
+}
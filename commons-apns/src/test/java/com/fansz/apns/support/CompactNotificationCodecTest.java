@@ -0,0 +1,112 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.ApnsPayload;
+import com.fansz.apns.model.SendableApnsPushNotification;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class CompactNotificationCodecTest {
+
+    private static final byte[] TOKEN = new byte[] { 0x01, 0x23, 0x45, 0x67, (byte)0x89, (byte)0xab, (byte)0xcd,
+            (byte)0xef };
+
+    private final CompactNotificationCodec<SimpleApnsPushNotification> codec = new CompactNotificationCodec<SimpleApnsPushNotification>(
+            SimpleApnsPushNotification.FACTORY);
+
+    private static void assertNotificationEquals(final SimpleApnsPushNotification expected,
+            final SimpleApnsPushNotification actual) {
+        assertArrayEquals(expected.getToken(), actual.getToken());
+        assertEquals(expected.getPayload(), actual.getPayload());
+        assertEquals(expected.getDeliveryInvalidationTime(), actual.getDeliveryInvalidationTime());
+        assertEquals(expected.getPriority(), actual.getPriority());
+    }
+
+    private SimpleApnsPushNotification roundTrip(final SimpleApnsPushNotification notification, final boolean direct) {
+        final ByteBuf encoded = this.codec.encode(notification, UnpooledByteBufAllocator.DEFAULT, direct);
+
+        try {
+            final int readerIndex = encoded.readerIndex();
+            final SimpleApnsPushNotification decoded = this.codec.decode(encoded);
+
+            assertEquals(readerIndex, encoded.readerIndex());
+            return decoded;
+        } finally {
+            encoded.release();
+        }
+    }
+
+    @Test
+    public void testRoundTripWithAllFields() {
+        final SimpleApnsPushNotification notification = new SimpleApnsPushNotification(TOKEN,
+                "{\"aps\":{\"alert\":\"你好\"}}", new Date(1400000000000L), DeliveryPriority.CONSERVE_POWER);
+
+        assertNotificationEquals(notification, this.roundTrip(notification, true));
+        assertNotificationEquals(notification, this.roundTrip(notification, false));
+    }
+
+    @Test
+    public void testRoundTripWithoutOptionalFields() {
+        final SimpleApnsPushNotification notification = new SimpleApnsPushNotification(TOKEN, "{}", null, null);
+        final SimpleApnsPushNotification decoded = this.roundTrip(notification, true);
+
+        assertNotificationEquals(notification, decoded);
+        assertNull(decoded.getDeliveryInvalidationTime());
+        assertNull(decoded.getPriority());
+    }
+
+    @Test
+    public void testRoundTripWithDeviceTokenAndSharedPayload() {
+        final ApnsPayload payload = new ApnsPayload("{\"aps\":{\"badge\":3}}");
+        final SimpleApnsPushNotification notification = new SimpleApnsPushNotification(DeviceToken.fromBytes(TOKEN),
+                payload, null, DeliveryPriority.IMMEDIATE);
+        final int payloadReaderIndex = payload.getBuffer().readerIndex();
+
+        assertNotificationEquals(notification, this.roundTrip(notification, true));
+
+        // Encoding must not consume the shared payload buffer
+        assertEquals(payloadReaderIndex, payload.getBuffer().readerIndex());
+    }
+
+    @Test
+    public void testOffHeapBufferReplaysAndReleases() {
+        final UnpooledByteBufAllocator allocator = new UnpooledByteBufAllocator(true);
+        final OffHeapSentNotificationBuffer<SimpleApnsPushNotification> buffer = new OffHeapSentNotificationBuffer<SimpleApnsPushNotification>(
+                4, allocator, SimpleApnsPushNotification.FACTORY);
+
+        final SimpleApnsPushNotification[] notifications = new SimpleApnsPushNotification[6];
+
+        for (int i = 0; i < notifications.length; i++) {
+            notifications[i] = new SimpleApnsPushNotification(new byte[] { (byte)i }, "{\"i\":" + i + "}");
+            buffer.addSentNotification(new SendableApnsPushNotification<SimpleApnsPushNotification>(
+                    notifications[i], i));
+        }
+
+        assertEquals(4, buffer.size());
+        assertNull(buffer.getNotificationWithSequenceNumber(1));
+        assertNotificationEquals(notifications[2], buffer.getNotificationWithSequenceNumber(2));
+
+        final List<SimpleApnsPushNotification> replayed = buffer.getAllNotificationsAfterSequenceNumber(3);
+
+        assertEquals(2, replayed.size());
+        assertNotificationEquals(notifications[4], replayed.get(0));
+        assertNotificationEquals(notifications[5], replayed.get(1));
+
+        assertTrue(allocator.metric().usedDirectMemory() > 0);
+
+        buffer.clearAllNotifications();
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, allocator.metric().usedDirectMemory());
+    }
+}
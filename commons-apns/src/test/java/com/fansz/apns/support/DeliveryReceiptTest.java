@@ -0,0 +1,72 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeliveryReceiptTest {
+
+    private Histogram writeLatencyHistogram;
+
+    private Histogram retryCountHistogram;
+
+    private DeliveryReceipt receipt;
+
+    @Before
+    public void setUp() {
+        this.writeLatencyHistogram = new Histogram();
+        this.retryCountHistogram = new Histogram();
+        this.receipt = new DeliveryReceipt(ImmediateEventExecutor.INSTANCE, this.writeLatencyHistogram,
+                this.retryCountHistogram);
+    }
+
+    @Test
+    public void testWriteIsRecordedOnce() {
+        this.receipt.handleWrite();
+        this.receipt.handleRetry();
+        this.receipt.handleWrite();
+
+        assertTrue(this.receipt.getWriteFuture().isSuccess());
+        assertEquals(1, this.writeLatencyHistogram.getCount());
+        assertFalse(this.receipt.getOutcomeFuture().isDone());
+    }
+
+    @Test
+    public void testOutcomeRecordsRetryCount() {
+        this.receipt.handleWrite();
+        this.receipt.handleRetry();
+        this.receipt.handleRetry();
+        this.receipt.handleOutcome(DeliveryOutcome.ACCEPTED);
+
+        // Only the first outcome counts
+        this.receipt.handleRejection(RejectedNotificationReason.INVALID_TOKEN);
+
+        assertEquals(DeliveryOutcome.ACCEPTED, this.receipt.getOutcomeFuture().getNow());
+        assertEquals(2, this.receipt.getRetryCount());
+        assertEquals(1, this.retryCountHistogram.getCount());
+        assertEquals(2, this.retryCountHistogram.getMax());
+    }
+
+    @Test
+    public void testRejection() {
+        this.receipt.handleWrite();
+        this.receipt.handleRejection(RejectedNotificationReason.INVALID_TOKEN);
+
+        assertEquals(DeliveryOutcome.REJECTED, this.receipt.getOutcomeFuture().getNow());
+        assertEquals(RejectedNotificationReason.INVALID_TOKEN, this.receipt.getRejectionReason());
+    }
+
+    @Test
+    public void testOutcomeWithoutWriteFailsWriteFuture() {
+        this.receipt.handleOutcome(DeliveryOutcome.NOT_SENT);
+
+        assertTrue(this.receipt.getWriteFuture().cause() instanceof IllegalStateException);
+        assertNull(this.receipt.getRejectionReason());
+        assertEquals(0, this.writeLatencyHistogram.getCount());
+    }
+}
@@ -0,0 +1,193 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.SimpleApnsPushNotification;
+import com.fansz.apns.util.MalformedTokenStringException;
+import com.fansz.apns.util.TokenUtil;
+
+public class DeviceTokenTest {
+
+    private static final int[] LENGTHS = new int[] { 1, 7, 8, 9, 16, 31, 32 };
+
+    private static byte[] createToken(final int length, final long seed) {
+        final byte[] token = new byte[length];
+        new Random(seed).nextBytes(token);
+
+        return token;
+    }
+
+    @Test
+    public void testFromBytesRoundTrip() {
+        for (final int length : LENGTHS) {
+            final byte[] token = createToken(length, length);
+            final DeviceToken deviceToken = DeviceToken.fromBytes(token);
+
+            assertEquals(length, deviceToken.getLength());
+            assertArrayEquals(token, deviceToken.toByteArray());
+
+            for (int i = 0; i < length; i++) {
+                assertEquals(token[i], deviceToken.getByte(i));
+            }
+        }
+    }
+
+    @Test
+    public void testFromBytesDoesNotKeepArray() {
+        final byte[] token = createToken(32, 1);
+        final DeviceToken deviceToken = DeviceToken.fromBytes(token);
+
+        token[0] ^= 0xff;
+
+        assertFalse(deviceToken.equals(DeviceToken.fromBytes(token)));
+    }
+
+    @Test
+    public void testStringRoundTrip() throws Exception {
+        for (final int length : LENGTHS) {
+            final byte[] token = createToken(length, length);
+            final String tokenString = TokenUtil.tokenBytesToString(token);
+            final DeviceToken deviceToken = DeviceToken.fromString(tokenString);
+
+            assertEquals(tokenString, deviceToken.toString());
+            assertEquals(DeviceToken.fromBytes(token), deviceToken);
+            assertEquals(deviceToken, DeviceToken.fromString(tokenString.toUpperCase()));
+        }
+    }
+
+    @Test
+    public void testFromStringIgnoresNonHexCharacters() throws Exception {
+        final String tokenString = "<740f4707 bebcf74f 9B7C25D4 8e335894 5f6aa01d a5ddb387 462c7eaf 61bb78ad>";
+        final DeviceToken deviceToken = DeviceToken.fromString(tokenString);
+
+        assertArrayEquals(TokenUtil.tokenStringToByteArray(tokenString), deviceToken.toByteArray());
+        assertEquals("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad", deviceToken.toString());
+    }
+
+    @Test
+    public void testFromStringRejectsMalformedStrings() {
+        final StringBuilder tooLong = new StringBuilder();
+
+        for (int i = 0; i < 33; i++) {
+            tooLong.append("ab");
+        }
+
+        for (final String tokenString : new String[] { "", "<>", "abc", "a", tooLong.toString() }) {
+            try {
+                DeviceToken.fromString(tokenString);
+                fail("Expected an exception for " + tokenString);
+            } catch (final MalformedTokenStringException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testFromBytesRejectsBadLengths() {
+        for (final int length : new int[] { 0, 33 }) {
+            try {
+                DeviceToken.fromBytes(new byte[length]);
+                fail("Expected an exception for " + length + " bytes");
+            } catch (final IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testReadFromAndWriteTo() {
+        for (final int length : LENGTHS) {
+            final byte[] token = createToken(length, length);
+            final DeviceToken deviceToken = DeviceToken.fromBytes(token);
+
+            final ByteBuf buffer = Unpooled.buffer();
+
+            try {
+                // Surround the token with other bytes so over- or under-reads show up
+                buffer.writeByte(0x5a);
+                deviceToken.writeTo(buffer);
+                buffer.writeByte(0xa5);
+
+                assertEquals(length + 2, buffer.readableBytes());
+
+                final byte[] written = new byte[length];
+                buffer.getBytes(1, written);
+                assertArrayEquals(token, written);
+
+                buffer.skipBytes(1);
+                assertEquals(deviceToken, DeviceToken.readFrom(buffer, length));
+                assertEquals((byte)0xa5, buffer.readByte());
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        for (final int length : LENGTHS) {
+            final byte[] token = createToken(length, length);
+
+            final DeviceToken deviceToken = DeviceToken.fromBytes(token);
+            final DeviceToken copy = DeviceToken.fromBytes(token.clone());
+
+            assertEquals(deviceToken, copy);
+            assertEquals(deviceToken.hashCode(), copy.hashCode());
+
+            final byte[] lastByteChanged = token.clone();
+            lastByteChanged[length - 1] ^= 0x01;
+            assertNotEquals(deviceToken, DeviceToken.fromBytes(lastByteChanged));
+        }
+    }
+
+    @Test
+    public void testTrailingZerosChangeLength() {
+        // Tokens are zero-padded into their words, so the length has to tell these apart
+        final DeviceToken shortToken = DeviceToken.fromBytes(new byte[] { 0x01 });
+        final DeviceToken paddedToken = DeviceToken.fromBytes(new byte[] { 0x01, 0x00 });
+
+        assertNotEquals(shortToken, paddedToken);
+        assertEquals("01", shortToken.toString());
+        assertEquals("0100", paddedToken.toString());
+    }
+
+    @Test
+    public void testHashCodesSpread() {
+        final Set<Integer> hashCodes = new HashSet<Integer>();
+
+        for (int i = 0; i < 10000; i++) {
+            final byte[] token = new byte[32];
+            token[31] = (byte)i;
+            token[30] = (byte)(i >> 8);
+
+            hashCodes.add(DeviceToken.fromBytes(token).hashCode());
+        }
+
+        assertEquals(10000, hashCodes.size());
+    }
+
+    @Test
+    public void testOf() {
+        final byte[] token = createToken(32, 2);
+        final SimpleApnsPushNotification notification = new SimpleApnsPushNotification(token, "{}");
+
+        assertEquals(DeviceToken.fromBytes(token), DeviceToken.of(notification));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetByteOutOfBounds() {
+        DeviceToken.fromBytes(new byte[8]).getByte(8);
+    }
+}
@@ -0,0 +1,97 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        final Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testPercentilesReturnBucketUpperBound() {
+        final Histogram histogram = new Histogram();
+
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(999, histogram.getMax());
+        assertEquals(499.5, histogram.getMean(), 1e-9);
+
+        // The 500th value is 499, which falls in [256, 512)
+        assertEquals(511, histogram.getValueAtPercentile(50));
+
+        // The upper bound of the last bucket is capped at the largest recorded value
+        assertEquals(999, histogram.getValueAtPercentile(99));
+        assertEquals(999, histogram.getValueAtPercentile(100));
+        assertEquals(0, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testExtremeValues() {
+        final Histogram histogram = new Histogram();
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsPercentileOutOfRange() {
+        new Histogram().getValueAtPercentile(101);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+
+            threads[t] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record(offset * 10000 + i);
+                    }
+                }
+            });
+
+            threads[t].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, histogram.getMax());
+        assertEquals(19999.5, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testReset() {
+        final Histogram histogram = new Histogram();
+
+        histogram.record(12);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+}
@@ -0,0 +1,133 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InvalidTokenRegistryTest {
+
+    private static final long LONG_RETENTION_MILLIS = 60 * 60 * 1000;
+
+    private static byte[][] createTokens(final int count) {
+        final Random random = new Random(1);
+        final byte[][] tokens = new byte[count][InvalidTokenRegistry.TOKEN_LENGTH];
+
+        for (final byte[] token : tokens) {
+            random.nextBytes(token);
+        }
+
+        return tokens;
+    }
+
+    @Test
+    public void testAddContainsRemove() {
+        final InvalidTokenRegistry registry = new InvalidTokenRegistry(LONG_RETENTION_MILLIS);
+        final byte[][] tokens = createTokens(2);
+
+        assertTrue(registry.add(tokens[0]));
+
+        assertTrue(registry.contains(tokens[0]));
+        assertTrue(registry.contains(DeviceToken.fromBytes(tokens[0])));
+        assertFalse(registry.contains(tokens[1]));
+        assertFalse(registry.contains(new byte[] { 1, 2, 3 }));
+
+        assertTrue(registry.remove(tokens[0]));
+        assertFalse(registry.remove(tokens[0]));
+        assertFalse(registry.contains(tokens[0]));
+
+        // A removed token can be registered again
+        assertTrue(registry.add(DeviceToken.fromBytes(tokens[0])));
+        assertTrue(registry.contains(tokens[0]));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        final InvalidTokenRegistry registry = new InvalidTokenRegistry(50);
+        final byte[][] tokens = createTokens(10);
+
+        for (final byte[] token : tokens) {
+            registry.add(token);
+        }
+
+        assertEquals(10, registry.size());
+
+        Thread.sleep(100);
+
+        for (final byte[] token : tokens) {
+            assertFalse(registry.contains(token));
+        }
+
+        assertEquals(0, registry.size());
+
+        registry.purgeExpiredTokens();
+        registry.add(tokens[3]);
+
+        assertTrue(registry.contains(tokens[3]));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testGrowsPastInitialCapacity() {
+        final InvalidTokenRegistry registry = new InvalidTokenRegistry(LONG_RETENTION_MILLIS, 1);
+        final byte[][] tokens = createTokens(10000);
+
+        for (final byte[] token : tokens) {
+            assertTrue(registry.add(token));
+        }
+
+        // Adding a token again only refreshes it
+        assertTrue(registry.add(tokens[0]));
+        assertEquals(tokens.length, registry.size());
+
+        for (final byte[] token : tokens) {
+            assertTrue(registry.contains(token));
+        }
+    }
+
+    @Test
+    public void testRehashDropsExpiredAndRemovedTokens() throws InterruptedException {
+        final InvalidTokenRegistry registry = new InvalidTokenRegistry(50, 16);
+        final byte[][] tokens = createTokens(1000);
+
+        for (int i = 0; i < 500; i++) {
+            registry.add(tokens[i]);
+        }
+
+        Thread.sleep(100);
+
+        // Refills the table with live tokens; the expired ones must not come back or block lookups
+        for (int i = 500; i < tokens.length; i++) {
+            registry.add(tokens[i]);
+        }
+
+        assertFalse(registry.contains(tokens[0]));
+        assertTrue(registry.contains(tokens[999]));
+
+        registry.remove(tokens[999]);
+        registry.purgeExpiredTokens();
+
+        assertFalse(registry.contains(tokens[999]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsInitialCapacityThatDoesNotFit() {
+        new InvalidTokenRegistry(LONG_RETENTION_MILLIS, InvalidTokenRegistry.MAXIMUM_CAPACITY + 1);
+    }
+
+    @Test
+    public void testMaximumCapacityFitsInOneBuffer() {
+        // 40-byte slots, a power-of-two slot count and a 0.75 load factor
+        assertEquals((1 << 25) * 3 / 4, InvalidTokenRegistry.MAXIMUM_CAPACITY);
+        assertTrue((long)(1 << 25) * (InvalidTokenRegistry.TOKEN_LENGTH + 8) <= Integer.MAX_VALUE);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsTokensOfWrongLength() {
+        new InvalidTokenRegistry(LONG_RETENTION_MILLIS).add(new byte[] { 1, 2, 3 });
+    }
+}
@@ -0,0 +1,308 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fansz.apns.config.RetryConfiguration;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class RetrySchedulerTest {
+
+    private static final String PAYLOAD = "{\"aps\":{\"alert\":\"Hello\"}}";
+
+    private ManualTimer timer;
+
+    private RecordingRetryHandler handler;
+
+    /**
+     * 只在测试调用{@link #runRetries()}时执行重试任务（按任务的类名区分），失败次数的过期任务从不执行
+     */
+    private static class ManualTimer implements Timer {
+
+        private final List<ManualTimeout> timeouts = new ArrayList<ManualTimeout>();
+
+        @Override
+        public Timeout newTimeout(final TimerTask task, final long delay, final TimeUnit unit) {
+            final ManualTimeout timeout = new ManualTimeout(this, task, unit.toMillis(delay));
+            this.timeouts.add(timeout);
+
+            return timeout;
+        }
+
+        @Override
+        public Set<Timeout> stop() {
+            return Collections.emptySet();
+        }
+
+        public List<Long> getRetryDelays() {
+            final List<Long> delays = new ArrayList<Long>();
+
+            for (final ManualTimeout timeout : this.timeouts) {
+                if (timeout.isRetry()) {
+                    delays.add(timeout.delayMillis);
+                }
+            }
+
+            return delays;
+        }
+
+        public void runRetries() throws Exception {
+            for (final ManualTimeout timeout : new ArrayList<ManualTimeout>(this.timeouts)) {
+                if (timeout.isRetry() && !timeout.isCancelled() && !timeout.isExpired()) {
+                    timeout.expired = true;
+                    timeout.task.run(timeout);
+                }
+            }
+        }
+    }
+
+    private static class ManualTimeout implements Timeout {
+
+        private final Timer timer;
+
+        private final TimerTask task;
+
+        private final long delayMillis;
+
+        private boolean cancelled = false;
+
+        private boolean expired = false;
+
+        public ManualTimeout(final Timer timer, final TimerTask task, final long delayMillis) {
+            this.timer = timer;
+            this.task = task;
+            this.delayMillis = delayMillis;
+        }
+
+        public boolean isRetry() {
+            return this.task.getClass().getSimpleName().equals("RetryTask");
+        }
+
+        @Override
+        public Timer timer() {
+            return this.timer;
+        }
+
+        @Override
+        public TimerTask task() {
+            return this.task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.expired;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (this.expired || this.cancelled) {
+                return false;
+            }
+
+            this.cancelled = true;
+            return true;
+        }
+    }
+
+    private static class RecordingRetryHandler implements RetryScheduler.RetryHandler<SimpleApnsPushNotification> {
+
+        private final List<SimpleApnsPushNotification> retries = new ArrayList<SimpleApnsPushNotification>();
+
+        private final List<SimpleApnsPushNotification> deadLetters = new ArrayList<SimpleApnsPushNotification>();
+
+        private final List<Integer> deadLetterAttempts = new ArrayList<Integer>();
+
+        @Override
+        public void handleRetry(final SimpleApnsPushNotification notification) {
+            this.retries.add(notification);
+        }
+
+        @Override
+        public void handleDeadLetter(final SimpleApnsPushNotification notification, final int attempts) {
+            this.deadLetters.add(notification);
+            this.deadLetterAttempts.add(attempts);
+        }
+    }
+
+    private static SimpleApnsPushNotification createNotification() {
+        return new SimpleApnsPushNotification(new byte[32], PAYLOAD);
+    }
+
+    private RetryScheduler<SimpleApnsPushNotification> createScheduler(final Integer maximumDeliveryAttempts) {
+        final RetryConfiguration configuration = new RetryConfiguration();
+        configuration.setInitialRetryDelayMillis(10);
+        configuration.setMaximumRetryDelayMillis(40);
+        configuration.setMaximumDeliveryAttempts(maximumDeliveryAttempts);
+
+        return new RetryScheduler<SimpleApnsPushNotification>(configuration, this.handler, this.timer);
+    }
+
+    @Before
+    public void setUp() {
+        this.timer = new ManualTimer();
+        this.handler = new RecordingRetryHandler();
+    }
+
+    @Test
+    public void testFirstFailureRetriedImmediately() {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(null);
+        final SimpleApnsPushNotification notification = createNotification();
+
+        scheduler.scheduleRetry(notification);
+
+        assertEquals(1, this.handler.retries.size());
+        assertSame(notification, this.handler.retries.get(0));
+        assertEquals(0, scheduler.getPendingRetryCount());
+        assertTrue(scheduler.hasAttemptCount(notification));
+    }
+
+    @Test
+    public void testLaterFailuresBackOffWithinCeiling() throws Exception {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(null);
+        final SimpleApnsPushNotification notification = createNotification();
+
+        for (int i = 0; i < 6; i++) {
+            scheduler.scheduleRetry(notification);
+        }
+
+        // A delay of zero is a legal draw and is retried right away instead of going through the timer
+        assertEquals(6, this.handler.retries.size() + scheduler.getPendingRetryCount());
+        assertEquals(scheduler.getPendingRetryCount(), this.timer.getRetryDelays().size());
+
+        for (final long delay : this.timer.getRetryDelays()) {
+            assertTrue(delay > 0);
+            assertTrue(delay <= 40);
+        }
+
+        this.timer.runRetries();
+
+        assertEquals(6, this.handler.retries.size());
+        assertEquals(0, scheduler.getPendingRetryCount());
+    }
+
+    @Test
+    public void testDeadLetterAfterMaximumAttempts() throws Exception {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(3);
+        final SimpleApnsPushNotification notification = createNotification();
+
+        scheduler.scheduleRetry(notification);
+        scheduler.scheduleRetry(notification);
+        this.timer.runRetries();
+
+        assertEquals(2, this.handler.retries.size());
+        assertTrue(this.handler.deadLetters.isEmpty());
+
+        scheduler.scheduleRetry(notification);
+
+        assertEquals(2, this.handler.retries.size());
+        assertEquals(1, this.handler.deadLetters.size());
+        assertSame(notification, this.handler.deadLetters.get(0));
+        assertEquals(3, (int)this.handler.deadLetterAttempts.get(0));
+        assertEquals(1, scheduler.getDeadLetterCount());
+        assertFalse(scheduler.hasAttemptCount(notification));
+    }
+
+    @Test
+    public void testTransferAttemptCount() throws Exception {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(3);
+        final SimpleApnsPushNotification notification = createNotification();
+
+        scheduler.scheduleRetry(notification);
+        scheduler.scheduleRetry(notification);
+        this.timer.runRetries();
+
+        // A copy restored from an off-heap buffer is a different object for the same notification
+        final SimpleApnsPushNotification restoredNotification = createNotification();
+        scheduler.transferAttemptCount(notification, restoredNotification);
+
+        assertFalse(scheduler.hasAttemptCount(notification));
+        assertTrue(scheduler.hasAttemptCount(restoredNotification));
+
+        scheduler.scheduleRetry(restoredNotification);
+
+        assertEquals(1, this.handler.deadLetters.size());
+        assertSame(restoredNotification, this.handler.deadLetters.get(0));
+        assertEquals(3, (int)this.handler.deadLetterAttempts.get(0));
+    }
+
+    @Test
+    public void testTransferWithoutAttemptCount() {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(null);
+        final SimpleApnsPushNotification notification = createNotification();
+        final SimpleApnsPushNotification restoredNotification = createNotification();
+
+        scheduler.transferAttemptCount(notification, restoredNotification);
+
+        assertFalse(scheduler.hasAttemptCount(notification));
+        assertFalse(scheduler.hasAttemptCount(restoredNotification));
+    }
+
+    @Test
+    public void testReleaseAttemptCount() throws Exception {
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = this.createScheduler(2);
+        final SimpleApnsPushNotification notification = createNotification();
+
+        scheduler.scheduleRetry(notification);
+        scheduler.releaseAttemptCount(notification);
+
+        assertFalse(scheduler.hasAttemptCount(notification));
+
+        // Counting starts over, so this is a first failure again rather than the second
+        scheduler.scheduleRetry(notification);
+
+        assertEquals(2, this.handler.retries.size());
+        assertTrue(this.handler.deadLetters.isEmpty());
+    }
+
+    @Test
+    public void testStopReturnsPendingRetries() {
+        final RetryConfiguration configuration = new RetryConfiguration();
+        configuration.setInitialRetryDelayMillis(1000);
+        configuration.setMaximumRetryDelayMillis(1000);
+
+        final RetryScheduler<SimpleApnsPushNotification> scheduler = new RetryScheduler<SimpleApnsPushNotification>(
+                configuration, this.handler, this.timer);
+
+        final SimpleApnsPushNotification notification = createNotification();
+
+        scheduler.scheduleRetry(notification);
+
+        // Retry until the random delay isn't zero, so one retry is left waiting on the timer
+        while (scheduler.getPendingRetryCount() == 0) {
+            scheduler.scheduleRetry(notification);
+        }
+
+        final int immediateRetryCount = this.handler.retries.size();
+        final List<SimpleApnsPushNotification> unscheduledNotifications = scheduler.stop();
+
+        assertEquals(1, unscheduledNotifications.size());
+        assertSame(notification, unscheduledNotifications.get(0));
+        assertEquals(0, scheduler.getPendingRetryCount());
+
+        // Failures after stopping are retried immediately
+        scheduler.scheduleRetry(notification);
+
+        assertEquals(immediateRetryCount + 1, this.handler.retries.size());
+        assertEquals(0, scheduler.getPendingRetryCount());
+    }
+}
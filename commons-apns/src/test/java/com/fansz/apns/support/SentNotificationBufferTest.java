@@ -0,0 +1,107 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fansz.apns.model.SendableApnsPushNotification;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class SentNotificationBufferTest {
+
+    private static SimpleApnsPushNotification createNotification(final int i) {
+        return new SimpleApnsPushNotification(new byte[] { (byte)i, (byte)(i >> 8) }, "{\"i\":" + i + "}");
+    }
+
+    private static SimpleApnsPushNotification[] fill(final SentNotificationBuffer<SimpleApnsPushNotification> buffer,
+            final int firstSequenceNumber, final int count) {
+        final SimpleApnsPushNotification[] notifications = new SimpleApnsPushNotification[count];
+
+        for (int i = 0; i < count; i++) {
+            notifications[i] = createNotification(i);
+            buffer.addSentNotification(new SendableApnsPushNotification<SimpleApnsPushNotification>(
+                    notifications[i], firstSequenceNumber + i));
+        }
+
+        return notifications;
+    }
+
+    @Test
+    public void testEvictsOldestWhenFull() {
+        // A capacity that isn't a power of two must still hold exactly that many notifications
+        final SentNotificationBuffer<SimpleApnsPushNotification> buffer = new SentNotificationBuffer<SimpleApnsPushNotification>(
+                5);
+        final SimpleApnsPushNotification[] notifications = fill(buffer, 0, 12);
+
+        assertEquals(5, buffer.size());
+        assertEquals(Integer.valueOf(7), buffer.getLowestSequenceNumber());
+        assertEquals(Integer.valueOf(11), buffer.getHighestSequenceNumber());
+        assertNull(buffer.getNotificationWithSequenceNumber(6));
+
+        for (int i = 7; i < 12; i++) {
+            assertSame(notifications[i], buffer.getNotificationWithSequenceNumber(i));
+        }
+    }
+
+    @Test
+    public void testSequenceNumberWraparound() {
+        final SentNotificationBuffer<SimpleApnsPushNotification> buffer = new SentNotificationBuffer<SimpleApnsPushNotification>(
+                8);
+        final SimpleApnsPushNotification[] notifications = fill(buffer, Integer.MAX_VALUE - 3, 10);
+
+        assertEquals(8, buffer.size());
+        assertEquals(Integer.valueOf(Integer.MAX_VALUE - 1), buffer.getLowestSequenceNumber());
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE + 5), buffer.getHighestSequenceNumber());
+        assertSame(notifications[3], buffer.getNotificationWithSequenceNumber(Integer.MAX_VALUE));
+        assertSame(notifications[4], buffer.getNotificationWithSequenceNumber(Integer.MIN_VALUE));
+
+        final List<SendableApnsPushNotification<SimpleApnsPushNotification>> after = buffer
+                .getAllSendableNotificationsAfterSequenceNumber(Integer.MAX_VALUE);
+
+        assertEquals(6, after.size());
+        assertEquals(Integer.MIN_VALUE, after.get(0).getSequenceNumber());
+        assertSame(notifications[4], after.get(0).getPushNotification());
+        assertEquals(Integer.MIN_VALUE + 5, after.get(5).getSequenceNumber());
+    }
+
+    @Test
+    public void testGetAllAfterSequenceNumberBeforeWindow() {
+        final SentNotificationBuffer<SimpleApnsPushNotification> buffer = new SentNotificationBuffer<SimpleApnsPushNotification>(
+                4);
+        fill(buffer, 100, 10);
+
+        // Everything still held comes back when the rejected notification has already been evicted
+        assertEquals(4, buffer.getAllNotificationsAfterSequenceNumber(50).size());
+        assertEquals(2, buffer.getAllNotificationsAfterSequenceNumber(107).size());
+        assertTrue(buffer.getAllNotificationsAfterSequenceNumber(109).isEmpty());
+    }
+
+    @Test
+    public void testClearNotificationsBeforeSequenceNumber() {
+        final SentNotificationBuffer<SimpleApnsPushNotification> buffer = new SentNotificationBuffer<SimpleApnsPushNotification>(
+                16);
+        final SimpleApnsPushNotification[] notifications = fill(buffer, Integer.MAX_VALUE - 1, 6);
+
+        buffer.clearNotificationsBeforeSequenceNumber(Integer.MIN_VALUE + 1);
+
+        assertEquals(3, buffer.size());
+        assertEquals(Integer.valueOf(Integer.MIN_VALUE + 1), buffer.getLowestSequenceNumber());
+        assertNull(buffer.getNotificationWithSequenceNumber(Integer.MIN_VALUE));
+        assertSame(notifications[3], buffer.getNotificationWithSequenceNumber(Integer.MIN_VALUE + 1));
+
+        buffer.clearAllNotifications();
+
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.getLowestSequenceNumber());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveCapacity() {
+        new SentNotificationBuffer<SimpleApnsPushNotification>(0);
+    }
+}
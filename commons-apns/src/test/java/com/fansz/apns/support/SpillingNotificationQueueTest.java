@@ -0,0 +1,127 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class SpillingNotificationQueueTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = File.createTempFile("spill", "");
+
+        if (!this.directory.delete() || !this.directory.mkdir()) {
+            throw new IOException("Could not create " + this.directory);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        delete(this.directory);
+    }
+
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private SpillingNotificationQueue<SimpleApnsPushNotification> open(final int memoryCapacity) throws IOException {
+        return new SpillingNotificationQueue<SimpleApnsPushNotification>(this.directory, memoryCapacity, SEGMENT_SIZE,
+                SimpleApnsPushNotification.FACTORY);
+    }
+
+    private static SimpleApnsPushNotification createNotification(final int i) {
+        return new SimpleApnsPushNotification(new byte[] { (byte)i }, Integer.toString(i));
+    }
+
+    private static void assertNextNotifications(final SpillingNotificationQueue<SimpleApnsPushNotification> queue,
+            final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            assertEquals(Integer.toString(i), queue.poll().getPayload());
+        }
+    }
+
+    @Test
+    public void testOrderAcrossSpill() throws IOException {
+        final SpillingNotificationQueue<SimpleApnsPushNotification> queue = this.open(3);
+
+        for (int i = 0; i < 10; i++) {
+            queue.add(createNotification(i));
+        }
+
+        assertEquals(10, queue.size());
+        assertEquals(7, queue.getSpilledCount());
+
+        assertNextNotifications(queue, 0, 5);
+
+        // Nothing goes back onto the heap until the disk is drained
+        queue.add(createNotification(10));
+        assertEquals(6, queue.getSpilledCount());
+
+        assertNextNotifications(queue, 5, 11);
+        assertNull(queue.poll());
+
+        queue.close();
+    }
+
+    @Test
+    public void testOrderAcrossRestart() throws IOException {
+        SpillingNotificationQueue<SimpleApnsPushNotification> queue = this.open(4);
+
+        for (int i = 0; i < 10; i++) {
+            queue.add(createNotification(i));
+        }
+
+        assertNextNotifications(queue, 0, 2);
+        assertEquals("2", queue.peek().getPayload());
+
+        queue.close();
+        queue = this.open(4);
+
+        assertEquals(8, queue.size());
+
+        // Notifications added after a restart go behind everything that was there before
+        queue.add(createNotification(10));
+
+        assertNextNotifications(queue, 2, 11);
+        assertNull(queue.poll());
+
+        queue.close();
+    }
+
+    @Test
+    public void testRestartWithoutSpilling() throws IOException {
+        SpillingNotificationQueue<SimpleApnsPushNotification> queue = this.open(10);
+
+        for (int i = 0; i < 5; i++) {
+            queue.add(createNotification(i));
+        }
+
+        queue.close();
+        queue = this.open(10);
+
+        assertEquals(5, queue.getSpilledCount());
+        assertNextNotifications(queue, 0, 5);
+
+        queue.close();
+    }
+}
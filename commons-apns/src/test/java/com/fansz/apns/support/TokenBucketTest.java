@@ -0,0 +1,76 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenEmpty() {
+        // One permit per second, so nothing refills while the test runs
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1, 3));
+
+        assertEquals(0, bucket.getNanosUntilAvailable());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(bucket.tryAcquire());
+        }
+
+        assertFalse(bucket.tryAcquire());
+        assertTrue(bucket.getNanosUntilAvailable() > 0);
+    }
+
+    @Test
+    public void testReleaseReturnsPermitUpToBurstSize() {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1, 1));
+
+        assertTrue(bucket.tryAcquire());
+        bucket.release();
+        bucket.release();
+
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testAcquireGoesIntoDebt() {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1, 1));
+
+        bucket.acquire();
+        bucket.acquire();
+        bucket.acquire();
+
+        // Two permits owed plus the one we want, at one permit per second
+        final long waitNanos = bucket.getNanosUntilAvailable();
+
+        assertTrue(waitNanos > TimeUnit.MILLISECONDS.toNanos(2900));
+        assertTrue(waitNanos <= TimeUnit.SECONDS.toNanos(3));
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testRefill() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(new RateLimit(1000, 10));
+
+        while (bucket.tryAcquire()) {
+            // Drain the burst
+        }
+
+        Thread.sleep(20);
+
+        // At 1000 permits per second, 20 ms is worth about 20 permits, but never more than the burst size
+        int acquired = 0;
+
+        while (bucket.tryAcquire()) {
+            acquired += 1;
+        }
+
+        assertTrue(acquired >= 10);
+        assertTrue(acquired <= 11);
+    }
+}
@@ -0,0 +1,308 @@
+package com.fansz.apns.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.fansz.apns.model.SimpleApnsPushNotification;
+
+public class TrafficClassQueueTest {
+
+    private static final byte[] TOKEN = new byte[] { 0x01, 0x02, 0x03, 0x04 };
+
+    /** The class name is carried in the payload's "c" field */
+    private static final TrafficClassifier<SimpleApnsPushNotification> CLASSIFIER = new TrafficClassifier<SimpleApnsPushNotification>() {
+
+        @Override
+        public String classify(final SimpleApnsPushNotification notification) {
+            return JSON.parseObject(notification.getPayload()).getString("c");
+        }
+    };
+
+    private static SimpleApnsPushNotification createNotification(final String trafficClassName, final int index) {
+        return new SimpleApnsPushNotification(TOKEN, "{\"c\":\"" + trafficClassName + "\",\"n\":" + index + "}");
+    }
+
+    private static String classOf(final SimpleApnsPushNotification notification) {
+        return CLASSIFIER.classify(notification);
+    }
+
+    private static TrafficClassQueue<SimpleApnsPushNotification> createQueue(final SchedulingPolicy schedulingPolicy,
+            final TrafficClass... trafficClasses) {
+        return new TrafficClassQueue<SimpleApnsPushNotification>(schedulingPolicy, CLASSIFIER,
+                Arrays.asList(trafficClasses));
+    }
+
+    private static void fill(final TrafficClassQueue<SimpleApnsPushNotification> queue,
+            final String trafficClassName, final int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(queue.offer(createNotification(trafficClassName, i)));
+        }
+    }
+
+    @Test
+    public void testWeightedDequeueRatios() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("high", 5, 1000), new TrafficClass("medium", 3, 1000),
+                new TrafficClass("low", 2, 1000));
+
+        fill(queue, "high", 500);
+        fill(queue, "medium", 300);
+        fill(queue, "low", 200);
+
+        // Every window of ten dequeues serves the classes exactly in proportion to their weights
+        for (int window = 0; window < 100; window++) {
+            final Map<String, Integer> counts = new HashMap<String, Integer>();
+
+            for (int i = 0; i < 10; i++) {
+                final String trafficClassName = classOf(queue.poll());
+                counts.put(trafficClassName, counts.containsKey(trafficClassName) ? counts.get(trafficClassName) + 1
+                        : 1);
+            }
+
+            assertEquals(Integer.valueOf(5), counts.get("high"));
+            assertEquals(Integer.valueOf(3), counts.get("medium"));
+            assertEquals(Integer.valueOf(2), counts.get("low"));
+        }
+
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testWeightedInterleavesRatherThanBursts() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("high", 2, 100), new TrafficClass("low", 1, 100));
+
+        fill(queue, "high", 4);
+        fill(queue, "low", 2);
+
+        final List<String> order = new ArrayList<String>();
+
+        while (!queue.isEmpty()) {
+            order.add(classOf(queue.poll()));
+        }
+
+        assertEquals(Arrays.asList("high", "low", "high", "high", "low", "high"), order);
+    }
+
+    @Test
+    public void testWeightedDoesNotStarveLowWeightClass() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("bulk", 100, TrafficClass.UNBOUNDED), new TrafficClass("rare", 1, 10));
+
+        fill(queue, "bulk", 10000);
+        fill(queue, "rare", 1);
+
+        // The low-weight notification goes out within one round of the weights however much bulk traffic is queued
+        int position = 0;
+
+        while (!"rare".equals(classOf(queue.poll()))) {
+            position += 1;
+        }
+
+        assertTrue(position <= 100);
+    }
+
+    @Test
+    public void testIdleClassDoesNotBankCredit() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("high", 3, 100), new TrafficClass("low", 1, 100));
+
+        fill(queue, "low", 5);
+
+        while (!queue.isEmpty()) {
+            queue.poll();
+        }
+
+        // The low class ran alone for a while, but that doesn't let it jump ahead once the high class is back
+        fill(queue, "high", 3);
+        fill(queue, "low", 1);
+
+        assertEquals("high", classOf(queue.poll()));
+    }
+
+    @Test
+    public void testStrictPriorityOrdering() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.STRICT_PRIORITY,
+                new TrafficClass("low", 1, 100), new TrafficClass("high", 10, 100), new TrafficClass("medium", 5,
+                        100));
+
+        fill(queue, "low", 3);
+        fill(queue, "medium", 3);
+        fill(queue, "high", 2);
+
+        final List<String> order = new ArrayList<String>();
+
+        for (int i = 0; i < 4; i++) {
+            order.add(classOf(queue.poll()));
+        }
+
+        // Higher classes arriving later still go first
+        fill(queue, "high", 1);
+
+        while (!queue.isEmpty()) {
+            order.add(classOf(queue.poll()));
+        }
+
+        assertEquals(Arrays.asList("high", "high", "medium", "medium", "high", "medium", "low", "low", "low"), order);
+    }
+
+    @Test
+    public void testFifoWithinClass() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("only", 1, 100));
+
+        final List<SimpleApnsPushNotification> notifications = new ArrayList<SimpleApnsPushNotification>();
+
+        for (int i = 0; i < 10; i++) {
+            notifications.add(createNotification("only", i));
+            queue.add(notifications.get(i));
+        }
+
+        for (final SimpleApnsPushNotification notification : notifications) {
+            assertSame(notification, queue.poll());
+        }
+    }
+
+    @Test
+    public void testPeekMatchesPoll() {
+        for (final SchedulingPolicy schedulingPolicy : SchedulingPolicy.values()) {
+            final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(schedulingPolicy,
+                    new TrafficClass("high", 3, 100), new TrafficClass("medium", 2, 100), new TrafficClass("low", 1,
+                            100));
+
+            fill(queue, "high", 20);
+            fill(queue, "medium", 20);
+            fill(queue, "low", 20);
+
+            while (!queue.isEmpty()) {
+                // Peeking twice must not move the weights along
+                final SimpleApnsPushNotification peeked = queue.peek();
+
+                assertSame(peeked, queue.peek());
+                assertSame(peeked, queue.poll());
+            }
+
+            assertNull(queue.peek());
+            assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void testFullClassDoesNotBlockOtherClasses() throws Exception {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("bulk", 1, 2), new TrafficClass("chat", 5, 2));
+
+        fill(queue, "bulk", 2);
+
+        assertFalse(queue.offer(createNotification("bulk", 2)));
+        assertFalse(queue.offer(createNotification("bulk", 2), 10, TimeUnit.MILLISECONDS));
+        assertTrue(queue.offer(createNotification("chat", 0)));
+        assertEquals(1, queue.remainingCapacity());
+
+        // A producer blocked on the full class doesn't hold up producers or consumers of other classes
+        final CountDownLatch putStarted = new CountDownLatch(1);
+        final CountDownLatch putFinished = new CountDownLatch(1);
+
+        final Thread bulkProducer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                putStarted.countDown();
+
+                try {
+                    queue.put(createNotification("bulk", 3));
+                    putFinished.countDown();
+                } catch (InterruptedException e) {
+                    // Test failed; the assertions below report it
+                }
+            }
+        });
+
+        bulkProducer.start();
+
+        assertTrue(putStarted.await(5, TimeUnit.SECONDS));
+        assertFalse(putFinished.await(50, TimeUnit.MILLISECONDS));
+
+        assertTrue(queue.offer(createNotification("chat", 1), 1, TimeUnit.SECONDS));
+        assertEquals(2, queue.getQueueDepth("chat"));
+        assertFalse(putFinished.await(50, TimeUnit.MILLISECONDS));
+
+        // Chat has the higher weight, so freeing a bulk slot takes a few dequeues
+        while (!"bulk".equals(classOf(queue.poll()))) {
+            assertFalse(putFinished.await(10, TimeUnit.MILLISECONDS));
+        }
+
+        assertTrue(putFinished.await(5, TimeUnit.SECONDS));
+        bulkProducer.join();
+
+        assertEquals(2, queue.getQueueDepth("bulk"));
+    }
+
+    @Test
+    public void testByDeliveryPriority() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = TrafficClassQueue.byDeliveryPriority(
+                SchedulingPolicy.STRICT_PRIORITY, 10);
+
+        final SimpleApnsPushNotification conservePower = new SimpleApnsPushNotification(TOKEN, "{}",
+                DeliveryPriority.CONSERVE_POWER);
+        final SimpleApnsPushNotification immediate = new SimpleApnsPushNotification(TOKEN, "{}",
+                DeliveryPriority.IMMEDIATE);
+
+        queue.add(conservePower);
+        queue.add(immediate);
+
+        assertEquals(1, queue.getQueueDepth(DeliveryPriority.IMMEDIATE.name()));
+        assertSame(immediate, queue.poll());
+        assertSame(conservePower, queue.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownClass() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.WEIGHTED,
+                new TrafficClass("only", 1, 100));
+
+        queue.offer(createNotification("other", 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateClassNames() {
+        createQueue(SchedulingPolicy.WEIGHTED, new TrafficClass("same", 1, 100), new TrafficClass("same", 2, 100));
+    }
+
+    @Test
+    public void testDrainToAndRemove() {
+        final TrafficClassQueue<SimpleApnsPushNotification> queue = createQueue(SchedulingPolicy.STRICT_PRIORITY,
+                new TrafficClass("high", 2, 100), new TrafficClass("low", 1, 100));
+
+        final SimpleApnsPushNotification removed = createNotification("low", 99);
+
+        queue.add(removed);
+        fill(queue, "low", 2);
+        fill(queue, "high", 2);
+
+        assertTrue(queue.remove(removed));
+        assertFalse(queue.remove(removed));
+
+        final List<SimpleApnsPushNotification> drained = new ArrayList<SimpleApnsPushNotification>();
+
+        assertEquals(3, queue.drainTo(drained, 3));
+        assertEquals("high", classOf(drained.get(0)));
+        assertEquals("high", classOf(drained.get(1)));
+        assertEquals("low", classOf(drained.get(2)));
+        assertEquals(1, queue.size());
+    }
+}
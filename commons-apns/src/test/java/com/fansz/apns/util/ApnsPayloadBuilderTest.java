@@ -0,0 +1,292 @@
+package com.fansz.apns.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.fansz.apns.model.ApnsPayload;
+
+public class ApnsPayloadBuilderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String GRINNING_FACE = new String(Character.toChars(0x1F600));
+
+    /** {@code {"aps":{"alert":""}}} */
+    private static final int EMPTY_ALERT_LENGTH = 20;
+
+    private static int utf8Length(final String string) {
+        return string.getBytes(UTF8).length;
+    }
+
+    private static String alertOf(final String payload) {
+        return JSON.parseObject(payload).getJSONObject("aps").getString("alert");
+    }
+
+    private static String buildWithAlertBody(final String alertBody, final int maximumPayloadLength) {
+        return new ApnsPayloadBuilder().setAlertBody(alertBody).buildWithMaximumLength(maximumPayloadLength);
+    }
+
+    private static void assertBuildFails(final ApnsPayloadBuilder builder, final int maximumPayloadLength,
+            final String message) {
+        try {
+            builder.buildWithMaximumLength(maximumPayloadLength);
+            fail("Expected an exception with the message: " + message);
+        } catch (final IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * The truncation the builder used before it wrote bytes directly: serialize with fastjson, and drop one more
+     * character from the body until the payload fits
+     *
+     * @return the abbreviated body, or null where the old loop gave up
+     */
+    private static String abbreviateWithFastjson(final String alertBody, final int maximumPayloadLength) {
+        for (int end = alertBody.length(); end > 0; end--) {
+            final String abbreviated = end == alertBody.length() ? alertBody : alertBody.substring(0, end) + "...";
+            final Map<String, Object> aps = new LinkedHashMap<String, Object>();
+            aps.put("alert", abbreviated);
+
+            final Map<String, Object> payload = new LinkedHashMap<String, Object>();
+            payload.put("aps", aps);
+
+            if (utf8Length(JSON.toJSONString(payload)) <= maximumPayloadLength) {
+                return abbreviated;
+            }
+        }
+
+        return null;
+    }
+
+    @Test
+    public void testMatchesFastjson() {
+        final Map<String, Object> alert = new LinkedHashMap<String, Object>();
+        alert.put("body", "Body \"quoted\"\n中文\t\u0085\u2028 " + GRINNING_FACE);
+        alert.put("action-loc-key", "VIEW");
+        alert.put("title-loc-key", "TITLE_KEY");
+        alert.put("title-loc-args", new String[] { "a\\b", "\u0001" });
+        alert.put("launch-image", "image.png");
+
+        final Map<String, Object> aps = new LinkedHashMap<String, Object>();
+        aps.put("badge", 3);
+        aps.put("sound", "default");
+        aps.put("category", "CATEGORY");
+        aps.put("content-available", 1);
+        aps.put("alert", alert);
+
+        final Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("aps", aps);
+        payload.put("string", "\u007f\ud800");
+        payload.put("number", 42);
+        payload.put("list", new Object[] { 1, "two", null });
+
+        final String builtPayload = new ApnsPayloadBuilder().setAlertBody((String)alert.get("body"))
+                .setLocalizedActionButtonKey("VIEW")
+                .setLocalizedAlertTitle("TITLE_KEY", new String[] { "a\\b", "\u0001" })
+                .setLaunchImageFileName("image.png").setBadgeNumber(3).setSoundFileName("default")
+                .setCategoryName("CATEGORY").setContentAvailable(true).addCustomProperty("string", "\u007f\ud800")
+                .addCustomProperty("number", 42).addCustomProperty("list", new Object[] { 1, "two", null })
+                .buildWithDefaultMaximumLength();
+
+        assertEquals(new String(JSON.toJSONString(payload).getBytes(UTF8), UTF8), builtPayload);
+    }
+
+    @Test
+    public void testLocalizedAlertMatchesFastjson() {
+        final Map<String, Object> alert = new LinkedHashMap<String, Object>();
+        alert.put("loc-key", "KEY\"");
+        alert.put("loc-args", new String[] { "中", "\u009f", GRINNING_FACE });
+
+        final Map<String, Object> aps = new LinkedHashMap<String, Object>();
+        aps.put("alert", alert);
+
+        final Map<String, Object> payload = new LinkedHashMap<String, Object>();
+        payload.put("aps", aps);
+
+        final String builtPayload = new ApnsPayloadBuilder().setLocalizedAlertMessage("KEY\"",
+                new String[] { "中", "\u009f", GRINNING_FACE }).buildWithDefaultMaximumLength();
+
+        assertEquals(new String(JSON.toJSONString(payload).getBytes(UTF8), UTF8), builtPayload);
+    }
+
+    @Test
+    public void testAlertAsString() {
+        assertEquals("{\"aps\":{\"alert\":\"Hello \\\"world\\\"\"}}", new ApnsPayloadBuilder().setAlertBody(
+                "Hello \"world\"").buildWithDefaultMaximumLength());
+    }
+
+    @Test
+    public void testHiddenActionButtonWritesNull() {
+        final String payload = new ApnsPayloadBuilder().setAlertBody("hi").setShowActionButton(false)
+                .buildWithDefaultMaximumLength();
+
+        // Intentionally different from fastjson's default, which drops null values and so never hid the button
+        assertEquals("{\"aps\":{\"alert\":{\"body\":\"hi\",\"action-loc-key\":null}}}", payload);
+
+        final JSONObject alert = JSON.parseObject(payload).getJSONObject("aps").getJSONObject("alert");
+        assertTrue(alert.containsKey("action-loc-key"));
+        assertEquals(null, alert.get("action-loc-key"));
+
+        final Map<String, Object> fastjsonAlert = new LinkedHashMap<String, Object>();
+        fastjsonAlert.put("body", "hi");
+        fastjsonAlert.put("action-loc-key", null);
+
+        assertFalse(JSON.toJSONString(fastjsonAlert).contains("action-loc-key"));
+        assertTrue(JSON.toJSONString(fastjsonAlert, SerializerFeature.WriteMapNullValue).contains(
+                "\"action-loc-key\":null"));
+    }
+
+    @Test
+    public void testHiddenActionButtonWithoutBody() {
+        assertEquals("{\"aps\":{\"alert\":{\"action-loc-key\":null}}}", new ApnsPayloadBuilder()
+                .setShowActionButton(false).buildWithDefaultMaximumLength());
+    }
+
+    @Test
+    public void testNoTruncationWhenPayloadFits() {
+        final String payload = buildWithAlertBody("0123456789", EMPTY_ALERT_LENGTH + 10);
+
+        assertEquals("0123456789", alertOf(payload));
+        assertEquals(EMPTY_ALERT_LENGTH + 10, utf8Length(payload));
+    }
+
+    @Test
+    public void testTruncateAscii() {
+        final String payload = buildWithAlertBody("0123456789", EMPTY_ALERT_LENGTH + 9);
+
+        assertEquals("012345...", alertOf(payload));
+        assertEquals(EMPTY_ALERT_LENGTH + 9, utf8Length(payload));
+    }
+
+    @Test
+    public void testTruncateAtSurrogatePairBoundary() {
+        final String alertBody = "abcd" + GRINNING_FACE + "efghijklmnop";
+
+        // Room for "abcd" and the ellipsis, then up to three more bytes that the four-byte character doesn't fit in
+        for (int extra = 0; extra < 4; extra++) {
+            final String payload = buildWithAlertBody(alertBody, EMPTY_ALERT_LENGTH + 4 + 3 + extra);
+
+            assertEquals("abcd...", alertOf(payload));
+            assertEquals(EMPTY_ALERT_LENGTH + 4 + 3, utf8Length(payload));
+        }
+
+        final String payload = buildWithAlertBody(alertBody, EMPTY_ALERT_LENGTH + 4 + 4 + 3);
+
+        assertEquals("abcd" + GRINNING_FACE + "...", alertOf(payload));
+        assertEquals(EMPTY_ALERT_LENGTH + 4 + 4 + 3, utf8Length(payload));
+    }
+
+    @Test
+    public void testTruncateBeforeSurrogatePair() {
+        final String payload = buildWithAlertBody(GRINNING_FACE + GRINNING_FACE, EMPTY_ALERT_LENGTH + 6);
+
+        assertEquals("...", alertOf(payload));
+    }
+
+    @Test
+    public void testTruncateDoesNotSplitEscapes() {
+        final String payload = buildWithAlertBody("ab\u0001cdefgh", EMPTY_ALERT_LENGTH + 2 + 5 + 3);
+
+        // The six-byte escape doesn't fit in five bytes
+        assertEquals("ab...", alertOf(payload));
+        assertEquals(EMPTY_ALERT_LENGTH + 2 + 3, utf8Length(payload));
+    }
+
+    @Test
+    public void testTruncateAlertObjectBody() {
+        final ApnsPayloadBuilder builder = new ApnsPayloadBuilder().setAlertBody("0123456789").setAlertTitle("title");
+        final int fullLength = utf8Length(builder.buildWithDefaultMaximumLength());
+
+        final String payload = builder.buildWithMaximumLength(fullLength - 1);
+        final JSONObject alert = JSON.parseObject(payload).getJSONObject("aps").getJSONObject("alert");
+
+        assertEquals("012345...", alert.getString("body"));
+        assertEquals("title", alert.getString("title"));
+        assertEquals(fullLength - 1, utf8Length(payload));
+    }
+
+    @Test
+    public void testTruncationMatchesFastjson() {
+        final Random random = new Random(23);
+        final String alphabet = "abc \"\\\n\u0001é中\u2028\u007f\u0085";
+
+        for (int i = 0; i < 500; i++) {
+            final StringBuilder alertBody = new StringBuilder();
+
+            for (int j = 0; j < 5 + random.nextInt(30); j++) {
+                alertBody.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            final int maximumPayloadLength = EMPTY_ALERT_LENGTH + 4 + random.nextInt(60);
+            final String expectedAlert = abbreviateWithFastjson(alertBody.toString(), maximumPayloadLength);
+
+            if (expectedAlert != null) {
+                final String payload = buildWithAlertBody(alertBody.toString(), maximumPayloadLength);
+
+                assertEquals(expectedAlert, alertOf(payload));
+                assertTrue(utf8Length(payload) <= maximumPayloadLength);
+            }
+        }
+    }
+
+    @Test
+    public void testFewerThanThreeCharacters() {
+        assertBuildFails(new ApnsPayloadBuilder().setAlertBody("0123456789"), EMPTY_ALERT_LENGTH + 3,
+                "Cannot abbreviate string to fewer than three characters.");
+    }
+
+    @Test
+    public void testEmptyBodyTooLong() {
+        assertBuildFails(new ApnsPayloadBuilder().setAlertBody("0123456789"), EMPTY_ALERT_LENGTH - 1,
+                "Payload exceeds maximum length even with an empty message body.");
+    }
+
+    @Test
+    public void testNoBodyToShorten() {
+        final ApnsPayloadBuilder builder = new ApnsPayloadBuilder().setBadgeNumber(1).addCustomProperty("key",
+                "0123456789");
+        final int length = utf8Length(builder.buildWithDefaultMaximumLength());
+
+        assertBuildFails(builder, length - 1, String.format(
+                "Payload length is %d bytes (with a maximum of %d bytes) and cannot be shortened.", length,
+                length - 1));
+    }
+
+    @Test
+    public void testBuilderCanBeReused() {
+        final ApnsPayloadBuilder builder = new ApnsPayloadBuilder().setAlertBody("0123456789");
+
+        assertEquals("012345...", alertOf(builder.buildWithMaximumLength(EMPTY_ALERT_LENGTH + 9)));
+        assertEquals("0123456789", alertOf(builder.buildWithDefaultMaximumLength()));
+
+        builder.setAlertBody("short");
+        assertEquals("{\"aps\":{\"alert\":\"short\"}}", builder.buildWithDefaultMaximumLength());
+    }
+
+    @Test
+    public void testBuildPayloadMatchesString() {
+        final ApnsPayloadBuilder builder = new ApnsPayloadBuilder().setAlertBody("中文 " + GRINNING_FACE + " body")
+                .setBadgeNumber(2);
+
+        final String payloadString = builder.buildWithMaximumLength(EMPTY_ALERT_LENGTH + 20);
+        final ApnsPayload payload = builder.buildPayloadWithMaximumLength(EMPTY_ALERT_LENGTH + 20);
+
+        assertEquals(payloadString, payload.getPayload());
+        assertArrayEquals(payloadString.getBytes(UTF8), payload.getPayload().getBytes(UTF8));
+        assertEquals(utf8Length(payloadString), payload.getLength());
+    }
+}
@@ -0,0 +1,156 @@
+package com.fansz.apns.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PayloadTemplateCacheTest {
+
+    private MapTemplateSource templateSource;
+
+    private PayloadTemplateCache cache;
+
+    private static class MapTemplateSource implements PayloadTemplateSource {
+
+        private final Map<String, String> templates = new HashMap<String, String>();
+
+        private final List<Locale> requestedLocales = new ArrayList<Locale>();
+
+        public void put(final String templateId, final Locale locale, final String alert) {
+            this.templates.put(templateId + "/" + locale, "{\"aps\":{\"alert\":\"" + alert + " ${name}\"}}");
+        }
+
+        @Override
+        public String getTemplate(final String templateId, final Locale locale) {
+            this.requestedLocales.add(locale);
+            return this.templates.get(templateId + "/" + locale);
+        }
+    }
+
+    private String render(final String templateId, final Locale locale) {
+        return this.cache.getTemplate(templateId, locale).render("x").getPayload();
+    }
+
+    @Before
+    public void setUp() {
+        this.templateSource = new MapTemplateSource();
+        this.cache = new PayloadTemplateCache(this.templateSource);
+    }
+
+    @Test
+    public void testExactLocale() {
+        this.templateSource.put("like", new Locale("zh", "CN"), "zh_CN");
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        assertEquals("{\"aps\":{\"alert\":\"zh_CN x\"}}", render("like", new Locale("zh", "CN")));
+        assertEquals(Arrays.asList(new Locale("zh", "CN")), this.templateSource.requestedLocales);
+    }
+
+    @Test
+    public void testFallbackOrder() {
+        final Locale locale = new Locale("zh", "TW", "POSIX");
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        assertEquals("{\"aps\":{\"alert\":\"root x\"}}", render("like", locale));
+        assertEquals(Arrays.asList(locale, new Locale("zh", "TW"), new Locale("zh"), Locale.ROOT),
+                this.templateSource.requestedLocales);
+    }
+
+    @Test
+    public void testFallbackStopsAtFirstMatch() {
+        this.templateSource.put("like", new Locale("zh"), "zh");
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        assertEquals("{\"aps\":{\"alert\":\"zh x\"}}", render("like", new Locale("zh", "TW", "POSIX")));
+        assertEquals("{\"aps\":{\"alert\":\"zh x\"}}", render("like", new Locale("zh", "HK")));
+        assertEquals("{\"aps\":{\"alert\":\"root x\"}}", render("like", Locale.ENGLISH));
+    }
+
+    @Test
+    public void testVariantWithoutCountry() {
+        final Locale locale = new Locale("de", "", "POSIX");
+        this.templateSource.put("like", new Locale("de"), "de");
+
+        assertEquals("{\"aps\":{\"alert\":\"de x\"}}", render("like", locale));
+        assertEquals(Arrays.asList(locale, new Locale("de")), this.templateSource.requestedLocales);
+    }
+
+    @Test
+    public void testNullLocaleMeansRoot() {
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        assertEquals("{\"aps\":{\"alert\":\"root x\"}}", render("like", null));
+        assertEquals(Arrays.asList(Locale.ROOT), this.templateSource.requestedLocales);
+    }
+
+    @Test
+    public void testTemplatesAreCachedPerRequestedLocale() {
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        final PayloadTemplate template = this.cache.getTemplate("like", Locale.CHINA);
+        final int requestCount = this.templateSource.requestedLocales.size();
+
+        assertSame(template, this.cache.getTemplate("like", Locale.CHINA));
+        assertEquals(requestCount, this.templateSource.requestedLocales.size());
+        assertEquals(1, this.cache.size());
+
+        this.cache.getTemplate("like", Locale.ROOT);
+        assertEquals(2, this.cache.size());
+    }
+
+    @Test
+    public void testInvalidate() {
+        this.templateSource.put("like", Locale.ROOT, "old");
+        this.templateSource.put("follow", Locale.ROOT, "follow");
+
+        render("like", Locale.CHINA);
+        render("like", Locale.ROOT);
+        render("follow", Locale.ROOT);
+
+        this.templateSource.put("like", Locale.ROOT, "new");
+        this.cache.invalidate("like");
+
+        assertEquals(1, this.cache.size());
+        assertEquals("{\"aps\":{\"alert\":\"new x\"}}", render("like", Locale.CHINA));
+
+        this.cache.clear();
+        assertEquals(0, this.cache.size());
+    }
+
+    @Test
+    public void testMissingTemplate() {
+        try {
+            this.cache.getTemplate("missing", Locale.CHINA);
+            fail("Expected a missing template to be rejected.");
+        } catch (final IllegalArgumentException e) {
+            assertEquals("No template \"missing\" found for locale zh_CN.", e.getMessage());
+        }
+
+        assertEquals(0, this.cache.size());
+    }
+
+    @Test
+    public void testMaximumPayloadLength() {
+        this.templateSource.put("like", Locale.ROOT, "root");
+
+        assertEquals(2048, this.cache.getTemplate("like", Locale.ROOT).getMaximumPayloadLength());
+        assertEquals(256, new PayloadTemplateCache(this.templateSource, 256).getTemplate("like", Locale.ROOT)
+                .getMaximumPayloadLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMalformedTemplateFromSource() {
+        this.templateSource.templates.put("bad/", "{\"aps\":${name}}");
+        this.cache.getTemplate("bad", Locale.ROOT);
+    }
+}
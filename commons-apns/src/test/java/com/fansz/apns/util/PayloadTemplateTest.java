@@ -0,0 +1,333 @@
+package com.fansz.apns.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.fansz.apns.model.ApnsPayload;
+import com.fansz.apns.model.TemplatedPushNotification;
+
+public class PayloadTemplateTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String GRINNING_FACE = new String(Character.toChars(0x1F600));
+
+    private static final String COMMENT_TEMPLATE = "{\"aps\":{\"alert\":\"${nickname} commented: ${comment:body}\","
+            + "\"badge\":${badge:int}},\"from\":\"${nickname}\"}";
+
+    /** {@code {"aps":{"alert":""}}} */
+    private static final String BODY_TEMPLATE = "{\"aps\":{\"alert\":\"${body:body}\"}}";
+
+    private static final int EMPTY_BODY_LENGTH = 20;
+
+    /**
+     * Renders through {@link PayloadTemplate#writeTo(ByteBuf, Object...)}, checking that exactly
+     * {@link PayloadTemplate#getEncodedLength(Object...)} bytes were written and that {@code render} agrees
+     */
+    private static String render(final PayloadTemplate template, final Object... arguments) {
+        final int encodedLength = template.getEncodedLength(arguments);
+        final ByteBuf buffer = Unpooled.buffer(1);
+
+        try {
+            buffer.writeByte('x');
+            template.writeTo(buffer, arguments);
+
+            assertEquals(encodedLength, buffer.readableBytes() - 1);
+            assertTrue(encodedLength <= template.getMaximumPayloadLength());
+
+            final String payload = buffer.toString(1, encodedLength, UTF8);
+            final ApnsPayload renderedPayload = template.render(arguments);
+
+            assertEquals(encodedLength, renderedPayload.getLength());
+            assertEquals(payload, renderedPayload.getPayload());
+
+            JSON.parse(payload);
+
+            return payload;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static void assertTemplateRejected(final String template, final String message) {
+        try {
+            new PayloadTemplate(template, 2048);
+            fail("Expected template to be rejected: " + template);
+        } catch (final IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static void assertRenderFails(final PayloadTemplate template, final String message,
+            final Object... arguments) {
+        try {
+            template.getEncodedLength(arguments);
+            fail("Expected rendering to fail with the message: " + message);
+        } catch (final IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+
+        try {
+            template.writeTo(Unpooled.buffer(), arguments);
+            fail("Expected rendering to fail with the message: " + message);
+        } catch (final IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testArgumentNamesInFirstAppearanceOrder() {
+        final PayloadTemplate template = new PayloadTemplate(COMMENT_TEMPLATE, 2048);
+
+        assertEquals(Arrays.asList("nickname", "comment", "badge"), template.getArgumentNames());
+    }
+
+    @Test
+    public void testRender() {
+        final PayloadTemplate template = new PayloadTemplate(COMMENT_TEMPLATE, 2048);
+
+        assertEquals("{\"aps\":{\"alert\":\"Alice commented: nice\",\"badge\":3},\"from\":\"Alice\"}", render(
+                template, "Alice", "nice", 3));
+    }
+
+    @Test
+    public void testPlaceholderWhitespaceAndDefaultType() {
+        final PayloadTemplate template = new PayloadTemplate("{\"a\":\"${ name }\",\"b\":${ count : int }}", 2048);
+
+        assertEquals(Arrays.asList("name", "count"), template.getArgumentNames());
+        assertEquals("{\"a\":\"x\",\"b\":7}", render(template, "x", 7));
+    }
+
+    @Test
+    public void testNoPlaceholders() {
+        final PayloadTemplate template = new PayloadTemplate("{\"aps\":{\"alert\":\"中文\"}}", 2048);
+
+        assertTrue(template.getArgumentNames().isEmpty());
+        assertEquals("{\"aps\":{\"alert\":\"中文\"}}", render(template));
+    }
+
+    @Test
+    public void testStringArgumentsEscapedLikeFastjson() {
+        final PayloadTemplate template = new PayloadTemplate("{\"v\":\"${value}\"}", 2048);
+
+        for (final String value : new String[] { "say \"hi\"", "back\\slash", "line\nbreak\u0001\u007f\u0085",
+                "中文", GRINNING_FACE, " ", "" }) {
+            assertEquals("{\"v\":" + JSON.toJSONString(value) + "}", render(template, value));
+            assertEquals(value, JSON.parseObject(render(template, value)).getString("v"));
+        }
+    }
+
+    @Test
+    public void testNonStringArgumentsUseToString() {
+        final PayloadTemplate template = new PayloadTemplate("{\"v\":\"${value}\"}", 2048);
+
+        assertEquals("{\"v\":\"42\"}", render(template, 42));
+        assertEquals("{\"v\":\"true\"}", render(template, Boolean.TRUE));
+    }
+
+    @Test
+    public void testIntegerArguments() {
+        final PayloadTemplate template = new PayloadTemplate("{\"badge\":${badge:int}}", 2048);
+
+        assertEquals("{\"badge\":-12}", render(template, -12));
+        assertEquals("{\"badge\":9223372036854775807}", render(template, Long.MAX_VALUE));
+        assertEquals("{\"badge\":2}", render(template, 2.9));
+
+        assertRenderFails(template, "Argument \"badge\" must be a number.", "3");
+    }
+
+    @Test
+    public void testRepeatedArgument() {
+        final PayloadTemplate template = new PayloadTemplate("{\"a\":\"${x}\",\"b\":\"${x}${x}\"}", 2048);
+
+        assertEquals(Arrays.asList("x"), template.getArgumentNames());
+        assertEquals("{\"a\":\"中\",\"b\":\"中中\"}", render(template, "中"));
+    }
+
+    @Test
+    public void testArgumentCountAndNulls() {
+        final PayloadTemplate template = new PayloadTemplate(COMMENT_TEMPLATE, 2048);
+
+        assertRenderFails(template, "Template takes 3 arguments, but 2 were given.", "Alice", "nice");
+
+        try {
+            template.getEncodedLength("Alice", null, 1);
+            fail("Expected a null argument to be rejected.");
+        } catch (final NullPointerException e) {
+            assertEquals("Argument \"comment\" must not be null.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testMalformedTemplates() {
+        assertTemplateRejected("{\"a\":\"x\"}${name", "Unterminated placeholder at index 9.");
+        assertTemplateRejected("{\"a\":\"${}\"}", "Placeholder at index 6 has no name.");
+        assertTemplateRejected("{\"a\":\"${ :int}\"}", "Placeholder at index 6 has no name.");
+        assertTemplateRejected("{\"a\":\"${name:float}\"}", "Unknown placeholder type \"float\".");
+        assertTemplateRejected("{\"a\":\"${a:body}\",\"b\":\"${b:body}\"}",
+                "Templates may have at most one body placeholder.");
+        assertTemplateRejected("{\"a\":\"${x}\",\"b\":${x:int}}",
+                "Placeholder \"x\" is used as both a string and an integer.");
+        assertTemplateRejected("{\"a\":${x:int},\"b\":\"${x:body}\"}",
+                "Placeholder \"x\" is used as both a string and an integer.");
+        assertTemplateRejected("{\"a\":${name}}", "Template is not valid JSON once placeholders are filled in.");
+        assertTemplateRejected("{\"a\":\"${name}\"", "Template is not valid JSON once placeholders are filled in.");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaximumLength() {
+        new PayloadTemplate(BODY_TEMPLATE, 0);
+    }
+
+    @Test
+    public void testEncodedLengthMatchesBytesWritten() {
+        final Random random = new Random(29);
+        final String alphabet = "ab \"\\\n\u0001\u007f\u0085é中 𐀀";
+
+        for (int i = 0; i < 500; i++) {
+            final StringBuilder nickname = new StringBuilder();
+            final StringBuilder comment = new StringBuilder();
+
+            for (int j = random.nextInt(10); j > 0; j--) {
+                nickname.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            for (int j = random.nextInt(60); j > 0; j--) {
+                if (random.nextInt(8) == 0) {
+                    comment.append(GRINNING_FACE);
+                } else {
+                    comment.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+
+            // Small enough that most comments get truncated
+            final PayloadTemplate template = new PayloadTemplate(COMMENT_TEMPLATE, 100 + random.nextInt(60));
+
+            try {
+                template.getEncodedLength(nickname.toString(), comment.toString(), random.nextInt());
+            } catch (final IllegalArgumentException e) {
+                // The nickname alone didn't leave enough room for the comment
+                continue;
+            }
+
+            // Unpaired surrogates in the alphabet are written as '?', so the result is still valid JSON
+            final String payload = render(template, nickname.toString(), comment.toString(), random.nextInt());
+            final String alert = JSON.parseObject(payload).getJSONObject("aps").getString("alert");
+
+            assertTrue(alert.endsWith("...") || alert.length() >= comment.length());
+        }
+    }
+
+    @Test
+    public void testBodyNotTruncatedWhenPayloadFits() {
+        final PayloadTemplate template = new PayloadTemplate(BODY_TEMPLATE, EMPTY_BODY_LENGTH + 10);
+
+        assertEquals("{\"aps\":{\"alert\":\"0123456789\"}}", render(template, "0123456789"));
+    }
+
+    @Test
+    public void testBodyTruncation() {
+        final PayloadTemplate template = new PayloadTemplate(BODY_TEMPLATE, EMPTY_BODY_LENGTH + 9);
+
+        assertEquals("{\"aps\":{\"alert\":\"012345...\"}}", render(template, "0123456789"));
+    }
+
+    @Test
+    public void testBodyTruncationAtSurrogatePairBoundary() {
+        final String body = "abcd" + GRINNING_FACE + "efghijklmnop";
+
+        for (int extra = 0; extra < 4; extra++) {
+            final PayloadTemplate template = new PayloadTemplate(BODY_TEMPLATE, EMPTY_BODY_LENGTH + 4 + 3 + extra);
+
+            assertEquals("{\"aps\":{\"alert\":\"abcd...\"}}", render(template, body));
+        }
+
+        final PayloadTemplate template = new PayloadTemplate(BODY_TEMPLATE, EMPTY_BODY_LENGTH + 4 + 4 + 3);
+        assertEquals("{\"aps\":{\"alert\":\"abcd" + GRINNING_FACE + "...\"}}", render(template, body));
+    }
+
+    @Test
+    public void testBodyTruncationMatchesPayloadBuilder() {
+        final Random random = new Random(31);
+        final String alphabet = "ab \"\\\n\u0001\u007f\u0085é中 ";
+
+        for (int i = 0; i < 300; i++) {
+            final StringBuilder body = new StringBuilder();
+
+            for (int j = 5 + random.nextInt(40); j > 0; j--) {
+                body.append(random.nextInt(6) == 0 ? GRINNING_FACE : String.valueOf(alphabet.charAt(random
+                        .nextInt(alphabet.length()))));
+            }
+
+            final int maximumPayloadLength = EMPTY_BODY_LENGTH + 4 + random.nextInt(60);
+
+            assertEquals(new ApnsPayloadBuilder().setAlertBody(body.toString()).buildWithMaximumLength(
+                    maximumPayloadLength), render(new PayloadTemplate(BODY_TEMPLATE, maximumPayloadLength), body
+                    .toString()));
+        }
+    }
+
+    @Test
+    public void testOnlyBodySlotIsTruncated() {
+        final PayloadTemplate template = new PayloadTemplate(
+                "{\"aps\":{\"alert\":\"${text:body}\"},\"full\":\"${text}\"}", 75);
+
+        final String payload = render(template, "0123456789012345678901234567890");
+        final JSONObject payloadObject = JSON.parseObject(payload);
+
+        assertEquals("0123456789012345678901234567890", payloadObject.getString("full"));
+        assertTrue(payloadObject.getJSONObject("aps").getString("alert").endsWith("..."));
+        assertEquals(75, payload.getBytes(UTF8).length);
+    }
+
+    @Test
+    public void testTruncationErrors() {
+        assertRenderFails(new PayloadTemplate(BODY_TEMPLATE, EMPTY_BODY_LENGTH + 3),
+                "Cannot abbreviate string to fewer than three characters.", "0123456789");
+
+        assertRenderFails(new PayloadTemplate(
+                "{\"aps\":{\"alert\":\"${body:body}\"},\"extra\":\"${extra}\"}", 40),
+                "Payload exceeds maximum length even with an empty message body.", "body", "01234567890123456789");
+
+        assertRenderFails(new PayloadTemplate("{\"aps\":{\"alert\":\"${text}\"}}", EMPTY_BODY_LENGTH + 5),
+                "Payload length is 26 bytes (with a maximum of 25 bytes) and cannot be shortened.", "012345");
+    }
+
+    @Test
+    public void testTemplatedNotificationPayloadLength() {
+        final PayloadTemplate template = new PayloadTemplate(COMMENT_TEMPLATE, 80);
+        final Object[] arguments = new Object[] { "中文\"", "comment " + GRINNING_FACE + " that runs long enough",
+                99 };
+
+        final TemplatedPushNotification notification = new TemplatedPushNotification(new byte[32], template,
+                arguments);
+        final ByteBuf buffer = Unpooled.buffer();
+
+        try {
+            notification.writePayload(buffer);
+
+            assertEquals(notification.getPayloadLength(), buffer.readableBytes());
+            assertEquals(notification.getPayload(), buffer.toString(UTF8));
+            assertEquals(notification.getPayloadLength(), notification.getPayload().getBytes(UTF8).length);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTemplatedNotificationRejectsBadArguments() {
+        new TemplatedPushNotification(new byte[32], new PayloadTemplate(COMMENT_TEMPLATE, 2048), "Alice", "nice",
+                "three");
+    }
+}
@@ -0,0 +1,165 @@
+package com.fansz.apns.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.alibaba.fastjson.JSON;
+
+public class PayloadWriterTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String GRINNING_FACE = new String(Character.toChars(0x1F600));
+
+    /** What the payload builder produced before it stopped going through fastjson */
+    private static String fastjsonString(final String string) {
+        return new String(JSON.toJSONString(string).getBytes(UTF8), UTF8);
+    }
+
+    private static String writeString(final String string) {
+        final PayloadWriter writer = new PayloadWriter(4);
+        writer.writeString(string);
+
+        assertEquals(writer.length(), PayloadWriter.escapedLength(string, 0, string.length()) + 2);
+
+        return writer.toUtf8String();
+    }
+
+    private static void assertSameAsFastjson(final String string) {
+        assertEquals(fastjsonString(string), writeString(string));
+    }
+
+    @Test
+    public void testQuotesAndBackslashes() {
+        assertSameAsFastjson("say \"hi\"");
+        assertSameAsFastjson("C:\\path\\to\\file");
+        assertSameAsFastjson("\\\"");
+        assertSameAsFastjson("/slashes/ aren't escaped");
+    }
+
+    @Test
+    public void testControlCharacters() {
+        for (char c = 0; c < 0x20; c++) {
+            assertSameAsFastjson("a" + c + "b");
+        }
+
+        assertSameAsFastjson("delete\u007f");
+        assertSameAsFastjson("line\u2028paragraph\u2029");
+        assertSameAsFastjson("next line\u0085, \u0080 to \u009f, then \u00a0");
+    }
+
+    @Test
+    public void testAllBmpCharacters() {
+        final StringBuilder builder = new StringBuilder();
+
+        for (int c = 0; c < 0x10000; c++) {
+            if (!Character.isSurrogate((char)c)) {
+                builder.append((char)c);
+            }
+        }
+
+        assertSameAsFastjson(builder.toString());
+    }
+
+    @Test
+    public void testSupplementaryCharacters() {
+        assertSameAsFastjson(GRINNING_FACE);
+        assertSameAsFastjson("a" + GRINNING_FACE + "b" + new String(Character.toChars(0x10FFFF)));
+        assertSameAsFastjson(new String(Character.toChars(0x10000)) + new String(Character.toChars(0x20BB7)));
+    }
+
+    @Test
+    public void testUnpairedSurrogates() {
+        assertSameAsFastjson("\ud800");
+        assertSameAsFastjson("\udc00");
+        assertSameAsFastjson("a\ud83dbc");
+        assertSameAsFastjson("\ude00\ud83d");
+        assertSameAsFastjson(GRINNING_FACE.substring(0, 1) + GRINNING_FACE);
+
+        assertEquals("\"?x?\"", writeString("\ud800x\udc00"));
+    }
+
+    @Test
+    public void testRandomStrings() {
+        final Random random = new Random(17);
+
+        for (int i = 0; i < 1000; i++) {
+            final char[] chars = new char[random.nextInt(40)];
+
+            for (int j = 0; j < chars.length; j++) {
+                // Mostly ASCII, with enough of everything else to land on every branch
+                switch (random.nextInt(4)) {
+                    case 0:
+                        chars[j] = (char)random.nextInt(0x80);
+                        break;
+                    case 1:
+                        chars[j] = (char)(0xd800 + random.nextInt(0x800));
+                        break;
+                    default:
+                        chars[j] = (char)random.nextInt(0x10000);
+                }
+            }
+
+            assertSameAsFastjson(new String(chars));
+        }
+    }
+
+    @Test
+    public void testEscapedLengthOfRange() {
+        final String string = "a\"" + GRINNING_FACE + "\u0001中";
+
+        assertEquals(1, PayloadWriter.escapedLength(string, 0, 1));
+        assertEquals(3, PayloadWriter.escapedLength(string, 0, 2));
+        assertEquals(4, PayloadWriter.escapedLength(string, 2, 4));
+        assertEquals(6, PayloadWriter.escapedLength(string, 4, 5));
+        assertEquals(16, PayloadWriter.escapedLength(string, 0, string.length()));
+    }
+
+    @Test
+    public void testAbbreviationEndDoesNotSplitSurrogatePairs() {
+        final String string = "ab" + GRINNING_FACE + "c";
+
+        assertEquals(0, PayloadWriter.abbreviationEnd(string, 0));
+        assertEquals(2, PayloadWriter.abbreviationEnd(string, 2));
+        assertEquals(2, PayloadWriter.abbreviationEnd(string, 3));
+        assertEquals(2, PayloadWriter.abbreviationEnd(string, 5));
+        assertEquals(4, PayloadWriter.abbreviationEnd(string, 6));
+        assertEquals(5, PayloadWriter.abbreviationEnd(string, 7));
+        assertEquals(5, PayloadWriter.abbreviationEnd(string, 100));
+    }
+
+    @Test
+    public void testAbbreviationEndDoesNotSplitEscapes() {
+        final String string = "a\"\u0001";
+
+        assertEquals(1, PayloadWriter.abbreviationEnd(string, 2));
+        assertEquals(2, PayloadWriter.abbreviationEnd(string, 3));
+        assertEquals(2, PayloadWriter.abbreviationEnd(string, 8));
+        assertEquals(3, PayloadWriter.abbreviationEnd(string, 9));
+    }
+
+    @Test
+    public void testWriteValue() {
+        final PayloadWriter writer = new PayloadWriter(4);
+
+        writer.writeByte('[');
+        writer.writeValue(null);
+        writer.writeByte(',');
+        writer.writeValue("x\"");
+        writer.writeByte(',');
+        writer.writeValue(12L);
+        writer.writeByte(',');
+        writer.writeValue(Boolean.FALSE);
+        writer.writeByte(',');
+        writer.writeValue(new String[] { "a", "中" });
+        writer.writeByte(',');
+        writer.writeValue(1.5);
+        writer.writeByte(']');
+
+        assertEquals("[null,\"x\\\"\",12,false,[\"a\",\"中\"],1.5]", writer.toUtf8String());
+    }
+}
@@ -0,0 +1,114 @@
+package com.fansz.apns.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TokenUtilTest {
+
+    /** The regular-expression parser the table-driven one replaced */
+    private static byte[] parseWithPattern(final String tokenString) {
+        final String strippedTokenString = tokenString.replaceAll("[^0-9a-fA-F]", "");
+        final byte[] tokenBytes = new byte[strippedTokenString.length() / 2];
+
+        for (int i = 0; i < strippedTokenString.length(); i += 2) {
+            tokenBytes[i / 2] = (byte)(Integer.parseInt(strippedTokenString.substring(i, i + 2), 16));
+        }
+
+        return tokenBytes;
+    }
+
+    @Test
+    public void testHexDigitValue() {
+        assertEquals(0, TokenUtil.hexDigitValue('0'));
+        assertEquals(9, TokenUtil.hexDigitValue('9'));
+        assertEquals(10, TokenUtil.hexDigitValue('a'));
+        assertEquals(15, TokenUtil.hexDigitValue('F'));
+        assertEquals(-1, TokenUtil.hexDigitValue('g'));
+        assertEquals(-1, TokenUtil.hexDigitValue('<'));
+        assertEquals(-1, TokenUtil.hexDigitValue('٠'));
+        assertEquals(-1, TokenUtil.hexDigitValue('Ａ'));
+    }
+
+    @Test
+    public void testMixedCase() throws Exception {
+        assertArrayEquals(new byte[] { (byte)0xab, (byte)0xcd, (byte)0xef, 0x09 },
+                TokenUtil.tokenStringToByteArray("aBcD Ef09"));
+    }
+
+    @Test
+    public void testDescriptionFormat() throws Exception {
+        final String tokenString = "<740f4707 bebcf74f 9b7c25d4 8e335894 5f6aa01d a5ddb387 462c7eaf 61bb78ad>";
+
+        assertArrayEquals(parseWithPattern(tokenString), TokenUtil.tokenStringToByteArray(tokenString));
+        assertEquals("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad",
+                TokenUtil.tokenBytesToString(TokenUtil.tokenStringToByteArray(tokenString)));
+    }
+
+    @Test
+    public void testOddDigitCount() {
+        for (final String tokenString : new String[] { "a", "abc", "<12 345>" }) {
+            try {
+                TokenUtil.tokenStringToByteArray(tokenString);
+                fail("Expected an exception for " + tokenString);
+            } catch (final MalformedTokenStringException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testNoDigits() throws Exception {
+        assertArrayEquals(new byte[0], TokenUtil.tokenStringToByteArray("<  >"));
+        assertEquals("", TokenUtil.tokenBytesToString(new byte[0]));
+    }
+
+    @Test
+    public void testRoundTripMatchesPatternParser() throws Exception {
+        final Random random = new Random(7);
+
+        for (final int length : new int[] { 1, 8, 31, 32 }) {
+            final byte[] token = new byte[length];
+            random.nextBytes(token);
+
+            final String tokenString = TokenUtil.tokenBytesToString(token);
+
+            assertEquals(length * 2, tokenString.length());
+            assertEquals(tokenString.toLowerCase(), tokenString);
+            assertArrayEquals(token, TokenUtil.tokenStringToByteArray(tokenString));
+            assertArrayEquals(token, TokenUtil.tokenStringToByteArray(tokenString.toUpperCase()));
+            assertArrayEquals(parseWithPattern("<" + tokenString + ">"),
+                    TokenUtil.tokenStringToByteArray("<" + tokenString + ">"));
+        }
+    }
+
+    @Test
+    public void testAllByteValues() throws Exception {
+        final byte[] token = new byte[256];
+
+        for (int i = 0; i < token.length; i++) {
+            token[i] = (byte)i;
+        }
+
+        final String tokenString = TokenUtil.tokenBytesToString(token);
+
+        assertEquals("000102", tokenString.substring(0, 6));
+        assertEquals("7f80", tokenString.substring(254, 258));
+        assertEquals("feff", tokenString.substring(508));
+        assertArrayEquals(token, TokenUtil.tokenStringToByteArray(tokenString));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullTokenString() throws Exception {
+        TokenUtil.tokenStringToByteArray(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullTokenBytes() {
+        TokenUtil.tokenBytesToString(null);
+    }
+}
@@ -3,7 +3,12 @@ package com.fansz.http.server;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.FullHttpRequest;
@@ -16,6 +21,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * HTTP服务提供类
@@ -42,6 +49,12 @@ public final class NettyHttpService {
 
     private SimpleChannelInboundHandler<FullHttpRequest> httpRequestRouter;
 
+    private final TransportType transportType;
+
+    private final int acceptorThreads;//接收连接的线程数
+
+    private final boolean reusePort;
+
     /**
      * 初始化NettyHttpService
      *
@@ -51,13 +64,17 @@ public final class NettyHttpService {
      */
     private NettyHttpService(SimpleChannelInboundHandler<FullHttpRequest> httpRequestRouter,
                              InetSocketAddress bindAddress, int httpChunkLimit,
-                             int readTimeOut, int writeTimeOut, int rwTimeOut) {
+                             int readTimeOut, int writeTimeOut, int rwTimeOut,
+                             TransportType transportType, int acceptorThreads, boolean reusePort) {
         this.httpRequestRouter = httpRequestRouter;
         this.bindAddress = bindAddress;
         this.httpChunkLimit = httpChunkLimit;
         this.readTimeOut = readTimeOut;
         this.writeTimeOut = writeTimeOut;
         this.rwTimeOut = rwTimeOut;
+        this.transportType = transportType;
+        this.acceptorThreads = acceptorThreads;
+        this.reusePort = reusePort;
     }
 
 
@@ -67,13 +84,25 @@ public final class NettyHttpService {
 
     public void startUp() throws Exception {
         try {
-            LOG.info("Starting http service on address {}...", bindAddress);
-            bossGroup = new NioEventLoopGroup();
-            workerGroup = new NioEventLoopGroup();
+            final boolean useEpoll = useEpoll(transportType);
+            // 只有epoll支持SO_REUSEPORT，多个监听socket绑定同一端口，由内核在接收线程之间分配连接
+            final int listenerCount = useEpoll && reusePort ? acceptorThreads : 1;
+            if (reusePort && !useEpoll) {
+                LOG.warn("SO_REUSEPORT requires the epoll transport; accepting connections on a single thread");
+            }
+            LOG.info("Starting http service on address {} with {} transport...", bindAddress, useEpoll ? "epoll"
+                    : "nio");
+            bossGroup = useEpoll ? new EpollEventLoopGroup(listenerCount) : new NioEventLoopGroup(listenerCount);
+            workerGroup = useEpoll ? new EpollEventLoopGroup() : new NioEventLoopGroup();
+            Class<? extends ServerSocketChannel> channelClass = useEpoll ? EpollServerSocketChannel.class
+                    : NioServerSocketChannel.class;
             ServerBootstrap b = new ServerBootstrap();
+            if (listenerCount > 1) {
+                b.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
             // 默认的worker线程数为 2 * numberOfCpuCores
             final LoggingHandler logging = new LoggingHandler();
-            b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+            b.group(bossGroup, workerGroup).channel(channelClass)
                     .childHandler(new ChannelInitializer<SocketChannel>() {
 
                         @Override
@@ -95,9 +124,15 @@ public final class NettyHttpService {
                     .childOption(ChannelOption.SO_SNDBUF, 256 * 1024)
                     .childOption(ChannelOption.RCVBUF_ALLOCATOR, AdaptiveRecvByteBufAllocator.DEFAULT)
                     .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
-            ChannelFuture f = b.bind(bindAddress).sync();
+            // 每次bind注册到boss group中的下一个线程
+            List<Channel> channels = new ArrayList<Channel>(listenerCount);
+            for (int i = 0; i < listenerCount; i++) {
+                channels.add(b.bind(bindAddress).sync().channel());
+            }
             LOG.info("Http service is running on address {}", bindAddress);
-            f.channel().closeFuture().sync();
+            for (Channel channel : channels) {
+                channel.closeFuture().sync();
+            }
         } catch (Exception e) {
             LOG.error("error to start http server", e);
         } finally {
@@ -105,6 +140,19 @@ public final class NettyHttpService {
         }
     }
 
+    private static boolean useEpoll(TransportType transportType) {
+        if (transportType == TransportType.NIO) {
+            return false;
+        }
+        if (!Epoll.isAvailable()) {
+            if (transportType == TransportType.EPOLL) {
+                LOG.warn("Epoll transport is not available, falling back to nio", Epoll.unavailabilityCause());
+            }
+            return false;
+        }
+        return true;
+    }
+
     /**
      * @return Http服务绑定的地址
      */
@@ -151,6 +199,12 @@ public final class NettyHttpService {
 
         private SimpleChannelInboundHandler<FullHttpRequest> httpRequestRouter;
 
+        private TransportType transportType;
+
+        private int acceptorThreads;
+
+        private boolean reusePort;
+
         // 避免外部类通过new直接创建Builder对象
         private Builder() {
             port = DEFAULT_LISTEN_PORT;
@@ -158,6 +212,8 @@ public final class NettyHttpService {
             readTimeOut = READ_IDEL_TIME_OUT;
             writeTimeOut = WRITE_IDEL_TIME_OUT;
             rwTimeOut = IDEL_TIME_OUT;
+            transportType = TransportType.AUTO;
+            acceptorThreads = 1;
         }
 
 
@@ -217,6 +273,37 @@ public final class NettyHttpService {
             this.rwTimeOut = rwTimeOut;
         }
 
+        /**
+         * 设置使用的传输，默认为{@link TransportType#AUTO}，即epoll可用时使用epoll，否则使用NIO
+         */
+        public Builder setTransportType(TransportType transportType) {
+            if (transportType == null) {
+                throw new NullPointerException("transportType cann't be null!");
+            }
+            this.transportType = transportType;
+            return this;
+        }
+
+        /**
+         * 是否开启SO_REUSEPORT，开启后使用{@link #setAcceptorThreads(int)}个监听socket绑定同一端口，由多个线程并行接收连接；
+         * 只在epoll传输下生效，默认关闭
+         */
+        public Builder setReusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        /**
+         * 设置接收连接的线程数，默认为1；大于1时需要同时开启{@link #setReusePort(boolean)}
+         */
+        public Builder setAcceptorThreads(int acceptorThreads) {
+            if (acceptorThreads < 1) {
+                throw new IllegalArgumentException("acceptorThreads must be positive!");
+            }
+            this.acceptorThreads = acceptorThreads;
+            return this;
+        }
+
         /**
          * @return {@code NettyHttpService}实例
          */
@@ -231,7 +318,8 @@ public final class NettyHttpService {
                 bindAddress = new InetSocketAddress(host, port);
             }
 
-            return new NettyHttpService(httpRequestRouter, bindAddress, httpChunkLimit, readTimeOut, writeTimeOut, rwTimeOut);
+            return new NettyHttpService(httpRequestRouter, bindAddress, httpChunkLimit, readTimeOut, writeTimeOut, rwTimeOut,
+                    transportType, acceptorThreads, reusePort);
         }
     }
 }
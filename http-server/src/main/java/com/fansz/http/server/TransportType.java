@@ -0,0 +1,24 @@
+package com.fansz.http.server;
+
+/**
+ * HTTP服务使用的Netty传输实现
+ *
+ * @author yanyanming
+ */
+public enum TransportType {
+
+    /**
+     * epoll可用时使用epoll，否则使用NIO
+     */
+    AUTO,
+
+    /**
+     * 使用Linux原生的epoll传输，不可用时回退到NIO
+     */
+    EPOLL,
+
+    /**
+     * 使用JDK的NIO传输
+     */
+    NIO
+}